@@ -15,11 +15,32 @@
 plugins {
     `java-library`
     `java-test-fixtures`
+    alias(libs.plugins.jmh)
 }
 
 dependencies {
     api(libs.edc.spi.dataplane)
     api(libs.edc.spi.http)
     implementation(libs.edc.core.dataPlane.util)
-    implementation("com.sun.mail:javax.mail:1.6.2")
-}
\ No newline at end of file
+    implementation(libs.micrometer.core)
+
+    jmhImplementation(testFixtures(project(project.path)))
+}
+
+// ./gradlew :extensions:data-plane:data-plane-dicomweb:jmh -Pjmh.includes=MultipartRelatedReader
+jmh {
+    jmhVersion.set(libs.versions.jmh)
+    profilers.add("gc")
+    resultFormat.set("JSON")
+    providers.gradleProperty("jmh.includes").orNull?.let { includes.add(it) }
+}
+
+// ./gradlew :extensions:data-plane:data-plane-dicomweb:soak -Psoak.args="transfers=64 concurrency=8 destination.unavailableRate=0.05"
+tasks.register<JavaExec>("soak") {
+    group = "verification"
+    description = "Runs concurrent transfers between in-process DICOMweb test servers and reports throughput, latency and heap."
+    classpath = sourceSets["testFixtures"].runtimeClasspath
+    mainClass.set("org.eclipse.edc.connector.dataplane.dicomweb.fixtures.DicomWebLoadHarness")
+    maxHeapSize = "512m"
+    args(providers.gradleProperty("soak.args").getOrElse("").split(" ").filter { it.isNotBlank() })
+}
@@ -0,0 +1,75 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import org.eclipse.edc.connector.dataplane.dicomweb.dicom.DeidentificationProfile;
+import org.eclipse.edc.connector.dataplane.dicomweb.dicom.DeidentifyingInputStream;
+import org.eclipse.edc.connector.dataplane.dicomweb.fixtures.SyntheticCorpus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the instances of a study with and without {@link DeidentifyingInputStream}, isolating the cost of
+ * de-identification from the network.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx512m")
+public class DeidentificationBenchmark {
+
+    @Param
+    public SyntheticCorpus.Profile profile;
+
+    private List<SyntheticCorpus.Instance> instances;
+    private DeidentificationProfile deidentificationProfile;
+
+    @Setup
+    public void setUp() {
+        instances = SyntheticCorpus.of(profile, 1).instances();
+        deidentificationProfile = DeidentificationProfile.parse(DeidentificationProfile.BASIC, "", "benchmark".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public void read(TransferCounters counters) throws IOException {
+        for (var instance : instances) {
+            counters.consume(instance.openStream());
+        }
+    }
+
+    @Benchmark
+    public void deidentify(TransferCounters counters) throws IOException {
+        for (var instance : instances) {
+            counters.consume(new DeidentifyingInputStream(instance.openStream(), deidentificationProfile));
+        }
+    }
+}
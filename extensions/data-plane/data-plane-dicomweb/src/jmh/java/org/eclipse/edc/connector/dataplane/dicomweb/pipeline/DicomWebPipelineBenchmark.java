@@ -0,0 +1,194 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.eclipse.edc.connector.dataplane.dicomweb.checkpoint.FileCheckpointStore;
+import org.eclipse.edc.connector.dataplane.dicomweb.fixtures.DicomWebTestServer;
+import org.eclipse.edc.connector.dataplane.dicomweb.fixtures.SyntheticCorpus;
+import org.eclipse.edc.connector.dataplane.dicomweb.http.DicomWebHttpClient;
+import org.eclipse.edc.connector.dataplane.spi.pipeline.DataSource;
+import org.eclipse.edc.connector.dataplane.spi.pipeline.StreamResult;
+import org.eclipse.edc.spi.monitor.Monitor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Runs the DICOMweb source and sink against in-process {@link DicomWebTestServer}s over loopback HTTP, covering the
+ * client, the part stream of {@link DicomWebDataSource} and the STOW-RS upload of {@link DicomWebDataSink}. The sink is
+ * always driven through {@link DicomWebDataSink#transfer}, as the data plane drives it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx512m")
+public class DicomWebPipelineBenchmark {
+    private static final String USERNAME = "benchmark";
+    private static final String PASSWORD = "benchmark";
+
+    @Param
+    public SyntheticCorpus.Profile profile;
+
+    private final Monitor monitor = new Monitor() {
+    };
+    private SyntheticCorpus corpus;
+    private String study;
+    private long studyBytes;
+    private DicomWebTestServer archive;
+    private DicomWebTestServer destination;
+    private DicomWebHttpClient httpClient;
+    private DicomWebClient client;
+    private ExecutorService executor;
+    private RetrievalExecutor retrievalExecutor;
+    private Path directory;
+    private FileCheckpointStore checkpointStore;
+    private SpillBuffer.Settings spillSettings;
+
+    @Setup
+    public void setUp() throws IOException {
+        corpus = SyntheticCorpus.of(profile, 1);
+        study = corpus.studyInstanceUids().get(0);
+        studyBytes = corpus.totalBytes(study);
+        archive = DicomWebTestServer.start(corpus);
+        destination = DicomWebTestServer.start(new SyntheticCorpus());
+        httpClient = DicomWebHttpClient.Builder.newInstance().build();
+        client = new DicomWebClient(httpClient, new ObjectMapper(), monitor);
+        executor = Executors.newCachedThreadPool();
+        retrievalExecutor = new RetrievalExecutor(executor, 32);
+        directory = Files.createTempDirectory("dicomweb-benchmark");
+        checkpointStore = new FileCheckpointStore(directory.resolve("checkpoints"));
+        spillSettings = new SpillBuffer.Settings(directory.resolve("spill"), 1024 * 1024, 64 * 1024 * 1024);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        archive.close();
+        destination.close();
+        httpClient.close();
+        executor.shutdownNow();
+        try (var files = Files.walk(directory)) {
+            files.sorted((a, b) -> b.getNameCount() - a.getNameCount()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * Retrieves the study with WADO-RS and reads every part of the resulting part stream.
+     */
+    @Benchmark
+    public void sourcePartStream(TransferCounters counters) throws IOException {
+        var source = source(UUID.randomUUID().toString());
+        try (source; var parts = source.openPartStream().getContent()) {
+            var iterator = parts.iterator();
+            while (iterator.hasNext()) {
+                counters.consume(iterator.next().openStream());
+            }
+        }
+    }
+
+    /**
+     * Uploads the study with STOW-RS through {@link DicomWebDataSink#transfer}, reading the instances from memory
+     * rather than from an archive.
+     */
+    @Benchmark
+    public void sinkTransfer(TransferCounters counters) {
+        var requestId = UUID.randomUUID().toString();
+        var parts = corpus.parts(study);
+        var source = new DataSource() {
+            @Override
+            public StreamResult<Stream<Part>> openPartStream() {
+                return StreamResult.success(parts.stream());
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        var result = sink(requestId).transfer(source).join();
+        if (result.failed()) {
+            throw new IllegalStateException(result.getFailureDetail());
+        }
+        checkpointStore.clear(requestId);
+        counters.add(profile.instanceSizes().length, studyBytes);
+    }
+
+    /**
+     * Retrieves the study with WADO-RS and uploads it with STOW-RS, streaming the instances from one to the other.
+     */
+    @Benchmark
+    public void transferEndToEnd(TransferCounters counters) {
+        var requestId = UUID.randomUUID().toString();
+        var source = source(requestId);
+        try (source) {
+            var result = sink(requestId).transfer(source).join();
+            if (result.failed()) {
+                throw new IllegalStateException(result.getFailureDetail());
+            }
+        }
+        checkpointStore.clear(requestId);
+        counters.add(profile.instanceSizes().length, studyBytes);
+    }
+
+    private DicomWebDataSource source(String requestId) {
+        return DicomWebDataSource.Builder.newInstance()
+                .url(archive.studyUrl(study))
+                .username(USERNAME)
+                .password(PASSWORD)
+                .name(study)
+                .requestId(requestId)
+                .dicomWebClient(client)
+                .monitor(monitor)
+                .granularity(DicomWebDataSource.Granularity.STUDY)
+                .checkpointStore(checkpointStore)
+                .spillSettings(spillSettings)
+                .retrievalExecutor(retrievalExecutor)
+                .build();
+    }
+
+    private DicomWebDataSink sink(String requestId) {
+        return DicomWebDataSink.Builder.newInstance()
+                .url(destination.studiesUrl())
+                .username(USERNAME)
+                .password(PASSWORD)
+                .dicomWebClient(client)
+                .monitor(monitor)
+                .checkpointStore(checkpointStore)
+                .spillSettings(spillSettings)
+                .requestId(requestId)
+                .executorService(executor)
+                .build();
+    }
+}
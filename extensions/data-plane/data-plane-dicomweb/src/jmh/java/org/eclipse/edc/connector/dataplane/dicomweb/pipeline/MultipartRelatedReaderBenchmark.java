@@ -0,0 +1,66 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import org.eclipse.edc.connector.dataplane.dicomweb.fixtures.SyntheticCorpus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses a WADO-RS response held in no buffer, isolating {@link MultipartRelatedReader} from the network.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx512m")
+public class MultipartRelatedReaderBenchmark {
+    private static final String BOUNDARY = "b6f1d4c2-7a3e-4f0b-9c5d-2e8a1f6b3d90";
+
+    @Param
+    public SyntheticCorpus.Profile profile;
+
+    private List<SyntheticCorpus.Instance> instances;
+
+    @Setup
+    public void setUp() {
+        instances = SyntheticCorpus.of(profile, 1).instances();
+    }
+
+    @Benchmark
+    public void parse(TransferCounters counters) throws IOException {
+        try (var reader = new MultipartRelatedReader(SyntheticCorpus.multipart(instances, BOUNDARY), BOUNDARY)) {
+            MultipartRelatedReader.Part part;
+            while ((part = reader.nextPart()) != null) {
+                counters.consume(part.body());
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import okio.Okio;
+import org.eclipse.edc.connector.dataplane.dicomweb.fixtures.SyntheticCorpus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a STOW-RS request body to a sink that discards it, isolating {@link StowRequestBody} from the network.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx512m")
+public class StowRequestBodyBenchmark {
+    private static final String BOUNDARY = "b6f1d4c2-7a3e-4f0b-9c5d-2e8a1f6b3d90";
+
+    @Param
+    public SyntheticCorpus.Profile profile;
+
+    private SyntheticCorpus corpus;
+    private String study;
+    private long studyBytes;
+
+    @Setup
+    public void setUp() {
+        corpus = SyntheticCorpus.of(profile, 1);
+        study = corpus.studyInstanceUids().get(0);
+        studyBytes = corpus.totalBytes(study);
+    }
+
+    /**
+     * A body over parts of known size, sent with a content length.
+     */
+    @Benchmark
+    public void writeKnownLength(TransferCounters counters) throws IOException {
+        write(StowRequestBody.of(corpus.parts(study), BOUNDARY), counters);
+    }
+
+    /**
+     * A body pulling its parts while it is written, sent with chunked transfer encoding.
+     */
+    @Benchmark
+    public void writeChunked(TransferCounters counters) throws IOException {
+        write(StowRequestBody.of(corpus.parts(study).iterator(), BOUNDARY), counters);
+    }
+
+    private void write(StowRequestBody body, TransferCounters counters) throws IOException {
+        try (var sink = Okio.buffer(Okio.blackhole())) {
+            body.writeTo(sink);
+        }
+        counters.add(profile.instanceSizes().length, studyBytes);
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes and instances a benchmark moves, reported by JMH as rates next to the operations per second.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class TransferCounters {
+    public long bytes;
+    public long instances;
+
+    private final byte[] buffer = new byte[64 * 1024];
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        bytes = 0;
+        instances = 0;
+    }
+
+    /**
+     * Reads an instance to the end, counting it and its bytes.
+     */
+    void consume(InputStream content) throws IOException {
+        try (content) {
+            int read;
+            while ((read = content.read(buffer)) >= 0) {
+                bytes += read;
+            }
+        }
+        instances++;
+    }
+
+    void add(long instanceCount, long byteCount) {
+        instances += instanceCount;
+        bytes += byteCount;
+    }
+}
@@ -14,19 +14,33 @@
 
 package org.eclipse.edc.connector.dataplane.dicomweb;
 
+import org.eclipse.edc.connector.dataplane.dicomweb.cache.DicomInstanceCache;
+import org.eclipse.edc.connector.dataplane.dicomweb.checkpoint.DicomWebCheckpointStore;
+import org.eclipse.edc.connector.dataplane.dicomweb.checkpoint.DicomWebSyncCursorStore;
+import org.eclipse.edc.connector.dataplane.dicomweb.http.DicomWebHttpClient;
+import org.eclipse.edc.connector.dataplane.dicomweb.metrics.DicomWebMetrics;
+import org.eclipse.edc.connector.dataplane.dicomweb.pipeline.BatchScheduler;
 import org.eclipse.edc.connector.dataplane.dicomweb.pipeline.DicomWebClient;
 import org.eclipse.edc.connector.dataplane.dicomweb.pipeline.DicomWebDataSinkFactory;
 import org.eclipse.edc.connector.dataplane.dicomweb.pipeline.DicomWebDataSourceFactory;
+import org.eclipse.edc.connector.dataplane.dicomweb.pipeline.MemoryBudget;
+import org.eclipse.edc.connector.dataplane.dicomweb.pipeline.RetrievalExecutor;
+import org.eclipse.edc.connector.dataplane.dicomweb.pipeline.SpillBuffer;
 import org.eclipse.edc.connector.dataplane.spi.pipeline.DataTransferExecutorServiceContainer;
 import org.eclipse.edc.connector.dataplane.spi.pipeline.PipelineService;
-import org.eclipse.edc.http.spi.EdcHttpClient;
 import org.eclipse.edc.runtime.metamodel.annotation.Extension;
 import org.eclipse.edc.runtime.metamodel.annotation.Inject;
+import org.eclipse.edc.runtime.metamodel.annotation.Setting;
 import org.eclipse.edc.spi.security.Vault;
+import org.eclipse.edc.spi.system.ExecutorInstrumentation;
 import org.eclipse.edc.spi.system.ServiceExtension;
 import org.eclipse.edc.spi.system.ServiceExtensionContext;
 import org.eclipse.edc.spi.types.TypeManager;
 
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+
 /**
  * Provides support for reading data from a DICOM server and sending data to a PACS system using DICOMweb.
  */
@@ -34,8 +48,84 @@ import org.eclipse.edc.spi.types.TypeManager;
 public class DataPlaneDicomWebExtension implements ServiceExtension {
     public static final String NAME = "Data Plane DicomWeb";
 
-    @Inject
-    private EdcHttpClient httpClient;
+    @Setting(value = "Threads that run the concurrent WADO-RS retrievals of all DICOMweb sources, sources start fewer retrievals when all are busy",
+            defaultValue = "32", type = "int")
+    public static final String RETRIEVAL_THREADS = "edc.dataplane.dicomweb.retrieval.threads";
+
+    @Setting(value = "Directory for spill files of DICOM instances that do not fit in memory",
+            defaultValue = "<java.io.tmpdir>/edc-dicomweb-spill")
+    public static final String SPILL_DIRECTORY = "edc.dataplane.dicomweb.spill.directory";
+
+    @Setting(value = "Size in bytes up to which a buffered DICOM instance is kept in memory", defaultValue = "1048576", type = "long")
+    public static final String SPILL_MEMORY_THRESHOLD = "edc.dataplane.dicomweb.spill.memory.threshold";
+
+    @Setting(value = "Bytes a single transfer may keep in memory before buffered instances are spilled to disk", defaultValue = "67108864", type = "long")
+    public static final String SPILL_MEMORY_BUDGET = "edc.dataplane.dicomweb.spill.memory.budget";
+
+    @Setting(value = "Bytes of heap all DICOMweb transfers may use together, 0 for half of the maximum heap", defaultValue = "0", type = "long")
+    public static final String MEMORY_BUDGET = "edc.dataplane.dicomweb.memory.budget";
+
+    @Setting(value = "Bytes of the memory budget reserved for the requests and parts in flight of every admitted transfer", defaultValue = "16777216",
+            type = "long")
+    public static final String MEMORY_TRANSFER_RESERVATION = "edc.dataplane.dicomweb.memory.transfer.reservation";
+
+    @Setting(value = "Seconds a transfer with a DICOMweb destination queues for admission to the memory budget before it fails", defaultValue = "600", type = "long")
+    public static final String MEMORY_ADMISSION_TIMEOUT = "edc.dataplane.dicomweb.memory.admission.timeout.seconds";
+
+    @Setting(value = "Threads that send the STOW-RS batches of all DICOMweb transfers, in the order of their priority", defaultValue = "16", type = "int")
+    public static final String SCHEDULER_THREADS = "edc.dataplane.dicomweb.scheduler.threads";
+
+    @Setting(value = "Seconds after which a waiting STOW-RS batch is moved up one priority class, 0 disables aging", defaultValue = "30", type = "long")
+    public static final String SCHEDULER_AGING = "edc.dataplane.dicomweb.scheduler.aging.seconds";
+
+    @Setting(value = "Directory of the cache of retrieved DICOM instances", defaultValue = "<java.io.tmpdir>/edc-dicomweb-cache")
+    public static final String CACHE_DIRECTORY = "edc.dataplane.dicomweb.cache.directory";
+
+    @Setting(value = "Maximum size in bytes of the cache of retrieved DICOM instances, 0 disables the cache", defaultValue = "0", type = "long")
+    public static final String CACHE_MAX_BYTES = "edc.dataplane.dicomweb.cache.max.bytes";
+
+    @Setting(value = "Maximum number of idle connections kept in the pool of the DICOMweb HTTP client", defaultValue = "32", type = "int")
+    public static final String HTTP_POOL_MAX_IDLE = "edc.dataplane.dicomweb.http.pool.max.idle";
+
+    @Setting(value = "Seconds an idle connection of the DICOMweb HTTP client is kept alive", defaultValue = "300", type = "long")
+    public static final String HTTP_POOL_KEEP_ALIVE = "edc.dataplane.dicomweb.http.pool.keepalive.seconds";
+
+    @Setting(value = "HTTP version of the DICOMweb HTTP client: http2 negotiates HTTP/2 over TLS with HTTP/1.1 as fallback, " +
+            "http1 uses HTTP/1.1 only, h2c uses HTTP/2 over cleartext connections", defaultValue = "http2")
+    public static final String HTTP_PROTOCOL = "edc.dataplane.dicomweb.http.protocol";
+
+    @Setting(value = "Size in bytes of the socket send buffer of the DICOMweb HTTP client, 0 for the OS default", defaultValue = "0", type = "int")
+    public static final String HTTP_SOCKET_SEND_BUFFER = "edc.dataplane.dicomweb.http.socket.send.buffer";
+
+    @Setting(value = "Size in bytes of the socket receive buffer of the DICOMweb HTTP client, 0 for the OS default", defaultValue = "0", type = "int")
+    public static final String HTTP_SOCKET_RECEIVE_BUFFER = "edc.dataplane.dicomweb.http.socket.receive.buffer";
+
+    @Setting(value = "Upper bound of the requests in flight to one DICOMweb service (WADO-RS, STOW-RS or QIDO-RS) of a server, shared by all transfers",
+            defaultValue = "16", type = "int")
+    public static final String HTTP_MAX_REQUESTS_PER_HOST = "edc.dataplane.dicomweb.http.host.max.requests";
+
+    @Setting(value = "Requests in flight to a DICOMweb service allowed before its latency has been observed", defaultValue = "4", type = "int")
+    public static final String HTTP_INITIAL_REQUESTS_PER_HOST = "edc.dataplane.dicomweb.http.host.initial.requests";
+
+    @Setting(value = "Whether the limit of requests in flight adapts to the latency and throttling responses of each DICOMweb server",
+            defaultValue = "true", type = "boolean")
+    public static final String HTTP_ADAPTIVE_CONCURRENCY = "edc.dataplane.dicomweb.http.host.adaptive";
+
+    @Setting(value = "Factor by which the limit of requests in flight to an overloaded DICOMweb server is lowered", defaultValue = "0.5", type = "double")
+    public static final String HTTP_BACKOFF_RATIO = "edc.dataplane.dicomweb.http.host.backoff.ratio";
+
+    @Setting(value = "Factor by which the 95th percentile latency of a DICOMweb server may exceed its baseline before the limit of requests in flight is lowered",
+            defaultValue = "2.0", type = "double")
+    public static final String HTTP_LATENCY_TOLERANCE = "edc.dataplane.dicomweb.http.host.latency.tolerance";
+
+    @Setting(value = "Seconds to wait for a connection to a DICOMweb server", defaultValue = "30", type = "long")
+    public static final String HTTP_CONNECT_TIMEOUT = "edc.dataplane.dicomweb.http.timeout.connect.seconds";
+
+    @Setting(value = "Seconds to wait for data from a DICOMweb server, or for a free request slot to it", defaultValue = "300", type = "long")
+    public static final String HTTP_READ_TIMEOUT = "edc.dataplane.dicomweb.http.timeout.read.seconds";
+
+    @Setting(value = "Seconds to wait for a DICOMweb server to accept data", defaultValue = "300", type = "long")
+    public static final String HTTP_WRITE_TIMEOUT = "edc.dataplane.dicomweb.http.timeout.write.seconds";
 
     @Inject
     private PipelineService pipelineService;
@@ -49,22 +139,105 @@ public class DataPlaneDicomWebExtension implements ServiceExtension {
     @Inject
     private TypeManager typeManager;
 
+    @Inject
+    private DicomWebCheckpointStore checkpointStore;
+
+    @Inject
+    private DicomWebSyncCursorStore syncCursorStore;
+
+    @Inject
+    private DicomWebMetrics metrics;
+
+    @Inject
+    private ExecutorInstrumentation executorInstrumentation;
+
     @Override
     public String name() {
         return NAME;
     }
 
+    private RetrievalExecutor retrievalExecutor;
+    private DicomWebHttpClient httpClient;
+    private BatchScheduler batchScheduler;
+
     @Override
     public void initialize(ServiceExtensionContext context) {
         var monitor = context.getMonitor();
 
-        var dicomWebClient = new DicomWebClient(httpClient, monitor);
-        var sourceFactory = new DicomWebDataSourceFactory(dicomWebClient, monitor, vault);
+        httpClient = createHttpClient(context);
+        var dicomWebClient = new DicomWebClient(httpClient, typeManager.getMapper(), monitor, metrics);
+        var spillSettings = new SpillBuffer.Settings(
+                Path.of(context.getSetting(SPILL_DIRECTORY, Path.of(System.getProperty("java.io.tmpdir"), "edc-dicomweb-spill").toString())),
+                context.getSetting(SPILL_MEMORY_THRESHOLD, 1024L * 1024),
+                context.getSetting(SPILL_MEMORY_BUDGET, 64L * 1024 * 1024));
+        var memoryBudget = createMemoryBudget(context);
+        retrievalExecutor = new RetrievalExecutor(executorInstrumentation.instrument(Executors.newCachedThreadPool(), "dicomweb-retrieval"),
+                context.getSetting(RETRIEVAL_THREADS, 32));
+        var sourceFactory = new DicomWebDataSourceFactory(dicomWebClient, monitor, vault, retrievalExecutor, checkpointStore, spillSettings,
+                createInstanceCache(context), syncCursorStore, metrics, memoryBudget);
         pipelineService.registerFactory(sourceFactory);
 
-        var sinkFactory = new DicomWebDataSinkFactory(dicomWebClient, monitor, vault, executorContainer.getExecutorService());
+        batchScheduler = new BatchScheduler(context.getSetting(SCHEDULER_THREADS, 16),
+                Duration.ofSeconds(context.getSetting(SCHEDULER_AGING, 30L)), metrics);
+        var sinkFactory = new DicomWebDataSinkFactory(dicomWebClient, monitor, vault, executorContainer.getExecutorService(), checkpointStore, spillSettings,
+                metrics, memoryBudget, batchScheduler, typeManager.getMapper());
         pipelineService.registerFactory(sinkFactory);
 
     }
 
+    private MemoryBudget createMemoryBudget(ServiceExtensionContext context) {
+        var capacity = context.getSetting(MEMORY_BUDGET, 0L);
+        if (capacity <= 0) {
+            capacity = Runtime.getRuntime().maxMemory() / 2;
+        }
+        var budget = new MemoryBudget(capacity, context.getSetting(MEMORY_TRANSFER_RESERVATION, 16L * 1024 * 1024),
+                Duration.ofSeconds(context.getSetting(MEMORY_ADMISSION_TIMEOUT, 600L)), metrics);
+        context.getMonitor().debug("DICOMweb transfers share a memory budget of %d bytes".formatted(capacity));
+        return budget;
+    }
+
+    private DicomWebHttpClient createHttpClient(ServiceExtensionContext context) {
+        return DicomWebHttpClient.Builder.newInstance()
+                .maxIdleConnections(context.getSetting(HTTP_POOL_MAX_IDLE, 32))
+                .keepAlive(Duration.ofSeconds(context.getSetting(HTTP_POOL_KEEP_ALIVE, 300L)))
+                .protocol(DicomWebHttpClient.HttpProtocol.parse(context.getSetting(HTTP_PROTOCOL, "http2")))
+                .sendBufferSize(context.getSetting(HTTP_SOCKET_SEND_BUFFER, 0))
+                .receiveBufferSize(context.getSetting(HTTP_SOCKET_RECEIVE_BUFFER, 0))
+                .maxRequestsPerHost(context.getSetting(HTTP_MAX_REQUESTS_PER_HOST, 16))
+                .initialRequestsPerHost(context.getSetting(HTTP_INITIAL_REQUESTS_PER_HOST, 4))
+                .adaptiveConcurrency(context.getSetting(HTTP_ADAPTIVE_CONCURRENCY, true))
+                .backoffRatio(Double.parseDouble(context.getSetting(HTTP_BACKOFF_RATIO, "0.5")))
+                .latencyTolerance(Double.parseDouble(context.getSetting(HTTP_LATENCY_TOLERANCE, "2.0")))
+                .metrics(metrics)
+                .monitor(context.getMonitor())
+                .connectTimeout(Duration.ofSeconds(context.getSetting(HTTP_CONNECT_TIMEOUT, 30L)))
+                .readTimeout(Duration.ofSeconds(context.getSetting(HTTP_READ_TIMEOUT, 300L)))
+                .writeTimeout(Duration.ofSeconds(context.getSetting(HTTP_WRITE_TIMEOUT, 300L)))
+                .build();
+    }
+
+    private DicomInstanceCache createInstanceCache(ServiceExtensionContext context) {
+        var maxBytes = context.getSetting(CACHE_MAX_BYTES, 0L);
+        if (maxBytes <= 0) {
+            return null;
+        }
+        var directory = Path.of(context.getSetting(CACHE_DIRECTORY, Path.of(System.getProperty("java.io.tmpdir"), "edc-dicomweb-cache").toString()));
+        var cache = new DicomInstanceCache(directory, maxBytes, context.getMonitor());
+        cache.initialize();
+        return cache;
+    }
+
+    @Override
+    public void shutdown() {
+        if (retrievalExecutor != null) {
+            retrievalExecutor.shutdown();
+        }
+        if (batchScheduler != null) {
+            batchScheduler.close();
+        }
+        if (httpClient != null) {
+            httpClient.close();
+        }
+    }
+
 }
@@ -0,0 +1,83 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb;
+
+import io.micrometer.core.instrument.Metrics;
+import org.eclipse.edc.connector.dataplane.dicomweb.checkpoint.DicomWebCheckpointStore;
+import org.eclipse.edc.connector.dataplane.dicomweb.checkpoint.DicomWebSyncCursorStore;
+import org.eclipse.edc.connector.dataplane.dicomweb.checkpoint.FileCheckpointStore;
+import org.eclipse.edc.connector.dataplane.dicomweb.checkpoint.FileSyncCursorStore;
+import org.eclipse.edc.connector.dataplane.dicomweb.metrics.DicomWebMetrics;
+import org.eclipse.edc.connector.dataplane.dicomweb.metrics.MicrometerDicomWebMetrics;
+import org.eclipse.edc.runtime.metamodel.annotation.Extension;
+import org.eclipse.edc.runtime.metamodel.annotation.Provider;
+import org.eclipse.edc.runtime.metamodel.annotation.Setting;
+import org.eclipse.edc.spi.system.ServiceExtension;
+import org.eclipse.edc.spi.system.ServiceExtensionContext;
+
+import java.nio.file.Path;
+
+/**
+ * Provides default implementations of the services used by the DICOMweb data plane, which other extensions can
+ * replace.
+ */
+@Extension(value = DicomWebDefaultServicesExtension.NAME)
+public class DicomWebDefaultServicesExtension implements ServiceExtension {
+    public static final String NAME = "Data Plane DicomWeb Default Services";
+    private static final String DEFAULT_CHECKPOINT_DIRECTORY = "edc-dicomweb-checkpoints";
+
+    @Setting(value = "Directory in which the file based checkpoint and cursor stores keep the progress of DICOMweb transfers, which should survive " +
+            "restarts of the data plane", defaultValue = "<working directory>/" + DEFAULT_CHECKPOINT_DIRECTORY)
+    public static final String CHECKPOINT_DIRECTORY = "edc.dataplane.dicomweb.checkpoint.directory";
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Provider(isDefault = true)
+    public DicomWebCheckpointStore checkpointStore(ServiceExtensionContext context) {
+        return new FileCheckpointStore(checkpointDirectory(context));
+    }
+
+    @Provider(isDefault = true)
+    public DicomWebSyncCursorStore syncCursorStore(ServiceExtensionContext context) {
+        return new FileSyncCursorStore(checkpointDirectory(context));
+    }
+
+    /**
+     * Publishes DICOMweb metrics to the global Micrometer registry, to which monitoring backends such as Prometheus or
+     * the OpenTelemetry agent can be attached.
+     */
+    @Provider(isDefault = true)
+    public DicomWebMetrics metrics() {
+        return new MicrometerDicomWebMetrics(Metrics.globalRegistry);
+    }
+
+    /**
+     * Returns the directory of the file based stores. It defaults to the working directory of the runtime rather than
+     * a temporary directory, which may be cleared when the host restarts and would make restarted transfers send
+     * everything again and syncs start over.
+     */
+    private Path checkpointDirectory(ServiceExtensionContext context) {
+        var directory = context.getSetting(CHECKPOINT_DIRECTORY, null);
+        if (directory == null || directory.isBlank()) {
+            var defaultDirectory = Path.of(DEFAULT_CHECKPOINT_DIRECTORY).toAbsolutePath();
+            context.getMonitor().info("%s is not set, keeping the progress of DICOMweb transfers in %s".formatted(CHECKPOINT_DIRECTORY, defaultDirectory));
+            return defaultDirectory;
+        }
+        return Path.of(directory);
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.cache;
+
+import org.eclipse.edc.connector.dataplane.dicomweb.dicom.TransferSyntaxes;
+import org.eclipse.edc.spi.monitor.Monitor;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * An on-disk cache of DICOM instances retrieved from the source archive, bounded in size with least recently used
+ * eviction.
+ * <p>
+ * Instances are stored as {@code <study>/<series>/<instance>/<transfer syntax>.dcm} below the cache directory, so the
+ * in-memory index can be rebuilt by scanning the directory. The last modified time of a file is its last access, which
+ * keeps the eviction order across restarts. Instances are written to the cache while they are streamed to the
+ * consumer and only become visible once they have been read completely.
+ */
+public class DicomInstanceCache {
+    private static final Pattern UID = Pattern.compile("[0-9]+(\\.[0-9]+)*");
+    private static final String FILE_SUFFIX = ".dcm";
+    private static final String PARTIAL_SUFFIX = ".partial";
+
+    private final Path directory;
+    private final long maxBytes;
+    private final Monitor monitor;
+    // access ordered, the eldest entry is evicted first
+    private final LinkedHashMap<Key, CachedInstance> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Map<String, CachedInstance>> bySopInstanceUid = new HashMap<>();
+    private long totalBytes;
+
+    public DicomInstanceCache(Path directory, long maxBytes, Monitor monitor) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.monitor = monitor;
+    }
+
+    /**
+     * Rebuilds the index from the cache directory and removes leftovers of interrupted writes.
+     */
+    public synchronized void initialize() {
+        entries.clear();
+        bySopInstanceUid.clear();
+        totalBytes = 0;
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        var found = new ArrayList<ScannedFile>();
+        try (var files = Files.walk(directory, 4)) {
+            files.filter(Files::isRegularFile).forEach(file -> {
+                try {
+                    if (file.getFileName().toString().endsWith(PARTIAL_SUFFIX)) {
+                        Files.deleteIfExists(file);
+                        return;
+                    }
+                    var key = keyOf(file);
+                    if (key != null) {
+                        var attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                        found.add(new ScannedFile(key, file, attributes.size(), attributes.lastModifiedTime()));
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (IOException | UncheckedIOException e) {
+            monitor.warning("Failed to scan DICOM instance cache " + directory, e);
+        }
+        found.stream()
+                .sorted(Comparator.comparing(ScannedFile::lastAccess))
+                .forEach(scanned -> add(new CachedInstance(scanned.key(), scanned.file(), scanned.size())));
+        evict();
+        monitor.info("DICOM instance cache %s holds %d instances with %d bytes".formatted(directory, entries.size(), totalBytes));
+    }
+
+    /**
+     * Looks up an instance in the first of the acceptable transfer syntaxes that is cached, where
+     * {@link TransferSyntaxes#ANY} accepts any transfer syntax. A hit counts as an access.
+     */
+    public synchronized @Nullable CachedInstance lookup(String sopInstanceUid, List<String> acceptableTransferSyntaxes) {
+        var cached = bySopInstanceUid.get(sopInstanceUid);
+        if (cached == null) {
+            return null;
+        }
+        for (var transferSyntax : acceptableTransferSyntaxes) {
+            var instance = TransferSyntaxes.ANY.equals(transferSyntax)
+                    ? cached.values().stream().findFirst().orElse(null)
+                    : cached.get(transferSyntax);
+            if (instance != null) {
+                entries.get(instance.key());
+                touch(instance.file());
+                return instance;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Wraps the content of an instance so that it is written to the cache while it is read. The instance is added once
+     * the content has been read to the end, and discarded if the stream is closed before.
+     */
+    public InputStream caching(Key key, InputStream content) {
+        if (!key.isValid()) {
+            return content;
+        }
+        try {
+            var file = fileOf(key);
+            Files.createDirectories(file.getParent());
+            var partial = Files.createTempFile(file.getParent(), key.sopInstanceUid(), PARTIAL_SUFFIX);
+            return new CachingInputStream(content, key, partial, Files.newOutputStream(partial));
+        } catch (IOException e) {
+            monitor.warning("Failed to cache DICOM instance " + key.sopInstanceUid(), e);
+            return content;
+        }
+    }
+
+    /**
+     * Returns the number of bytes currently cached.
+     */
+    public synchronized long totalBytes() {
+        return totalBytes;
+    }
+
+    private synchronized void commit(Key key, Path partial, long size) throws IOException {
+        var file = fileOf(key);
+        Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        remove(key);
+        add(new CachedInstance(key, file, size));
+        evict();
+    }
+
+    private void add(CachedInstance instance) {
+        entries.put(instance.key(), instance);
+        bySopInstanceUid.computeIfAbsent(instance.key().sopInstanceUid(), uid -> new LinkedHashMap<>())
+                .put(instance.key().transferSyntaxUid(), instance);
+        totalBytes += instance.size();
+    }
+
+    private void remove(Key key) {
+        var instance = entries.remove(key);
+        if (instance == null) {
+            return;
+        }
+        totalBytes -= instance.size();
+        var byTransferSyntax = bySopInstanceUid.get(key.sopInstanceUid());
+        if (byTransferSyntax != null) {
+            byTransferSyntax.remove(key.transferSyntaxUid());
+            if (byTransferSyntax.isEmpty()) {
+                bySopInstanceUid.remove(key.sopInstanceUid());
+            }
+        }
+    }
+
+    private void evict() {
+        while (totalBytes > maxBytes && !entries.isEmpty()) {
+            var eldest = entries.values().iterator().next();
+            remove(eldest.key());
+            try {
+                // readers that opened the file before keep reading it
+                Files.deleteIfExists(eldest.file());
+            } catch (IOException e) {
+                monitor.warning("Failed to evict cached DICOM instance " + eldest.file(), e);
+            }
+        }
+    }
+
+    private void touch(Path file) {
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // the access is still recorded in memory
+        }
+    }
+
+    private Path fileOf(Key key) {
+        return directory.resolve(key.studyInstanceUid())
+                .resolve(key.seriesInstanceUid())
+                .resolve(key.sopInstanceUid())
+                .resolve(key.transferSyntaxUid() + FILE_SUFFIX);
+    }
+
+    private @Nullable Key keyOf(Path file) {
+        var relative = directory.relativize(file);
+        var name = relative.getFileName().toString();
+        if (relative.getNameCount() != 4 || !name.endsWith(FILE_SUFFIX)) {
+            return null;
+        }
+        var key = new Key(relative.getName(0).toString(), relative.getName(1).toString(), relative.getName(2).toString(),
+                name.substring(0, name.length() - FILE_SUFFIX.length()));
+        return key.isValid() ? key : null;
+    }
+
+    /**
+     * Identifies a cached instance.
+     */
+    public record Key(String studyInstanceUid, String seriesInstanceUid, String sopInstanceUid, String transferSyntaxUid) {
+
+        /**
+         * Returns true if all parts of the key are UIDs, which also makes them safe to use as file names.
+         */
+        boolean isValid() {
+            return isUid(studyInstanceUid) && isUid(seriesInstanceUid) && isUid(sopInstanceUid) && isUid(transferSyntaxUid);
+        }
+
+        private static boolean isUid(@Nullable String value) {
+            return value != null && value.length() <= 64 && UID.matcher(value).matches();
+        }
+    }
+
+    /**
+     * An instance in the cache.
+     */
+    public record CachedInstance(Key key, Path file, long size) {
+
+        /**
+         * Opens the cached content. Fails if the instance has been evicted in the meantime.
+         */
+        public InputStream openStream() throws IOException {
+            return Files.newInputStream(file);
+        }
+    }
+
+    private record ScannedFile(Key key, Path file, long size, FileTime lastAccess) {
+    }
+
+    private class CachingInputStream extends FilterInputStream {
+        private final Key key;
+        private final Path partial;
+        private final OutputStream out;
+        private long size;
+        private boolean done;
+
+        CachingInputStream(InputStream in, Key key, Path partial, OutputStream out) {
+            super(in);
+            this.key = key;
+            this.partial = partial;
+            this.out = out;
+        }
+
+        @Override
+        public int read() throws IOException {
+            var b = super.read();
+            if (b >= 0) {
+                write(new byte[]{ (byte) b }, 0, 1);
+            } else {
+                complete();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            var read = super.read(b, off, len);
+            if (read > 0) {
+                write(b, off, read);
+            } else if (read < 0) {
+                complete();
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // skipped bytes would be missing from the cached copy
+            if (n <= 0) {
+                return 0;
+            }
+            return Math.max(0, read(new byte[(int) Math.min(n, 8192)]));
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (!done) {
+                    done = true;
+                    discard();
+                }
+            }
+        }
+
+        private void write(byte[] b, int off, int len) {
+            if (done) {
+                return;
+            }
+            try {
+                out.write(b, off, len);
+                size += len;
+            } catch (IOException e) {
+                // caching is best effort, the consumer keeps reading the instance
+                monitor.warning("Failed to cache DICOM instance " + key.sopInstanceUid(), e);
+                done = true;
+                discard();
+            }
+        }
+
+        private void complete() {
+            if (done) {
+                return;
+            }
+            done = true;
+            try {
+                out.close();
+                commit(key, partial, size);
+            } catch (IOException e) {
+                monitor.warning("Failed to cache DICOM instance " + key.sopInstanceUid(), e);
+                discard();
+            }
+        }
+
+        private void discard() {
+            try {
+                out.close();
+                Files.deleteIfExists(partial);
+            } catch (IOException e) {
+                // do nothing
+            }
+        }
+    }
+}
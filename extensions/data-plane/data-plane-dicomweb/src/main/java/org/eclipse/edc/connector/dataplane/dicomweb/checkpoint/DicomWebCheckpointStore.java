@@ -0,0 +1,54 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.checkpoint;
+
+import org.eclipse.edc.runtime.metamodel.annotation.ExtensionPoint;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Records which DICOM instances of a transfer have been stored at the destination, so that a restarted transfer can
+ * skip them.
+ * <p>
+ * Entries are keyed by the id of the transfer request and the SOP Instance UID. Implementations must be safe for
+ * concurrent use, as the batches of a transfer are acknowledged from several threads.
+ */
+@ExtensionPoint
+public interface DicomWebCheckpointStore {
+
+    /**
+     * Returns the SOP Instance UIDs recorded for the transfer, or an empty set if there are none.
+     */
+    Set<String> completedInstances(String requestId);
+
+    /**
+     * Records instances as stored at the destination. Once this method returns, the entries must survive a restart.
+     */
+    void markCompleted(String requestId, Collection<String> sopInstanceUids);
+
+    /**
+     * Removes all entries of the transfer, typically once it has finished.
+     */
+    void clear(String requestId);
+
+    /**
+     * Drops what the store holds in memory for the transfer once it has ended, whatever the outcome. The entries are
+     * kept, so that the transfer can still skip them when it is restarted. Only the component recording the
+     * instances of a transfer releases it, as others reading its entries may end before it.
+     */
+    default void release(String requestId) {
+    }
+}
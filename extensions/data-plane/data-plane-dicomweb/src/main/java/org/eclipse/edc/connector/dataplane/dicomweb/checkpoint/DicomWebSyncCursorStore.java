@@ -0,0 +1,37 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.checkpoint;
+
+import org.eclipse.edc.runtime.metamodel.annotation.ExtensionPoint;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Persists the cursor of continuous syncs, so that a restarted sync continues where it stopped instead of querying
+ * the archive from the start.
+ */
+@ExtensionPoint
+public interface DicomWebSyncCursorStore {
+
+    /**
+     * Returns the cursor of the sync, or null if it has not synced anything yet.
+     */
+    @Nullable
+    SyncCursor load(String syncId);
+
+    /**
+     * Replaces the cursor of the sync. Once this method returns, the cursor must survive a restart.
+     */
+    void save(String syncId, SyncCursor cursor);
+}
@@ -0,0 +1,134 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.checkpoint;
+
+import org.eclipse.edc.spi.persistence.EdcPersistenceException;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Default {@link DicomWebCheckpointStore} that keeps one append-only file per transfer in a local directory.
+ * <p>
+ * Each line of a file is a SOP Instance UID. Appends are forced to disk before {@link #markCompleted} returns. A line
+ * torn by a crash never matches a UID, so the instance is simply sent again.
+ * <p>
+ * The entries of a transfer are held in memory from its first write until the transfer has ended, and read from its
+ * file again if it is restarted. Reading the entries of a transfer that is not held does not load it, so only the
+ * component writing a ledger needs to release it. All access to a ledger and its file is serialized per transfer, so
+ * that a write racing with {@link #clear} cannot recreate the file after it has been deleted.
+ */
+public class FileCheckpointStore implements DicomWebCheckpointStore {
+    private static final String FILE_SUFFIX = ".checkpoint";
+
+    private final Path directory;
+    private final Map<String, Set<String>> ledgers = new ConcurrentHashMap<>();
+
+    public FileCheckpointStore(Path directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public Set<String> completedInstances(String requestId) {
+        var completed = new AtomicReference<Set<String>>();
+        ledgers.compute(requestId, (id, ledger) -> {
+            completed.set(Set.copyOf(ledger != null ? ledger : load(id)));
+            return ledger;
+        });
+        return completed.get();
+    }
+
+    @Override
+    public void markCompleted(String requestId, Collection<String> sopInstanceUids) {
+        if (sopInstanceUids.isEmpty()) {
+            return;
+        }
+        ledgers.compute(requestId, (id, ledger) -> {
+            var entries = ledger != null ? ledger : load(id);
+            var lines = new StringBuilder();
+            sopInstanceUids.stream().filter(entries::add).forEach(uid -> lines.append(uid).append('\n'));
+            if (!lines.isEmpty()) {
+                append(id, lines.toString());
+            }
+            return entries;
+        });
+    }
+
+    @Override
+    public void clear(String requestId) {
+        ledgers.compute(requestId, (id, ledger) -> {
+            try {
+                Files.deleteIfExists(file(id));
+            } catch (IOException e) {
+                throw new EdcPersistenceException("Failed to delete checkpoint of transfer " + id, e);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void release(String requestId) {
+        ledgers.remove(requestId);
+    }
+
+    private void append(String requestId, String lines) {
+        try (var channel = FileChannel.open(file(requestId), CREATE, WRITE, APPEND)) {
+            var buffer = ByteBuffer.wrap(lines.getBytes(StandardCharsets.US_ASCII));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            throw new EdcPersistenceException("Failed to write checkpoint of transfer " + requestId, e);
+        }
+    }
+
+    private Set<String> load(String requestId) {
+        var ledger = new HashSet<String>();
+        var file = file(requestId);
+        if (Files.exists(file)) {
+            try (var lines = Files.lines(file, StandardCharsets.US_ASCII)) {
+                lines.filter(line -> !line.isBlank()).forEach(ledger::add);
+            } catch (IOException e) {
+                throw new EdcPersistenceException("Failed to read checkpoint of transfer " + requestId, e);
+            }
+        }
+        return ledger;
+    }
+
+    private Path file(String requestId) {
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new EdcPersistenceException("Failed to create checkpoint directory " + directory, e);
+        }
+        return directory.resolve(URLEncoder.encode(requestId, StandardCharsets.UTF_8) + FILE_SUFFIX);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.checkpoint;
+
+import org.eclipse.edc.spi.persistence.EdcPersistenceException;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+
+/**
+ * Default {@link DicomWebSyncCursorStore} that keeps one file per sync in a local directory.
+ * <p>
+ * The first line of a file is the date of the cursor, every further line a SOP Instance UID synced at that date. A
+ * cursor is written to a temporary file that atomically replaces the previous one, so a crash leaves either cursor.
+ */
+public class FileSyncCursorStore implements DicomWebSyncCursorStore {
+    private static final String FILE_SUFFIX = ".cursor";
+
+    private final Path directory;
+
+    public FileSyncCursorStore(Path directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public @Nullable SyncCursor load(String syncId) {
+        var file = file(syncId);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            var lines = Files.readAllLines(file, StandardCharsets.US_ASCII);
+            if (lines.isEmpty()) {
+                return null;
+            }
+            var instances = new HashSet<String>();
+            lines.subList(1, lines.size()).stream().filter(line -> !line.isBlank()).forEach(instances::add);
+            return new SyncCursor(lines.get(0), instances);
+        } catch (IOException e) {
+            throw new EdcPersistenceException("Failed to read cursor of sync " + syncId, e);
+        }
+    }
+
+    @Override
+    public void save(String syncId, SyncCursor cursor) {
+        var file = file(syncId);
+        var content = new StringBuilder(cursor.date()).append('\n');
+        cursor.instancesAtDate().forEach(uid -> content.append(uid).append('\n'));
+        try {
+            var temp = Files.createTempFile(directory, "cursor", ".tmp");
+            try {
+                Files.writeString(temp, content, StandardCharsets.US_ASCII);
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            throw new EdcPersistenceException("Failed to write cursor of sync " + syncId, e);
+        }
+    }
+
+    private Path file(String syncId) {
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new EdcPersistenceException("Failed to create cursor directory " + directory, e);
+        }
+        return directory.resolve(URLEncoder.encode(syncId, StandardCharsets.UTF_8) + FILE_SUFFIX);
+    }
+}
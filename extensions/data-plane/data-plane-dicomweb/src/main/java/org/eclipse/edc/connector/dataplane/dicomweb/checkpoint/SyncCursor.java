@@ -0,0 +1,50 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.checkpoint;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The high-water mark of a continuous sync.
+ * <p>
+ * QIDO-RS can only match dates as a whole, so the instances of the last synced date are remembered by SOP Instance
+ * UID and filtered out when that date is queried again.
+ *
+ * @param date the latest date synced, as a DICOM DA value ({@code YYYYMMDD}).
+ * @param instancesAtDate the SOP Instance UIDs already synced that carry {@code date}.
+ */
+public record SyncCursor(String date, Set<String> instancesAtDate) {
+
+    public SyncCursor {
+        instancesAtDate = Set.copyOf(instancesAtDate);
+    }
+
+    /**
+     * Returns the cursor after syncing an instance of the given date. Instances older than the cursor do not move it.
+     */
+    public SyncCursor advance(String instanceDate, String sopInstanceUid) {
+        var comparison = instanceDate.compareTo(date);
+        if (comparison < 0) {
+            return this;
+        }
+        if (comparison > 0) {
+            return new SyncCursor(instanceDate, Set.of(sopInstanceUid));
+        }
+        var instances = new HashSet<>(instancesAtDate);
+        instances.add(sopInstanceUid);
+        return new SyncCursor(date, instances);
+    }
+}
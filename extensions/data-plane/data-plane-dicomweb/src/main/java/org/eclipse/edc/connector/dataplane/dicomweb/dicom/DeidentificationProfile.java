@@ -0,0 +1,287 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.dicom;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The rules by which a {@link DeidentifyingInputStream} de-identifies DICOM instances, set with the
+ * {@value org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema#DEIDENTIFICATION} property.
+ * <p>
+ * The {@value #BASIC} profile is a subset of the Basic Application Level Confidentiality Profile (PS3.15 Annex E):
+ * it removes or empties the attributes identifying the patient, the staff and the institution, removes all private
+ * attributes, remaps the UIDs of the instance and the instances it references, and records that the patient identity
+ * was removed. Rules given with the data address override it attribute by attribute.
+ * <p>
+ * It is not a conformant implementation of that profile. Attributes of Annex E missing from its list, such as
+ * Patient's Mother's Birth Name (0010,1060) or Acquisition Comments (0018,4000), are kept, and identifying information
+ * burned into the pixel data is not detected, so it must not be relied upon where conformance with Annex E is
+ * required. The De-identification Method (0012,0063) it sets says so.
+ * <p>
+ * UIDs are remapped to {@code 2.25.<n>}, where {@code n} is derived from the original UID by HMAC-SHA256 with the key
+ * of the profile. The mapping therefore needs no state, is the same for every transfer with the same key, restarted
+ * ones included, and cannot be recomputed without the key.
+ */
+public final class DeidentificationProfile {
+
+    public static final String BASIC = "basic";
+
+    private static final Map<Integer, Rule> BASIC_RULES = new HashMap<>();
+    private static final Map<Integer, String> VALUE_REPRESENTATIONS = new HashMap<>();
+    private static final String UID_ROOT = "2.25.";
+    private static final String HMAC = "HmacSHA256";
+
+    static {
+        basic(0x0002_0003, "UI", Action.REMAP_UID);
+        basic(0x0008_0014, "UI", Action.REMAP_UID);
+        basic(0x0008_0018, "UI", Action.REMAP_UID);
+        basic(0x0008_0020, "DA", Action.EMPTY);
+        basic(0x0008_0021, "DA", Action.REMOVE);
+        basic(0x0008_0022, "DA", Action.REMOVE);
+        basic(0x0008_0023, "DA", Action.EMPTY);
+        basic(0x0008_002A, "DT", Action.REMOVE);
+        basic(0x0008_0030, "TM", Action.EMPTY);
+        basic(0x0008_0031, "TM", Action.REMOVE);
+        basic(0x0008_0032, "TM", Action.REMOVE);
+        basic(0x0008_0033, "TM", Action.EMPTY);
+        basic(0x0008_0050, "SH", Action.EMPTY);
+        basic(0x0008_0058, "UI", Action.REMAP_UID);
+        basic(0x0008_0080, "LO", Action.REMOVE);
+        basic(0x0008_0081, "ST", Action.REMOVE);
+        basic(0x0008_0090, "PN", Action.EMPTY);
+        basic(0x0008_0092, "ST", Action.REMOVE);
+        basic(0x0008_0094, "SH", Action.REMOVE);
+        basic(0x0008_1010, "SH", Action.REMOVE);
+        basic(0x0008_1030, "LO", Action.REMOVE);
+        basic(0x0008_103E, "LO", Action.REMOVE);
+        basic(0x0008_1040, "LO", Action.REMOVE);
+        basic(0x0008_1048, "PN", Action.REMOVE);
+        basic(0x0008_1050, "PN", Action.REMOVE);
+        basic(0x0008_1060, "PN", Action.REMOVE);
+        basic(0x0008_1070, "PN", Action.REMOVE);
+        basic(0x0008_1080, "LO", Action.REMOVE);
+        basic(0x0008_1110, "SQ", Action.REMOVE);
+        basic(0x0008_1111, "SQ", Action.REMOVE);
+        basic(0x0008_1120, "SQ", Action.REMOVE);
+        basic(0x0008_1155, "UI", Action.REMAP_UID);
+        basic(0x0008_2111, "ST", Action.REMOVE);
+        basic(0x0008_3010, "UI", Action.REMAP_UID);
+        basic(0x0010_0010, "PN", Action.EMPTY);
+        basic(0x0010_0020, "LO", Action.EMPTY);
+        basic(0x0010_0030, "DA", Action.EMPTY);
+        basic(0x0010_0032, "TM", Action.REMOVE);
+        basic(0x0010_0040, "CS", Action.EMPTY);
+        basic(0x0010_1000, "LO", Action.REMOVE);
+        basic(0x0010_1001, "PN", Action.REMOVE);
+        basic(0x0010_1002, "SQ", Action.REMOVE);
+        basic(0x0010_1010, "AS", Action.REMOVE);
+        basic(0x0010_1020, "DS", Action.REMOVE);
+        basic(0x0010_1030, "DS", Action.REMOVE);
+        basic(0x0010_1040, "LO", Action.REMOVE);
+        basic(0x0010_2154, "SH", Action.REMOVE);
+        basic(0x0010_2155, "LT", Action.REMOVE);
+        basic(0x0010_2160, "SH", Action.REMOVE);
+        basic(0x0010_21B0, "LT", Action.REMOVE);
+        basic(0x0010_4000, "LT", Action.REMOVE);
+        basic(0x0012_0062, "CS", new Rule(Action.REPLACE, "YES"));
+        basic(0x0012_0063, "LO", new Rule(Action.REPLACE, "Subset of Basic Application Confidentiality Profile"));
+        basic(0x0018_1000, "LO", Action.REMOVE);
+        basic(0x0018_1002, "UI", Action.REMAP_UID);
+        basic(0x0018_1030, "LO", Action.REMOVE);
+        basic(0x0020_000D, "UI", Action.REMAP_UID);
+        basic(0x0020_000E, "UI", Action.REMAP_UID);
+        basic(0x0020_0010, "SH", Action.EMPTY);
+        basic(0x0020_0052, "UI", Action.REMAP_UID);
+        basic(0x0020_0200, "UI", Action.REMAP_UID);
+        basic(0x0020_4000, "LT", Action.REMOVE);
+        basic(0x0032_1032, "PN", Action.REMOVE);
+        basic(0x0032_1060, "LO", Action.REMOVE);
+        basic(0x0038_0010, "LO", Action.REMOVE);
+        basic(0x0038_0300, "LO", Action.REMOVE);
+        basic(0x0038_4000, "LT", Action.REMOVE);
+        basic(0x0040_0244, "DA", Action.REMOVE);
+        basic(0x0040_0245, "TM", Action.REMOVE);
+        basic(0x0040_0253, "SH", Action.REMOVE);
+        basic(0x0040_0254, "LO", Action.REMOVE);
+        basic(0x0040_0275, "SQ", Action.REMOVE);
+        basic(0x0040_A124, "UI", Action.REMAP_UID);
+        basic(0x0040_A171, "UI", Action.REMAP_UID);
+        basic(0x0040_A730, "SQ", Action.REMOVE);
+        basic(0x0088_0140, "UI", Action.REMAP_UID);
+        basic(0x0400_0500, "SQ", Action.REMOVE);
+        basic(0x3006_0024, "UI", Action.REMAP_UID);
+        basic(0x3006_00C2, "UI", Action.REMAP_UID);
+        // digital signatures no longer match the de-identified instance
+        basic(0xFFFA_FFFA, "SQ", Action.REMOVE);
+    }
+
+    private final Map<Integer, Rule> rules;
+    private final byte[] uidKey;
+
+    private DeidentificationProfile(Map<Integer, Rule> rules, byte[] uidKey) {
+        this.rules = Map.copyOf(rules);
+        this.uidKey = uidKey.clone();
+    }
+
+    /**
+     * What is done with an attribute.
+     */
+    public enum Action {
+        KEEP,
+        REMOVE,
+        /**
+         * Keeps the attribute with an empty value.
+         */
+        EMPTY,
+        /**
+         * Sets the value of the rule, adding the attribute to the dataset if it is missing.
+         */
+        REPLACE,
+        REMAP_UID
+    }
+
+    /**
+     * The action for an attribute and, for {@link Action#REPLACE}, the value it is set to.
+     */
+    public record Rule(Action action, @Nullable String value) {
+        static final Rule KEEP = new Rule(Action.KEEP, null);
+        static final Rule REMOVE = new Rule(Action.REMOVE, null);
+    }
+
+    /**
+     * Creates a profile from the name of a built-in profile and additional rules as given in a data address.
+     *
+     * @param name   the built-in profile, currently only {@value #BASIC}.
+     * @param rules  comma separated rules overriding the built-in ones, either {@code <tag>=<value>} to set an
+     *               attribute or {@code <tag>:<action>} with the action {@code keep}, {@code remove}, {@code empty} or
+     *               {@code uid}. Tags are written as eight hexadecimal digits, e.g. {@code 00100020=SUBJ-0042}.
+     * @param uidKey the key UIDs are remapped with.
+     * @throws IllegalArgumentException if the profile or a rule is invalid.
+     */
+    public static DeidentificationProfile parse(String name, String rules, byte[] uidKey) {
+        if (!BASIC.equals(name.trim().toLowerCase(Locale.ROOT))) {
+            throw new IllegalArgumentException("Unknown de-identification profile: " + name);
+        }
+        if (uidKey.length == 0) {
+            throw new IllegalArgumentException("The key UIDs are remapped with must not be empty");
+        }
+        var profileRules = new HashMap<>(BASIC_RULES);
+        for (var entry : rules.split(",")) {
+            var rule = entry.trim();
+            if (rule.isEmpty()) {
+                continue;
+            }
+            var replace = rule.indexOf('=');
+            var action = rule.indexOf(':');
+            var separator = replace >= 0 && (action < 0 || replace < action) ? replace : action;
+            if (separator < 0) {
+                throw new IllegalArgumentException("De-identification rule is neither <tag>=<value> nor <tag>:<action>: " + rule);
+            }
+            var tag = parseTag(rule.substring(0, separator).trim());
+            var argument = rule.substring(separator + 1).trim();
+            profileRules.put(tag, separator == replace ? new Rule(Action.REPLACE, argument) : new Rule(parseAction(argument), null));
+        }
+        return new DeidentificationProfile(profileRules, uidKey);
+    }
+
+    /**
+     * Returns the rule for an attribute. Group lengths are removed, as they would no longer be correct, and so are
+     * private attributes unless a rule keeps them; all other attributes without a rule are kept.
+     */
+    public Rule rule(int tag) {
+        var rule = rules.get(tag);
+        if (rule != null) {
+            return rule;
+        }
+        if ((tag & 0xFFFF) == 0 || (tag >>> 16 & 1) == 1) {
+            return Rule.REMOVE;
+        }
+        return Rule.KEEP;
+    }
+
+    /**
+     * Returns the tags of the attributes the profile sets, in the order they are encoded in. They are added to every
+     * dataset that lacks them, except for those of the file meta information.
+     */
+    public List<Integer> replacedTags() {
+        return rules.entrySet().stream()
+                .filter(entry -> entry.getValue().action() == Action.REPLACE && entry.getKey() >>> 16 != 0x0002)
+                .map(Map.Entry::getKey)
+                .sorted(Integer::compareUnsigned)
+                .toList();
+    }
+
+    /**
+     * Returns the value representation of an attribute the profile knows, or null.
+     */
+    public @Nullable String valueRepresentation(int tag) {
+        return VALUE_REPRESENTATIONS.get(tag);
+    }
+
+    /**
+     * Returns the UID an original UID is replaced with.
+     */
+    public String remapUid(String uid) {
+        try {
+            var mac = Mac.getInstance(HMAC);
+            mac.init(new SecretKeySpec(uidKey, HMAC));
+            var digest = mac.doFinal(uid.getBytes(StandardCharsets.US_ASCII));
+            return UID_ROOT + new BigInteger(1, Arrays.copyOf(digest, 16));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC-SHA256 is not available", e);
+        }
+    }
+
+    private static int parseTag(String tag) {
+        if (tag.length() != 8) {
+            throw new IllegalArgumentException("DICOM tag must be eight hexadecimal digits: " + tag);
+        }
+        try {
+            return Integer.parseUnsignedInt(tag, 16);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("DICOM tag must be eight hexadecimal digits: " + tag);
+        }
+    }
+
+    private static Action parseAction(String action) {
+        return switch (action.toLowerCase(Locale.ROOT)) {
+            case "keep" -> Action.KEEP;
+            case "remove" -> Action.REMOVE;
+            case "empty" -> Action.EMPTY;
+            case "uid" -> Action.REMAP_UID;
+            default -> throw new IllegalArgumentException("Unknown de-identification action: " + action);
+        };
+    }
+
+    private static void basic(int tag, String vr, Action action) {
+        basic(tag, vr, new Rule(action, null));
+    }
+
+    private static void basic(int tag, String vr, Rule rule) {
+        BASIC_RULES.put(tag, rule);
+        VALUE_REPRESENTATIONS.put(tag, vr);
+    }
+}
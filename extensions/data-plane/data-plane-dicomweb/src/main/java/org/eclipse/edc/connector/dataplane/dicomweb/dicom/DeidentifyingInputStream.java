@@ -0,0 +1,602 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.dicom;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static java.lang.String.format;
+
+/**
+ * Streams a DICOM Part 10 instance with its attributes de-identified according to a {@link DeidentificationProfile}.
+ * <p>
+ * The instance is parsed element by element while it is read. Only the values the profile rewrites are held in
+ * memory; all other values, in particular the pixel data, are passed through in chunks of the size the reader asks
+ * for, so memory use does not depend on the size of the instance. Sequences and items are written with undefined
+ * length, so that the values they contain can change without the lengths enclosing them having to be known up front.
+ * The preamble is zeroed, the file meta group length is recomputed and group lengths in the dataset are dropped.
+ * <p>
+ * Datasets in Implicit or Explicit VR Little Endian and in the encapsulated transfer syntaxes are supported. Reading a
+ * deflated or big endian dataset, or a stream that is not a Part 10 instance, fails, so that nothing leaves without
+ * having been de-identified.
+ */
+public class DeidentifyingInputStream extends InputStream {
+    /**
+     * Upper bound for the length of a value that is rewritten, UIDs and the like are at most 64 bytes.
+     */
+    private static final int MAX_REWRITTEN_LENGTH = 64 * 1024;
+
+    private static final int PREAMBLE_LENGTH = 128;
+    private static final byte[] MAGIC = "DICM".getBytes(StandardCharsets.US_ASCII);
+    private static final int FILE_META_GROUP_LENGTH = 0x0002_0000;
+    private static final int TRANSFER_SYNTAX_UID = 0x0002_0010;
+    private static final int PIXEL_DATA = 0x7FE0_0010;
+    private static final int ITEM = 0xFFFE_E000;
+    private static final int ITEM_DELIMITATION = 0xFFFE_E00D;
+    private static final int SEQUENCE_DELIMITATION = 0xFFFE_E0DD;
+    private static final long UNDEFINED_LENGTH = 0xFFFF_FFFFL;
+    // transfer syntaxes whose dataset is deflated or big endian
+    private static final Set<String> UNSUPPORTED_TRANSFER_SYNTAXES = Set.of(TransferSyntaxes.DEFLATED_EXPLICIT_VR_LITTLE_ENDIAN,
+            TransferSyntaxes.JPIP_REFERENCED_DEFLATE, TransferSyntaxes.EXPLICIT_VR_BIG_ENDIAN);
+
+    private final InputStream in;
+    private final DeidentificationProfile profile;
+    private final byte[] buffer = new byte[8192];
+    private int bufferPosition;
+    private int bufferLimit;
+    // bytes of the input consumed so far, to tell when a container of defined length ends
+    private long position;
+    private final Output output = new Output();
+    private int outputPosition;
+    private long copyRemaining;
+    private final ArrayDeque<Container> containers = new ArrayDeque<>();
+    private final ArrayDeque<Integer> pendingInserts;
+    private boolean explicitVr;
+    private boolean started;
+    private boolean finished;
+
+    public DeidentifyingInputStream(InputStream in, DeidentificationProfile profile) {
+        this.in = in;
+        this.profile = profile;
+        this.pendingInserts = new ArrayDeque<>(profile.replacedTags());
+    }
+
+    @Override
+    public int read() throws IOException {
+        var single = new byte[1];
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) {
+            return 0;
+        }
+        while (true) {
+            if (outputPosition < output.size()) {
+                var count = Math.min(len, output.size() - outputPosition);
+                System.arraycopy(output.bytes(), outputPosition, b, off, count);
+                outputPosition += count;
+                if (outputPosition == output.size()) {
+                    output.reset();
+                    outputPosition = 0;
+                }
+                return count;
+            }
+            if (copyRemaining > 0) {
+                return copy(b, off, len);
+            }
+            if (finished) {
+                return -1;
+            }
+            step();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Processes the next element, item or delimiter of the input, leaving its output and the length of the value to be
+     * passed through.
+     */
+    private void step() throws IOException {
+        if (!started) {
+            readFileMeta();
+            started = true;
+            return;
+        }
+        var container = containers.peek();
+        if (container != null && container.end >= 0 && position >= container.end) {
+            if (position > container.end) {
+                throw malformed("an element exceeds the length of its sequence or item");
+            }
+            containers.pop();
+            if (!container.dropped && container.kind != Kind.FRAGMENTS) {
+                writeItemHeader(container.kind == Kind.ITEM ? ITEM_DELIMITATION : SEQUENCE_DELIMITATION, 0);
+            }
+            return;
+        }
+        if (container == null && !fill(1)) {
+            insertUpTo(Long.MAX_VALUE);
+            finished = true;
+            return;
+        }
+        require(8);
+        var tag = readTag();
+        if (tag >>> 16 == 0xFFFE) {
+            readItem(tag, container);
+        } else if (container != null && container.kind == Kind.FRAGMENTS) {
+            throw malformed(format("element %08X within encapsulated pixel data", tag));
+        } else {
+            readElement(tag, container);
+        }
+    }
+
+    /**
+     * Handles an item or a delimiter. Items of defined length are written with undefined length and closed by a
+     * delimiter once their content has been read; the fragments of encapsulated pixel data are passed through.
+     */
+    private void readItem(int tag, @Nullable Container container) throws IOException {
+        var length = readUnsignedInt();
+        if (container == null) {
+            throw malformed(format("item tag %08X outside of a sequence", tag));
+        }
+        switch (tag) {
+            case ITEM -> {
+                if (container.kind == Kind.FRAGMENTS) {
+                    if (length == UNDEFINED_LENGTH) {
+                        throw malformed("pixel data fragment of undefined length");
+                    }
+                    if (!container.dropped) {
+                        writeItemHeader(ITEM, length);
+                    }
+                    passValue(length, container.dropped);
+                    return;
+                }
+                if (container.kind != Kind.SEQUENCE) {
+                    throw malformed("item outside of a sequence");
+                }
+                if (!container.dropped) {
+                    writeItemHeader(ITEM, UNDEFINED_LENGTH);
+                }
+                containers.push(new Container(Kind.ITEM, end(length), container.explicitVr, container.dropped));
+            }
+            case ITEM_DELIMITATION -> {
+                if (container.kind != Kind.ITEM || container.end >= 0) {
+                    throw malformed("unexpected item delimiter");
+                }
+                containers.pop();
+                if (!container.dropped) {
+                    writeItemHeader(ITEM_DELIMITATION, 0);
+                }
+            }
+            case SEQUENCE_DELIMITATION -> {
+                if (container.kind == Kind.ITEM || container.end >= 0) {
+                    throw malformed("unexpected sequence delimiter");
+                }
+                containers.pop();
+                if (!container.dropped) {
+                    writeItemHeader(SEQUENCE_DELIMITATION, 0);
+                }
+            }
+            default -> throw malformed(format("unknown item tag %08X", tag));
+        }
+    }
+
+    private void readElement(int tag, @Nullable Container container) throws IOException {
+        var explicit = container == null ? explicitVr : container.explicitVr;
+        String vr = null;
+        long length;
+        if (explicit) {
+            vr = readVr();
+            if (DicomVr.hasLongLength(vr)) {
+                require(6);
+                discard(2);
+                length = readUnsignedInt();
+            } else {
+                length = readUnsignedShort();
+            }
+        } else {
+            length = readUnsignedInt();
+        }
+        if (container == null) {
+            insertUpTo(Integer.toUnsignedLong(tag));
+        }
+        var dropped = container != null && container.dropped;
+        var action = dropped ? DeidentificationProfile.Action.REMOVE : profile.rule(tag).action();
+
+        if (isSequence(tag, vr, length)) {
+            // an undefined length UN holds a sequence in Implicit VR Little Endian (PS3.5 6.2.2)
+            var itemsExplicit = explicit && !"UN".equals(vr);
+            switch (action) {
+                case REMOVE, EMPTY -> {
+                    if (action == DeidentificationProfile.Action.EMPTY) {
+                        writeHeader(tag, vr, 0, explicit);
+                    }
+                    if (length == UNDEFINED_LENGTH) {
+                        containers.push(new Container(Kind.SEQUENCE, -1, itemsExplicit, true));
+                    } else {
+                        discard(length);
+                    }
+                }
+                default -> {
+                    writeHeader(tag, vr, UNDEFINED_LENGTH, explicit);
+                    containers.push(new Container(Kind.SEQUENCE, end(length), itemsExplicit, false));
+                }
+            }
+            return;
+        }
+        if (length == UNDEFINED_LENGTH) {
+            // encapsulated pixel data, whose fragments are passed through
+            if (action == DeidentificationProfile.Action.EMPTY) {
+                writeHeader(tag, vr, 0, explicit);
+            } else if (action != DeidentificationProfile.Action.REMOVE) {
+                writeHeader(tag, vr, UNDEFINED_LENGTH, explicit);
+            }
+            var dropFragments = action == DeidentificationProfile.Action.REMOVE || action == DeidentificationProfile.Action.EMPTY;
+            containers.push(new Container(Kind.FRAGMENTS, -1, explicit, dropFragments));
+            return;
+        }
+        switch (action) {
+            case KEEP -> {
+                writeHeader(tag, vr, length, explicit);
+                passValue(length, false);
+            }
+            case REMOVE -> discard(length);
+            case EMPTY -> {
+                writeHeader(tag, vr, 0, explicit);
+                discard(length);
+            }
+            case REPLACE -> {
+                var value = encode(profile.rule(tag).value(), vr != null ? vr : profile.valueRepresentation(tag));
+                writeHeader(tag, vr, value.length, explicit);
+                output.writeBytes(value);
+                discard(length);
+            }
+            case REMAP_UID -> {
+                var value = remapUids(readValue(tag, length));
+                writeHeader(tag, vr, value.length, explicit);
+                output.writeBytes(value);
+            }
+            default -> throw new IllegalStateException("Unknown action " + action);
+        }
+    }
+
+    /**
+     * Reads the file meta information, applies the profile to it and writes it with a recomputed group length after a
+     * zeroed preamble. The transfer syntax it names determines how the dataset is parsed.
+     */
+    private void readFileMeta() throws IOException {
+        if (!fill(PREAMBLE_LENGTH + MAGIC.length) ||
+                !Arrays.equals(buffer, bufferPosition + PREAMBLE_LENGTH, bufferPosition + PREAMBLE_LENGTH + MAGIC.length, MAGIC, 0, MAGIC.length)) {
+            throw new IOException("Instance is not in the DICOM Part 10 format and cannot be de-identified");
+        }
+        discard(PREAMBLE_LENGTH + MAGIC.length);
+        var elements = new Output();
+        String transferSyntaxUid = null;
+        while (fill(4) && peekTag() >>> 16 == 0x0002) {
+            require(8);
+            var tag = readTag();
+            var vr = readVr();
+            long length;
+            if (DicomVr.hasLongLength(vr)) {
+                require(6);
+                discard(2);
+                length = readUnsignedInt();
+            } else {
+                length = readUnsignedShort();
+            }
+            var value = readValue(tag, length);
+            if (tag == TRANSFER_SYNTAX_UID) {
+                transferSyntaxUid = DicomVr.trim(new String(value, StandardCharsets.US_ASCII));
+            }
+            if (tag == FILE_META_GROUP_LENGTH) {
+                continue;
+            }
+            var rule = profile.rule(tag);
+            switch (rule.action()) {
+                case REMOVE -> {
+                }
+                case EMPTY -> writeHeader(elements, tag, vr, 0, true);
+                case REPLACE -> {
+                    var replaced = encode(rule.value(), vr);
+                    writeHeader(elements, tag, vr, replaced.length, true);
+                    elements.writeBytes(replaced);
+                }
+                case REMAP_UID -> {
+                    var remapped = remapUids(value);
+                    writeHeader(elements, tag, vr, remapped.length, true);
+                    elements.writeBytes(remapped);
+                }
+                default -> {
+                    writeHeader(elements, tag, vr, value.length, true);
+                    elements.writeBytes(value);
+                }
+            }
+        }
+        if (transferSyntaxUid == null) {
+            throw new IOException("Instance has no transfer syntax in its file meta information and cannot be de-identified");
+        }
+        if (UNSUPPORTED_TRANSFER_SYNTAXES.contains(transferSyntaxUid)) {
+            throw new IOException("Instances in transfer syntax %s cannot be de-identified, request another one with transferSyntaxes".formatted(transferSyntaxUid));
+        }
+        explicitVr = !transferSyntaxUid.equals(TransferSyntaxes.IMPLICIT_VR_LITTLE_ENDIAN);
+
+        output.writeBytes(new byte[PREAMBLE_LENGTH]);
+        output.writeBytes(MAGIC);
+        writeHeader(output, FILE_META_GROUP_LENGTH, "UL", 4, true);
+        writeInt(output, elements.size());
+        output.write(elements.bytes(), 0, elements.size());
+    }
+
+    /**
+     * Returns whether an element is a sequence. In Implicit VR the value representation is not encoded, so a value of
+     * undefined length other than pixel data, or a value of defined length starting with an item, is taken as one.
+     */
+    private boolean isSequence(int tag, @Nullable String vr, long length) throws IOException {
+        if (vr != null) {
+            return "SQ".equals(vr) || "UN".equals(vr) && length == UNDEFINED_LENGTH;
+        }
+        if (length == UNDEFINED_LENGTH) {
+            return tag != PIXEL_DATA;
+        }
+        return length >= 8 && fill(4) && peekTag() == ITEM;
+    }
+
+    /**
+     * Writes the attributes the profile sets that are missing from the dataset and sort before the given tag.
+     */
+    private void insertUpTo(long tag) throws IOException {
+        while (!pendingInserts.isEmpty() && Integer.toUnsignedLong(pendingInserts.peek()) <= tag) {
+            var inserted = pendingInserts.poll();
+            if (Integer.toUnsignedLong(inserted) == tag) {
+                // the attribute is present and replaced where it is
+                return;
+            }
+            var vr = Objects.requireNonNullElse(profile.valueRepresentation(inserted), "UN");
+            var value = encode(profile.rule(inserted).value(), vr);
+            writeHeader(inserted, vr, value.length, explicitVr);
+            output.writeBytes(value);
+        }
+    }
+
+    private byte[] remapUids(byte[] value) {
+        var uids = DicomVr.trim(new String(value, StandardCharsets.US_ASCII));
+        if (uids.isEmpty()) {
+            return value;
+        }
+        var remapped = Arrays.stream(uids.split("\\\\"))
+                .map(uid -> uid.isBlank() ? uid : profile.remapUid(uid.trim()))
+                .collect(Collectors.joining("\\"));
+        return pad(remapped.getBytes(StandardCharsets.US_ASCII), (byte) 0);
+    }
+
+    private static byte[] encode(@Nullable String value, @Nullable String vr) {
+        var bytes = Objects.requireNonNullElse(value, "").getBytes(StandardCharsets.US_ASCII);
+        return pad(bytes, "UI".equals(vr) ? (byte) 0 : (byte) ' ');
+    }
+
+    private static byte[] pad(byte[] value, byte padding) {
+        if (value.length % 2 == 0) {
+            return value;
+        }
+        var padded = Arrays.copyOf(value, value.length + 1);
+        padded[value.length] = padding;
+        return padded;
+    }
+
+    private long end(long length) {
+        return length == UNDEFINED_LENGTH ? -1 : position + length;
+    }
+
+    private void writeHeader(int tag, @Nullable String vr, long length, boolean explicit) throws IOException {
+        writeHeader(output, tag, vr, length, explicit);
+    }
+
+    private static void writeHeader(Output out, int tag, @Nullable String vr, long length, boolean explicit) throws IOException {
+        writeShort(out, tag >>> 16);
+        writeShort(out, tag & 0xFFFF);
+        if (!explicit) {
+            writeInt(out, length);
+            return;
+        }
+        var representation = Objects.requireNonNull(vr, "vr");
+        out.write(representation.charAt(0));
+        out.write(representation.charAt(1));
+        if (DicomVr.hasLongLength(representation)) {
+            writeShort(out, 0);
+            writeInt(out, length);
+        } else if (length > 0xFFFF) {
+            throw new IOException(format("Value of %d bytes does not fit element %08X of VR %s", length, tag, representation));
+        } else {
+            writeShort(out, (int) length);
+        }
+    }
+
+    private void writeItemHeader(int tag, long length) {
+        writeShort(output, tag >>> 16);
+        writeShort(output, tag & 0xFFFF);
+        writeInt(output, length);
+    }
+
+    private static void writeShort(Output out, int value) {
+        out.write(value & 0xFF);
+        out.write(value >>> 8 & 0xFF);
+    }
+
+    private static void writeInt(Output out, long value) {
+        writeShort(out, (int) (value & 0xFFFF));
+        writeShort(out, (int) (value >>> 16 & 0xFFFF));
+    }
+
+    /**
+     * Passes a value through to the reader, or skips it if it is dropped.
+     */
+    private void passValue(long length, boolean dropped) throws IOException {
+        if (dropped) {
+            discard(length);
+        } else {
+            copyRemaining = length;
+        }
+    }
+
+    private int copy(byte[] b, int off, int len) throws IOException {
+        int count;
+        if (bufferPosition < bufferLimit) {
+            count = (int) Math.min(Math.min(len, copyRemaining), bufferLimit - bufferPosition);
+            System.arraycopy(buffer, bufferPosition, b, off, count);
+            bufferPosition += count;
+        } else {
+            count = in.read(b, off, (int) Math.min(len, copyRemaining));
+            if (count < 0) {
+                throw truncated();
+            }
+        }
+        position += count;
+        copyRemaining -= count;
+        return count;
+    }
+
+    private int readTag() {
+        var tag = peekTag();
+        bufferPosition += 4;
+        position += 4;
+        return tag;
+    }
+
+    private int peekTag() {
+        var group = buffer[bufferPosition] & 0xFF | (buffer[bufferPosition + 1] & 0xFF) << 8;
+        var element = buffer[bufferPosition + 2] & 0xFF | (buffer[bufferPosition + 3] & 0xFF) << 8;
+        return group << 16 | element;
+    }
+
+    private String readVr() {
+        var vr = new String(buffer, bufferPosition, 2, StandardCharsets.US_ASCII);
+        bufferPosition += 2;
+        position += 2;
+        return vr;
+    }
+
+    private int readUnsignedShort() {
+        var value = buffer[bufferPosition] & 0xFF | (buffer[bufferPosition + 1] & 0xFF) << 8;
+        bufferPosition += 2;
+        position += 2;
+        return value;
+    }
+
+    private long readUnsignedInt() {
+        var value = Integer.toUnsignedLong(readInt(bufferPosition));
+        bufferPosition += 4;
+        position += 4;
+        return value;
+    }
+
+    private int readInt(int offset) {
+        return buffer[offset] & 0xFF | (buffer[offset + 1] & 0xFF) << 8 | (buffer[offset + 2] & 0xFF) << 16 | (buffer[offset + 3] & 0xFF) << 24;
+    }
+
+    private byte[] readValue(int tag, long length) throws IOException {
+        if (length > MAX_REWRITTEN_LENGTH) {
+            throw new IOException(format("Value of element %08X is too long to be de-identified: %d bytes", tag, length));
+        }
+        var value = new byte[(int) length];
+        var buffered = Math.min(value.length, bufferLimit - bufferPosition);
+        System.arraycopy(buffer, bufferPosition, value, 0, buffered);
+        bufferPosition += buffered;
+        if (in.readNBytes(value, buffered, value.length - buffered) < value.length - buffered) {
+            throw truncated();
+        }
+        position += length;
+        return value;
+    }
+
+    private void discard(long length) throws IOException {
+        var buffered = (int) Math.min(length, bufferLimit - bufferPosition);
+        bufferPosition += buffered;
+        in.skipNBytes(length - buffered);
+        position += length;
+    }
+
+    private void require(int count) throws IOException {
+        if (!fill(count)) {
+            throw truncated();
+        }
+    }
+
+    /**
+     * Makes sure the given number of bytes is buffered, unless the input ends before.
+     */
+    private boolean fill(int count) throws IOException {
+        if (bufferLimit - bufferPosition >= count) {
+            return true;
+        }
+        System.arraycopy(buffer, bufferPosition, buffer, 0, bufferLimit - bufferPosition);
+        bufferLimit -= bufferPosition;
+        bufferPosition = 0;
+        while (bufferLimit < count) {
+            var read = in.read(buffer, bufferLimit, buffer.length - bufferLimit);
+            if (read < 0) {
+                return false;
+            }
+            bufferLimit += read;
+        }
+        return true;
+    }
+
+    private static EOFException truncated() {
+        return new EOFException("DICOM instance ends in the middle of an element");
+    }
+
+    private static IOException malformed(String detail) {
+        return new IOException("Malformed DICOM instance, " + detail);
+    }
+
+    private enum Kind {
+        SEQUENCE, ITEM, FRAGMENTS
+    }
+
+    /**
+     * A sequence, item or encapsulated pixel data the parser is in.
+     *
+     * @param end        the input position it ends at, or -1 if it is closed by a delimiter.
+     * @param explicitVr whether the elements it contains are encoded in Explicit VR.
+     * @param dropped    whether it is left out of the output.
+     */
+    private record Container(Kind kind, long end, boolean explicitVr, boolean dropped) {
+    }
+
+    /**
+     * A byte array output stream whose buffer can be read without copying it.
+     */
+    private static class Output extends ByteArrayOutputStream {
+        byte[] bytes() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.dicom;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The identifying attributes of the File Meta Information group (0002,xxxx) of a DICOM Part 10 stream, and the Series
+ * Instance UID from the start of the dataset.
+ * <p>
+ * The group sits right after the preamble and is always encoded in Explicit VR Little Endian, so it can be read
+ * without knowing anything about the dataset that follows. The Series Instance UID (0020,000E) is looked up in the
+ * dataset by walking its elements in the transfer syntax of the group. As elements are sorted by tag, the walk ends
+ * at the latest with the first element past it, well before the pixel data.
+ */
+public record DicomFileMeta(@Nullable String mediaStorageSopClassUid, @Nullable String mediaStorageSopInstanceUid,
+                            @Nullable String transferSyntaxUid, @Nullable String seriesInstanceUid) {
+
+    /**
+     * Upper bound for the bytes looked at when peeking, a file meta group is typically a few hundred bytes.
+     */
+    public static final int PEEK_LIMIT = 64 * 1024;
+
+    private static final int PREAMBLE_LENGTH = 128;
+    private static final byte[] MAGIC = "DICM".getBytes(StandardCharsets.US_ASCII);
+    private static final int MEDIA_STORAGE_SOP_CLASS_UID = 0x0002_0002;
+    private static final int MEDIA_STORAGE_SOP_INSTANCE_UID = 0x0002_0003;
+    private static final int TRANSFER_SYNTAX_UID = 0x0002_0010;
+    private static final int SERIES_INSTANCE_UID = 0x0020_000E;
+    private static final int ITEM = 0xFFFE_E000;
+    private static final long UNDEFINED_LENGTH = 0xFFFF_FFFFL;
+
+    /**
+     * Reads the file meta information from the start of the stream and resets the stream, so the instance can still
+     * be consumed from the beginning.
+     *
+     * @return the file meta information, or null if the stream does not start with a Part 10 header. The Series
+     *         Instance UID is null if it is not within the peek limit or the dataset is deflated or big endian.
+     */
+    public static @Nullable DicomFileMeta peek(BufferedInputStream stream) throws IOException {
+        stream.mark(PEEK_LIMIT);
+        try {
+            return read(new DataInputStream(new BoundedInputStream(stream, PEEK_LIMIT)));
+        } catch (EOFException e) {
+            return null;
+        } finally {
+            stream.reset();
+        }
+    }
+
+    private static @Nullable DicomFileMeta read(DataInputStream in) throws IOException {
+        in.skipNBytes(PREAMBLE_LENGTH);
+        var magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            return null;
+        }
+
+        String sopClassUid = null;
+        String sopInstanceUid = null;
+        String transferSyntaxUid = null;
+        var reader = new LittleEndianReader(in);
+        reader.nextTag();
+        while (reader.group() == 0x0002) {
+            reader.readHeader(true);
+            switch (reader.tag()) {
+                case MEDIA_STORAGE_SOP_CLASS_UID -> sopClassUid = reader.readString();
+                case MEDIA_STORAGE_SOP_INSTANCE_UID -> sopInstanceUid = reader.readString();
+                case TRANSFER_SYNTAX_UID -> transferSyntaxUid = reader.readString();
+                default -> reader.skipValue();
+            }
+            reader.nextTag();
+        }
+        return new DicomFileMeta(sopClassUid, sopInstanceUid, transferSyntaxUid, readSeriesInstanceUid(reader, transferSyntaxUid));
+    }
+
+    /**
+     * Walks the dataset from the element whose tag the reader has just read until the Series Instance UID, skipping
+     * the values of all other elements including nested sequences.
+     */
+    private static @Nullable String readSeriesInstanceUid(LittleEndianReader reader, @Nullable String transferSyntaxUid) throws IOException {
+        if (TransferSyntaxes.DEFLATED_EXPLICIT_VR_LITTLE_ENDIAN.equals(transferSyntaxUid) || TransferSyntaxes.EXPLICIT_VR_BIG_ENDIAN.equals(transferSyntaxUid)) {
+            return null;
+        }
+        var explicitVr = !TransferSyntaxes.IMPLICIT_VR_LITTLE_ENDIAN.equals(transferSyntaxUid);
+        try {
+            // the number of sequences and items of undefined length the walk is in
+            var depth = 0;
+            while (true) {
+                reader.readHeader(explicitVr);
+                if (reader.group() == 0xFFFE) {
+                    if (reader.tag() != ITEM) {
+                        depth--;
+                    } else if (reader.length() == UNDEFINED_LENGTH) {
+                        depth++;
+                    } else {
+                        reader.skipValue();
+                    }
+                } else if (depth == 0 && reader.tag() == SERIES_INSTANCE_UID) {
+                    return reader.readString();
+                } else if (depth == 0 && Integer.compareUnsigned(reader.tag(), SERIES_INSTANCE_UID) > 0) {
+                    return null;
+                } else if (reader.length() == UNDEFINED_LENGTH) {
+                    if ("UN".equals(reader.vr())) {
+                        // its content is encoded in Implicit VR, which the walk would misread
+                        return null;
+                    }
+                    depth++;
+                } else {
+                    reader.skipValue();
+                }
+                reader.nextTag();
+            }
+        } catch (EOFException e) {
+            // the element lies beyond the peek limit
+            return null;
+        }
+    }
+
+    /**
+     * Minimal element reader for Little Endian encodings, sufficient to walk the file meta group and the start of the
+     * dataset.
+     */
+    private static class LittleEndianReader {
+        private final DataInputStream in;
+        private int tag;
+        private String vr;
+        private long length;
+
+        LittleEndianReader(DataInputStream in) {
+            this.in = in;
+        }
+
+        void nextTag() throws IOException {
+            var group = readUnsignedShort();
+            var element = readUnsignedShort();
+            tag = group << 16 | element;
+        }
+
+        /**
+         * Reads the value representation, if the encoding has one, and the length of the current element. Items and
+         * delimiters have no value representation in any encoding.
+         */
+        void readHeader(boolean explicitVr) throws IOException {
+            if (!explicitVr || group() == 0xFFFE) {
+                vr = null;
+                length = Integer.toUnsignedLong(readInt());
+                return;
+            }
+            vr = new String(new byte[]{ in.readByte(), in.readByte() }, StandardCharsets.US_ASCII);
+            if (DicomVr.hasLongLength(vr)) {
+                in.skipNBytes(2);
+                length = Integer.toUnsignedLong(readInt());
+            } else {
+                length = readUnsignedShort();
+            }
+        }
+
+        @Nullable
+        String vr() {
+            return vr;
+        }
+
+        long length() {
+            return length;
+        }
+
+        int tag() {
+            return tag;
+        }
+
+        int group() {
+            return tag >>> 16;
+        }
+
+        String readString() throws IOException {
+            if (length > PEEK_LIMIT) {
+                throw new EOFException("Value of " + length + " bytes exceeds the peek limit");
+            }
+            var value = new byte[(int) length];
+            in.readFully(value);
+            return DicomVr.trim(new String(value, StandardCharsets.US_ASCII));
+        }
+
+        void skipValue() throws IOException {
+            in.skipNBytes(length);
+        }
+
+        private int readUnsignedShort() throws IOException {
+            var low = in.readUnsignedByte();
+            var high = in.readUnsignedByte();
+            return high << 8 | low;
+        }
+
+        private int readInt() throws IOException {
+            return readUnsignedShort() | readUnsignedShort() << 16;
+        }
+    }
+
+    private static class BoundedInputStream extends InputStream {
+        private final InputStream delegate;
+        private long remaining;
+
+        BoundedInputStream(InputStream delegate, long limit) {
+            this.delegate = delegate;
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            var b = delegate.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            var read = delegate.read(b, off, (int) Math.min(len, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,369 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.dicom;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiFunction;
+
+import static org.eclipse.edc.connector.dataplane.dicomweb.dicom.DicomTags.FAILED_SOP_SEQUENCE;
+import static org.eclipse.edc.connector.dataplane.dicomweb.dicom.DicomTags.FAILURE_REASON;
+import static org.eclipse.edc.connector.dataplane.dicomweb.dicom.DicomTags.REFERENCED_SOP_INSTANCE_UID;
+import static org.eclipse.edc.connector.dataplane.dicomweb.dicom.DicomTags.REFERENCED_SOP_SEQUENCE;
+
+/**
+ * Streaming readers for responses in the DICOM JSON model (PS3.18 Annex F).
+ * <p>
+ * Responses are processed token by token, attributes that are not asked for are skipped without being materialized.
+ */
+public class DicomJson {
+
+    private DicomJson() {
+    }
+
+    /**
+     * Reads an array of datasets, e.g. a QIDO-RS response, and returns the first value of the requested attributes of
+     * each dataset. Attributes that are absent or empty are left out of the map.
+     */
+    public static List<Map<String, String>> readFirstValues(JsonFactory jsonFactory, InputStream json, Set<String> tags) throws IOException {
+        try (var parser = jsonFactory.createParser(json)) {
+            var datasets = new ArrayList<Map<String, String>>();
+            var token = parser.nextToken();
+            if (token == null) {
+                return datasets;
+            }
+            expect(parser, token, JsonToken.START_ARRAY);
+            while ((token = parser.nextToken()) == JsonToken.START_OBJECT) {
+                datasets.add(readFirstValues(parser, tags));
+            }
+            expect(parser, token, JsonToken.END_ARRAY);
+            return datasets;
+        }
+    }
+
+    /**
+     * Reads a Store Instances Response (PS3.18 10.5.3) and returns the instances listed in its Referenced SOP Sequence
+     * and Failed SOP Sequence. Some servers wrap the response dataset in an array, which is accepted as well.
+     */
+    public static StoreInstancesResponse readStoreInstancesResponse(JsonFactory jsonFactory, InputStream json) throws IOException {
+        try (var parser = jsonFactory.createParser(json)) {
+            var referenced = new LinkedHashSet<String>();
+            var failed = new LinkedHashMap<String, Integer>();
+            var token = parser.nextToken();
+            if (token == JsonToken.START_ARRAY) {
+                token = parser.nextToken();
+            }
+            if (token == null || token == JsonToken.END_ARRAY) {
+                return new StoreInstancesResponse(referenced, failed);
+            }
+            expect(parser, token, JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                var tag = parser.currentName();
+                parser.nextToken();
+                if (REFERENCED_SOP_SEQUENCE.equals(tag)) {
+                    readSequenceItems(parser, Set.of(REFERENCED_SOP_INSTANCE_UID)).stream()
+                            .map(item -> item.get(REFERENCED_SOP_INSTANCE_UID))
+                            .filter(Objects::nonNull)
+                            .forEach(referenced::add);
+                } else if (FAILED_SOP_SEQUENCE.equals(tag)) {
+                    for (var item : readSequenceItems(parser, Set.of(REFERENCED_SOP_INSTANCE_UID, FAILURE_REASON))) {
+                        var uid = item.get(REFERENCED_SOP_INSTANCE_UID);
+                        if (uid != null) {
+                            failed.put(uid, parseFailureReason(item.get(FAILURE_REASON)));
+                        }
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return new StoreInstancesResponse(referenced, failed);
+        }
+    }
+
+    /**
+     * Reads the sequence attribute the parser is positioned on and returns the first value of the requested
+     * attributes of each item.
+     */
+    public static List<Map<String, String>> readSequenceItems(JsonParser parser, Set<String> tags) throws IOException {
+        var items = new ArrayList<Map<String, String>>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            var field = parser.currentName();
+            var token = parser.nextToken();
+            if ("Value".equals(field) && token == JsonToken.START_ARRAY) {
+                while ((token = parser.nextToken()) == JsonToken.START_OBJECT) {
+                    items.add(readFirstValues(parser, tags));
+                }
+                expect(parser, token, JsonToken.END_ARRAY);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Reads the dataset the parser is positioned on and returns the first value of the requested attributes. The
+     * parser is left on the closing token of the dataset.
+     */
+    public static Map<String, String> readFirstValues(JsonParser parser, Set<String> tags) throws IOException {
+        var values = new HashMap<String, String>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            var tag = parser.currentName();
+            parser.nextToken();
+            if (tags.contains(tag)) {
+                var value = readFirstValue(parser);
+                if (value != null) {
+                    values.put(tag, value);
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Reads the attribute object the parser is positioned on and returns the first entry of its {@code Value} array.
+     * Person names are returned in their alphabetic representation.
+     */
+    public static String readFirstValue(JsonParser parser) throws IOException {
+        String value = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            var field = parser.currentName();
+            var token = parser.nextToken();
+            if ("Value".equals(field) && token == JsonToken.START_ARRAY) {
+                while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                    if (value == null && token.isScalarValue()) {
+                        value = parser.getValueAsString();
+                    } else if (value == null && token == JsonToken.START_OBJECT) {
+                        value = readPersonName(parser);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Copies the dataset the parser is positioned on to the generator token by token. The {@code BulkDataURI} of every
+     * attribute, including attributes of sequence items, is replaced by what the given function returns for the path of
+     * the attribute and the URI. The path is made of the tags of the attribute and the sequences it is nested in and of
+     * the indices of the items, joined by dots, e.g. {@code 7FE00010} or {@code 00660002.0.00660016}.
+     */
+    public static void copyDataset(JsonParser parser, JsonGenerator generator, BiFunction<String, String, String> bulkDataUris) throws IOException {
+        copyDataset(parser, generator, "", bulkDataUris);
+    }
+
+    private static void copyDataset(JsonParser parser, JsonGenerator generator, String path, BiFunction<String, String, String> bulkDataUris)
+            throws IOException {
+        generator.writeStartObject();
+        JsonToken token;
+        while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+            var tag = parser.currentName();
+            var attributePath = path.isEmpty() ? tag : path + "." + tag;
+            generator.writeFieldName(tag);
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                // a component of a person name
+                generator.copyCurrentStructure(parser);
+                continue;
+            }
+            generator.writeStartObject();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                var field = parser.currentName();
+                var valueToken = parser.nextToken();
+                generator.writeFieldName(field);
+                if ("BulkDataURI".equals(field) && valueToken == JsonToken.VALUE_STRING) {
+                    generator.writeString(bulkDataUris.apply(attributePath, parser.getText()));
+                } else if ("Value".equals(field) && valueToken == JsonToken.START_ARRAY) {
+                    copyValues(parser, generator, attributePath, bulkDataUris);
+                } else {
+                    generator.copyCurrentStructure(parser);
+                }
+            }
+            generator.writeEndObject();
+        }
+        expect(parser, token, JsonToken.END_OBJECT);
+        generator.writeEndObject();
+    }
+
+    /**
+     * Copies a {@code Value} array. Objects in it are the items of a sequence, or person names, whose components are
+     * copied as they are.
+     */
+    private static void copyValues(JsonParser parser, JsonGenerator generator, String path, BiFunction<String, String, String> bulkDataUris)
+            throws IOException {
+        generator.writeStartArray();
+        JsonToken token;
+        for (var index = 0; (token = parser.nextToken()) != JsonToken.END_ARRAY; index++) {
+            if (token == JsonToken.START_OBJECT) {
+                copyDataset(parser, generator, path + "." + index, bulkDataUris);
+            } else {
+                generator.copyCurrentStructure(parser);
+            }
+        }
+        generator.writeEndArray();
+    }
+
+    private static String readPersonName(JsonParser parser) throws IOException {
+        String alphabetic = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            var group = parser.currentName();
+            parser.nextToken();
+            if ("Alphabetic".equals(group)) {
+                alphabetic = parser.getValueAsString();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return alphabetic;
+    }
+
+    private static int parseFailureReason(String value) {
+        try {
+            return value == null ? StoreInstancesResponse.UNKNOWN_FAILURE_REASON : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return StoreInstancesResponse.UNKNOWN_FAILURE_REASON;
+        }
+    }
+
+    /**
+     * Reads an array of datasets, e.g. a WADO-RS metadata response, one dataset at a time, so that no more than one
+     * dataset is held in memory however many the array has.
+     */
+    public static final class DatasetReader implements Closeable {
+        private final JsonFactory jsonFactory;
+        private final JsonParser parser;
+        private boolean done;
+
+        public DatasetReader(JsonFactory jsonFactory, InputStream json) throws IOException {
+            this.jsonFactory = jsonFactory;
+            this.parser = jsonFactory.createParser(json);
+            var token = parser.nextToken();
+            if (token == null) {
+                done = true;
+            } else {
+                expect(parser, token, JsonToken.START_ARRAY);
+            }
+        }
+
+        /**
+         * Returns the next dataset of the array, or null at its end.
+         */
+        public @Nullable Dataset next() throws IOException {
+            if (done) {
+                return null;
+            }
+            var token = parser.nextToken();
+            if (token != JsonToken.START_OBJECT) {
+                expect(parser, token, JsonToken.END_ARRAY);
+                done = true;
+                return null;
+            }
+            var tokens = new TokenBuffer(parser);
+            tokens.copyCurrentStructure(parser);
+            return new Dataset(jsonFactory, tokens);
+        }
+
+        @Override
+        public void close() throws IOException {
+            parser.close();
+        }
+    }
+
+    /**
+     * A dataset read by a {@link DatasetReader}, kept as its tokens so that it can be read several times without being
+     * parsed again.
+     */
+    public static final class Dataset {
+        private final JsonFactory jsonFactory;
+        private final TokenBuffer tokens;
+
+        private Dataset(JsonFactory jsonFactory, TokenBuffer tokens) {
+            this.jsonFactory = jsonFactory;
+            this.tokens = tokens;
+        }
+
+        /**
+         * Returns the first value of the requested attributes of the dataset, leaving out those that are absent or
+         * empty.
+         */
+        public Map<String, String> firstValues(Set<String> tags) throws IOException {
+            try (var parser = tokens.asParser()) {
+                parser.nextToken();
+                return readFirstValues(parser, tags);
+            }
+        }
+
+        /**
+         * Returns the {@code BulkDataURI}s of the dataset by the path of their attribute, in the order they appear.
+         *
+         * @see #copyDataset(JsonParser, JsonGenerator, BiFunction)
+         */
+        public Map<String, String> bulkDataUris() throws IOException {
+            var uris = new LinkedHashMap<String, String>();
+            write(OutputStream.nullOutputStream(), (path, uri) -> {
+                uris.put(path, uri);
+                return uri;
+            });
+            return uris;
+        }
+
+        /**
+         * Encodes the dataset as JSON, replacing its {@code BulkDataURI}s by what the given function returns for them.
+         *
+         * @see #copyDataset(JsonParser, JsonGenerator, BiFunction)
+         */
+        public byte[] toJson(BiFunction<String, String, String> bulkDataUris) throws IOException {
+            var out = new ByteArrayOutputStream();
+            write(out, bulkDataUris);
+            return out.toByteArray();
+        }
+
+        private void write(OutputStream out, BiFunction<String, String, String> bulkDataUris) throws IOException {
+            try (var parser = tokens.asParser(); var generator = jsonFactory.createGenerator(out)) {
+                parser.nextToken();
+                copyDataset(parser, generator, bulkDataUris);
+            }
+        }
+    }
+
+    private static void expect(JsonParser parser, JsonToken actual, JsonToken expected) throws IOException {
+        if (actual != expected) {
+            throw new IOException("Malformed DICOM JSON at " + parser.currentLocation() + ": expected " + expected + " but found " + actual);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.dicom;
+
+/**
+ * DICOM attribute tags used by the DICOMweb pipeline, in the notation of the DICOM JSON model.
+ */
+public class DicomTags {
+
+    public static final String SOP_INSTANCE_UID = "00080018";
+    public static final String STUDY_DATE = "00080020";
+    public static final String STUDY_INSTANCE_UID = "0020000D";
+    public static final String SERIES_INSTANCE_UID = "0020000E";
+    public static final String REFERENCED_SOP_INSTANCE_UID = "00081155";
+    public static final String FAILURE_REASON = "00081197";
+    public static final String FAILED_SOP_SEQUENCE = "00081198";
+    public static final String REFERENCED_SOP_SEQUENCE = "00081199";
+}
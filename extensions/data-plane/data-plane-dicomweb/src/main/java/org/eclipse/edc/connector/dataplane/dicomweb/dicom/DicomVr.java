@@ -0,0 +1,47 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.dicom;
+
+import java.util.Set;
+
+/**
+ * Helpers for DICOM value representations (PS3.5 section 6.2).
+ */
+public class DicomVr {
+
+    // value representations whose explicit length is encoded in 4 bytes after 2 reserved bytes (PS3.5 7.1.2)
+    private static final Set<String> LONG_LENGTH = Set.of("OB", "OD", "OF", "OL", "OV", "OW", "SQ", "SV", "UC", "UN", "UR", "UT", "UV");
+
+    private DicomVr() {
+    }
+
+    /**
+     * Returns true if elements of this value representation use a 32-bit length in explicit VR encodings.
+     */
+    public static boolean hasLongLength(String vr) {
+        return LONG_LENGTH.contains(vr);
+    }
+
+    /**
+     * Strips the padding of a string value, which is a trailing space or, for UIDs, a trailing NUL byte.
+     */
+    public static String trim(String value) {
+        var end = value.length();
+        while (end > 0 && (value.charAt(end - 1) == '\0' || value.charAt(end - 1) == ' ')) {
+            end--;
+        }
+        return value.substring(0, end);
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.dicom;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The instances listed in a STOW-RS Store Instances Response.
+ *
+ * @param referencedInstances SOP Instance UIDs of the Referenced SOP Sequence, i.e. the instances that were stored.
+ * @param failedInstances     SOP Instance UIDs of the Failed SOP Sequence, mapped to their Failure Reason.
+ */
+public record StoreInstancesResponse(Set<String> referencedInstances, Map<String, Integer> failedInstances) {
+
+    /**
+     * Failure reason used when a failed instance does not state one.
+     */
+    public static final int UNKNOWN_FAILURE_REASON = -1;
+
+    /**
+     * Returns true if the failure reason denotes a transient condition at the destination (PS3.4 Annex B.2.3),
+     * after which storing the same instance again may succeed.
+     */
+    public static boolean isTransient(int failureReason) {
+        var processingFailure = failureReason == 0x0110;
+        var resourceLimitation = failureReason == 0x0213;
+        var outOfResources = (failureReason & 0xFF00) == 0xA700;
+        return processingFailure || resourceLimitation || outOfResources;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.dicom;
+
+/**
+ * Transfer syntax UIDs used by the DICOMweb pipeline (PS3.6 Annex A).
+ */
+public class TransferSyntaxes {
+
+    /**
+     * The transfer syntax WADO-RS returns {@code application/dicom} instances in unless another one is requested.
+     */
+    public static final String EXPLICIT_VR_LITTLE_ENDIAN = "1.2.840.10008.1.2.1";
+
+    /**
+     * The default transfer syntax of DICOM, whose elements carry no value representation.
+     */
+    public static final String IMPLICIT_VR_LITTLE_ENDIAN = "1.2.840.10008.1.2";
+
+    public static final String DEFLATED_EXPLICIT_VR_LITTLE_ENDIAN = "1.2.840.10008.1.2.1.99";
+
+    public static final String EXPLICIT_VR_BIG_ENDIAN = "1.2.840.10008.1.2.2";
+
+    public static final String JPIP_REFERENCED_DEFLATE = "1.2.840.10008.1.2.4.95";
+
+    /**
+     * Wildcard accepting any transfer syntax in a WADO-RS {@code Accept} header.
+     */
+    public static final String ANY = "*";
+
+    private TransferSyntaxes() {
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.http;
+
+import org.eclipse.edc.connector.dataplane.dicomweb.metrics.DicomWebMetrics.LimitDecision;
+import org.eclipse.edc.connector.dataplane.dicomweb.metrics.DicomWebMetrics.Operation;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The limit of requests in flight to one DICOMweb service of a server, adapted by additive increase and multiplicative
+ * decrease.
+ * <p>
+ * Requests are observed in rounds of as many successful responses as the limit allows in flight. The limit is raised by
+ * one after a round in which it was used, no request failed and the 95th percentile latency stayed within a tolerance
+ * of its baseline. It is multiplied by the backoff ratio when the server answers {@code 429} or {@code 503}, when a
+ * request times out, or when the percentile latency of a round exceeds the tolerance. As with TCP congestion control,
+ * the limit is lowered at most once per round of requests: signals of requests that were sent before the last decrease
+ * are ignored.
+ * <p>
+ * Latency is the time from the request having been sent to the response headers. The baseline follows the lowest
+ * percentile seen and slowly drifts towards higher ones, so a server that became slower for good is accepted after a
+ * few rounds. Increases of less than {@value #LATENCY_SLACK_MILLIS} ms are never taken for overload, as with a nearby
+ * server that answers in a millisecond they are jitter rather than queueing.
+ */
+class AdaptiveConcurrencyLimit {
+    private static final int MIN_ROUND_SIZE = 10;
+    private static final double PERCENTILE = 0.95;
+    private static final double BASELINE_DRIFT = 0.1;
+    private static final long LATENCY_SLACK_MILLIS = 5;
+
+    private final String host;
+    private final Operation operation;
+    private final int maxLimit;
+    private final boolean adaptive;
+    private final double backoffRatio;
+    private final double latencyTolerance;
+    private final Listener listener;
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition released = lock.newCondition();
+    private final Round round = new Round();
+    private volatile double limit;
+    private int inFlight;
+    private long epoch;
+
+    /**
+     * Receives the changes of the limit.
+     */
+    @FunctionalInterface
+    interface Listener {
+        void limitChanged(String host, Operation operation, int limit, LimitDecision decision);
+    }
+
+    /**
+     * A request in flight.
+     *
+     * @param epoch     the number of decreases of the limit when the request was sent.
+     * @param saturated whether the request found the limit at least half used.
+     */
+    record Permit(long epoch, boolean saturated) {
+    }
+
+    AdaptiveConcurrencyLimit(String host, Operation operation, int initialLimit, int maxLimit, boolean adaptive, double backoffRatio, double latencyTolerance,
+                             Listener listener) {
+        this.host = host;
+        this.operation = operation;
+        this.maxLimit = maxLimit;
+        this.adaptive = adaptive;
+        this.backoffRatio = backoffRatio;
+        this.latencyTolerance = latencyTolerance;
+        this.listener = listener;
+        this.limit = adaptive ? Math.max(1, Math.min(initialLimit, maxLimit)) : maxLimit;
+    }
+
+    /**
+     * Waits until a request may be sent.
+     *
+     * @return the permit of the request, or null if none became available in time.
+     */
+    @Nullable
+    Permit acquire(Duration timeout) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            var remaining = timeout.toNanos();
+            while (inFlight >= limit()) {
+                if (remaining <= 0) {
+                    return null;
+                }
+                remaining = released.awaitNanos(remaining);
+            }
+            inFlight++;
+            return new Permit(epoch, inFlight * 2 >= limit());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the permit of a request and adapts the limit to its outcome.
+     *
+     * @param statusCode the status code of the response, or -1 if there was none.
+     * @param timedOut   whether the request failed because the server did not answer in time.
+     * @param latency    the time from the request having been sent to the response headers.
+     */
+    void release(Permit permit, int statusCode, boolean timedOut, Duration latency) {
+        LimitDecision decision = null;
+        int current;
+        lock.lock();
+        try {
+            inFlight--;
+            if (adaptive) {
+                decision = adapt(permit, statusCode, timedOut, latency);
+            }
+            current = limit();
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (decision != null) {
+            listener.limitChanged(host, operation, current, decision);
+        }
+    }
+
+    int limit() {
+        return (int) limit;
+    }
+
+    int inFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private @Nullable LimitDecision adapt(Permit permit, int statusCode, boolean timedOut, Duration latency) {
+        if (timedOut) {
+            return permit.epoch() == epoch ? backoff(LimitDecision.TIMEOUT) : null;
+        }
+        if (statusCode == 429 || statusCode == 503) {
+            return permit.epoch() == epoch ? backoff(LimitDecision.THROTTLED) : null;
+        }
+        if (statusCode >= 200 && statusCode < 300) {
+            round.add(latency.toNanos(), permit.saturated());
+        } else if (statusCode < 0 || statusCode >= 500) {
+            round.failed = true;
+        }
+        if (round.size < Math.max(MIN_ROUND_SIZE, limit())) {
+            return null;
+        }
+        var percentile = round.percentile();
+        var baseline = round.baseline;
+        var grow = !round.failed && round.saturated;
+        round.next(percentile);
+        if (baseline > 0 && percentile > Math.max(baseline * latencyTolerance, baseline + TimeUnit.MILLISECONDS.toNanos(LATENCY_SLACK_MILLIS))) {
+            return backoff(LimitDecision.LATENCY);
+        }
+        if (grow && limit() < maxLimit) {
+            limit = Math.min(maxLimit, limit + 1);
+            return LimitDecision.INCREASE;
+        }
+        return null;
+    }
+
+    private @Nullable LimitDecision backoff(LimitDecision reason) {
+        var previous = limit();
+        epoch++;
+        limit = Math.max(1, limit * backoffRatio);
+        round.restart();
+        return limit() != previous ? reason : null;
+    }
+
+    /**
+     * The latencies of the current round, and the baseline carried over from the previous rounds.
+     */
+    private static class Round {
+        private long[] latencies = new long[MIN_ROUND_SIZE];
+        private int size;
+        private boolean saturated;
+        private boolean failed;
+        private long baseline;
+
+        void add(long latencyNanos, boolean saturatedRequest) {
+            if (size == latencies.length) {
+                latencies = Arrays.copyOf(latencies, size * 2);
+            }
+            latencies[size++] = latencyNanos;
+            saturated |= saturatedRequest;
+        }
+
+        long percentile() {
+            var sorted = Arrays.copyOf(latencies, size);
+            Arrays.sort(sorted);
+            return sorted[Math.max(0, (int) Math.ceil(PERCENTILE * size) - 1)];
+        }
+
+        void next(long percentile) {
+            baseline = baseline == 0 ? percentile : Math.min(percentile, baseline + (long) ((percentile - baseline) * BASELINE_DRIFT));
+            restart();
+        }
+
+        void restart() {
+            size = 0;
+            saturated = false;
+            failed = false;
+        }
+    }
+}
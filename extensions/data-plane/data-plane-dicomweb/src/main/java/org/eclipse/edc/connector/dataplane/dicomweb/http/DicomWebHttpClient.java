@@ -0,0 +1,288 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.http;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.eclipse.edc.connector.dataplane.dicomweb.metrics.DicomWebMetrics;
+import org.eclipse.edc.spi.monitor.Monitor;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * The HTTP transport of the DICOMweb data plane, kept apart from the {@code EdcHttpClient} of the runtime so that
+ * bulk image transfers neither compete with control plane traffic for connections nor inherit settings tuned for it.
+ * <p>
+ * It keeps its own connection pool and dispatcher, negotiates HTTP/2 where the server supports it so that concurrent
+ * requests to one host are multiplexed over a single connection, sizes socket buffers for links with a high
+ * bandwidth-delay product, and bounds the requests in flight to every DICOMweb service of a server across all
+ * transfers of the data plane. The bound adapts to the latency and throttling responses of the service, see
+ * {@link AdaptiveConcurrencyLimit}.
+ * <p>
+ * Requests are executed once: retries are decided by the transfers, which know whether a request can be repeated.
+ */
+public class DicomWebHttpClient implements AutoCloseable {
+    private OkHttpClient okHttpClient;
+    private HostConcurrencyLimiter hostLimiter;
+
+    private DicomWebHttpClient() {
+    }
+
+    /**
+     * The HTTP versions the client speaks.
+     */
+    public enum HttpProtocol {
+        /**
+         * HTTP/2 negotiated over TLS, falling back to HTTP/1.1 for servers that do not support it and for cleartext
+         * connections.
+         */
+        HTTP2(List.of(Protocol.HTTP_2, Protocol.HTTP_1_1)),
+        /**
+         * HTTP/1.1 only, with one request per connection at a time.
+         */
+        HTTP1(List.of(Protocol.HTTP_1_1)),
+        /**
+         * HTTP/2 over cleartext connections, for servers known to support it. Requests over TLS fail.
+         */
+        H2C(List.of(Protocol.H2_PRIOR_KNOWLEDGE));
+
+        private final List<Protocol> protocols;
+
+        HttpProtocol(List<Protocol> protocols) {
+            this.protocols = protocols;
+        }
+
+        public static HttpProtocol parse(String value) {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * Executes the request once. The caller closes the response.
+     */
+    public Response execute(Request request) throws IOException {
+        return okHttpClient.newCall(request).execute();
+    }
+
+    /**
+     * Returns the number of requests in flight to a DICOMweb service of a server.
+     */
+    public int inFlight(String host, int port, DicomWebMetrics.Operation operation) {
+        var limit = hostLimiter.limits().get(HostConcurrencyLimiter.endpoint(host, port, operation));
+        return limit == null ? 0 : limit.inFlight();
+    }
+
+    /**
+     * Returns the current limit of requests in flight for every DICOMweb service that has been contacted, keyed by
+     * {@code host:port/operation}.
+     */
+    public Map<String, Integer> concurrencyLimits() {
+        return hostLimiter.limits().entrySet().stream()
+                .collect(Collectors.toUnmodifiableMap(Map.Entry::getKey, entry -> entry.getValue().limit()));
+    }
+
+    /**
+     * Cancels the requests in flight and closes the pooled connections.
+     */
+    @Override
+    public void close() {
+        okHttpClient.dispatcher().cancelAll();
+        okHttpClient.dispatcher().executorService().shutdown();
+        okHttpClient.connectionPool().evictAll();
+    }
+
+    public static class Builder {
+        private int maxIdleConnections = 32;
+        private Duration keepAlive = Duration.ofMinutes(5);
+        private HttpProtocol protocol = HttpProtocol.HTTP2;
+        private int sendBufferSize;
+        private int receiveBufferSize;
+        private int maxRequestsPerHost = 16;
+        private int initialRequestsPerHost = 4;
+        private boolean adaptiveConcurrency = true;
+        private double backoffRatio = 0.5;
+        private double latencyTolerance = 2.0;
+        private DicomWebMetrics metrics = DicomWebMetrics.NOOP;
+        private Monitor monitor = new Monitor() {
+        };
+        private Duration connectTimeout = Duration.ofSeconds(30);
+        private Duration readTimeout = Duration.ofMinutes(5);
+        private Duration writeTimeout = Duration.ofMinutes(5);
+
+        public static Builder newInstance() {
+            return new Builder();
+        }
+
+        private Builder() {
+        }
+
+        /**
+         * Idle connections kept in the pool for reuse by later requests.
+         */
+        public Builder maxIdleConnections(int maxIdleConnections) {
+            this.maxIdleConnections = maxIdleConnections;
+            return this;
+        }
+
+        /**
+         * Time an idle connection is kept in the pool before it is closed.
+         */
+        public Builder keepAlive(Duration keepAlive) {
+            this.keepAlive = keepAlive;
+            return this;
+        }
+
+        public Builder protocol(HttpProtocol protocol) {
+            this.protocol = protocol;
+            return this;
+        }
+
+        /**
+         * Size in bytes of the socket send buffer, 0 to leave it to the operating system.
+         */
+        public Builder sendBufferSize(int sendBufferSize) {
+            this.sendBufferSize = sendBufferSize;
+            return this;
+        }
+
+        /**
+         * Size in bytes of the socket receive buffer, 0 to leave it to the operating system. The buffer is sized
+         * before the connection is established, so that the TCP window can scale to it.
+         */
+        public Builder receiveBufferSize(int receiveBufferSize) {
+            this.receiveBufferSize = receiveBufferSize;
+            return this;
+        }
+
+        /**
+         * Upper bound of the requests in flight to one DICOMweb service of a server, that is WADO-RS, STOW-RS or
+         * QIDO-RS, across all transfers. A request counts until its response headers arrived, including the upload of
+         * its body.
+         */
+        public Builder maxRequestsPerHost(int maxRequestsPerHost) {
+            this.maxRequestsPerHost = maxRequestsPerHost;
+            return this;
+        }
+
+        /**
+         * Requests in flight to a DICOMweb service allowed before its latency has been observed.
+         */
+        public Builder initialRequestsPerHost(int initialRequestsPerHost) {
+            this.initialRequestsPerHost = initialRequestsPerHost;
+            return this;
+        }
+
+        /**
+         * Whether the limit of requests in flight adapts to each DICOMweb service, or stays at its upper bound.
+         */
+        public Builder adaptiveConcurrency(boolean adaptiveConcurrency) {
+            this.adaptiveConcurrency = adaptiveConcurrency;
+            return this;
+        }
+
+        /**
+         * Factor by which the limit of requests in flight is lowered when a service is overloaded, between 0 and 1.
+         */
+        public Builder backoffRatio(double backoffRatio) {
+            this.backoffRatio = backoffRatio;
+            return this;
+        }
+
+        /**
+         * Factor by which the 95th percentile latency of a service may exceed its baseline before the limit of
+         * requests in flight is lowered.
+         */
+        public Builder latencyTolerance(double latencyTolerance) {
+            this.latencyTolerance = latencyTolerance;
+            return this;
+        }
+
+        public Builder metrics(DicomWebMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        public Builder monitor(Monitor monitor) {
+            this.monitor = monitor;
+            return this;
+        }
+
+        public Builder connectTimeout(Duration connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        /**
+         * Maximum time between two reads of a response, which also bounds how long a request waits for a free slot
+         * of a service.
+         */
+        public Builder readTimeout(Duration readTimeout) {
+            this.readTimeout = readTimeout;
+            return this;
+        }
+
+        public Builder writeTimeout(Duration writeTimeout) {
+            this.writeTimeout = writeTimeout;
+            return this;
+        }
+
+        public DicomWebHttpClient build() {
+            if (maxRequestsPerHost < 1) {
+                throw new IllegalArgumentException("Maximum requests per host must be at least 1");
+            }
+            if (maxIdleConnections < 0) {
+                throw new IllegalArgumentException("Maximum idle connections must not be negative");
+            }
+            if (backoffRatio <= 0 || backoffRatio >= 1) {
+                throw new IllegalArgumentException("Backoff ratio must be between 0 and 1");
+            }
+            if (latencyTolerance <= 1) {
+                throw new IllegalArgumentException("Latency tolerance must be greater than 1");
+            }
+            var client = new DicomWebHttpClient();
+            AdaptiveConcurrencyLimit.Listener listener = (host, operation, limit, decision) -> {
+                monitor.debug("DICOMweb %s concurrency limit of %s set to %d: %s".formatted(operation.tag(), host, limit, decision.tag()));
+                metrics.concurrencyLimitChanged(host, operation, limit, decision);
+            };
+            client.hostLimiter = new HostConcurrencyLimiter((host, operation) -> new AdaptiveConcurrencyLimit(host, operation, initialRequestsPerHost,
+                    maxRequestsPerHost, adaptiveConcurrency, backoffRatio, latencyTolerance, listener), readTimeout);
+            var dispatcher = new Dispatcher();
+            dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+            var builder = new OkHttpClient.Builder()
+                    .dispatcher(dispatcher)
+                    .connectionPool(new ConnectionPool(maxIdleConnections, keepAlive.toMillis(), TimeUnit.MILLISECONDS))
+                    .protocols(protocol.protocols)
+                    .connectTimeout(connectTimeout)
+                    .readTimeout(readTimeout)
+                    .writeTimeout(writeTimeout)
+                    .addInterceptor(client.hostLimiter);
+            if (sendBufferSize > 0 || receiveBufferSize > 0) {
+                builder.socketFactory(new BufferSizingSocketFactory(sendBufferSize, receiveBufferSize));
+            }
+            client.okHttpClient = builder.build();
+            return client;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.http;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+import org.eclipse.edc.connector.dataplane.dicomweb.metrics.DicomWebMetrics.Operation;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+/**
+ * Bounds the requests in flight to every DICOMweb service of a server, identified by host, port and {@link Operation},
+ * by an {@link AdaptiveConcurrencyLimit}. A request takes a slot before it is sent and returns it once the response
+ * headers arrived, so the slot covers the upload of a request body and the time the server needs to start responding.
+ * Waiting requests are served in arrival order.
+ * <p>
+ * Streaming a response does not hold a slot: its pace is set by the consumer, which may itself wait for a slot, as a
+ * transfer does that retrieves from one service while it stores to another. Retrievals and uploads have separate
+ * limits for the same reason: an upload holds its slot while it waits for the retrievals of its instances, even if
+ * both go to the same server.
+ * <p>
+ * The Dispatcher of OkHttp only limits asynchronous calls, while the DICOMweb client executes its requests on the
+ * threads of the transfers, hence the limit is enforced here. Requests are attributed to an operation by their
+ * {@link Operation} tag, or by their method if they have none.
+ */
+class HostConcurrencyLimiter implements Interceptor {
+    private final BiFunction<String, Operation, AdaptiveConcurrencyLimit> limitFactory;
+    private final Duration acquireTimeout;
+    private final Map<String, AdaptiveConcurrencyLimit> limits = new ConcurrentHashMap<>();
+
+    HostConcurrencyLimiter(BiFunction<String, Operation, AdaptiveConcurrencyLimit> limitFactory, Duration acquireTimeout) {
+        this.limitFactory = limitFactory;
+        this.acquireTimeout = acquireTimeout;
+    }
+
+    @NotNull
+    @Override
+    public Response intercept(@NotNull Chain chain) throws IOException {
+        var request = chain.request();
+        var host = request.url().host();
+        var operation = operation(request);
+        var endpoint = endpoint(host, request.url().port(), operation);
+        var limit = limits.computeIfAbsent(endpoint, e -> limitFactory.apply(host, operation));
+        AdaptiveConcurrencyLimit.Permit permit;
+        try {
+            permit = limit.acquire(acquireTimeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a request slot of " + endpoint);
+        }
+        if (permit == null) {
+            throw new InterruptedIOException("Timed out after %s waiting for one of %d request slots of %s".formatted(acquireTimeout, limit.limit(), endpoint));
+        }
+
+        var start = System.nanoTime();
+        TimedRequestBody body = null;
+        if (request.body() != null) {
+            body = new TimedRequestBody(request.body());
+            request = request.newBuilder().method(request.method(), body).build();
+        }
+        var statusCode = -1;
+        var timedOut = false;
+        try {
+            var response = chain.proceed(request);
+            statusCode = response.code();
+            return response;
+        } catch (InterruptedIOException e) {
+            // OkHttp reports read, write and call timeouts as interrupted I/O
+            timedOut = !Thread.currentThread().isInterrupted();
+            throw e;
+        } finally {
+            var sentAt = body != null && body.sentAt > 0 ? body.sentAt : start;
+            limit.release(permit, statusCode, timedOut, Duration.ofNanos(System.nanoTime() - sentAt));
+        }
+    }
+
+    /**
+     * Returns the limits by endpoint, as {@code host:port/operation}.
+     */
+    Map<String, AdaptiveConcurrencyLimit> limits() {
+        return limits;
+    }
+
+    static String endpoint(String host, int port, Operation operation) {
+        return host + ":" + port + "/" + operation.tag();
+    }
+
+    private static Operation operation(Request request) {
+        var operation = request.tag(Operation.class);
+        if (operation != null) {
+            return operation;
+        }
+        return "POST".equals(request.method()) ? Operation.STOW : Operation.WADO;
+    }
+
+    /**
+     * A request body recording when it has been written completely, so that latency is measured from there on and
+     * does not include the upload.
+     */
+    private static class TimedRequestBody extends RequestBody {
+        private final RequestBody delegate;
+        private volatile long sentAt;
+
+        TimedRequestBody(RequestBody delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public @Nullable MediaType contentType() {
+            return delegate.contentType();
+        }
+
+        @Override
+        public long contentLength() throws IOException {
+            return delegate.contentLength();
+        }
+
+        @Override
+        public boolean isOneShot() {
+            return delegate.isOneShot();
+        }
+
+        @Override
+        public void writeTo(@NotNull BufferedSink sink) throws IOException {
+            delegate.writeTo(sink);
+            sentAt = System.nanoTime();
+        }
+    }
+}
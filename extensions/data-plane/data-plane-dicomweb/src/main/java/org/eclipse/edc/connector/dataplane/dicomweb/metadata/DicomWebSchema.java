@@ -24,4 +24,34 @@ public class DicomWebSchema {
     public static final String URL = "url";
     public static final String USERNAME = "username";
     public static final String PASSWORD = "password";
+    public static final String RETRIEVE_GRANULARITY = "retrieveGranularity";
+    public static final String MAX_CONCURRENT_RETRIEVALS = "maxConcurrentRetrievals";
+    public static final String TRANSFER_SYNTAXES = "transferSyntaxes";
+    public static final String MAX_INSTANCES_PER_REQUEST = "maxInstancesPerRequest";
+    public static final String MAX_BYTES_PER_REQUEST = "maxBytesPerRequest";
+    public static final String MAX_CONCURRENT_REQUESTS = "maxConcurrentRequests";
+    public static final String CONTENT_ENCODING = "contentEncoding";
+    public static final String COMPRESSION_LEVEL = "compressionLevel";
+    public static final String MAX_RETRIES = "maxRetries";
+    public static final String RETRY_BACKOFF_MILLIS = "retryBackoffMillis";
+    public static final String MAX_RETAINED_BYTES = "maxRetainedBytes";
+    public static final String DELTA_SYNC = "deltaSync";
+    public static final String STUDY_INSTANCE_UID = "studyInstanceUid";
+    public static final String SYNC_MODE = "syncMode";
+    public static final String SYNC_MODE_ONCE = "once";
+    public static final String SYNC_MODE_CONTINUOUS = "continuous";
+    public static final String SYNC_SINCE = "syncSince";
+    public static final String SYNC_DATE_ATTRIBUTE = "syncDateAttribute";
+    public static final String POLL_INTERVAL_MILLIS = "pollIntervalMillis";
+    public static final String MAX_POLL_INTERVAL_MILLIS = "maxPollIntervalMillis";
+    public static final String PRIORITY = "priority";
+    public static final String DESTINATIONS = "destinations";
+    public static final String FAN_OUT_BUFFER_BYTES = "fanOutBufferBytes";
+    public static final String SLOW_DESTINATION = "slowDestination";
+    public static final String CHECKSUMS = "checksums";
+    public static final String MANIFEST_URL = "manifestUrl";
+    public static final String DEIDENTIFICATION = "deidentification";
+    public static final String DEIDENTIFICATION_RULES = "deidentificationRules";
+    public static final String DEIDENTIFICATION_KEY_ALIAS = "deidentificationKeyAlias";
+    public static final String RETRIEVE_MODE = "retrieveMode";
 }
@@ -0,0 +1,55 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.metadata;
+
+import java.util.Locale;
+
+/**
+ * The priority classes of DICOMweb transfers, set with the {@value DicomWebSchema#PRIORITY} property. When transfers
+ * compete for the data plane, every class gets a share of the STOW-RS batches sent that is proportional to its weight.
+ */
+public enum TransferPriority {
+    /**
+     * Transfers a clinician is waiting for, such as a second opinion.
+     */
+    URGENT(8),
+    HIGH(4),
+    NORMAL(2),
+    /**
+     * Bulk transfers such as research exports, which may take long as long as they make progress.
+     */
+    LOW(1);
+
+    private final int weight;
+
+    TransferPriority(int weight) {
+        this.weight = weight;
+    }
+
+    public int weight() {
+        return weight;
+    }
+
+    /**
+     * Returns the lower case name used as property and tag value.
+     */
+    public String tag() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    public static TransferPriority parse(String value) {
+        return valueOf(value.trim().toUpperCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.metrics;
+
+import org.eclipse.edc.connector.dataplane.dicomweb.metadata.TransferPriority;
+import org.eclipse.edc.runtime.metamodel.annotation.ExtensionPoint;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Locale;
+
+/**
+ * Receives measurements of the DICOMweb client and pipeline.
+ * <p>
+ * Every measurement but the use of the memory budget and the batch queues is attributed to the host of the DICOMweb
+ * endpoint it concerns. Counts and byte totals are reported as increments, rates are left to the metrics backend. All
+ * methods do nothing by default, and implementations must be cheap and safe for concurrent use, as they are called on
+ * the transfer threads.
+ */
+@ExtensionPoint
+public interface DicomWebMetrics {
+
+    /**
+     * Discards all measurements.
+     */
+    DicomWebMetrics NOOP = new DicomWebMetrics() {
+    };
+
+    /**
+     * Records a completed request, from sending it to reading the last byte of the response.
+     *
+     * @param statusCode the HTTP status code, or -1 if no response was received.
+     */
+    default void requestCompleted(String host, Operation operation, int statusCode, Duration latency) {
+    }
+
+    /**
+     * Records the time from the request having been sent completely to the response headers having arrived.
+     */
+    default void timeToFirstByte(String host, Operation operation, Duration duration) {
+    }
+
+    /**
+     * Records bytes sent or received over the connection, as transferred, i.e. after content encoding.
+     */
+    default void bytesTransferred(String host, Operation operation, long bytes) {
+    }
+
+    /**
+     * Records DICOM instances retrieved or stored.
+     */
+    default void instancesTransferred(String host, Operation operation, long count) {
+    }
+
+    /**
+     * Records the processing time spent parsing a response, excluding the time waiting for the connection.
+     */
+    default void responseParsed(String host, Operation operation, Duration duration) {
+    }
+
+    /**
+     * Records instances that are sent or retrieved again after a transient failure.
+     */
+    default void retried(String host, Operation operation, long instances) {
+    }
+
+    /**
+     * Records the start of a transfer reading from or writing to the host.
+     */
+    default void transferStarted(String host) {
+    }
+
+    /**
+     * Records the end of a transfer previously reported by {@link #transferStarted(String)}.
+     */
+    default void transferFinished(String host) {
+    }
+
+    /**
+     * Records a change of the heap memory held by buffered parts of transfers with the host.
+     */
+    default void heapBytesBufferedChanged(String host, long delta) {
+    }
+
+    /**
+     * Records a change of the limit of concurrent requests to a DICOMweb service of the host, and the reason for it.
+     */
+    default void concurrencyLimitChanged(String host, Operation operation, int limit, LimitDecision decision) {
+    }
+
+    /**
+     * Records the use of the memory budget shared by all transfers of the data plane, which is not attributed to a
+     * host.
+     *
+     * @param usedBytes        the bytes reserved by admitted transfers and buffered content.
+     * @param capacityBytes    the bytes of the budget.
+     * @param waitingTransfers the transfers waiting for admission.
+     */
+    default void memoryBudgetChanged(long usedBytes, long capacityBytes, int waitingTransfers) {
+    }
+
+    /**
+     * Records the time a transfer with the host waited for admission to the memory budget.
+     *
+     * @param admitted whether the transfer was admitted, or was turned away.
+     */
+    default void admissionCompleted(String host, boolean admitted, Duration wait) {
+    }
+
+    /**
+     * Records the time a STOW-RS batch of a transfer to the host waited for a thread of the batch scheduler.
+     */
+    default void batchScheduled(String host, TransferPriority priority, Duration wait) {
+    }
+
+    /**
+     * Records the number of batches waiting in a priority class of the batch scheduler, which is not attributed to a
+     * host.
+     */
+    default void batchQueueChanged(TransferPriority priority, int queued) {
+    }
+
+    /**
+     * Records that a destination of a fan-out transfer fell too far behind the others and is served from a spill file
+     * from now on.
+     */
+    default void fanOutDestinationDetached(String host) {
+    }
+
+    /**
+     * Returns the host of an endpoint url, as used to attribute measurements.
+     */
+    static String host(String url) {
+        try {
+            var host = URI.create(url).getHost();
+            return host != null ? host.toLowerCase(Locale.ROOT) : "unknown";
+        } catch (IllegalArgumentException e) {
+            return "unknown";
+        }
+    }
+
+    /**
+     * The DICOMweb services.
+     */
+    enum Operation {
+        WADO, STOW, QIDO;
+
+        /**
+         * Returns the lower case name used as tag value.
+         */
+        public String tag() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * The reasons for changing the limit of concurrent requests to a DICOMweb service.
+     */
+    enum LimitDecision {
+        /**
+         * Latency stayed flat and responses succeeded while the limit was used.
+         */
+        INCREASE,
+        /**
+         * The server answered with {@code 429} or {@code 503}.
+         */
+        THROTTLED,
+        /**
+         * A request timed out.
+         */
+        TIMEOUT,
+        /**
+         * The 95th percentile latency rose above its tolerance.
+         */
+        LATENCY;
+
+        /**
+         * Returns the lower case name used as tag value.
+         */
+        public String tag() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import org.eclipse.edc.connector.dataplane.dicomweb.metadata.TransferPriority;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the measurements of the DICOMweb data plane to a Micrometer registry.
+ * <p>
+ * All meters but those of the memory budget and the batch queues are tagged with the {@code host} of the endpoint.
+ * Request meters are tagged with the {@code operation} as well, and latencies are published as percentile histograms
+ * so they can be aggregated across data plane replicas. Rates such as bytes or instances per second are derived from
+ * the counters by the backend.
+ */
+public class MicrometerDicomWebMetrics implements DicomWebMetrics {
+    private static final String HOST = "host";
+    private static final String OPERATION = "operation";
+
+    private final MeterRegistry registry;
+    private final Map<String, AtomicInteger> activeTransfers = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> heapBytesBuffered = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> concurrencyLimits = new ConcurrentHashMap<>();
+    private final AtomicLong memoryBudgetUsed;
+    private final AtomicLong memoryBudgetCapacity;
+    private final AtomicInteger admissionsWaiting;
+    private final Map<TransferPriority, AtomicInteger> batchesQueued = new ConcurrentHashMap<>();
+
+    public MicrometerDicomWebMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        memoryBudgetUsed = registry.gauge("dicomweb.memory.budget.used.bytes", Tags.empty(), new AtomicLong());
+        memoryBudgetCapacity = registry.gauge("dicomweb.memory.budget.bytes", Tags.empty(), new AtomicLong());
+        admissionsWaiting = registry.gauge("dicomweb.memory.admissions.waiting", Tags.empty(), new AtomicInteger());
+    }
+
+    @Override
+    public void requestCompleted(String host, Operation operation, int statusCode, Duration latency) {
+        Timer.builder("dicomweb.client.requests")
+                .description("Latency of DICOMweb requests until the response has been read")
+                .tags(HOST, host, OPERATION, operation.tag(), "status", statusCode < 0 ? "none" : String.valueOf(statusCode))
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(latency);
+    }
+
+    @Override
+    public void timeToFirstByte(String host, Operation operation, Duration duration) {
+        Timer.builder("dicomweb.client.time.to.first.byte")
+                .description("Time from sending a DICOMweb request to receiving the response headers")
+                .tags(HOST, host, OPERATION, operation.tag())
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(duration);
+    }
+
+    @Override
+    public void bytesTransferred(String host, Operation operation, long bytes) {
+        Counter.builder("dicomweb.client.bytes")
+                .description("Bytes sent or received by DICOMweb requests")
+                .baseUnit(BaseUnits.BYTES)
+                .tags(HOST, host, OPERATION, operation.tag())
+                .register(registry)
+                .increment(bytes);
+    }
+
+    @Override
+    public void instancesTransferred(String host, Operation operation, long count) {
+        Counter.builder("dicomweb.instances")
+                .description("DICOM instances retrieved or stored")
+                .tags(HOST, host, OPERATION, operation.tag())
+                .register(registry)
+                .increment(count);
+    }
+
+    @Override
+    public void responseParsed(String host, Operation operation, Duration duration) {
+        Timer.builder("dicomweb.client.parse")
+                .description("Processing time spent parsing DICOMweb responses")
+                .tags(HOST, host, OPERATION, operation.tag())
+                .register(registry)
+                .record(duration);
+    }
+
+    @Override
+    public void retried(String host, Operation operation, long instances) {
+        Counter.builder("dicomweb.retries")
+                .description("DICOM instances sent or retrieved again after a transient failure")
+                .tags(HOST, host, OPERATION, operation.tag())
+                .register(registry)
+                .increment(instances);
+    }
+
+    @Override
+    public void transferStarted(String host) {
+        activeTransfers(host).incrementAndGet();
+    }
+
+    @Override
+    public void transferFinished(String host) {
+        activeTransfers(host).decrementAndGet();
+    }
+
+    @Override
+    public void heapBytesBufferedChanged(String host, long delta) {
+        heapBytesBuffered.computeIfAbsent(host, h -> registry.gauge("dicomweb.buffer.heap.bytes", Tags.of(HOST, h), new AtomicLong()))
+                .addAndGet(delta);
+    }
+
+    @Override
+    public void concurrencyLimitChanged(String host, Operation operation, int limit, LimitDecision decision) {
+        concurrencyLimits.computeIfAbsent(host + "/" + operation.tag(),
+                        key -> registry.gauge("dicomweb.client.concurrency.limit", Tags.of(HOST, host, OPERATION, operation.tag()), new AtomicInteger()))
+                .set(limit);
+        Counter.builder("dicomweb.client.concurrency.decisions")
+                .description("Changes of the limit of concurrent DICOMweb requests")
+                .tags(HOST, host, OPERATION, operation.tag(), "decision", decision.tag())
+                .register(registry)
+                .increment();
+    }
+
+    @Override
+    public void memoryBudgetChanged(long usedBytes, long capacityBytes, int waitingTransfers) {
+        memoryBudgetUsed.set(usedBytes);
+        memoryBudgetCapacity.set(capacityBytes);
+        admissionsWaiting.set(waitingTransfers);
+    }
+
+    @Override
+    public void admissionCompleted(String host, boolean admitted, Duration wait) {
+        Timer.builder("dicomweb.memory.admission.wait")
+                .description("Time transfers waited for admission to the DICOMweb memory budget")
+                .tags(HOST, host, "outcome", admitted ? "admitted" : "rejected")
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(wait);
+    }
+
+    @Override
+    public void batchScheduled(String host, TransferPriority priority, Duration wait) {
+        Timer.builder("dicomweb.scheduler.wait")
+                .description("Time STOW-RS batches waited for a thread of the batch scheduler")
+                .tags(HOST, host, "priority", priority.tag())
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(wait);
+    }
+
+    @Override
+    public void batchQueueChanged(TransferPriority priority, int queued) {
+        batchesQueued.computeIfAbsent(priority, p -> registry.gauge("dicomweb.scheduler.queued", Tags.of("priority", p.tag()), new AtomicInteger()))
+                .set(queued);
+    }
+
+    @Override
+    public void fanOutDestinationDetached(String host) {
+        Counter.builder("dicomweb.fanout.detached")
+                .description("Destinations of fan-out transfers that fell behind and were served from a spill file")
+                .tags(HOST, host)
+                .register(registry)
+                .increment();
+    }
+
+    private AtomicInteger activeTransfers(String host) {
+        // the registry only holds a weak reference to the gauge value, which is kept alive by the map
+        return activeTransfers.computeIfAbsent(host, h -> registry.gauge("dicomweb.transfers.active", Tags.of(HOST, h), new AtomicInteger()));
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import org.eclipse.edc.connector.dataplane.dicomweb.metadata.TransferPriority;
+import org.eclipse.edc.connector.dataplane.dicomweb.metrics.DicomWebMetrics;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Runs the STOW-RS batches of all DICOMweb transfers of the data plane on a fixed number of threads, in the order of
+ * their {@link TransferPriority}.
+ * <p>
+ * A transfer submits one batch per sender at a time and submits the next one when it is done, so a transfer of a higher
+ * priority takes over at the next batch boundary rather than waiting for the transfers ahead of it to finish. The
+ * priority classes share the threads by weighted fair queuing: whenever a thread becomes free, it serves the class that
+ * has been served least relative to its weight, and within a class the batches in the order they were queued. A class
+ * that was idle does not accumulate credit. Batches that have waited for the aging interval are moved up one class, so
+ * even when higher classes are always busy the wait of a low priority batch stays bounded.
+ */
+public class BatchScheduler implements AutoCloseable {
+    private final Duration agingInterval;
+    private final DicomWebMetrics metrics;
+    private final ExecutorService workers;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition queued = lock.newCondition();
+    private final Map<TransferPriority, ArrayDeque<Unit<?>>> queues = new EnumMap<>(TransferPriority.class);
+    private final Map<TransferPriority, Double> passes = new EnumMap<>(TransferPriority.class);
+    private double virtualTime;
+    private boolean closed;
+
+    /**
+     * Creates the scheduler and starts its threads.
+     *
+     * @param threads       the batches that are sent at the same time across all transfers.
+     * @param agingInterval the time after which a waiting batch is moved up one priority class, zero to disable aging.
+     * @param metrics       receives the time batches waited.
+     */
+    public BatchScheduler(int threads, Duration agingInterval, DicomWebMetrics metrics) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("The batch scheduler needs at least one thread");
+        }
+        this.agingInterval = agingInterval;
+        this.metrics = metrics;
+        for (var priority : TransferPriority.values()) {
+            queues.put(priority, new ArrayDeque<>());
+            passes.put(priority, 0.0);
+        }
+        workers = Executors.newFixedThreadPool(threads);
+        for (var i = 0; i < threads; i++) {
+            workers.execute(this::work);
+        }
+    }
+
+    /**
+     * Queues a unit of work, typically sending one batch.
+     *
+     * @param host the host of the transfer, to attribute the wait to.
+     * @return the result of the work, failed if the work threw or the scheduler was closed before it ran.
+     */
+    public <T> CompletableFuture<T> submit(TransferPriority priority, String host, Supplier<T> work) {
+        var unit = new Unit<>(priority, host, work);
+        lock.lock();
+        try {
+            if (closed) {
+                unit.result.completeExceptionally(new CancellationException("Batch scheduler has been closed"));
+                return unit.result;
+            }
+            enqueue(priority, unit);
+            queued.signal();
+        } finally {
+            lock.unlock();
+        }
+        return unit.result;
+    }
+
+    /**
+     * Stops the threads. Queued work is not run and fails.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            queues.values().forEach(queue -> {
+                queue.forEach(unit -> unit.result.completeExceptionally(new CancellationException("Batch scheduler has been closed")));
+                queue.clear();
+            });
+            queued.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        workers.shutdownNow();
+    }
+
+    private void work() {
+        Unit<?> unit;
+        while ((unit = take()) != null) {
+            metrics.batchScheduled(unit.host, unit.priority, Duration.ofNanos(System.nanoTime() - unit.submittedAt));
+            unit.run();
+        }
+    }
+
+    @Nullable
+    private Unit<?> take() {
+        lock.lock();
+        try {
+            while (true) {
+                if (closed) {
+                    return null;
+                }
+                age();
+                var next = nextClass();
+                if (next != null) {
+                    var unit = queues.get(next).poll();
+                    virtualTime = passes.get(next);
+                    passes.put(next, virtualTime + 1.0 / next.weight());
+                    metrics.batchQueueChanged(next, queues.get(next).size());
+                    return unit;
+                }
+                queued.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the class with waiting work that has been served least relative to its weight, the higher one on ties.
+     */
+    @Nullable
+    private TransferPriority nextClass() {
+        TransferPriority next = null;
+        for (var priority : TransferPriority.values()) {
+            if (!queues.get(priority).isEmpty() && (next == null || passes.get(priority) < passes.get(next))) {
+                next = priority;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Moves the batches that have waited for the aging interval in their class up by one class.
+     */
+    private void age() {
+        if (agingInterval.isZero() || agingInterval.isNegative()) {
+            return;
+        }
+        var now = System.nanoTime();
+        var priorities = TransferPriority.values();
+        for (var i = 1; i < priorities.length; i++) {
+            var queue = queues.get(priorities[i]);
+            while (!queue.isEmpty() && now - queue.peek().queuedAt >= agingInterval.toNanos()) {
+                var unit = queue.poll();
+                unit.queuedAt = now;
+                enqueue(priorities[i - 1], unit);
+                metrics.batchQueueChanged(priorities[i], queue.size());
+            }
+        }
+    }
+
+    private void enqueue(TransferPriority priority, Unit<?> unit) {
+        var queue = queues.get(priority);
+        if (queue.isEmpty()) {
+            // a class that was idle starts at the current virtual time rather than with the credit of its idle period
+            passes.put(priority, Math.max(passes.get(priority), virtualTime));
+        }
+        queue.add(unit);
+        metrics.batchQueueChanged(priority, queue.size());
+    }
+
+    private static class Unit<T> {
+        private final TransferPriority priority;
+        private final String host;
+        private final Supplier<T> work;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final long submittedAt = System.nanoTime();
+        private long queuedAt = submittedAt;
+
+        Unit(TransferPriority priority, String host, Supplier<T> work) {
+            this.priority = priority;
+            this.host = host;
+            this.work = work;
+        }
+
+        void run() {
+            try {
+                result.complete(work.get());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32C;
+
+/**
+ * The checksums that can be computed over the DICOM instances of a transfer, set with the
+ * {@value org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema#CHECKSUMS} property.
+ */
+public enum ChecksumAlgorithm {
+    /**
+     * CRC-32C, which is fast enough to be computed at line rate and detects accidental corruption.
+     */
+    CRC32C("crc32c"),
+    /**
+     * SHA-256, which also detects deliberate tampering, at a higher cost.
+     */
+    SHA_256("sha-256");
+
+    private final String token;
+
+    ChecksumAlgorithm(String token) {
+        this.token = token;
+    }
+
+    /**
+     * Returns the name used as property value and in the manifest.
+     */
+    public String token() {
+        return token;
+    }
+
+    /**
+     * Parses a comma separated list of algorithms as given in a data address.
+     *
+     * @throws IllegalArgumentException if an entry is not a supported algorithm.
+     */
+    public static List<ChecksumAlgorithm> parseList(String value) {
+        return Arrays.stream(value.split(","))
+                .map(String::trim)
+                .filter(token -> !token.isEmpty())
+                .map(token -> Arrays.stream(values())
+                        .filter(algorithm -> algorithm.token.equals(token.toLowerCase(Locale.ROOT)))
+                        .findFirst()
+                        .orElseThrow(() -> new IllegalArgumentException("Unsupported checksum algorithm: " + token)))
+                .distinct()
+                .toList();
+    }
+
+    /**
+     * Starts a checksum over content that is fed to it in chunks.
+     */
+    Digest newDigest() {
+        return switch (this) {
+            case CRC32C -> new Digest() {
+                private final CRC32C crc = new CRC32C();
+
+                @Override
+                public void update(byte[] b, int off, int len) {
+                    crc.update(b, off, len);
+                }
+
+                @Override
+                public String value() {
+                    return "%08x".formatted(crc.getValue());
+                }
+            };
+            case SHA_256 -> new Digest() {
+                private final MessageDigest digest = sha256();
+
+                @Override
+                public void update(byte[] b, int off, int len) {
+                    digest.update(b, off, len);
+                }
+
+                @Override
+                public String value() {
+                    return HexFormat.of().formatHex(digest.digest());
+                }
+            };
+        };
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A checksum in progress.
+     */
+    interface Digest {
+        void update(byte[] b, int off, int len);
+
+        /**
+         * Returns the checksum of the content fed so far as lower case hex string.
+         */
+        String value();
+    }
+}
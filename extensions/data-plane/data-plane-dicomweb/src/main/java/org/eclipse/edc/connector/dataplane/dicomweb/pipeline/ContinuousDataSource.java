@@ -0,0 +1,46 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import org.eclipse.edc.connector.dataplane.spi.pipeline.DataSource;
+import org.eclipse.edc.connector.dataplane.spi.pipeline.StreamResult;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+/**
+ * A data source that does not end by itself but keeps producing data until it is closed.
+ * <p>
+ * The data arrives in cycles. A sink aware of this consumes one finite part stream per cycle and acknowledges it once
+ * the parts have been stored, after which the source does not produce them again, even after a restart. Any other
+ * sink reads the endless stream of {@link #openPartStream()}, where a cycle counts as acknowledged once the next one is
+ * requested.
+ */
+public interface ContinuousDataSource extends DataSource {
+
+    /**
+     * Waits without blocking the caller until new data is available and returns it as a finite part stream. The future
+     * completes with a successful result without content once the source has been closed.
+     */
+    CompletableFuture<StreamResult<Stream<Part>>> nextPartStream();
+
+    /**
+     * Records that the parts of the last cycle have been transferred.
+     */
+    void acknowledge();
+
+    @Override
+    void close();
+}
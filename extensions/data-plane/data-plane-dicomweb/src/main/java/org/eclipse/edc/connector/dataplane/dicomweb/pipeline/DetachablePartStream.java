@@ -0,0 +1,114 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Wraps the body of a part that is still being read from a live multipart response.
+ * <p>
+ * Consumers that read parts one after the other never pay for buffering. If the part stream is advanced while this
+ * part has not been fully read, for example because the sink dispatches parts concurrently, {@link #detach()} moves
+ * the unread remainder off the connection into the spill buffer of the transfer, so the response can continue with the
+ * next part.
+ * <p>
+ * The part releases the connection once it has been read to the end, closed or detached, which
+ * {@link #awaitRelease()} waits for.
+ */
+class DetachablePartStream extends InputStream {
+    private final CountDownLatch released = new CountDownLatch(1);
+    private final SpillBuffer spillBuffer;
+    private InputStream delegate;
+    private SpillBuffer.StagedContent staged;
+    private boolean live = true;
+    private boolean closed;
+
+    DetachablePartStream(InputStream delegate, SpillBuffer spillBuffer) {
+        this.delegate = delegate;
+        this.spillBuffer = spillBuffer;
+    }
+
+    @Override
+    public synchronized int read() throws IOException {
+        return closed ? -1 : releaseAtEnd(delegate.read());
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) throws IOException {
+        return closed ? -1 : releaseAtEnd(delegate.read(b, off, len));
+    }
+
+    @Override
+    public synchronized long skip(long n) throws IOException {
+        return closed ? 0 : delegate.skip(n);
+    }
+
+    @Override
+    public synchronized int available() throws IOException {
+        return closed ? 0 : delegate.available();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        delegate.close();
+        if (staged != null) {
+            staged.release();
+        }
+        released.countDown();
+    }
+
+    /**
+     * Releases the underlying connection from this part. Unread content is buffered unless the part has been closed,
+     * in which case it is discarded.
+     */
+    synchronized void detach() throws IOException {
+        if (!live) {
+            return;
+        }
+        live = false;
+        if (!closed) {
+            staged = spillBuffer.stage(delegate);
+            delegate = staged.openStream();
+        }
+        released.countDown();
+    }
+
+    /**
+     * Returns true if the part no longer needs the connection.
+     */
+    boolean isReleased() {
+        return released.getCount() == 0;
+    }
+
+    /**
+     * Blocks until the part no longer needs the connection.
+     */
+    void awaitRelease() throws InterruptedException {
+        released.await();
+    }
+
+    private int releaseAtEnd(int read) {
+        if (read < 0) {
+            if (staged != null) {
+                staged.release();
+            }
+            released.countDown();
+        }
+        return read;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import org.eclipse.edc.connector.dataplane.dicomweb.dicom.DeidentificationProfile;
+import org.eclipse.edc.connector.dataplane.dicomweb.dicom.DeidentifyingInputStream;
+import org.eclipse.edc.connector.dataplane.dicomweb.dicom.DicomFileMeta;
+import org.eclipse.edc.connector.dataplane.dicomweb.pipeline.DicomWebDataSource.DicomWebPart;
+import org.eclipse.edc.connector.dataplane.spi.pipeline.DataSource;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+/**
+ * Identifies the DICOM instance carried by a part by peeking at its file meta information.
+ */
+final class DicomInstanceParts {
+    private static final String DICOM = "application/dicom";
+
+    private DicomInstanceParts() {
+    }
+
+    /**
+     * Creates a part for the content of a DICOMweb response, reading the SOP Instance UID from its file meta
+     * information if it is a DICOM Part 10 instance and naming the part by it. The content is buffered just enough to
+     * be read from the start afterwards.
+     *
+     * @param name the name of the part if the instance cannot be identified.
+     * @param size the size of the content, or {@link DataSource.Part#SIZE_UNKNOWN}.
+     */
+    static DicomWebPart create(String name, InputStream content, String mediaType, long size) {
+        if (!mediaType.startsWith(DICOM)) {
+            return new DicomWebPart(name, content, mediaType, size, null, null, null);
+        }
+        var part = peek(name, content, mediaType, size);
+        return part.sopInstanceUid() == null ? part : new DicomWebPart(DicomWebPart.name(part.sopInstanceUid(), name), part.content(),
+                part.mediaType(), part.size(), part.sopInstanceUid(), part.seriesInstanceUid(), part.transferSyntaxUid());
+    }
+
+    /**
+     * Returns the part itself if it comes from a DICOMweb source, otherwise opens its stream and identifies it. Parts
+     * of other sources are checked regardless of their media type, which is often just {@code application/octet-stream}.
+     */
+    static DicomWebPart identify(DataSource.Part part) {
+        if (part instanceof DicomWebPart dicomWebPart) {
+            return dicomWebPart;
+        }
+        return peek(part.name(), part.openStream(), part.mediaType() == null ? DICOM : part.mediaType(), part.size());
+    }
+
+    /**
+     * Returns a part whose instance is de-identified while it is read. The identifiers and the name of the part are
+     * remapped the way the instance is, and its size becomes unknown.
+     *
+     * @param name the name of the part if the instance could not be identified.
+     */
+    static DicomWebPart deidentify(DicomWebPart part, DeidentificationProfile profile, String name) {
+        var sopInstanceUid = part.sopInstanceUid() != null ? profile.remapUid(part.sopInstanceUid()) : null;
+        var seriesInstanceUid = part.seriesInstanceUid() != null ? profile.remapUid(part.seriesInstanceUid()) : null;
+        return new DicomWebPart(DicomWebPart.name(sopInstanceUid, name), new DeidentifyingInputStream(part.content(), profile), part.mediaType(),
+                DataSource.Part.SIZE_UNKNOWN, sopInstanceUid, seriesInstanceUid, part.transferSyntaxUid());
+    }
+
+    /**
+     * Whether an identified part carries a DICOM instance. That is the case for the {@code application/dicom} media
+     * type, but not for other DICOM media types such as the {@code application/dicom+json} of metadata. Parts of any
+     * other media type, typically {@code application/octet-stream} from other sources, must be DICOM Part 10 files.
+     */
+    static boolean isInstance(DataSource.Part part) {
+        var mediaType = part.mediaType() == null ? "" : part.mediaType();
+        var separator = mediaType.indexOf(';');
+        var type = (separator < 0 ? mediaType : mediaType.substring(0, separator)).trim().toLowerCase(Locale.ROOT);
+        if (type.startsWith(DICOM)) {
+            return type.equals(DICOM);
+        }
+        return sopInstanceUid(part) != null;
+    }
+
+    /**
+     * Returns the SOP Instance UID of the part, or null if it is unknown.
+     */
+    static @Nullable String sopInstanceUid(DataSource.Part part) {
+        if (part instanceof DicomWebPart dicomWebPart) {
+            return dicomWebPart.sopInstanceUid();
+        } else if (part instanceof RetainedPart retainedPart) {
+            return retainedPart.sopInstanceUid();
+        } else if (part instanceof PartBatcher.CountingPart countingPart) {
+            return sopInstanceUid(countingPart.delegate());
+        }
+        return null;
+    }
+
+    /**
+     * Releases a part that is not going to be sent without reading it.
+     */
+    static void discard(DataSource.Part part) {
+        try {
+            part.openStream().close();
+        } catch (IOException e) {
+            // do nothing
+        }
+    }
+
+    private static DicomWebPart peek(String name, InputStream content, String mediaType, long size) {
+        var buffered = new BufferedInputStream(content);
+        DicomFileMeta meta;
+        try {
+            meta = DicomFileMeta.peek(buffered);
+        } catch (IOException e) {
+            // the instance stays anonymous, reading it will surface the same error
+            meta = null;
+        }
+        if (meta == null) {
+            return new DicomWebPart(name, buffered, mediaType, size, null, null, transferSyntaxParameter(mediaType));
+        }
+        var transferSyntaxUid = meta.transferSyntaxUid() != null ? meta.transferSyntaxUid() : transferSyntaxParameter(mediaType);
+        return new DicomWebPart(name, buffered, mediaType, size, meta.mediaStorageSopInstanceUid(), meta.seriesInstanceUid(), transferSyntaxUid);
+    }
+
+    /**
+     * Returns the size of a part announced by its {@code Content-Length} header, or {@link DataSource.Part#SIZE_UNKNOWN}.
+     */
+    static long contentLength(MultipartRelatedReader.Part part) {
+        var contentLength = part.header("Content-Length");
+        if (contentLength == null) {
+            return DataSource.Part.SIZE_UNKNOWN;
+        }
+        try {
+            var size = Long.parseLong(contentLength.trim());
+            return size >= 0 ? size : DataSource.Part.SIZE_UNKNOWN;
+        } catch (NumberFormatException e) {
+            return DataSource.Part.SIZE_UNKNOWN;
+        }
+    }
+
+    /**
+     * Returns the {@code transfer-syntax} parameter of a media type such as
+     * {@code application/dicom; transfer-syntax=1.2.840.10008.1.2.4.90}, or null if there is none.
+     */
+    static @Nullable String transferSyntaxParameter(String mediaType) {
+        for (var parameter : mediaType.split(";")) {
+            var separator = parameter.indexOf('=');
+            if (separator > 0 && "transfer-syntax".equals(parameter.substring(0, separator).trim().toLowerCase(Locale.ROOT))) {
+                var value = parameter.substring(separator + 1).trim();
+                return value.startsWith("\"") && value.endsWith("\"") && value.length() > 1 ? value.substring(1, value.length() - 1) : value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the transfer syntax the instance of the part is encoded in, or null if it is unknown.
+     */
+    static @Nullable String transferSyntaxUid(DataSource.Part part) {
+        if (part instanceof DicomWebPart dicomWebPart) {
+            return dicomWebPart.transferSyntaxUid();
+        } else if (part instanceof RetainedPart retainedPart) {
+            return retainedPart.transferSyntaxUid();
+        } else if (part instanceof PartBatcher.CountingPart countingPart) {
+            return transferSyntaxUid(countingPart.delegate());
+        }
+        return null;
+    }
+}
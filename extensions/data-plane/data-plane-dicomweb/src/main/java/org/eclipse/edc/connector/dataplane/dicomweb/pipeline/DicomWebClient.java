@@ -14,126 +14,526 @@
 
 package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
 
-import okhttp3.Headers;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import okhttp3.Credentials;
+import okhttp3.HttpUrl;
 import okhttp3.MediaType;
-import okhttp3.MultipartBody;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
-import org.eclipse.edc.http.spi.EdcHttpClient;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ForwardingSink;
+import okio.Okio;
+import org.eclipse.edc.connector.dataplane.dicomweb.dicom.DicomJson;
+import org.eclipse.edc.connector.dataplane.dicomweb.dicom.DicomTags;
+import org.eclipse.edc.connector.dataplane.dicomweb.dicom.StoreInstancesResponse;
+import org.eclipse.edc.connector.dataplane.dicomweb.http.DicomWebHttpClient;
+import org.eclipse.edc.connector.dataplane.dicomweb.metrics.DicomWebMetrics;
+import org.eclipse.edc.connector.dataplane.spi.pipeline.DataSource;
 import org.eclipse.edc.spi.monitor.Monitor;
 import org.eclipse.edc.spi.result.Result;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
-import java.util.Base64;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Properties;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
-import javax.mail.BodyPart;
-import javax.mail.MessagingException;
-import javax.mail.Session;
-import javax.mail.internet.MimeMessage;
-import javax.mail.internet.MimeMultipart;
+import java.util.stream.Collectors;
 
 import static java.lang.String.format;
+import static org.eclipse.edc.connector.dataplane.dicomweb.metrics.DicomWebMetrics.Operation.QIDO;
+import static org.eclipse.edc.connector.dataplane.dicomweb.metrics.DicomWebMetrics.Operation.STOW;
+import static org.eclipse.edc.connector.dataplane.dicomweb.metrics.DicomWebMetrics.Operation.WADO;
 
 /**
  * A client for interacting with a DICOMweb server.
  */
 public class DicomWebClient {
-    private final EdcHttpClient httpClient;
+    private static final int NO_STATUS = -1;
+
+    private final DicomWebHttpClient httpClient;
+    private final ObjectMapper objectMapper;
     private final Monitor monitor;
+    private final DicomWebMetrics metrics;
+
+    public DicomWebClient(DicomWebHttpClient httpClient, ObjectMapper objectMapper, Monitor monitor) {
+        this(httpClient, objectMapper, monitor, DicomWebMetrics.NOOP);
+    }
 
-    public DicomWebClient(EdcHttpClient httpClient, Monitor monitor) {
+    public DicomWebClient(DicomWebHttpClient httpClient, ObjectMapper objectMapper, Monitor monitor, DicomWebMetrics metrics) {
         this.httpClient = httpClient;
+        this.objectMapper = objectMapper;
         this.monitor = monitor;
+        this.metrics = metrics;
     }
 
-    public Result<String> stowRs(String url, String username, String password, List<byte[]> dicomDataList) {
-        String encodedAuth = Base64.getEncoder().encodeToString((username + ":" + password).getBytes());
-
-        String boundary = UUID.randomUUID().toString();
-        MediaType mediaType = MediaType.parse("application/dicom");
+    /**
+     * Executes a STOW-RS request for the given parts. The parts are streamed into the request body while it is sent,
+     * so no instance is held in memory.
+     */
+    public StowResult stowRs(String url, String username, String password, List<DataSource.Part> parts) {
+        return stowRs(url, username, password, parts, null);
+    }
 
-        MultipartBody.Builder requestBodyBuilder = new MultipartBody.Builder(boundary)
-                .setType(MediaType.parse("multipart/related; type=\"application/dicom\"; boundary=" + boundary));
+    /**
+     * Executes a STOW-RS request for the given parts, compressing the request body if a compression is given.
+     */
+    public StowResult stowRs(String url, String username, String password, List<DataSource.Part> parts, @Nullable HttpCompression compression) {
+        var boundary = UUID.randomUUID().toString();
+        return stowRs(url, username, password, StowRequestBody.of(parts, boundary), boundary, compression);
+    }
 
-        for (int i = 0; i < dicomDataList.size(); i++) {
-            byte[] data = dicomDataList.get(i);
-            RequestBody fileBody = RequestBody.create(data, mediaType);
-            requestBodyBuilder.addPart(
-                    Headers.of("Content-Disposition", "form-data; name=\"file\"; filename=\"dicomfile-" + (i + 1) + ".dcm\""),
-                    fileBody
-            );
-        }
+    /**
+     * Executes a STOW-RS request whose parts are pulled from the iterator while the request body is sent.
+     */
+    public StowResult stowRs(String url, String username, String password, Iterator<DataSource.Part> parts) {
+        return stowRs(url, username, password, parts, null);
+    }
 
-        RequestBody requestBody = requestBodyBuilder.build();
+    /**
+     * Executes a STOW-RS request whose parts are pulled from the iterator while the request body is sent, compressing
+     * the request body if a compression is given.
+     */
+    public StowResult stowRs(String url, String username, String password, Iterator<DataSource.Part> parts, @Nullable HttpCompression compression) {
+        var boundary = UUID.randomUUID().toString();
+        return stowRs(url, username, password, StowRequestBody.of(parts, boundary), boundary, compression);
+    }
 
-        Request request = new Request.Builder()
+    private StowResult stowRs(String url, String username, String password, RequestBody requestBody, String boundary,
+                              @Nullable HttpCompression compression) {
+        var requestBuilder = authorizedRequest(username, password)
                 .url(url)
-                .header("Authorization", "Basic " + encodedAuth)
                 .header("Content-Type", "multipart/related; type=application/dicom; boundary=" + boundary)
-                .header("Accept", "application/json")
-                .post(requestBody)
-                .build();
+                .header("Accept", "application/dicom+json, application/json")
+                .tag(DicomWebMetrics.Operation.class, STOW);
+        MeteredRequestBody body;
+        if (compression != null) {
+            body = new MeteredRequestBody(compression.encode(requestBody));
+            requestBuilder.header("Content-Encoding", compression.requestEncoding().token());
+        } else {
+            body = new MeteredRequestBody(requestBody);
+        }
+        Request request = requestBuilder.post(body).build();
 
+        var host = DicomWebMetrics.host(url);
+        var start = System.nanoTime();
+        var statusCode = StowResult.NO_RESPONSE;
         try (Response response = httpClient.execute(request)) {
+            statusCode = response.code();
+            metrics.timeToFirstByte(host, STOW, elapsedSince(body.sentAt() > 0 ? body.sentAt() : start));
             if (response.isSuccessful()) {
                 monitor.debug(format("HTTP request to %s was successful with status code %d and message %s",
                         url, response.code(), response.message()));
-                return Result.success(response.body().string());
-            } else {
-                return Result.failure("Failed to upload file: " + response.message());
             }
+            // error responses such as 409 carry the Failed SOP Sequence as well
+            var parseStart = System.nanoTime();
+            var storeResponse = readStoreInstancesResponse(url, response);
+            metrics.responseParsed(host, STOW, elapsedSince(parseStart));
+            var failureDetail = response.isSuccessful() ? null : "Failed to upload file: " + response.code() + " " + response.message();
+            return new StowResult(response.code(), storeResponse, retryAfter(response), failureDetail);
         } catch (IOException e) {
-            return Result.failure("IOException occurred during HTTP request: " + e.getMessage());
+            return StowResult.noResponse("IOException occurred during HTTP request: " + e.getMessage());
+        } finally {
+            metrics.requestCompleted(host, STOW, statusCode, elapsedSince(start));
+            metrics.bytesTransferred(host, STOW, body.bytesWritten());
         }
     }
 
-    public Result<List<byte[]>> wadoRs(String url, String username, String password) {
-        String encodedAuth = Base64.getEncoder().encodeToString((username + ":" + password).getBytes());
-
-        Request request = new Request.Builder()
+    /**
+     * Posts the manifest of a transfer as JSON.
+     */
+    public Result<Void> postManifest(String url, String username, String password, TransferManifest manifest) {
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(manifest);
+        } catch (JsonProcessingException e) {
+            return Result.failure("Failed to serialize manifest: " + e.getMessage());
+        }
+        Request request = authorizedRequest(username, password)
                 .url(url)
-                .header("Authorization", "Basic " + encodedAuth)
-                .get()
+                .post(RequestBody.create(json, MediaType.get("application/json")))
                 .build();
 
         try (Response response = httpClient.execute(request)) {
-            if (response.isSuccessful()) {
-                monitor.debug(format("HTTP request to %s was successful with status code %d and message %s",
-                        url, response.code(), response.message()));
+            if (!response.isSuccessful()) {
+                return Result.failure("Failed to post manifest: " + response.code() + " " + response.message());
+            }
+            return Result.success();
+        } catch (IOException e) {
+            return Result.failure("Exception occurred during HTTP request: " + e.getMessage());
+        }
+    }
+
+    private @Nullable StoreInstancesResponse readStoreInstancesResponse(String url, Response response) throws IOException {
+        var body = response.body();
+        var contentType = body != null ? body.contentType() : null;
+        if (contentType == null || !contentType.subtype().endsWith("json")) {
+            return null;
+        }
+        try {
+            return DicomJson.readStoreInstancesResponse(objectMapper.getFactory(), body.byteStream());
+        } catch (JsonProcessingException e) {
+            monitor.warning(format("Ignoring malformed STOW-RS response from %s: %s", url, e.getMessage()));
+            return null;
+        }
+    }
 
-                byte[] responseBody = response.body().bytes();
-                String responseHeaders = response.headers().toString();
+    /**
+     * Reads the {@code Retry-After} header, given either in seconds or as an HTTP date.
+     */
+    private static @Nullable Duration retryAfter(Response response) {
+        var value = response.header("Retry-After");
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            return Duration.ofSeconds(Math.max(0, Long.parseLong(value.trim())));
+        } catch (NumberFormatException e) {
+            try {
+                var date = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                var delay = Duration.between(ZonedDateTime.now(date.getZone()), date);
+                return delay.isNegative() ? Duration.ZERO : delay;
+            } catch (DateTimeParseException ignored) {
+                return null;
+            }
+        }
+    }
 
-                byte[] messageBytes = (responseHeaders + "\n").getBytes("ASCII");
-                byte[] combined = new byte[messageBytes.length + responseBody.length];
+    /**
+     * Executes a WADO-RS request and returns a reader over the multipart response. The response is not buffered, its
+     * parts are read from the connection as the reader is advanced. Closing the reader releases the response.
+     */
+    public Result<MultipartRelatedReader> wadoRs(String url, String username, String password) {
+        return wadoRs(url, username, password, List.of(), null);
+    }
 
-                System.arraycopy(messageBytes, 0, combined, 0, messageBytes.length);
-                System.arraycopy(responseBody, 0, combined, messageBytes.length, responseBody.length);
+    /**
+     * Executes a WADO-RS request asking for the instances in one of the given transfer syntaxes, in order of
+     * preference. Without transfer syntaxes the server returns its default encoding. If a compression is given, the
+     * response may be content-encoded and is decompressed while the parts are read.
+     *
+     * @see #acceptHeader(List)
+     */
+    public Result<MultipartRelatedReader> wadoRs(String url, String username, String password, List<String> transferSyntaxes,
+                                                 @Nullable HttpCompression compression) {
+        var requestBuilder = authorizedRequest(username, password)
+                .url(url)
+                .tag(DicomWebMetrics.Operation.class, WADO)
+                .get();
+        if (!transferSyntaxes.isEmpty()) {
+            requestBuilder.header("Accept", acceptHeader(transferSyntaxes));
+        }
+        if (compression != null) {
+            // an explicit Accept-Encoding turns off transparent decompression, so the saved bytes can be counted
+            requestBuilder.header("Accept-Encoding", compression.acceptEncoding());
+        }
+        Request request = requestBuilder.build();
 
-                try {
-                    MimeMessage message = new MimeMessage(Session.getDefaultInstance(new Properties()), new ByteArrayInputStream(combined));
-                    MimeMultipart multipart = (MimeMultipart) message.getContent();
+        var host = DicomWebMetrics.host(url);
+        var start = System.nanoTime();
+        Response response;
+        try {
+            response = httpClient.execute(request);
+        } catch (IOException e) {
+            metrics.requestCompleted(host, WADO, NO_STATUS, elapsedSince(start));
+            return Result.failure("Exception occurred during HTTP request: " + e.getMessage());
+        }
+        metrics.timeToFirstByte(host, WADO, elapsedSince(start));
 
-                    List<byte[]> dicomDataList = new ArrayList<>();
-                    for (int i = 0; i < multipart.getCount(); i++) {
-                        BodyPart part = multipart.getBodyPart(i);
-                        byte[] dicomData = part.getInputStream().readAllBytes();
-                        dicomDataList.add(dicomData);
-                    }
-                    return Result.success(dicomDataList);
-                } catch (MessagingException e) {
-                    return Result.failure("Failed to parse MIME message: " + e.getMessage());
-                }
-            } else {
-                return Result.failure("Failed to execute WADO-RS: " + response.message());
+        if (!response.isSuccessful()) {
+            response.close();
+            metrics.requestCompleted(host, WADO, response.code(), elapsedSince(start));
+            if (response.code() == 406) {
+                return Result.failure("Failed to execute WADO-RS: none of the transfer syntaxes %s is available, add * to accept any"
+                        .formatted(transferSyntaxes));
             }
+            return Result.failure("Failed to execute WADO-RS: " + response.message());
+        }
+        monitor.debug(format("HTTP request to %s was successful with status code %d and message %s",
+                url, response.code(), response.message()));
+
+        var contentType = response.body().contentType();
+        var boundary = contentType != null ? contentType.parameter("boundary") : null;
+        if (boundary == null) {
+            response.close();
+            metrics.requestCompleted(host, WADO, response.code(), elapsedSince(start));
+            return Result.failure("Failed to parse multipart response: no boundary in content type " + contentType);
+        }
+        var received = new CountingInputStream(response.body().byteStream());
+        try {
+            InputStream body = received;
+            if (compression != null) {
+                body = compression.decode(response.header("Content-Encoding"), body);
+            }
+            var reader = new MultipartRelatedReader(body, boundary);
+            var statusCode = response.code();
+            // the response is read while the parts are consumed, so it is complete once the reader is closed
+            reader.onClose(() -> {
+                metrics.requestCompleted(host, WADO, statusCode, elapsedSince(start));
+                metrics.bytesTransferred(host, WADO, received.count());
+                metrics.instancesTransferred(host, WADO, reader.partCount());
+                metrics.responseParsed(host, WADO, Duration.ofNanos(reader.parseNanos()));
+            });
+            return Result.success(reader);
+        } catch (IOException e) {
+            response.close();
+            metrics.requestCompleted(host, WADO, response.code(), elapsedSince(start));
+            return Result.failure("Failed to decode WADO-RS response: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Executes a WADO-RS metadata request for the study, series or instance at the given url and returns a reader over
+     * the datasets of the response. The response is not buffered, its datasets are parsed from the connection one at a
+     * time as the reader is advanced. Closing the reader releases the response. If a compression is given, the response
+     * may be content-encoded and is decompressed while it is read.
+     */
+    public Result<DicomJson.DatasetReader> wadoRsMetadata(String url, String username, String password, @Nullable HttpCompression compression) {
+        var requestBuilder = authorizedRequest(username, password)
+                .url(url + "/metadata")
+                .header("Accept", "application/dicom+json")
+                .tag(DicomWebMetrics.Operation.class, WADO)
+                .get();
+        if (compression != null) {
+            requestBuilder.header("Accept-Encoding", compression.acceptEncoding());
+        }
+        Request request = requestBuilder.build();
+
+        var host = DicomWebMetrics.host(url);
+        var start = System.nanoTime();
+        Response response;
+        try {
+            response = httpClient.execute(request);
         } catch (IOException e) {
+            metrics.requestCompleted(host, WADO, NO_STATUS, elapsedSince(start));
             return Result.failure("Exception occurred during HTTP request: " + e.getMessage());
         }
+        metrics.timeToFirstByte(host, WADO, elapsedSince(start));
+
+        if (!response.isSuccessful()) {
+            response.close();
+            metrics.requestCompleted(host, WADO, response.code(), elapsedSince(start));
+            return Result.failure("Failed to execute WADO-RS metadata request: " + response.message());
+        }
+        monitor.debug(format("HTTP request to %s was successful with status code %d and message %s",
+                url, response.code(), response.message()));
+
+        var received = new CountingInputStream(response.body().byteStream());
+        try {
+            InputStream body = received;
+            if (compression != null) {
+                body = compression.decode(response.header("Content-Encoding"), body);
+            }
+            var reader = new DicomJson.DatasetReader(objectMapper.getFactory(), body);
+            var statusCode = response.code();
+            // the response is read while the datasets are consumed, so it is complete once the reader is closed
+            received.onClose(() -> {
+                metrics.requestCompleted(host, WADO, statusCode, elapsedSince(start));
+                metrics.bytesTransferred(host, WADO, received.count());
+            });
+            return Result.success(reader);
+        } catch (IOException e) {
+            response.close();
+            metrics.requestCompleted(host, WADO, response.code(), elapsedSince(start));
+            return Result.failure("Failed to decode WADO-RS metadata response: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Builds the WADO-RS {@code Accept} header for an ordered list of transfer syntaxes (PS3.18 8.7.3). Every entry is
+     * either a transfer syntax UID, {@code *} for any transfer syntax, or a complete media range that is used as is.
+     * Entries get decreasing quality values so the server picks the first one it can provide.
+     */
+    public static String acceptHeader(List<String> transferSyntaxes) {
+        var mediaRanges = new ArrayList<String>();
+        for (var i = 0; i < transferSyntaxes.size(); i++) {
+            var entry = transferSyntaxes.get(i).trim();
+            var mediaRange = entry.contains("/") ? entry : "multipart/related; type=\"application/dicom\"; transfer-syntax=" + entry;
+            var quality = Math.max(1, 10 - i);
+            mediaRanges.add(quality == 10 ? mediaRange : mediaRange + "; q=0." + quality);
+        }
+        return String.join(", ", mediaRanges);
+    }
+
+    /**
+     * Returns the SOP Instance UIDs of all instances the server holds for a study, querying
+     * {@code {studiesUrl}/{study}/instances} with QIDO-RS in pages of the given size. A study the server does not know
+     * yields an empty set. The set is immutable and backed by a single open addressing table.
+     */
+    public Result<Set<String>> sopInstanceUids(String studiesUrl, String studyInstanceUid, String username, String password, int pageSize) {
+        return qidoRs(studiesUrl + "/" + studyInstanceUid + "/instances", Map.of(), username, password, Set.of(DicomTags.SOP_INSTANCE_UID), pageSize)
+                .map(instances -> instances.stream()
+                        .map(attributes -> attributes.get(DicomTags.SOP_INSTANCE_UID))
+                        .filter(Objects::nonNull)
+                        .collect(Collectors.toUnmodifiableSet()));
+    }
+
+    /**
+     * Executes a QIDO-RS search with the given match keys and returns the first values of the requested tags for all
+     * matches, fetching them in pages of the given size until a page comes back short. The requested tags are added as
+     * {@code includefield}, and the responses are parsed as a stream so attributes that are not requested are never
+     * materialized. A resource the server does not know yields no matches.
+     */
+    public Result<List<Map<String, String>>> qidoRs(String url, Map<String, String> matchKeys, String username, String password,
+                                                    Set<String> tags, int pageSize) {
+        var searchUrl = HttpUrl.parse(url);
+        if (searchUrl == null) {
+            return Result.failure("Invalid QIDO-RS url " + url);
+        }
+        var matches = new ArrayList<Map<String, String>>();
+        for (var offset = 0; ; offset += pageSize) {
+            var pageUrl = searchUrl.newBuilder();
+            matchKeys.forEach(pageUrl::addQueryParameter);
+            tags.forEach(tag -> pageUrl.addQueryParameter("includefield", tag));
+            var request = authorizedRequest(username, password)
+                    .url(pageUrl
+                            .addQueryParameter("limit", String.valueOf(pageSize))
+                            .addQueryParameter("offset", String.valueOf(offset))
+                            .build())
+                    .header("Accept", "application/dicom+json")
+                    .tag(DicomWebMetrics.Operation.class, QIDO)
+                    .get()
+                    .build();
+            List<Map<String, String>> page;
+            try {
+                var response = executeQido(request, tags);
+                if (response.statusCode() == 404) {
+                    break;
+                }
+                if (!response.isSuccessful()) {
+                    return Result.failure("Failed to execute QIDO-RS: " + response.message());
+                }
+                page = response.matches();
+            } catch (IOException e) {
+                return Result.failure("Exception occurred during HTTP request: " + e.getMessage());
+            }
+            matches.addAll(page);
+            // a server that ignores the limit returns everything at once
+            if (page.size() != pageSize) {
+                break;
+            }
+        }
+        return Result.success(matches);
+    }
+
+    /**
+     * Executes a QIDO-RS request and parses the matches of a successful response as a stream.
+     */
+    private QidoResponse executeQido(Request request, Set<String> tags) throws IOException {
+        var host = DicomWebMetrics.host(request.url().toString());
+        var start = System.nanoTime();
+        var statusCode = NO_STATUS;
+        try (Response response = httpClient.execute(request)) {
+            statusCode = response.code();
+            metrics.timeToFirstByte(host, QIDO, elapsedSince(start));
+            if (!response.isSuccessful() || response.code() == 204) {
+                return new QidoResponse(response.code(), response.message(), List.of());
+            }
+            var body = new CountingInputStream(response.body().byteStream());
+            try {
+                return new QidoResponse(response.code(), response.message(), DicomJson.readFirstValues(objectMapper.getFactory(), body, tags));
+            } finally {
+                metrics.bytesTransferred(host, QIDO, body.count());
+            }
+        } finally {
+            metrics.requestCompleted(host, QIDO, statusCode, elapsedSince(start));
+        }
+    }
+
+    /**
+     * Starts a request authenticated with HTTP Basic credentials.
+     */
+    private static Request.Builder authorizedRequest(String username, String password) {
+        return new Request.Builder().header("Authorization", Credentials.basic(username, password, StandardCharsets.UTF_8));
+    }
+
+    private static Duration elapsedSince(long startNanos) {
+        return Duration.ofNanos(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Returns the Study Instance UID of a {@code .../studies/{study}} url, or null if the url does not point to a
+     * study.
+     */
+    @Nullable
+    public static String studyInstanceUid(String url) {
+        var path = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+        var slash = path.lastIndexOf('/');
+        if (slash < 0 || !path.substring(0, slash).endsWith("/studies")) {
+            return null;
+        }
+        var uid = path.substring(slash + 1);
+        return uid.matches("[0-9]+(\\.[0-9]+)*") ? uid : null;
+    }
+
+    private record QidoResponse(int statusCode, String message, List<Map<String, String>> matches) {
+
+        boolean isSuccessful() {
+            return statusCode >= 200 && statusCode < 300;
+        }
+    }
+
+    /**
+     * Counts the bytes of a request body as they are written to the connection, and notes when the body has been
+     * sent completely.
+     */
+    private static class MeteredRequestBody extends RequestBody {
+        private final RequestBody delegate;
+        private volatile long bytesWritten;
+        private volatile long sentAt;
+
+        MeteredRequestBody(RequestBody delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return delegate.contentType();
+        }
+
+        @Override
+        public long contentLength() throws IOException {
+            return delegate.contentLength();
+        }
+
+        @Override
+        public boolean isOneShot() {
+            return delegate.isOneShot();
+        }
+
+        @Override
+        public void writeTo(@NotNull BufferedSink sink) throws IOException {
+            var counting = Okio.buffer(new ForwardingSink(sink) {
+                @Override
+                public void write(@NotNull Buffer source, long byteCount) throws IOException {
+                    super.write(source, byteCount);
+                    bytesWritten += byteCount;
+                }
+            });
+            delegate.writeTo(counting);
+            counting.emit();
+            sentAt = System.nanoTime();
+        }
+
+        long bytesWritten() {
+            return bytesWritten;
+        }
+
+        long sentAt() {
+            return sentAt;
+        }
     }
-}
\ No newline at end of file
+}
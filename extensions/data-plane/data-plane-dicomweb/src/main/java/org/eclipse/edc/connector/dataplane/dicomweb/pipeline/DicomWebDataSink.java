@@ -14,54 +14,474 @@
 
 package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
 
+import org.eclipse.edc.connector.dataplane.dicomweb.checkpoint.DicomWebCheckpointStore;
+import org.eclipse.edc.connector.dataplane.dicomweb.metadata.TransferPriority;
+import org.eclipse.edc.connector.dataplane.dicomweb.metrics.DicomWebMetrics;
 import org.eclipse.edc.connector.dataplane.spi.pipeline.DataSource;
 import org.eclipse.edc.connector.dataplane.spi.pipeline.StreamResult;
 import org.eclipse.edc.connector.dataplane.util.sink.ParallelSink;
 import org.eclipse.edc.spi.monitor.Monitor;
+import org.jetbrains.annotations.Nullable;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
 
 import static java.lang.String.format;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.CompletableFuture.delayedExecutor;
+import static java.util.concurrent.CompletableFuture.runAsync;
+import static java.util.concurrent.CompletableFuture.supplyAsync;
+import static org.eclipse.edc.connector.dataplane.dicomweb.metrics.DicomWebMetrics.Operation.STOW;
 
 /**
  * A sink that writes DICOM data to a DICOMweb endpoint.
+ * <p>
+ * The parts of a transfer are uploaded in STOW-RS batches bounded by instance count and size. Up to
+ * {@code maxConcurrentRequests} batches are in flight at the same time. Parts that are not DICOM instances, such as the
+ * metadata or bulk data parts of a DICOMweb source, are not sent and fail the transfer.
+ * <p>
+ * Every instance of a successful batch is recorded in the checkpoint store under the id of the transfer. When the
+ * transfer is restarted after a failure, recorded instances are skipped, and the records are removed once the whole
+ * transfer has succeeded.
+ * <p>
+ * The Store Instances Response of the destination is evaluated per instance. Instances that failed for transient
+ * reasons, or that were part of a request the destination was too busy to accept, are sent again up to
+ * {@code maxRetries} times with exponential backoff, honoring {@code Retry-After}. Sending an instance again needs a
+ * copy, as its content is streamed from the source: with {@code maxRetainedBytes} set, the instances of a batch are
+ * retained in the spill buffer of the transfer until the batch has been acknowledged, up to that many bytes for all
+ * batches in flight. Instances that were not retained fail the transfer if the destination asks for them again, which
+ * the checkpoint store lets a restart pick up from. Retention is off by default, so that instances are not written to
+ * the spill buffer on every transfer for the sake of the rare retry.
+ * <p>
+ * With a {@link BatchScheduler}, every STOW-RS batch is scheduled by the {@link TransferPriority} of the transfer, so
+ * an urgent transfer does not wait for bulk transfers that started before it to finish.
+ * <p>
+ * With a {@link MemoryBudget}, the transfer queues for admission before its source is opened, without holding a thread
+ * while it waits. A DICOMweb source of the same transfer shares the admission.
+ * <p>
+ * With delta sync, the destination is asked for the instances of the study it already holds before anything is sent.
+ * Those instances are skipped like the ones recorded in the checkpoint store, which requires the parts to be
+ * identifiable by their SOP Instance UID.
+ * <p>
+ * With checksums, every instance is checksummed while it is read for its first STOW-RS request, and a successful
+ * transfer results in a {@link TransferManifest} of the instances it sent, which is also posted to the manifest url if
+ * one is set. Instances skipped by checkpoints or delta sync are not part of the manifest.
+ * <p>
+ * A {@link ContinuousDataSource} is transferred cycle by cycle until it is closed, each cycle like a transfer of its
+ * own that is acknowledged to the source once it has been stored.
  */
 public class DicomWebDataSink extends ParallelSink {
     private static final StreamResult<Object> ERROR_WRITING_DATA = StreamResult.error("Error writing data");
+    private static final int DELTA_SYNC_PAGE_SIZE = 1000;
 
     private String url;
     private String username;
     private String password;
     private DicomWebClient dicomWebClient;
     private Monitor monitor;
+    private int maxInstancesPerRequest = Integer.MAX_VALUE;
+    private long maxBytesPerRequest = Long.MAX_VALUE;
+    private int maxConcurrentRequests = 1;
+    private DicomWebCheckpointStore checkpointStore;
+    private int maxRetries = 3;
+    private long maxRetainedBytes;
+    private RetryBackoff backoff = new RetryBackoff(Duration.ofSeconds(1));
+    private SpillBuffer.Settings spillSettings;
+    private HttpCompression.Encoding contentEncoding;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private String deltaSyncStudyInstanceUid;
+    private DicomWebMetrics metrics = DicomWebMetrics.NOOP;
+    private MemoryBudget memoryBudget = MemoryBudget.UNLIMITED;
+    private BatchScheduler batchScheduler;
+    private TransferPriority priority = TransferPriority.NORMAL;
+    private String checkpointKey;
+    private List<ChecksumAlgorithm> checksums = List.of();
+    private String manifestUrl;
 
     @Override
-    protected StreamResult<Object> transferParts(List<DataSource.Part> parts) {
-        List<byte[]> dicomDataList = new ArrayList<>();
-        for (var part : parts) {
-            try (var inputStream = part.openStream()) {
-                byte[] data = inputStream.readAllBytes();
-                dicomDataList.add(data);
-            } catch (Exception e) {
-                monitor.severe(format("Error reading DICOM data %s", part.name()), e);
-                return ERROR_WRITING_DATA;
+    public CompletableFuture<StreamResult<Object>> transfer(DataSource source) {
+        if (source instanceof ContinuousDataSource continuousSource) {
+            var result = new CompletableFuture<StreamResult<Object>>();
+            transferNextCycle(continuousSource, result);
+            return result;
+        }
+        // the source is opened once the transfer has been admitted, so that a DICOMweb source shares the admission
+        return admitted(() -> {
+            var streamResult = source.openPartStream();
+            if (streamResult.failed()) {
+                return completedFuture(StreamResult.failure(streamResult.getFailure()));
             }
+            return transferStream(streamResult.getContent());
+        })
+                .exceptionally(throwable -> StreamResult.error("Unhandled exception raised when transferring data: " + throwable.getMessage()));
+    }
+
+    /**
+     * Transfers the cycles of a continuous source one after the other, acknowledging each once it has been stored. Each
+     * cycle is chained anew, so the chain does not grow with the lifetime of the sync. The transfer ends when the
+     * source is closed or a cycle fails, in which case the source produces the cycle again when restarted.
+     */
+    private void transferNextCycle(ContinuousDataSource source, CompletableFuture<StreamResult<Object>> result) {
+        source.nextPartStream()
+                .thenCompose(streamResult -> {
+                    if (streamResult.failed()) {
+                        return completedFuture(StreamResult.<Object>failure(streamResult.getFailure()));
+                    }
+                    if (streamResult.getContent() == null) {
+                        result.complete(StreamResult.success());
+                        return completedFuture(null);
+                    }
+                    var partStream = streamResult.getContent();
+                    return admitted(() -> transferStream(partStream)).whenComplete((cycleResult, throwable) -> partStream.close());
+                })
+                .whenComplete((cycleResult, throwable) -> {
+                    if (throwable != null) {
+                        result.complete(StreamResult.error("Unhandled exception raised when transferring data: " + throwable.getMessage()));
+                    } else if (cycleResult != null && cycleResult.failed()) {
+                        result.complete(cycleResult);
+                    } else if (cycleResult != null) {
+                        source.acknowledge();
+                        transferNextCycle(source, result);
+                    }
+                });
+    }
+
+    /**
+     * Runs a transfer on the executor once it has been admitted to the memory budget and closes the admission when it
+     * has ended. The transfer queues for admission without holding a thread of the executor.
+     */
+    private CompletableFuture<StreamResult<Object>> admitted(Supplier<CompletableFuture<StreamResult<Object>>> transfer) {
+        return memoryBudget.admitAsync(requestId, DicomWebMetrics.host(url))
+                .thenComposeAsync(admission -> {
+                    if (admission.failed()) {
+                        monitor.severe(admission.getFailureDetail());
+                        return completedFuture(StreamResult.error(admission.getFailureDetail()));
+                    }
+                    try {
+                        return transfer.get()
+                                .whenComplete((result, throwable) -> admission.getContent().close());
+                    } catch (RuntimeException e) {
+                        admission.getContent().close();
+                        throw e;
+                    }
+                }, executorService);
+    }
+
+    /**
+     * Uploads a finite part stream in STOW-RS batches and closes it.
+     */
+    private CompletableFuture<StreamResult<Object>> transferStream(Stream<DataSource.Part> partStream) {
+        var host = DicomWebMetrics.host(url);
+        var completed = checkpointStore.completedInstances(checkpointKey());
+        if (!completed.isEmpty()) {
+            monitor.info(format("Resuming transfer %s, skipping up to %d instances already stored at %s", requestId, completed.size(), url));
         }
+        var existing = queryExistingInstances();
+        var spillBuffer = new SpillBuffer(spillSettings, memoryBudget, delta -> metrics.heapBytesBufferedChanged(host, delta));
+        var retention = maxRetries > 0 && maxRetainedBytes > 0 ? new RetainedPart.Retention(spillBuffer, maxRetainedBytes) : null;
+        var context = new TransferContext(spillBuffer, retention,
+                contentEncoding == null ? null : new HttpCompression(List.of(contentEncoding), compressionLevel),
+                checksums.isEmpty() ? null : new TransferManifest.Recorder(checksums), new ConcurrentLinkedQueue<>());
+        var parts = partStream.<DataSource.Part>map(DicomInstanceParts::identify)
+                .filter(part -> isInstance(part, context) && isPending(part, completed) && isPending(part, existing));
+        var batcher = new PartBatcher(parts.iterator(), maxInstancesPerRequest, maxBytesPerRequest);
+        metrics.transferStarted(host);
+        var senders = IntStream.range(0, maxConcurrentRequests)
+                .mapToObj(i -> {
+                    var results = new CompletableFuture<List<StreamResult<Object>>>();
+                    transferNextBatch(batcher, context, new ArrayList<>(), results);
+                    return results;
+                })
+                .toList();
+        return CompletableFuture.allOf(senders.toArray(CompletableFuture[]::new))
+                .thenApply(v -> senders.stream().flatMap(sender -> sender.join().stream()).toList())
+                .thenApply(results -> aggregate(results, context))
+                .whenComplete((result, throwable) -> {
+                    partStream.close();
+                    context.close();
+                    checkpointStore.release(checkpointKey());
+                    metrics.transferFinished(host);
+                });
+    }
 
-        var result = dicomWebClient.stowRs(url, username, password, dicomDataList);
+    @Override
+    protected StreamResult<Object> transferParts(List<DataSource.Part> parts) {
+        var result = dicomWebClient.stowRs(url, username, password, parts);
         if (!result.succeeded()) {
-            monitor.severe(format("Error writing DICOM data to endpoint %s: %s", url, result.getFailureDetail()));
+            monitor.severe(format("Error writing DICOM data %s to endpoint %s: %s",
+                    parts.stream().map(DataSource.Part::name).toList(), url,
+                    Objects.requireNonNullElse(result.failureDetail(), "rejected by destination")));
             return ERROR_WRITING_DATA;
         }
 
         return StreamResult.success();
     }
 
+    /**
+     * Sends batches one after the other until the part stream is exhausted, each scheduled on its own so that batches
+     * of transfers with a higher priority can go first. Several senders run concurrently and share the batcher. Like
+     * the cycles of a continuous source, each batch is chained anew.
+     */
+    private void transferNextBatch(PartBatcher batcher, TransferContext context, List<StreamResult<Object>> results,
+                                   CompletableFuture<List<StreamResult<Object>>> done) {
+        schedule(() -> {
+            var batch = batcher.nextBatch();
+            return batch == null ? null : transferBatch(batch, context)
+                    .exceptionally(throwable -> {
+                        var cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+                        monitor.severe(format("Error writing DICOM data %s to endpoint %s", batch.partNames(), url), cause);
+                        return StreamResult.error(cause.getMessage());
+                    });
+        }).thenCompose(sent -> sent != null ? sent : completedFuture(null)).whenComplete((result, throwable) -> {
+            if (throwable != null) {
+                done.completeExceptionally(throwable);
+            } else if (result != null) {
+                results.add(result);
+                transferNextBatch(batcher, context, results, done);
+            } else {
+                done.complete(results);
+            }
+        });
+    }
+
+    private <T> CompletableFuture<T> schedule(Supplier<T> work) {
+        return batchScheduler != null
+                ? batchScheduler.submit(priority, DicomWebMetrics.host(url), work)
+                : supplyAsync(work, executorService);
+    }
+
+    /**
+     * Sends a batch. The instances the destination could not store for transient reasons are sent again after a
+     * backoff delay, until all are stored or the retries are used up. Every attempt after the first is scheduled anew
+     * once its delay has passed, so that no thread waits out the delay.
+     */
+    private CompletableFuture<StreamResult<Object>> transferBatch(PartBatcher.Batch batch, TransferContext context) {
+        var sent = new ArrayList<RetainedPart>();
+        var done = new CompletableFuture<StreamResult<Object>>();
+        try {
+            var parts = new Iterator<DataSource.Part>() {
+                @Override
+                public boolean hasNext() {
+                    return batch.hasNext();
+                }
+
+                @Override
+                public DataSource.Part next() {
+                    var part = new RetainedPart(batch.next(), context.retention(), context.manifest());
+                    sent.add(part);
+                    return part;
+                }
+            };
+            var result = dicomWebClient.stowRs(url, username, password, parts, context.compression());
+            completeAttempt(result, 1, sent, sent, new ArrayList<>(), context, done);
+        } catch (RuntimeException e) {
+            done.completeExceptionally(e);
+        }
+        return done.whenComplete((result, throwable) -> sent.forEach(RetainedPart::close));
+    }
+
+    /**
+     * Records the outcome of an attempt for every instance it sent, and either completes the batch or schedules the
+     * next attempt.
+     *
+     * @param result  the response of the destination to the attempt.
+     * @param attempt the number of the attempt, starting with 1.
+     * @param sent    all instances of the batch.
+     * @param pending the instances sent by the attempt.
+     * @param failed  the names of the instances of the batch that could not be stored.
+     */
+    private void completeAttempt(StowResult result, int attempt, List<RetainedPart> sent, List<RetainedPart> pending, List<String> failed,
+                                 TransferContext context, CompletableFuture<StreamResult<Object>> done) {
+        var stored = new ArrayList<String>();
+        var retryable = new ArrayList<RetainedPart>();
+        var notRetained = 0;
+        for (var part : pending) {
+            switch (result.outcome(part.sopInstanceUid())) {
+                case STORED -> {
+                    if (part.sopInstanceUid() != null) {
+                        stored.add(part.sopInstanceUid());
+                    }
+                }
+                case RETRYABLE -> {
+                    if (part.isReplayable()) {
+                        retryable.add(part);
+                    } else {
+                        failed.add(part.name());
+                        notRetained++;
+                    }
+                }
+                default -> failed.add(part.name());
+            }
+        }
+        checkpoint(stored);
+        metrics.instancesTransferred(DicomWebMetrics.host(url), STOW, stored.size());
+        if (notRetained > 0 && context.retention() == null) {
+            monitor.warning(format("%d DICOM instances of transfer %s cannot be sent to %s again, set maxRetainedBytes to retain instances for retries",
+                    notRetained, requestId, url));
+        } else if (notRetained > 0) {
+            monitor.warning(format("%d DICOM instances of transfer %s cannot be sent to %s again, they were sent beyond the %d bytes retained for retries",
+                    notRetained, requestId, url, maxRetainedBytes));
+        }
+        if (!retryable.isEmpty() && attempt > maxRetries) {
+            retryable.forEach(part -> failed.add(part.name()));
+        } else if (!retryable.isEmpty()) {
+            metrics.retried(DicomWebMetrics.host(url), STOW, retryable.size());
+            var delay = backoff.delay(attempt, result.retryAfter());
+            monitor.warning(format("Sending %d of %d DICOM instances to %s again in %d ms: %s", retryable.size(), sent.size(), url,
+                    delay.toMillis(), Objects.requireNonNullElse(result.failureDetail(), "destination reported transient failures")));
+            runAsync(() -> { }, delayedExecutor(delay.toMillis(), TimeUnit.MILLISECONDS))
+                    .thenCompose(v -> schedule(() -> dicomWebClient.stowRs(url, username, password, List.copyOf(retryable), context.compression())))
+                    .whenComplete((next, throwable) -> {
+                        if (throwable != null) {
+                            done.completeExceptionally(throwable);
+                        } else {
+                            completeAttempt(next, attempt + 1, sent, retryable, failed, context, done);
+                        }
+                    });
+            return;
+        }
+        if (failed.isEmpty()) {
+            done.complete(StreamResult.success());
+            return;
+        }
+        var detail = format("%d of %d DICOM instances could not be stored at %s: %s", failed.size(), sent.size(), url,
+                Objects.requireNonNullElse(result.failureDetail(), "rejected by destination"));
+        monitor.severe(format("Error writing DICOM data %s: %s", failed, detail));
+        done.complete(StreamResult.error(detail));
+    }
+
+    /**
+     * Lets DICOM instances through and sets aside any other part, which STOW-RS cannot store, to fail the transfer
+     * once the instances have been sent.
+     */
+    private boolean isInstance(DataSource.Part part, TransferContext context) {
+        if (DicomInstanceParts.isInstance(part)) {
+            return true;
+        }
+        context.rejected().add(part.name() + " (" + part.mediaType() + ")");
+        DicomInstanceParts.discard(part);
+        return false;
+    }
+
+    private boolean isPending(DataSource.Part part, Set<String> completed) {
+        var sopInstanceUid = DicomInstanceParts.sopInstanceUid(part);
+        if (sopInstanceUid == null || !completed.contains(sopInstanceUid)) {
+            return true;
+        }
+        DicomInstanceParts.discard(part);
+        return false;
+    }
+
+    /**
+     * Asks the destination which instances of the study it already holds, if delta sync is enabled. If the query
+     * fails, all instances are sent.
+     */
+    private Set<String> queryExistingInstances() {
+        if (deltaSyncStudyInstanceUid == null) {
+            return Set.of();
+        }
+        var result = dicomWebClient.sopInstanceUids(studiesUrl(), deltaSyncStudyInstanceUid, username, password, DELTA_SYNC_PAGE_SIZE);
+        if (result.failed()) {
+            monitor.warning(format("Failed to query the instances of study %s at %s, sending all instances: %s",
+                    deltaSyncStudyInstanceUid, url, result.getFailureDetail()));
+            return Set.of();
+        }
+        var existing = result.getContent();
+        monitor.info(format("Destination %s already holds %d instances of study %s, which are not sent again", url, existing.size(), deltaSyncStudyInstanceUid));
+        return existing;
+    }
+
+    /**
+     * Returns the {@code /studies} resource of the destination, which STOW-RS may target directly or through a study.
+     */
+    private String studiesUrl() {
+        var base = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+        if (DicomWebClient.studyInstanceUid(base) != null) {
+            return base.substring(0, base.lastIndexOf('/'));
+        }
+        return base.endsWith("/studies") ? base : base + "/studies";
+    }
+
+    /**
+     * Posts the manifest to the manifest url, if one is set. The instances have been stored at this point, so failing
+     * to post the manifest does not fail the transfer, which still carries the manifest in its result.
+     */
+    private void publish(TransferManifest manifest) {
+        if (manifestUrl == null) {
+            return;
+        }
+        var result = dicomWebClient.postManifest(manifestUrl, username, password, manifest);
+        if (result.failed()) {
+            monitor.warning(format("Failed to post the manifest of %d DICOM instances of transfer %s to %s: %s",
+                    manifest.instances().size(), requestId, manifestUrl, result.getFailureDetail()));
+        }
+    }
+
+    private String checkpointKey() {
+        return checkpointKey != null ? checkpointKey : requestId;
+    }
+
+    private void checkpoint(List<String> sopInstanceUids) {
+        try {
+            checkpointStore.markCompleted(checkpointKey(), sopInstanceUids);
+        } catch (Exception e) {
+            // the instances have been stored, failing to record them only means they are sent again on restart
+            monitor.warning(format("Failed to record checkpoint for %d DICOM instances of transfer %s", sopInstanceUids.size(), requestId), e);
+        }
+    }
+
+    private StreamResult<Object> aggregate(List<StreamResult<Object>> results, TransferContext context) {
+        var compression = context.compression();
+        if (compression != null) {
+            monitor.info(format("Content-encoding saved %d bytes on STOW-RS requests of transfer %s", compression.bytesSaved(), requestId));
+        }
+        if (!context.rejected().isEmpty()) {
+            var detail = format("%d parts of transfer %s are not DICOM instances and were not sent to %s, e.g. %s", context.rejected().size(),
+                    requestId, url, context.rejected().stream().limit(10).toList());
+            monitor.severe(detail);
+            return StreamResult.error(detail);
+        }
+        var failed = results.stream().filter(StreamResult::failed).toList();
+        if (failed.isEmpty()) {
+            checkpointStore.clear(checkpointKey());
+            if (context.manifest() == null) {
+                return StreamResult.success();
+            }
+            var manifest = context.manifest().manifest(requestId, null, url);
+            publish(manifest);
+            return StreamResult.success(manifest);
+        }
+        monitor.severe(format("%d of %d STOW-RS requests to %s failed for transfer %s", failed.size(), results.size(), url, requestId));
+        return ERROR_WRITING_DATA;
+    }
+
     private DicomWebDataSink() {
     }
 
+    /**
+     * The state shared by the senders of one transfer.
+     */
+    private record TransferContext(SpillBuffer spillBuffer, @Nullable RetainedPart.Retention retention, @Nullable HttpCompression compression,
+                                   @Nullable TransferManifest.Recorder manifest, Queue<String> rejected) {
+
+        void close() {
+            spillBuffer.close();
+        }
+    }
+
     public static class Builder extends ParallelSink.Builder<Builder, DicomWebDataSink> {
 
         public static Builder newInstance() {
@@ -97,6 +517,129 @@ public class DicomWebDataSink extends ParallelSink {
             return this;
         }
 
+        public Builder maxInstancesPerRequest(int maxInstancesPerRequest) {
+            sink.maxInstancesPerRequest = maxInstancesPerRequest;
+            return this;
+        }
+
+        public Builder maxBytesPerRequest(long maxBytesPerRequest) {
+            sink.maxBytesPerRequest = maxBytesPerRequest;
+            return this;
+        }
+
+        public Builder maxConcurrentRequests(int maxConcurrentRequests) {
+            sink.maxConcurrentRequests = maxConcurrentRequests;
+            return this;
+        }
+
+        public Builder checkpointStore(DicomWebCheckpointStore checkpointStore) {
+            sink.checkpointStore = checkpointStore;
+            return this;
+        }
+
+        public Builder spillSettings(SpillBuffer.Settings spillSettings) {
+            sink.spillSettings = spillSettings;
+            return this;
+        }
+
+        /**
+         * Sets the content encoding of STOW-RS request bodies. Only set this if the destination supports it.
+         */
+        public Builder contentEncoding(HttpCompression.Encoding contentEncoding) {
+            sink.contentEncoding = contentEncoding;
+            return this;
+        }
+
+        public Builder compressionLevel(int compressionLevel) {
+            sink.compressionLevel = compressionLevel;
+            return this;
+        }
+
+        /**
+         * Enables delta sync for the given study: before sending, the destination is queried with QIDO-RS for the
+         * instances of the study it already holds, and those are skipped.
+         */
+        public Builder deltaSync(String studyInstanceUid) {
+            sink.deltaSyncStudyInstanceUid = studyInstanceUid;
+            return this;
+        }
+
+        /**
+         * Sets the metrics to report to, attributed to the host of the url.
+         */
+        public Builder metrics(DicomWebMetrics metrics) {
+            sink.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * Sets the memory budget shared with the other transfers of the data plane, which the transfer waits to be
+         * admitted to. Without a budget the transfer starts at once and only its own memory budget applies.
+         */
+        public Builder memoryBudget(MemoryBudget memoryBudget) {
+            sink.memoryBudget = memoryBudget;
+            return this;
+        }
+
+        /**
+         * Sets the scheduler the STOW-RS batches are sent on, ordered by the priority of the transfer. Without a
+         * scheduler, batches are sent on the executor service in the order they are ready.
+         */
+        public Builder batchScheduler(BatchScheduler batchScheduler) {
+            sink.batchScheduler = batchScheduler;
+            return this;
+        }
+
+        public Builder priority(TransferPriority priority) {
+            sink.priority = priority;
+            return this;
+        }
+
+        /**
+         * Sets the key the stored instances are recorded under in the checkpoint store, the id of the transfer by
+         * default. Sinks that write the same transfer to different destinations need keys of their own.
+         */
+        public Builder checkpointKey(String checkpointKey) {
+            sink.checkpointKey = checkpointKey;
+            return this;
+        }
+
+        /**
+         * Sets the checksums computed over every instance sent, which the result of the transfer carries in a
+         * {@link TransferManifest}. Without checksums no manifest is made.
+         */
+        public Builder checksums(List<ChecksumAlgorithm> checksums) {
+            sink.checksums = checksums;
+            return this;
+        }
+
+        /**
+         * Sets the url the manifest of a successful transfer is posted to as JSON.
+         */
+        public Builder manifestUrl(String manifestUrl) {
+            sink.manifestUrl = manifestUrl;
+            return this;
+        }
+
+        public Builder maxRetries(int maxRetries) {
+            sink.maxRetries = maxRetries;
+            return this;
+        }
+
+        /**
+         * Bytes of the instances in flight the transfer retains for sending them again, across all batches, 0 by
+         * default. Instances sent beyond that cannot be retried.
+         */
+        public Builder maxRetainedBytes(long maxRetainedBytes) {
+            sink.maxRetainedBytes = maxRetainedBytes;
+            return this;
+        }
+
+        public Builder retryBackoff(Duration retryBackoff) {
+            sink.backoff = new RetryBackoff(retryBackoff);
+            return this;
+        }
+
         @Override
         protected void validate() {
             Objects.requireNonNull(sink.url, "url");
@@ -104,6 +647,22 @@ public class DicomWebDataSink extends ParallelSink {
             Objects.requireNonNull(sink.password, "password");
             Objects.requireNonNull(sink.dicomWebClient, "dicomWebClient");
             Objects.requireNonNull(sink.monitor, "monitor");
+            Objects.requireNonNull(sink.checkpointStore, "checkpointStore");
+            Objects.requireNonNull(sink.spillSettings, "spillSettings");
+            Objects.requireNonNull(sink.priority, "priority");
+            Objects.requireNonNull(sink.checksums, "checksums");
+            if (sink.manifestUrl != null && sink.checksums.isEmpty()) {
+                throw new IllegalArgumentException("Posting a manifest requires checksums");
+            }
+            if (sink.maxInstancesPerRequest < 1 || sink.maxBytesPerRequest < 1 || sink.maxConcurrentRequests < 1) {
+                throw new IllegalArgumentException("STOW-RS batch limits and concurrency must be positive");
+            }
+            if (sink.compressionLevel != Deflater.DEFAULT_COMPRESSION && (sink.compressionLevel < Deflater.NO_COMPRESSION || sink.compressionLevel > Deflater.BEST_COMPRESSION)) {
+                throw new IllegalArgumentException("compressionLevel must be between 0 and 9");
+            }
+            if (sink.maxRetries < 0 || sink.maxRetainedBytes < 0) {
+                throw new IllegalArgumentException("maxRetries and maxRetainedBytes must not be negative");
+            }
         }
     }
 }
\ No newline at end of file
@@ -14,23 +14,55 @@
 
 package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.eclipse.edc.connector.dataplane.dicomweb.checkpoint.DicomWebCheckpointStore;
 import org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema;
+import org.eclipse.edc.connector.dataplane.dicomweb.metadata.TransferPriority;
+import org.eclipse.edc.connector.dataplane.dicomweb.metrics.DicomWebMetrics;
 import org.eclipse.edc.connector.dataplane.spi.pipeline.DataSink;
 import org.eclipse.edc.connector.dataplane.spi.pipeline.DataSinkFactory;
 import org.eclipse.edc.spi.monitor.Monitor;
 import org.eclipse.edc.spi.result.Result;
 import org.eclipse.edc.spi.security.Vault;
+import org.eclipse.edc.spi.types.domain.DataAddress;
 import org.eclipse.edc.spi.types.domain.transfer.DataFlowStartMessage;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
+import java.util.zip.Deflater;
 
+import static org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema.CHECKSUMS;
+import static org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema.COMPRESSION_LEVEL;
+import static org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema.CONTENT_ENCODING;
+import static org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema.DELTA_SYNC;
+import static org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema.DESTINATIONS;
+import static org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema.FAN_OUT_BUFFER_BYTES;
+import static org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema.MANIFEST_URL;
+import static org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema.MAX_BYTES_PER_REQUEST;
+import static org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema.MAX_CONCURRENT_REQUESTS;
+import static org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema.MAX_INSTANCES_PER_REQUEST;
+import static org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema.MAX_RETAINED_BYTES;
+import static org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema.MAX_RETRIES;
 import static org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema.PASSWORD;
+import static org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema.PRIORITY;
+import static org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema.RETRY_BACKOFF_MILLIS;
+import static org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema.SLOW_DESTINATION;
+import static org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema.STUDY_INSTANCE_UID;
 import static org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema.URL;
 import static org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema.USERNAME;
+import static org.eclipse.edc.spi.constants.CoreConstants.EDC_NAMESPACE;
 
 /**
- * Instantiates {@link DicomWebDataSink}s for requests whose destination data type is {@link DicomWebSchema#TYPE}.
+ * Instantiates {@link DicomWebDataSink}s for requests whose destination data type is {@link DicomWebSchema#TYPE}, or a
+ * {@link DicomWebFanOutSink} over one {@link DicomWebDataSink} per destination if the destination address lists
+ * several {@link DicomWebSchema#DESTINATIONS}.
  */
 public class DicomWebDataSinkFactory implements DataSinkFactory {
 
@@ -38,12 +70,26 @@ public class DicomWebDataSinkFactory implements DataSinkFactory {
     private final Monitor monitor;
     private final Vault vault;
     private final ExecutorService executorService;
+    private final DicomWebCheckpointStore checkpointStore;
+    private final SpillBuffer.Settings spillSettings;
+    private final DicomWebMetrics metrics;
+    private final MemoryBudget memoryBudget;
+    private final BatchScheduler batchScheduler;
+    private final ObjectMapper objectMapper;
 
-    public DicomWebDataSinkFactory(DicomWebClient dicomWebClient, Monitor monitor, Vault vault, ExecutorService executorService) {
+    public DicomWebDataSinkFactory(DicomWebClient dicomWebClient, Monitor monitor, Vault vault, ExecutorService executorService,
+                                   DicomWebCheckpointStore checkpointStore, SpillBuffer.Settings spillSettings, DicomWebMetrics metrics,
+                                   MemoryBudget memoryBudget, BatchScheduler batchScheduler, ObjectMapper objectMapper) {
         this.dicomWebClient = dicomWebClient;
         this.monitor = monitor;
         this.vault = vault;
         this.executorService = executorService;
+        this.checkpointStore = checkpointStore;
+        this.spillSettings = spillSettings;
+        this.metrics = metrics;
+        this.memoryBudget = memoryBudget;
+        this.batchScheduler = batchScheduler;
+        this.objectMapper = objectMapper;
     }
 
     @Override
@@ -71,16 +117,137 @@ public class DicomWebDataSinkFactory implements DataSinkFactory {
         return Result.success();
     }
 
+    /**
+     * Returns the study to synchronize if delta sync is enabled, taken from the destination address, the url of the
+     * destination or the url of the source, in that order.
+     */
+    @Nullable
+    private String deltaSyncStudy(DataFlowStartMessage request, DataAddress dataAddress) {
+        if (!Boolean.parseBoolean(dataAddress.getStringProperty(DELTA_SYNC, "false"))) {
+            return null;
+        }
+        var study = dataAddress.getStringProperty(STUDY_INSTANCE_UID);
+        if (study == null) {
+            study = DicomWebClient.studyInstanceUid(dataAddress.getStringProperty(URL));
+        }
+        var source = request.getSourceDataAddress();
+        if (study == null && source != null && source.getStringProperty(URL) != null) {
+            study = DicomWebClient.studyInstanceUid(source.getStringProperty(URL));
+        }
+        if (study == null) {
+            throw new IllegalArgumentException("Delta sync requires the Study Instance UID, set %s on the destination".formatted(STUDY_INSTANCE_UID));
+        }
+        return study;
+    }
+
+    /**
+     * Returns the priority of the transfer, taken from the destination address, the properties of the transfer request
+     * or the source address, in that order.
+     */
+    private TransferPriority priority(DataFlowStartMessage request, DataAddress dataAddress) {
+        var priority = dataAddress.getStringProperty(PRIORITY);
+        if (priority == null) {
+            priority = request.getProperties().get(PRIORITY);
+        }
+        var source = request.getSourceDataAddress();
+        if (priority == null && source != null) {
+            priority = source.getStringProperty(PRIORITY);
+        }
+        return priority == null ? TransferPriority.NORMAL : TransferPriority.parse(priority);
+    }
+
     @Override
     public DataSink createSink(DataFlowStartMessage request) {
         var dataAddress = request.getDestinationDataAddress();
+        var destinations = dataAddress.getStringProperty(DESTINATIONS);
+        if (destinations != null) {
+            return createFanOutSink(request, destinations);
+        }
+        return createDicomWebSink(request, dataAddress, null);
+    }
+
+    /**
+     * Creates a sink per entry of the destinations, each with the properties of the destination address overridden by
+     * those of its entry. The sinks share the memory budget admission of the transfer, while the checkpoints of a
+     * destination are recorded under the id of the transfer suffixed with its index, so the list must keep its order
+     * when a transfer is restarted.
+     */
+    private DataSink createFanOutSink(DataFlowStartMessage request, String destinations) {
+        var dataAddress = request.getDestinationDataAddress();
+        List<Map<String, Object>> entries;
+        try {
+            entries = objectMapper.readValue(destinations, new TypeReference<>() {
+            });
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("%s must be a JSON array of destination properties: %s".formatted(DESTINATIONS, e.getOriginalMessage()));
+        }
+        var builder = DicomWebFanOutSink.Builder.newInstance()
+                .bufferSize(Integer.parseInt(dataAddress.getStringProperty(FAN_OUT_BUFFER_BYTES, String.valueOf(8 * 1024 * 1024))))
+                .slowDestinationPolicy(DicomWebFanOutSink.SlowDestinationPolicy.parse(dataAddress.getStringProperty(SLOW_DESTINATION, "throttle")))
+                .spillSettings(spillSettings)
+                .executorService(executorService)
+                .monitor(monitor)
+                .metrics(metrics)
+                .memoryBudget(memoryBudget)
+                .requestId(request.getId());
+        for (var i = 0; i < entries.size(); i++) {
+            var destination = destinationAddress(dataAddress, entries.get(i));
+            if (destination.getStringProperty(URL) == null) {
+                throw new IllegalArgumentException("Destination %d of %s has no %s".formatted(i, DESTINATIONS, URL));
+            }
+            builder.destination(destination.getStringProperty(URL), createDicomWebSink(request, destination, request.getId() + "-" + i));
+        }
+        return builder.build();
+    }
+
+    private static DataAddress destinationAddress(DataAddress dataAddress, Map<String, Object> entry) {
+        var properties = new HashMap<String, Object>();
+        dataAddress.getProperties().forEach((key, value) -> {
+            var name = key.startsWith(EDC_NAMESPACE) ? key.substring(EDC_NAMESPACE.length()) : key;
+            if (!DESTINATIONS.equals(name) && !entry.containsKey(name)) {
+                properties.put(key, value);
+            }
+        });
+        entry.forEach((key, value) -> properties.put(key, String.valueOf(value)));
+        return DataAddress.Builder.newInstance()
+                .properties(properties)
+                .type(dataAddress.getType())
+                .build();
+    }
+
+    private DicomWebDataSink createDicomWebSink(DataFlowStartMessage request, DataAddress dataAddress, @Nullable String checkpointKey) {
+        var contentEncodings = HttpCompression.Encoding.parseList(dataAddress.getStringProperty(CONTENT_ENCODING, ""));
+        if (contentEncodings.size() > 1) {
+            throw new IllegalArgumentException("A DICOMweb destination supports a single content encoding, but got " + contentEncodings);
+        }
+        var manifestUrl = dataAddress.getStringProperty(MANIFEST_URL);
+        // a manifest to post needs checksums, CRC-32C unless others are asked for
+        var checksums = ChecksumAlgorithm.parseList(dataAddress.getStringProperty(CHECKSUMS, manifestUrl != null ? ChecksumAlgorithm.CRC32C.token() : ""));
         var builder = DicomWebDataSink.Builder.newInstance()
                 .dicomWebClient(dicomWebClient)
                 .monitor(monitor)
                 .url(dataAddress.getStringProperty(URL))
                 .username(dataAddress.getStringProperty(USERNAME))
                 .password(dataAddress.getStringProperty(PASSWORD))
+                .maxInstancesPerRequest(Integer.parseInt(dataAddress.getStringProperty(MAX_INSTANCES_PER_REQUEST, String.valueOf(Integer.MAX_VALUE))))
+                .maxBytesPerRequest(Long.parseLong(dataAddress.getStringProperty(MAX_BYTES_PER_REQUEST, String.valueOf(Long.MAX_VALUE))))
+                .maxConcurrentRequests(Integer.parseInt(dataAddress.getStringProperty(MAX_CONCURRENT_REQUESTS, "1")))
+                .maxRetries(Integer.parseInt(dataAddress.getStringProperty(MAX_RETRIES, "3")))
+                .maxRetainedBytes(Long.parseLong(dataAddress.getStringProperty(MAX_RETAINED_BYTES, "0")))
+                .retryBackoff(Duration.ofMillis(Long.parseLong(dataAddress.getStringProperty(RETRY_BACKOFF_MILLIS, "1000"))))
+                .contentEncoding(contentEncodings.isEmpty() ? null : contentEncodings.get(0))
+                .compressionLevel(Integer.parseInt(dataAddress.getStringProperty(COMPRESSION_LEVEL, String.valueOf(Deflater.DEFAULT_COMPRESSION))))
+                .checkpointStore(checkpointStore)
+                .spillSettings(spillSettings)
+                .deltaSync(deltaSyncStudy(request, dataAddress))
+                .metrics(metrics)
+                .memoryBudget(memoryBudget)
+                .batchScheduler(batchScheduler)
+                .priority(priority(request, dataAddress))
+                .checksums(checksums)
+                .manifestUrl(manifestUrl)
                 .requestId(request.getId())
+                .checkpointKey(checkpointKey)
                 .executorService(executorService)
                 .build();
         if (builder == null) {
@@ -14,26 +14,88 @@
 
 package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
 
+import okhttp3.HttpUrl;
+import org.eclipse.edc.connector.dataplane.dicomweb.cache.DicomInstanceCache;
+import org.eclipse.edc.connector.dataplane.dicomweb.checkpoint.DicomWebCheckpointStore;
+import org.eclipse.edc.connector.dataplane.dicomweb.dicom.DeidentificationProfile;
+import org.eclipse.edc.connector.dataplane.dicomweb.dicom.DicomJson;
+import org.eclipse.edc.connector.dataplane.dicomweb.dicom.TransferSyntaxes;
+import org.eclipse.edc.connector.dataplane.dicomweb.metrics.DicomWebMetrics;
 import org.eclipse.edc.connector.dataplane.spi.pipeline.DataSource;
 import org.eclipse.edc.connector.dataplane.spi.pipeline.StreamResult;
 import org.eclipse.edc.spi.EdcException;
 import org.eclipse.edc.spi.monitor.Monitor;
+import org.eclipse.edc.spi.result.Result;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.Deflater;
 
+import static org.eclipse.edc.connector.dataplane.dicomweb.dicom.DicomTags.SERIES_INSTANCE_UID;
+import static org.eclipse.edc.connector.dataplane.dicomweb.dicom.DicomTags.SOP_INSTANCE_UID;
+import static org.eclipse.edc.connector.dataplane.dicomweb.dicom.DicomTags.STUDY_INSTANCE_UID;
 import static org.eclipse.edc.connector.dataplane.spi.pipeline.StreamResult.error;
 import static org.eclipse.edc.connector.dataplane.spi.pipeline.StreamResult.success;
 
 
 /**
  * A data source that reads DICOM data from a DICOMweb endpoint.
+ * <p>
+ * By default the study is retrieved with a single WADO-RS request. With a finer {@link Granularity} the study is
+ * first enumerated with QIDO-RS, and its series or instances are then retrieved with concurrent WADO-RS requests
+ * whose parts are merged into one stream.
+ * <p>
+ * If transfer syntaxes are configured, they are negotiated with the {@code Accept} header of the WADO-RS requests so
+ * the archive can deliver instances in the encoding it stores them in. The transfer syntax that was actually delivered
+ * is recorded on each {@link DicomWebPart}.
+ * <p>
+ * Instances that the checkpoint store records as already stored for this transfer are not retrieved again: a restarted
+ * transfer with such records is retrieved by instance, whatever the configured granularity.
+ * <p>
+ * With an instance cache, the instances of the study are enumerated first. Cached instances are served from disk and
+ * only the others are retrieved from the archive, one by one, and added to the cache on the way.
+ * <p>
+ * With a {@link MemoryBudget}, the transfer is admitted before it retrieves anything. A DICOMweb sink has queued the
+ * transfer for admission before it opens the source, which shares that admission; read by any other sink, the source
+ * does not block a thread waiting for admission, but fails right away if the budget is in use.
+ * <p>
+ * With a {@link DeidentificationProfile}, every instance is de-identified on its way out, after it has been added to
+ * the cache, and the parts carry the remapped identifiers. Checkpoints then record the remapped SOP Instance UIDs.
+ * <p>
+ * With {@link RetrieveMode#METADATA} only the metadata of the study is retrieved, with a single WADO-RS metadata
+ * request whose datasets are handed out as one part per instance while they are parsed from the response. With
+ * {@link RetrieveMode#BULKDATA} the bulk data the metadata refers to is retrieved instead, with concurrent requests.
+ * Neither mode uses the instance cache or checkpoints, and neither supports de-identification.
+ * <p>
+ * With checksums, every part is checksummed while the destination reads it, so that transfers to destinations that do
+ * not make a manifest of their own, such as object stores, can be verified as well. Once every part has been read to the
+ * end, the {@link TransferManifest} of the source is logged and posted to the manifest url if one is set. The checksums
+ * cover the parts as handed out, de-identified if a profile is set.
  */
 public class DicomWebDataSource implements DataSource {
+    private static final int QIDO_PAGE_SIZE = 1000;
+    private static final String BULK_DATA_MEDIA_RANGE = "multipart/related; type=\"application/octet-stream\"; transfer-syntax=*";
+
     private String name;
     private String url;
     private String username;
@@ -41,6 +103,25 @@ public class DicomWebDataSource implements DataSource {
     private String requestId;
     private Monitor monitor;
     private DicomWebClient dicomWebClient;
+    private Granularity granularity = Granularity.STUDY;
+    private RetrieveMode retrieveMode = RetrieveMode.FULL;
+    private int maxConcurrentRetrievals = 1;
+    private List<String> transferSyntaxes = List.of();
+    private RetrievalExecutor retrievalExecutor;
+    private List<HttpCompression.Encoding> acceptEncodings = List.of();
+    private HttpCompression compression;
+    private DicomWebCheckpointStore checkpointStore;
+    private SpillBuffer.Settings spillSettings;
+    private SpillBuffer spillBuffer;
+    private DicomInstanceCache instanceCache;
+    private DicomWebMetrics metrics = DicomWebMetrics.NOOP;
+    private MemoryBudget memoryBudget = MemoryBudget.UNLIMITED;
+    private MemoryBudget.Admission admission;
+    private DeidentificationProfile deidentificationProfile;
+    private List<ChecksumAlgorithm> checksums = List.of();
+    private String manifestUrl;
+    private boolean started;
+    private final Map<String, Instance> instancesBySopInstanceUid = new ConcurrentHashMap<>();
     private final AtomicReference<ResponseBodyStream> responseBodyStream = new AtomicReference<>();
 
     private DicomWebDataSource() {
@@ -49,18 +130,30 @@ public class DicomWebDataSource implements DataSource {
     @Override
     public StreamResult<Stream<DataSource.Part>> openPartStream() {
         monitor.debug(() -> "Executing PACS request: " + url);
+        var host = DicomWebMetrics.host(url);
+        var admitted = memoryBudget.admit(requestId, host);
+        if (admitted.failed()) {
+            return error(admitted.getFailureDetail());
+        }
+        admission = admitted.getContent();
+        spillBuffer = new SpillBuffer(spillSettings, memoryBudget, delta -> metrics.heapBytesBufferedChanged(host, delta));
+        started = true;
+        metrics.transferStarted(host);
+        compression = acceptEncodings.isEmpty() ? null : new HttpCompression(acceptEncodings, Deflater.DEFAULT_COMPRESSION);
         try {
-            var result = dicomWebClient.wadoRs(url, username, password);
-            if (result.succeeded()) {
-                var dicomDataList = result.getContent();
-                var parts = dicomDataList.stream()
-                        .map(data -> new DicomWebPart(name, new ByteArrayInputStream(data), "application/dicom"))
-                        .map(part -> (DataSource.Part) part) // Cast to DataSource.Part
-                        .toList();
-                return success(parts.stream());
-            } else {
-                return error("Failed to retrieve data from PACS: " + result.getFailureDetail());
+            var parts = switch (retrieveMode) {
+                case METADATA -> openMetadataStream();
+                case BULKDATA -> openBulkDataStream();
+                case FULL -> instanceCache != null ? openCachedStream() : openRetrievalStream(null);
+            };
+            if (parts.failed()) {
+                return parts;
+            }
+            var stream = parts.getContent();
+            if (deidentificationProfile != null) {
+                stream = stream.map(part -> DicomInstanceParts.deidentify(DicomInstanceParts.identify(part), deidentificationProfile, name));
             }
+            return success(checksums.isEmpty() ? stream : recording(stream));
         } catch (Exception e) {
             throw new EdcException(e);
         }
@@ -68,17 +161,470 @@ public class DicomWebDataSource implements DataSource {
 
     @Override
     public void close() {
-        var bodyStream = responseBodyStream.get();
+        var bodyStream = responseBodyStream.getAndSet(null);
         if (bodyStream != null) {
             try {
-                bodyStream.stream().close();
-            } catch (IOException e) {
+                bodyStream.body().close();
+            } catch (Exception e) {
                 // do nothing
             }
         }
+        if (spillBuffer != null) {
+            spillBuffer.close();
+        }
+        if (admission != null) {
+            admission.close();
+            admission = null;
+        }
+        if (started) {
+            started = false;
+            metrics.transferFinished(DicomWebMetrics.host(url));
+        }
+        var transferCompression = compression;
+        compression = null;
+        if (transferCompression != null && transferCompression.encodedBytes() > 0) {
+            monitor.info("Content-encoding saved %d bytes on WADO-RS responses of transfer %s".formatted(transferCompression.bytesSaved(), requestId));
+        }
+    }
+
+    /**
+     * Checksums the parts while the destination reads them, and publishes the manifest of the source once every part
+     * has been read to the end.
+     */
+    private Stream<DataSource.Part> recording(Stream<DataSource.Part> parts) {
+        var handedOut = new AtomicInteger();
+        var exhausted = new AtomicBoolean();
+        var published = new AtomicBoolean();
+        var recorder = new AtomicReference<TransferManifest.Recorder>();
+        Runnable publishIfComplete = () -> {
+            if (exhausted.get() && recorder.get().recorded() == handedOut.get() && published.compareAndSet(false, true)) {
+                publish(recorder.get().manifest(requestId, url, null));
+            }
+        };
+        recorder.set(new TransferManifest.Recorder(checksums, publishIfComplete));
+        var iterator = parts.iterator();
+        var recorded = new Iterator<DataSource.Part>() {
+            @Override
+            public boolean hasNext() {
+                if (iterator.hasNext()) {
+                    return true;
+                }
+                exhausted.set(true);
+                publishIfComplete.run();
+                return false;
+            }
+
+            @Override
+            public DataSource.Part next() {
+                var part = DicomInstanceParts.identify(iterator.next());
+                handedOut.incrementAndGet();
+                return new DicomWebPart(part.name(), recorder.get().record(part.content(), part.sopInstanceUid(), part.name()), part.mediaType(),
+                        part.size(), part.sopInstanceUid(), part.seriesInstanceUid(), part.transferSyntaxUid());
+            }
+        };
+        return stream(recorded).onClose(parts::close);
+    }
+
+    /**
+     * Logs the manifest of the source and posts it to the manifest url, if one is set. Failing to post it does not fail
+     * the transfer, whose instances have all been handed to the destination at this point.
+     */
+    private void publish(TransferManifest manifest) {
+        var bytes = manifest.instances().stream().mapToLong(TransferManifest.Entry::size).sum();
+        monitor.info("Transfer %s read %d parts of %d bytes from %s, checksummed with %s".formatted(requestId, manifest.instances().size(), bytes, url,
+                manifest.algorithms()));
+        if (manifestUrl == null) {
+            return;
+        }
+        var result = dicomWebClient.postManifest(manifestUrl, username, password, manifest);
+        if (result.failed()) {
+            monitor.warning("Failed to post the manifest of %d parts of transfer %s to %s: %s".formatted(manifest.instances().size(), requestId,
+                    manifestUrl, result.getFailureDetail()));
+        }
+    }
+
+    /**
+     * Retrieves the study from the archive at the configured granularity. A transfer that is restarted with instances
+     * recorded in the checkpoint store is retrieved by instance instead, as only that leaves out the recorded ones.
+     *
+     * @param instances the instances of the study if they have already been queried.
+     */
+    private StreamResult<Stream<DataSource.Part>> openRetrievalStream(@Nullable List<Instance> instances) {
+        var level = granularity;
+        if (level != Granularity.INSTANCE && !checkpointStore.completedInstances(requestId).isEmpty()) {
+            monitor.info("Resuming transfer %s by retrieving the instances of %s that have not been stored yet".formatted(requestId, url));
+            level = Granularity.INSTANCE;
+        }
+        if (level == Granularity.STUDY) {
+            var result = dicomWebClient.wadoRs(url, username, password, transferSyntaxes, compression);
+            if (result.failed()) {
+                return error("Failed to retrieve data from PACS: " + result.getFailureDetail());
+            }
+            var reader = result.getContent();
+            responseBodyStream.set(new ResponseBodyStream(reader));
+            return success(stream(new PartIterator(reader)));
+        }
+        var plan = instances != null && level == Granularity.INSTANCE
+                ? Result.success(instances.stream().map(this::instanceUrl).toList())
+                : planRetrievals(level);
+        if (plan.failed()) {
+            return error("Failed to enumerate study with QIDO-RS: " + plan.getFailureDetail());
+        }
+        var parts = openFanOut(plan.getContent(), level);
+        responseBodyStream.set(new ResponseBodyStream(parts));
+        return success(stream(parts));
+    }
+
+    /**
+     * Serves the instances of the study that are in the cache and retrieves the others one by one. If nothing is
+     * cached, the study is retrieved at the configured granularity. Retrieved instances are added to the cache.
+     */
+    private StreamResult<Stream<DataSource.Part>> openCachedStream() {
+        var query = queryInstances();
+        if (query.failed()) {
+            return error("Failed to enumerate study with QIDO-RS: " + query.getFailureDetail());
+        }
+        var instances = query.getContent();
+
+        var acceptable = acceptableTransferSyntaxes();
+        var hits = new ArrayList<DicomInstanceCache.CachedInstance>();
+        var misses = new ArrayList<Instance>();
+        for (var instance : instances) {
+            var cached = instanceCache.lookup(instance.sopInstanceUid(), acceptable);
+            if (cached != null) {
+                hits.add(cached);
+            } else {
+                misses.add(instance);
+            }
+        }
+        monitor.info("Serving %d of %d instances of %s from the cache".formatted(hits.size(), instances.size(), url));
+        if (hits.isEmpty()) {
+            return openRetrievalStream(instances);
+        }
+
+        Iterator<DataSource.Part> cachedParts = hits.stream().map(this::createCachedPart).iterator();
+        if (misses.isEmpty()) {
+            return success(stream(cachedParts));
+        }
+        var retrieved = openFanOut(misses.stream().map(this::instanceUrl).toList(), Granularity.INSTANCE);
+        responseBodyStream.set(new ResponseBodyStream(retrieved));
+        return success(Stream.concat(stream(cachedParts), stream(retrieved)));
+    }
+
+    /**
+     * Retrieves the metadata of the study with a single WADO-RS request and hands out each of its datasets as a part,
+     * parsing them from the response one at a time.
+     */
+    private StreamResult<Stream<DataSource.Part>> openMetadataStream() {
+        var result = dicomWebClient.wadoRsMetadata(studyUrl(), username, password, compression);
+        if (result.failed()) {
+            return error("Failed to retrieve metadata from PACS: " + result.getFailureDetail());
+        }
+        var reader = result.getContent();
+        responseBodyStream.set(new ResponseBodyStream(reader));
+        return success(stream(new MetadataPartIterator(reader)));
+    }
+
+    /**
+     * Reads the {@code BulkDataURI}s from the metadata of the study and retrieves them with concurrent WADO-RS
+     * requests. The datasets are dropped as soon as their URIs have been read, so only the URIs are held in memory.
+     */
+    private StreamResult<Stream<DataSource.Part>> openBulkDataStream() {
+        var result = dicomWebClient.wadoRsMetadata(studyUrl(), username, password, compression);
+        if (result.failed()) {
+            return error("Failed to retrieve metadata from PACS: " + result.getFailureDetail());
+        }
+        // the part names by the absolute URI of the bulk data, which may be given relative to the metadata
+        var names = new LinkedHashMap<String, String>();
+        try (var reader = result.getContent()) {
+            var metadataUri = URI.create(studyUrl() + "/metadata");
+            var origin = HttpUrl.get(url);
+            DicomJson.Dataset dataset;
+            while ((dataset = reader.next()) != null) {
+                var sopInstanceUid = dataset.firstValues(Set.of(SOP_INSTANCE_UID)).get(SOP_INSTANCE_UID);
+                for (var bulkData : dataset.bulkDataUris().entrySet()) {
+                    var bulkDataUri = metadataUri.resolve(bulkData.getValue()).toString();
+                    // the credentials of the source are sent along, so they must not reach any other server
+                    if (!sameOrigin(origin, HttpUrl.parse(bulkDataUri))) {
+                        return error("Bulk data URI %s of instance %s is not served by %s://%s:%d"
+                                .formatted(bulkDataUri, sopInstanceUid, origin.scheme(), origin.host(), origin.port()));
+                    }
+                    names.putIfAbsent(bulkDataUri, bulkDataName(Objects.requireNonNullElse(sopInstanceUid, name), bulkData.getKey()));
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            return error("Failed to read metadata from PACS: " + e.getMessage());
+        }
+        monitor.debug(() -> "Retrieving %d bulk data resources of %s with up to %d concurrent requests"
+                .formatted(names.size(), url, maxConcurrentRetrievals));
+        var parts = new FanOutPartIterator(List.copyOf(names.keySet()), maxConcurrentRetrievals, retrievalExecutor,
+                uri -> dicomWebClient.wadoRs(uri, username, password, List.of(BULK_DATA_MEDIA_RANGE), compression),
+                (uri, index, part, content) -> createBulkDataPart(names.get(uri), index, part, content), spillBuffer);
+        responseBodyStream.set(new ResponseBodyStream(parts));
+        return success(stream(parts));
+    }
+
+    private FanOutPartIterator openFanOut(List<String> urls, Granularity level) {
+        monitor.debug(() -> "Retrieving %d %s resources of %s with up to %d concurrent requests"
+                .formatted(urls.size(), level.name().toLowerCase(Locale.ROOT), url, maxConcurrentRetrievals));
+        return new FanOutPartIterator(urls, maxConcurrentRetrievals, retrievalExecutor,
+                resourceUrl -> dicomWebClient.wadoRs(resourceUrl, username, password, transferSyntaxes, compression), this::createPart, spillBuffer);
+    }
+
+    /**
+     * Enumerates the WADO-RS resources of the study at the requested granularity.
+     */
+    private Result<List<String>> planRetrievals(Granularity level) {
+        if (level == Granularity.SERIES) {
+            return dicomWebClient.qidoRs(studyUrl() + "/series", Map.of(), username, password, Set.of(SERIES_INSTANCE_UID), QIDO_PAGE_SIZE)
+                    .map(series -> series.stream()
+                            .map(attributes -> attributes.get(SERIES_INSTANCE_UID))
+                            .filter(Objects::nonNull)
+                            .map(seriesUid -> studyUrl() + "/series/" + seriesUid)
+                            .toList());
+        }
+        return queryInstances().map(instances -> instances.stream().map(this::instanceUrl).toList());
+    }
+
+    /**
+     * Enumerates the instances of the study with QIDO-RS, leaving out those the checkpoint store records as done. The
+     * instances are remembered to complete the identifiers of the parts retrieved.
+     */
+    private Result<List<Instance>> queryInstances() {
+        var completed = checkpointStore.completedInstances(requestId);
+        var studyUid = studyUrl().substring(studyUrl().lastIndexOf('/') + 1);
+        Result<List<Instance>> result = dicomWebClient.qidoRs(studyUrl() + "/instances", Map.of(), username, password,
+                        Set.of(STUDY_INSTANCE_UID, SERIES_INSTANCE_UID, SOP_INSTANCE_UID), QIDO_PAGE_SIZE)
+                .map(instances -> instances.stream()
+                        .filter(attributes -> attributes.containsKey(SERIES_INSTANCE_UID) && attributes.containsKey(SOP_INSTANCE_UID))
+                        .filter(attributes -> !completed.contains(checkpointedUid(attributes.get(SOP_INSTANCE_UID))))
+                        .map(attributes -> new Instance(attributes.getOrDefault(STUDY_INSTANCE_UID, studyUid),
+                                attributes.get(SERIES_INSTANCE_UID), attributes.get(SOP_INSTANCE_UID)))
+                        .toList());
+        result.onSuccess(instances -> instances.forEach(instance -> instancesBySopInstanceUid.put(instance.sopInstanceUid(), instance)));
+        return result;
+    }
+
+    /**
+     * Returns the SOP Instance UID under which the sink records an instance as stored.
+     */
+    private String checkpointedUid(String sopInstanceUid) {
+        return deidentificationProfile != null ? deidentificationProfile.remapUid(sopInstanceUid) : sopInstanceUid;
+    }
+
+    private static boolean sameOrigin(HttpUrl origin, @Nullable HttpUrl url) {
+        return url != null && origin.scheme().equals(url.scheme()) && origin.host().equals(url.host()) && origin.port() == url.port();
+    }
+
+    private String studyUrl() {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    private String instanceUrl(Instance instance) {
+        return studyUrl() + "/series/" + instance.seriesInstanceUid() + "/instances/" + instance.sopInstanceUid();
+    }
+
+    /**
+     * Returns the transfer syntaxes a cached instance may be in to be served for this transfer, in order of
+     * preference. Without a preference that is the default of WADO-RS.
+     */
+    private List<String> acceptableTransferSyntaxes() {
+        if (transferSyntaxes.isEmpty()) {
+            return List.of(TransferSyntaxes.EXPLICIT_VR_LITTLE_ENDIAN);
+        }
+        return transferSyntaxes.stream()
+                .map(entry -> entry.contains("/")
+                        ? Objects.requireNonNullElse(DicomInstanceParts.transferSyntaxParameter(entry), TransferSyntaxes.ANY)
+                        : entry)
+                .toList();
     }
 
-    private record ResponseBodyStream(byte[] responseBody, InputStream stream) {
+    private DataSource.Part createCachedPart(DicomInstanceCache.CachedInstance cached) {
+        var key = cached.key();
+        try {
+            return new DicomWebPart(DicomWebPart.name(key.sopInstanceUid(), name), cached.openStream(),
+                    "application/dicom; transfer-syntax=" + key.transferSyntaxUid(), cached.size(), key.sopInstanceUid(), key.seriesInstanceUid(),
+                    key.transferSyntaxUid());
+        } catch (IOException e) {
+            throw new EdcException("Failed to read cached DICOM instance " + key.sopInstanceUid(), e);
+        }
+    }
+
+    private DataSource.Part createPart(MultipartRelatedReader.Part part, InputStream content) {
+        var dicomWebPart = DicomInstanceParts.create(name, content, Objects.requireNonNullElse(part.header("Content-Type"), "application/dicom"),
+                DicomInstanceParts.contentLength(part));
+        var instance = dicomWebPart.sopInstanceUid() != null ? instancesBySopInstanceUid.get(dicomWebPart.sopInstanceUid()) : null;
+        if (instance == null) {
+            return dicomWebPart;
+        }
+        var seriesInstanceUid = Objects.requireNonNullElse(dicomWebPart.seriesInstanceUid(), instance.seriesInstanceUid());
+        if (instanceCache == null || dicomWebPart.transferSyntaxUid() == null) {
+            return new DicomWebPart(dicomWebPart.name(), dicomWebPart.content(), dicomWebPart.mediaType(), dicomWebPart.size(),
+                    dicomWebPart.sopInstanceUid(), seriesInstanceUid, dicomWebPart.transferSyntaxUid());
+        }
+        var key = new DicomInstanceCache.Key(instance.studyInstanceUid(), instance.seriesInstanceUid(), instance.sopInstanceUid(),
+                dicomWebPart.transferSyntaxUid());
+        return new DicomWebPart(dicomWebPart.name(), instanceCache.caching(key, dicomWebPart.content()), dicomWebPart.mediaType(),
+                dicomWebPart.size(), dicomWebPart.sopInstanceUid(), seriesInstanceUid, dicomWebPart.transferSyntaxUid());
+    }
+
+    /**
+     * Creates the part for a dataset of the metadata, whose {@code BulkDataURI}s are replaced by the names of the parts
+     * a {@link RetrieveMode#BULKDATA} transfer of the study hands out for them, so the two can be joined.
+     */
+    private DataSource.Part createMetadataPart(DicomJson.Dataset dataset) throws IOException {
+        var identifiers = dataset.firstValues(Set.of(SERIES_INSTANCE_UID, SOP_INSTANCE_UID));
+        var sopInstanceUid = identifiers.get(SOP_INSTANCE_UID);
+        var json = dataset.toJson((path, uri) -> bulkDataName(Objects.requireNonNullElse(sopInstanceUid, name), path) + ".bin");
+        return new DicomWebPart(sopInstanceUid != null ? sopInstanceUid + ".json" : name, new ByteArrayInputStream(json),
+                "application/dicom+json", json.length, sopInstanceUid, identifiers.get(SERIES_INSTANCE_UID), null);
+    }
+
+    /**
+     * Creates the part for a part of a bulk data response. A response of several parts, e.g. the frames of a
+     * multi-frame image, has the position of the part appended to the name of every part but the first.
+     */
+    private DataSource.Part createBulkDataPart(String bulkDataName, int index, MultipartRelatedReader.Part part, InputStream content) {
+        var mediaType = Objects.requireNonNullElse(part.header("Content-Type"), "application/octet-stream");
+        return new DicomWebPart(bulkDataName + (index > 0 ? "-" + (index + 1) : "") + ".bin", content, mediaType,
+                DicomInstanceParts.contentLength(part), null, null, DicomInstanceParts.transferSyntaxParameter(mediaType));
+    }
+
+    /**
+     * Returns the name of the bulk data of an instance at the given attribute path, without extension.
+     */
+    private static String bulkDataName(String sopInstanceUid, String path) {
+        return sopInstanceUid + "-" + path;
+    }
+
+    private static Stream<DataSource.Part> stream(Iterator<DataSource.Part> parts) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(parts, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    private record ResponseBodyStream(AutoCloseable body) {
+    }
+
+    private record Instance(String studyInstanceUid, String seriesInstanceUid, String sopInstanceUid) {
+    }
+
+    /**
+     * The level at which a study is split into WADO-RS requests.
+     */
+    public enum Granularity {
+        STUDY, SERIES, INSTANCE
+    }
+
+    /**
+     * What a transfer retrieves of the study.
+     */
+    public enum RetrieveMode {
+        /**
+         * The instances, with WADO-RS at the configured granularity.
+         */
+        FULL,
+        /**
+         * The metadata of the instances in the DICOM JSON model, one part per instance.
+         */
+        METADATA,
+        /**
+         * The bulk data the metadata of the instances refers to, one part per {@code BulkDataURI}.
+         */
+        BULKDATA
+    }
+
+    /**
+     * Produces one part per dataset of a live WADO-RS metadata response, parsing the datasets as the parts are asked
+     * for.
+     */
+    private class MetadataPartIterator implements Iterator<DataSource.Part> {
+        private final DicomJson.DatasetReader reader;
+        private DataSource.Part next;
+        private boolean done;
+
+        MetadataPartIterator(DicomJson.DatasetReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+            if (done) {
+                return false;
+            }
+            try {
+                var dataset = reader.next();
+                if (dataset == null) {
+                    done = true;
+                    return false;
+                }
+                next = createMetadataPart(dataset);
+                return true;
+            } catch (IOException e) {
+                throw new EdcException("Failed to read WADO-RS metadata response from " + url, e);
+            }
+        }
+
+        @Override
+        public DataSource.Part next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            var part = next;
+            next = null;
+            return part;
+        }
+    }
+
+    /**
+     * Produces parts lazily from the live WADO-RS response. Advancing detaches the previous part, which only costs a
+     * buffer if the consumer has not read it yet.
+     */
+    private class PartIterator implements Iterator<DataSource.Part> {
+        private final MultipartRelatedReader reader;
+        private DetachablePartStream current;
+        private DataSource.Part next;
+        private boolean done;
+
+        PartIterator(MultipartRelatedReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+            if (done) {
+                return false;
+            }
+            try {
+                if (current != null) {
+                    current.detach();
+                }
+                var part = reader.nextPart();
+                if (part == null) {
+                    done = true;
+                    return false;
+                }
+                current = new DetachablePartStream(part.body(), spillBuffer);
+                next = createPart(part, current);
+                return true;
+            } catch (IOException e) {
+                throw new EdcException("Failed to read WADO-RS response from " + url, e);
+            }
+        }
+
+        @Override
+        public DataSource.Part next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            var part = next;
+            next = null;
+            return part;
+        }
     }
 
     public static class Builder {
@@ -127,19 +673,149 @@ public class DicomWebDataSource implements DataSource {
             return this;
         }
 
+        public Builder granularity(Granularity granularity) {
+            dataSource.granularity = granularity;
+            return this;
+        }
+
+        public Builder retrieveMode(RetrieveMode retrieveMode) {
+            dataSource.retrieveMode = retrieveMode;
+            return this;
+        }
+
+        public Builder maxConcurrentRetrievals(int maxConcurrentRetrievals) {
+            dataSource.maxConcurrentRetrievals = maxConcurrentRetrievals;
+            return this;
+        }
+
+        /**
+         * Sets the transfer syntaxes to request the instances in, in order of preference.
+         */
+        public Builder transferSyntaxes(List<String> transferSyntaxes) {
+            dataSource.transferSyntaxes = List.copyOf(transferSyntaxes);
+            return this;
+        }
+
+        /**
+         * Sets the content encodings accepted in WADO-RS responses, in order of preference.
+         */
+        public Builder acceptEncodings(List<HttpCompression.Encoding> acceptEncodings) {
+            dataSource.acceptEncodings = List.copyOf(acceptEncodings);
+            return this;
+        }
+
+        public Builder retrievalExecutor(RetrievalExecutor retrievalExecutor) {
+            dataSource.retrievalExecutor = retrievalExecutor;
+            return this;
+        }
+
+        public Builder checkpointStore(DicomWebCheckpointStore checkpointStore) {
+            dataSource.checkpointStore = checkpointStore;
+            return this;
+        }
+
+        public Builder spillSettings(SpillBuffer.Settings spillSettings) {
+            dataSource.spillSettings = spillSettings;
+            return this;
+        }
+
+        /**
+         * Sets the cache to serve instances from and to add retrieved instances to. Without a cache every instance is
+         * retrieved from the archive.
+         */
+        public Builder instanceCache(DicomInstanceCache instanceCache) {
+            dataSource.instanceCache = instanceCache;
+            return this;
+        }
+
+        /**
+         * Sets the metrics to report to, attributed to the host of the url.
+         */
+        public Builder metrics(DicomWebMetrics metrics) {
+            dataSource.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * Sets the memory budget shared with the other transfers of the data plane, which the transfer waits to be
+         * admitted to. Without a budget the transfer starts at once and only its own memory budget applies.
+         */
+        public Builder memoryBudget(MemoryBudget memoryBudget) {
+            dataSource.memoryBudget = memoryBudget;
+            return this;
+        }
+
+        /**
+         * Sets the profile the instances are de-identified with. Without a profile they are transferred as retrieved.
+         */
+        public Builder deidentificationProfile(DeidentificationProfile deidentificationProfile) {
+            dataSource.deidentificationProfile = deidentificationProfile;
+            return this;
+        }
+
+        /**
+         * Sets the checksums computed for the manifest of the source. Without checksums no manifest is made.
+         */
+        public Builder checksums(List<ChecksumAlgorithm> checksums) {
+            dataSource.checksums = checksums;
+            return this;
+        }
+
+        /**
+         * Sets the url the manifest of the source is posted to as JSON, once every part has been read.
+         */
+        public Builder manifestUrl(String manifestUrl) {
+            dataSource.manifestUrl = manifestUrl;
+            return this;
+        }
+
         public DicomWebDataSource build() {
             Objects.requireNonNull(dataSource.requestId, "requestId");
             Objects.requireNonNull(dataSource.dicomWebClient, "dicomWebClient");
             Objects.requireNonNull(dataSource.monitor, "monitor");
+            Objects.requireNonNull(dataSource.granularity, "granularity");
+            Objects.requireNonNull(dataSource.retrieveMode, "retrieveMode");
+            Objects.requireNonNull(dataSource.checkpointStore, "checkpointStore");
+            Objects.requireNonNull(dataSource.spillSettings, "spillSettings");
+            Objects.requireNonNull(dataSource.checksums, "checksums");
+            if (dataSource.manifestUrl != null && dataSource.checksums.isEmpty()) {
+                throw new IllegalArgumentException("Posting a manifest requires checksums");
+            }
+            // a study is retrieved by instance as well when a transfer is resumed
+            if (dataSource.retrieveMode != RetrieveMode.METADATA) {
+                Objects.requireNonNull(dataSource.retrievalExecutor, "retrievalExecutor");
+            }
+            if (dataSource.retrieveMode != RetrieveMode.FULL && dataSource.deidentificationProfile != null) {
+                throw new IllegalArgumentException("De-identification is only supported when retrieving whole instances");
+            }
+            if (dataSource.maxConcurrentRetrievals < 1) {
+                throw new IllegalArgumentException("maxConcurrentRetrievals must be positive");
+            }
             return dataSource;
         }
     }
 
-    public record DicomWebPart(String name, InputStream content, String mediaType) implements Part {
+    /**
+     * A part read from a DICOMweb response. The SOP Instance UID and the transfer syntax the instance was actually
+     * delivered in are taken from its file meta information, falling back to the media type of the part for the latter,
+     * and the Series Instance UID from the start of its dataset or the QIDO-RS response the study was enumerated with.
+     * The identifiers are null if they are unknown, e.g. because the part is not a DICOM Part 10 instance. Parts carrying
+     * the metadata of an instance have its SOP and Series Instance UIDs, parts carrying bulk data have no identifiers.
+     * <p>
+     * The name of the part is the SOP Instance UID with the extension {@code .dcm}, or the name of the data address if
+     * the instance could not be identified. Metadata is named with the extension {@code .json} instead, and bulk data
+     * by the SOP Instance UID and the attribute path it was found at, e.g. {@code 1.2.3-7FE00010.bin}. The size is taken from the {@code Content-Length} header of the part or the
+     * instance cache, and is {@link #SIZE_UNKNOWN} if neither knows it, so a sink can size its uploads up front
+     * without the instance being buffered.
+     */
+    public record DicomWebPart(String name, InputStream content, String mediaType, long size, @Nullable String sopInstanceUid,
+                               @Nullable String seriesInstanceUid, @Nullable String transferSyntaxUid) implements Part {
 
-        @Override
-        public long size() {
-            return SIZE_UNKNOWN;
+        /**
+         * Returns the name a part carrying the given instance gets.
+         */
+        static String name(@Nullable String sopInstanceUid, String fallback) {
+            return sopInstanceUid != null ? sopInstanceUid + ".dcm" : fallback;
         }
 
         @Override
@@ -151,5 +827,12 @@ public class DicomWebDataSource implements DataSource {
         public String mediaType() {
             return mediaType;
         }
+
+        /**
+         * Does nothing, the content is closed by whoever reads it.
+         */
+        @Override
+        public void close() {
+        }
     }
 }
\ No newline at end of file
@@ -14,16 +14,47 @@
 
 package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
 
+import org.eclipse.edc.connector.dataplane.dicomweb.cache.DicomInstanceCache;
+import org.eclipse.edc.connector.dataplane.dicomweb.checkpoint.DicomWebCheckpointStore;
+import org.eclipse.edc.connector.dataplane.dicomweb.checkpoint.DicomWebSyncCursorStore;
+import org.eclipse.edc.connector.dataplane.dicomweb.dicom.DeidentificationProfile;
 import org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema;
+import org.eclipse.edc.connector.dataplane.dicomweb.metrics.DicomWebMetrics;
 import org.eclipse.edc.connector.dataplane.spi.pipeline.DataSource;
 import org.eclipse.edc.connector.dataplane.spi.pipeline.DataSourceFactory;
 import org.eclipse.edc.spi.monitor.Monitor;
 import org.eclipse.edc.spi.result.Result;
 import org.eclipse.edc.spi.security.Vault;
+import org.eclipse.edc.spi.types.domain.DataAddress;
 import org.eclipse.edc.spi.types.domain.transfer.DataFlowStartMessage;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import static org.eclipse.edc.connector.dataplane.dicomweb.dicom.DicomTags.STUDY_DATE;
+import static org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema.CHECKSUMS;
+import static org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema.CONTENT_ENCODING;
+import static org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema.DEIDENTIFICATION;
+import static org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema.DEIDENTIFICATION_KEY_ALIAS;
+import static org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema.DEIDENTIFICATION_RULES;
+import static org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema.MANIFEST_URL;
+import static org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema.MAX_CONCURRENT_RETRIEVALS;
+import static org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema.MAX_POLL_INTERVAL_MILLIS;
 import static org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema.PASSWORD;
+import static org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema.POLL_INTERVAL_MILLIS;
+import static org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema.RETRIEVE_GRANULARITY;
+import static org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema.RETRIEVE_MODE;
+import static org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema.SYNC_DATE_ATTRIBUTE;
+import static org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema.SYNC_MODE;
+import static org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema.SYNC_MODE_CONTINUOUS;
+import static org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema.SYNC_MODE_ONCE;
+import static org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema.SYNC_SINCE;
+import static org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema.TRANSFER_SYNTAXES;
 import static org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema.URL;
 import static org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema.USERNAME;
 
@@ -36,11 +67,33 @@ public class DicomWebDataSourceFactory implements DataSourceFactory {
     private final DicomWebClient dicomWebClient;
     private final Monitor monitor;
     private final Vault vault;
+    private final RetrievalExecutor retrievalExecutor;
+    private final DicomWebCheckpointStore checkpointStore;
+    private final SpillBuffer.Settings spillSettings;
+    private final DicomInstanceCache instanceCache;
+    private final DicomWebSyncCursorStore cursorStore;
+    private final DicomWebMetrics metrics;
+    private final MemoryBudget memoryBudget;
 
-    public DicomWebDataSourceFactory(DicomWebClient dicomWebClient, Monitor monitor, Vault vault) {
+    /**
+     * Creates the factory.
+     *
+     * @param instanceCache the cache shared by all sources, or null if instances are not cached.
+     */
+    public DicomWebDataSourceFactory(DicomWebClient dicomWebClient, Monitor monitor, Vault vault, RetrievalExecutor retrievalExecutor,
+                                     DicomWebCheckpointStore checkpointStore, SpillBuffer.Settings spillSettings,
+                                     @Nullable DicomInstanceCache instanceCache, DicomWebSyncCursorStore cursorStore,
+                                     DicomWebMetrics metrics, MemoryBudget memoryBudget) {
         this.dicomWebClient = dicomWebClient;
         this.monitor = monitor;
         this.vault = vault;
+        this.retrievalExecutor = retrievalExecutor;
+        this.checkpointStore = checkpointStore;
+        this.spillSettings = spillSettings;
+        this.instanceCache = instanceCache;
+        this.cursorStore = cursorStore;
+        this.metrics = metrics;
+        this.memoryBudget = memoryBudget;
     }
 
     @Override
@@ -71,6 +124,25 @@ public class DicomWebDataSourceFactory implements DataSourceFactory {
     @Override
     public DataSource createSource(DataFlowStartMessage request) {
         var dataAddress = request.getSourceDataAddress();
+        var syncMode = dataAddress.getStringProperty(SYNC_MODE, SYNC_MODE_ONCE);
+        var deidentificationProfile = deidentificationProfile(request);
+        var retrieveMode = DicomWebDataSource.RetrieveMode.valueOf(dataAddress.getStringProperty(RETRIEVE_MODE, "full").toUpperCase(Locale.ROOT));
+        if (SYNC_MODE_CONTINUOUS.equals(syncMode)) {
+            if (deidentificationProfile != null) {
+                throw new IllegalArgumentException("%s is not supported with %s %s".formatted(DEIDENTIFICATION, SYNC_MODE, SYNC_MODE_CONTINUOUS));
+            }
+            if (retrieveMode != DicomWebDataSource.RetrieveMode.FULL) {
+                throw new IllegalArgumentException("%s %s is not supported with %s %s".formatted(RETRIEVE_MODE, retrieveMode.name().toLowerCase(Locale.ROOT),
+                        SYNC_MODE, SYNC_MODE_CONTINUOUS));
+            }
+            return createSyncSource(request);
+        }
+        if (!SYNC_MODE_ONCE.equals(syncMode)) {
+            throw new IllegalArgumentException("Unknown %s %s".formatted(SYNC_MODE, syncMode));
+        }
+        var manifestUrl = dataAddress.getStringProperty(MANIFEST_URL);
+        // a manifest to post needs checksums, CRC-32C unless others are asked for
+        var checksums = ChecksumAlgorithm.parseList(dataAddress.getStringProperty(CHECKSUMS, manifestUrl != null ? ChecksumAlgorithm.CRC32C.token() : ""));
         var builder = DicomWebDataSource.Builder.newInstance()
                 .dicomWebClient(dicomWebClient)
                 .monitor(monitor)
@@ -79,10 +151,82 @@ public class DicomWebDataSourceFactory implements DataSourceFactory {
                 .url(dataAddress.getStringProperty(URL))
                 .username(dataAddress.getStringProperty(USERNAME))
                 .password(dataAddress.getStringProperty(PASSWORD))
+                .granularity(DicomWebDataSource.Granularity.valueOf(dataAddress.getStringProperty(RETRIEVE_GRANULARITY, "study").toUpperCase(Locale.ROOT)))
+                .retrieveMode(retrieveMode)
+                .maxConcurrentRetrievals(Integer.parseInt(dataAddress.getStringProperty(MAX_CONCURRENT_RETRIEVALS, "4")))
+                .transferSyntaxes(parseTransferSyntaxes(dataAddress.getStringProperty(TRANSFER_SYNTAXES, "")))
+                .acceptEncodings(HttpCompression.Encoding.parseList(dataAddress.getStringProperty(CONTENT_ENCODING, "")))
+                .retrievalExecutor(retrievalExecutor)
+                .checkpointStore(checkpointStore)
+                .spillSettings(spillSettings)
+                .instanceCache(instanceCache)
+                .metrics(metrics)
+                .memoryBudget(memoryBudget)
+                .deidentificationProfile(deidentificationProfile)
+                .checksums(checksums)
+                .manifestUrl(manifestUrl)
                 .build();
         if (builder == null) {
             throw new IllegalStateException("Failed to build DicomWebDataSource");
         }
         return builder;
     }
+
+    private DataSource createSyncSource(DataFlowStartMessage request) {
+        var dataAddress = request.getSourceDataAddress();
+        return DicomWebSyncSource.Builder.newInstance()
+                .dicomWebClient(dicomWebClient)
+                .monitor(monitor)
+                .syncId(request.getId())
+                .name(dataAddress.getStringProperty("name", "DicomWebSyncSource"))
+                .url(dataAddress.getStringProperty(URL))
+                .username(dataAddress.getStringProperty(USERNAME))
+                .password(dataAddress.getStringProperty(PASSWORD))
+                .maxConcurrentRetrievals(Integer.parseInt(dataAddress.getStringProperty(MAX_CONCURRENT_RETRIEVALS, "4")))
+                .transferSyntaxes(parseTransferSyntaxes(dataAddress.getStringProperty(TRANSFER_SYNTAXES, "")))
+                .acceptEncodings(HttpCompression.Encoding.parseList(dataAddress.getStringProperty(CONTENT_ENCODING, "")))
+                .since(dataAddress.getStringProperty(SYNC_SINCE))
+                .dateAttribute(dataAddress.getStringProperty(SYNC_DATE_ATTRIBUTE, STUDY_DATE))
+                .pollInterval(Duration.ofMillis(Long.parseLong(dataAddress.getStringProperty(POLL_INTERVAL_MILLIS, "10000"))),
+                        Duration.ofMillis(Long.parseLong(dataAddress.getStringProperty(MAX_POLL_INTERVAL_MILLIS, "600000"))))
+                .retrievalExecutor(retrievalExecutor)
+                .cursorStore(cursorStore)
+                .spillSettings(spillSettings)
+                .metrics(metrics)
+                .memoryBudget(memoryBudget)
+                .build();
+    }
+
+    /**
+     * Creates the de-identification profile of the source address, or returns null if the instances are transferred as
+     * retrieved. UIDs are remapped with the secret the address names, which is required.
+     */
+    private @Nullable DeidentificationProfile deidentificationProfile(DataFlowStartMessage request) {
+        var dataAddress = request.getSourceDataAddress();
+        var profile = dataAddress.getStringProperty(DEIDENTIFICATION, "none");
+        if ("none".equals(profile.trim().toLowerCase(Locale.ROOT))) {
+            return null;
+        }
+        return DeidentificationProfile.parse(profile, dataAddress.getStringProperty(DEIDENTIFICATION_RULES, ""), uidKey(dataAddress));
+    }
+
+    private byte[] uidKey(DataAddress dataAddress) {
+        var alias = dataAddress.getStringProperty(DEIDENTIFICATION_KEY_ALIAS);
+        // a key known to the consumer, such as the transfer id, would let it recompute the remapped UIDs
+        if (alias == null || alias.isBlank()) {
+            throw new IllegalArgumentException("%s is required with %s".formatted(DEIDENTIFICATION_KEY_ALIAS, DEIDENTIFICATION));
+        }
+        var secret = vault.resolveSecret(alias);
+        if (secret == null) {
+            throw new IllegalArgumentException("Secret %s named by %s not found in the vault".formatted(alias, DEIDENTIFICATION_KEY_ALIAS));
+        }
+        return secret.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> parseTransferSyntaxes(String transferSyntaxes) {
+        return Arrays.stream(transferSyntaxes.split(","))
+                .map(String::trim)
+                .filter(entry -> !entry.isEmpty())
+                .toList();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,284 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import org.eclipse.edc.connector.dataplane.dicomweb.metrics.DicomWebMetrics;
+import org.eclipse.edc.connector.dataplane.spi.pipeline.DataSink;
+import org.eclipse.edc.connector.dataplane.spi.pipeline.DataSource;
+import org.eclipse.edc.connector.dataplane.spi.pipeline.StreamFailure;
+import org.eclipse.edc.connector.dataplane.spi.pipeline.StreamResult;
+import org.eclipse.edc.spi.monitor.Monitor;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static java.lang.String.format;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.CompletableFuture.runAsync;
+
+/**
+ * A sink that stores the parts of a transfer at several DICOMweb destinations, reading them from the source once.
+ * <p>
+ * Every destination is written by a sink of its own, usually a {@link DicomWebDataSink} with its own batching, retries,
+ * checkpoints and priority. The sinks are fed from a {@link PartTee}, whose ring buffer bounds the memory all
+ * destinations share. A destination that falls behind slows the others down to its pace or, with
+ * {@link SlowDestinationPolicy#SPILL}, continues from a spill file of its own while the others read on. A destination
+ * that stops reading altogether while the others wait continues from a spill file after the stall timeout in either
+ * case. The destination sinks share the memory budget admission of the transfer, for which the transfer queues before its
+ * source is opened.
+ * <p>
+ * The result reports every destination separately: the transfer succeeds with a {@link DestinationResult} per
+ * destination if all destinations succeeded, and fails with the failure of each destination that failed otherwise.
+ * When the transfer is restarted, destinations that stored instances before skip them by their own checkpoints.
+ * <p>
+ * A {@link ContinuousDataSource} is not supported, as its cycles are acknowledged for a single destination.
+ */
+public class DicomWebFanOutSink implements DataSink {
+    private final List<Destination> destinations = new ArrayList<>();
+    private int bufferSize = 8 * 1024 * 1024;
+    private SlowDestinationPolicy slowDestinationPolicy = SlowDestinationPolicy.THROTTLE;
+    private Duration stallTimeout = Duration.ofSeconds(10);
+    private SpillBuffer.Settings spillSettings;
+    private ExecutorService executorService;
+    private Monitor monitor;
+    private DicomWebMetrics metrics = DicomWebMetrics.NOOP;
+    private MemoryBudget memoryBudget = MemoryBudget.UNLIMITED;
+    private String requestId;
+
+    private DicomWebFanOutSink() {
+    }
+
+    /**
+     * What happens when one destination holds up the others.
+     */
+    public enum SlowDestinationPolicy {
+        /**
+         * All destinations proceed at the pace of the slowest.
+         */
+        THROTTLE,
+        /**
+         * The slow destination is detached to a spill file on disk, from which it continues at its own pace.
+         */
+        SPILL;
+
+        public static SlowDestinationPolicy parse(String value) {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    @Override
+    public CompletableFuture<StreamResult<Object>> transfer(DataSource source) {
+        if (source instanceof ContinuousDataSource) {
+            return completedFuture(StreamResult.error("Continuous sync to several DICOMweb destinations is not supported, start one transfer per destination"));
+        }
+        // the ring buffer and the destination sinks, which join this admission, are part of the working set of the transfer;
+        // the transfer queues for it without holding a thread, and the source is opened once it has been admitted
+        return memoryBudget.admitAsync(requestId, DicomWebMetrics.host(destinations.get(0).url()))
+                .thenComposeAsync(admission -> {
+                    if (admission.failed()) {
+                        monitor.severe(admission.getFailureDetail());
+                        return completedFuture(StreamResult.error(admission.getFailureDetail()));
+                    }
+                    try {
+                        var streamResult = source.openPartStream();
+                        if (streamResult.failed()) {
+                            admission.getContent().close();
+                            return completedFuture(StreamResult.failure(streamResult.getFailure()));
+                        }
+                        return transferStream(streamResult.getContent())
+                                .whenComplete((result, throwable) -> admission.getContent().close());
+                    } catch (RuntimeException e) {
+                        admission.getContent().close();
+                        throw e;
+                    }
+                }, executorService)
+                .exceptionally(throwable -> StreamResult.error("Unhandled exception raised when transferring data: " + throwable.getMessage()));
+    }
+
+    /**
+     * Tees the part stream to the sinks of all destinations and closes it once all of them have finished.
+     */
+    private CompletableFuture<StreamResult<Object>> transferStream(Stream<DataSource.Part> partStream) {
+        var tee = new PartTee(partStream.iterator(), destinations.size(), bufferSize, slowDestinationPolicy == SlowDestinationPolicy.SPILL,
+                spillSettings.directory(), stallTimeout, index -> {
+                    var url = destinations.get(index).url();
+                    monitor.warning(format("DICOMweb destination %s fell behind the other destinations of transfer %s and continues from a spill file",
+                            url, requestId));
+                    metrics.fanOutDestinationDetached(DicomWebMetrics.host(url));
+                });
+        var results = IntStream.range(0, destinations.size())
+                .mapToObj(index -> {
+                    var branch = tee.branch(index);
+                    return destinations.get(index).sink().transfer(new BranchSource(branch))
+                            .exceptionally(throwable -> StreamResult.error("Unhandled exception raised when transferring data: " + throwable.getMessage()))
+                            .whenComplete((result, throwable) -> branch.close());
+                })
+                .toList();
+        runAsync(tee::pump, executorService);
+        return CompletableFuture.allOf(results.toArray(CompletableFuture[]::new))
+                .thenApply(v -> aggregate(results.stream().map(CompletableFuture::join).toList()))
+                .whenComplete((result, throwable) -> {
+                    tee.close();
+                    partStream.close();
+                });
+    }
+
+    private StreamResult<Object> aggregate(List<StreamResult<Object>> results) {
+        var destinationResults = new ArrayList<DestinationResult>();
+        for (var i = 0; i < results.size(); i++) {
+            var result = results.get(i);
+            destinationResults.add(new DestinationResult(destinations.get(i).url(), result.succeeded(), result.succeeded() ? null : result.getFailureDetail(),
+                    result.succeeded() && result.getContent() instanceof TransferManifest manifest ? manifest : null));
+        }
+        var failed = destinationResults.stream().filter(result -> !result.succeeded()).toList();
+        if (failed.isEmpty()) {
+            monitor.info(format("Transfer %s stored at all %d DICOMweb destinations", requestId, destinations.size()));
+            return StreamResult.success(destinationResults);
+        }
+        monitor.severe(format("Transfer %s failed at %d of %d DICOMweb destinations: %s", requestId, failed.size(), destinations.size(),
+                failed.stream().map(DestinationResult::url).toList()));
+        return StreamResult.failure(new StreamFailure(failed.stream().map(result -> result.url() + ": " + result.failureDetail()).toList(),
+                StreamFailure.Reason.GENERAL_ERROR));
+    }
+
+    /**
+     * A destination of the transfer.
+     *
+     * @param url  the url of the destination, to report it by.
+     * @param sink the sink that writes to the destination.
+     */
+    public record Destination(String url, DataSink sink) {
+    }
+
+    /**
+     * The outcome of the transfer at one destination.
+     *
+     * @param failureDetail why the destination failed, null if it succeeded.
+     * @param manifest      the manifest of the instances stored at the destination, if it computed checksums.
+     */
+    public record DestinationResult(String url, boolean succeeded, @Nullable String failureDetail, @Nullable TransferManifest manifest) {
+    }
+
+    /**
+     * The source a destination sink reads from, one branch of the tee.
+     */
+    private record BranchSource(Stream<DataSource.Part> parts) implements DataSource {
+
+        @Override
+        public StreamResult<Stream<Part>> openPartStream() {
+            return StreamResult.success(parts);
+        }
+
+        @Override
+        public void close() {
+            parts.close();
+        }
+    }
+
+    public static class Builder {
+        private final DicomWebFanOutSink sink = new DicomWebFanOutSink();
+
+        public static Builder newInstance() {
+            return new Builder();
+        }
+
+        private Builder() {
+        }
+
+        public Builder destination(String url, DataSink destinationSink) {
+            sink.destinations.add(new Destination(url, destinationSink));
+            return this;
+        }
+
+        /**
+         * Size in bytes of the ring buffer shared by all destinations.
+         */
+        public Builder bufferSize(int bufferSize) {
+            sink.bufferSize = bufferSize;
+            return this;
+        }
+
+        public Builder slowDestinationPolicy(SlowDestinationPolicy slowDestinationPolicy) {
+            sink.slowDestinationPolicy = slowDestinationPolicy;
+            return this;
+        }
+
+        /**
+         * Sets the time after which a destination that holds up the others without reading is detached to a spill
+         * file, whatever the policy. A destination sink may wait for threads or memory that the sinks waiting for it
+         * hold, so with {@link SlowDestinationPolicy#THROTTLE} this keeps such waits from turning into a deadlock.
+         */
+        public Builder stallTimeout(Duration stallTimeout) {
+            sink.stallTimeout = stallTimeout;
+            return this;
+        }
+
+        public Builder spillSettings(SpillBuffer.Settings spillSettings) {
+            sink.spillSettings = spillSettings;
+            return this;
+        }
+
+        /**
+         * Executor that opens the source and reads it into the ring buffer.
+         */
+        public Builder executorService(ExecutorService executorService) {
+            sink.executorService = executorService;
+            return this;
+        }
+
+        public Builder monitor(Monitor monitor) {
+            sink.monitor = monitor;
+            return this;
+        }
+
+        public Builder metrics(DicomWebMetrics metrics) {
+            sink.metrics = metrics;
+            return this;
+        }
+
+        public Builder memoryBudget(MemoryBudget memoryBudget) {
+            sink.memoryBudget = memoryBudget;
+            return this;
+        }
+
+        public Builder requestId(String requestId) {
+            sink.requestId = requestId;
+            return this;
+        }
+
+        public DicomWebFanOutSink build() {
+            if (sink.destinations.isEmpty()) {
+                throw new IllegalArgumentException("A fan-out transfer needs at least one destination");
+            }
+            if (sink.bufferSize < 1) {
+                throw new IllegalArgumentException("Fan-out buffer size must be positive");
+            }
+            Objects.requireNonNull(sink.spillSettings, "spillSettings");
+            Objects.requireNonNull(sink.stallTimeout, "stallTimeout");
+            Objects.requireNonNull(sink.executorService, "executorService");
+            Objects.requireNonNull(sink.monitor, "monitor");
+            Objects.requireNonNull(sink.requestId, "requestId");
+            return sink;
+        }
+    }
+}
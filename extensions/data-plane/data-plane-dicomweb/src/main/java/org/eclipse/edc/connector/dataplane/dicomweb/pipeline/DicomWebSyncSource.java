@@ -0,0 +1,462 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import org.eclipse.edc.connector.dataplane.dicomweb.checkpoint.DicomWebSyncCursorStore;
+import org.eclipse.edc.connector.dataplane.dicomweb.checkpoint.SyncCursor;
+import org.eclipse.edc.connector.dataplane.dicomweb.metrics.DicomWebMetrics;
+import org.eclipse.edc.connector.dataplane.spi.pipeline.StreamResult;
+import org.eclipse.edc.spi.EdcException;
+import org.eclipse.edc.spi.monitor.Monitor;
+import org.eclipse.edc.spi.result.Result;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.Deflater;
+
+import static org.eclipse.edc.connector.dataplane.dicomweb.dicom.DicomTags.SERIES_INSTANCE_UID;
+import static org.eclipse.edc.connector.dataplane.dicomweb.dicom.DicomTags.SOP_INSTANCE_UID;
+import static org.eclipse.edc.connector.dataplane.dicomweb.dicom.DicomTags.STUDY_DATE;
+import static org.eclipse.edc.connector.dataplane.dicomweb.dicom.DicomTags.STUDY_INSTANCE_UID;
+import static org.eclipse.edc.connector.dataplane.spi.pipeline.StreamResult.success;
+
+/**
+ * A data source that continuously syncs the instances arriving in a DICOMweb archive.
+ * <p>
+ * The archive is polled with a QIDO-RS instance search on a date attribute, {@code StudyDate} by default, matching
+ * every date from the high-water mark on. Instances not synced yet are retrieved with concurrent WADO-RS requests and
+ * handed out as one cycle. QIDO-RS matches whole dates, so the instances already synced at the high-water mark are
+ * remembered by SOP Instance UID. The cursor is persisted when a cycle is acknowledged, so a restarted sync does not
+ * query or transfer the archive from the start.
+ * <p>
+ * The polling interval adapts to the rate of change: it is halved down to the minimum whenever a poll finds new
+ * instances, and doubled up to the maximum whenever it finds none.
+ */
+public class DicomWebSyncSource implements ContinuousDataSource {
+    private static final int QIDO_PAGE_SIZE = 1000;
+    private static final int MAX_INSTANCES_PER_CYCLE = 1000;
+
+    private String name;
+    private String url;
+    private String username;
+    private String password;
+    private String syncId;
+    private Monitor monitor;
+    private DicomWebClient dicomWebClient;
+    private int maxConcurrentRetrievals = 4;
+    private List<String> transferSyntaxes = List.of();
+    private List<HttpCompression.Encoding> acceptEncodings = List.of();
+    private RetrievalExecutor retrievalExecutor;
+    private DicomWebSyncCursorStore cursorStore;
+    private SpillBuffer.Settings spillSettings;
+    private String since;
+    private String dateAttribute = STUDY_DATE;
+    private Duration minPollInterval = Duration.ofSeconds(10);
+    private Duration maxPollInterval = Duration.ofMinutes(10);
+
+    private final CountDownLatch closed = new CountDownLatch(1);
+    private final AtomicReference<FanOutPartIterator> cycle = new AtomicReference<>();
+    private SyncCursor cursor;
+    private SyncCursor pendingCursor;
+    private Duration pollInterval;
+    private boolean polled;
+    private boolean backlog;
+    private SpillBuffer spillBuffer;
+    private HttpCompression compression;
+    private DicomWebMetrics metrics = DicomWebMetrics.NOOP;
+    private MemoryBudget memoryBudget = MemoryBudget.UNLIMITED;
+    private MemoryBudget.Admission admission;
+
+    private DicomWebSyncSource() {
+    }
+
+    @Override
+    public CompletableFuture<StreamResult<Stream<Part>>> nextPartStream() {
+        return CompletableFuture.supplyAsync(this::awaitChanges, retrievalExecutor);
+    }
+
+    @Override
+    public synchronized void acknowledge() {
+        if (pendingCursor == null) {
+            return;
+        }
+        try {
+            cursorStore.save(syncId, pendingCursor);
+        } catch (Exception e) {
+            // the instances have been transferred, failing to record them only means they are transferred again on restart
+            monitor.warning("Failed to persist the cursor of sync %s".formatted(syncId), e);
+        }
+        cursor = pendingCursor;
+        pendingCursor = null;
+        releaseAdmission();
+    }
+
+    /**
+     * Returns the cycles of the sync as one endless stream, for sinks that do not handle continuous sources.
+     */
+    @Override
+    public StreamResult<Stream<Part>> openPartStream() {
+        var parts = new Iterator<Part>() {
+            private Iterator<Part> current;
+
+            @Override
+            public boolean hasNext() {
+                while (current == null || !current.hasNext()) {
+                    if (current != null) {
+                        acknowledge();
+                    }
+                    var next = awaitChanges();
+                    if (next.failed()) {
+                        throw new EdcException(next.getFailureDetail());
+                    }
+                    if (next.getContent() == null) {
+                        return false;
+                    }
+                    current = next.getContent().iterator();
+                }
+                return true;
+            }
+
+            @Override
+            public Part next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+        return success(StreamSupport.stream(Spliterators.spliteratorUnknownSize(parts, Spliterator.ORDERED | Spliterator.NONNULL), false));
+    }
+
+    @Override
+    public void close() {
+        closed.countDown();
+        var parts = cycle.getAndSet(null);
+        if (parts != null) {
+            parts.close();
+        }
+        synchronized (this) {
+            if (spillBuffer != null) {
+                spillBuffer.close();
+                spillBuffer = null;
+                metrics.transferFinished(DicomWebMetrics.host(url));
+            }
+            releaseAdmission();
+        }
+    }
+
+    /**
+     * Polls the archive until it holds instances that have not been synced, waiting the polling interval between
+     * polls. Failed polls are logged and count as polls without changes, so an unavailable archive is polled less
+     * often rather than ending the sync. The same holds for a cycle that is not admitted to the memory budget, which
+     * is held from the start of a cycle until it is acknowledged.
+     */
+    private synchronized StreamResult<Stream<Part>> awaitChanges() {
+        initialize();
+        while (!isClosed()) {
+            if (polled && !backlog && awaitClose(pollInterval)) {
+                break;
+            }
+            polled = true;
+            var poll = poll();
+            if (poll.failed()) {
+                monitor.warning("Failed to poll %s for sync %s: %s".formatted(url, syncId, poll.getFailureDetail()));
+            } else if (!poll.getContent().isEmpty()) {
+                var admitted = admit();
+                if (admitted.succeeded()) {
+                    pollInterval = max(minPollInterval, pollInterval.dividedBy(2));
+                    return success(retrieve(poll.getContent()));
+                }
+                monitor.warning("Postponing a cycle of sync %s: %s".formatted(syncId, admitted.getFailureDetail()));
+            }
+            pollInterval = min(maxPollInterval, pollInterval.multipliedBy(2));
+        }
+        return success(null);
+    }
+
+    /**
+     * Searches the archive for instances from the cursor date on that have not been synced. At most
+     * {@value #MAX_INSTANCES_PER_CYCLE} of them are returned, the oldest first, and the archive is polled again
+     * without delay if there are more.
+     */
+    private Result<List<Instance>> poll() {
+        var tags = Set.of(STUDY_INSTANCE_UID, SERIES_INSTANCE_UID, SOP_INSTANCE_UID, dateAttribute);
+        return dicomWebClient.qidoRs(rootUrl() + "/instances", Map.of(dateAttribute, cursor.date() + "-"), username, password, tags, QIDO_PAGE_SIZE)
+                .map(matches -> {
+                    var instances = matches.stream()
+                            .filter(attributes -> attributes.containsKey(STUDY_INSTANCE_UID) && attributes.containsKey(SERIES_INSTANCE_UID))
+                            .filter(attributes -> attributes.containsKey(SOP_INSTANCE_UID) && !cursor.instancesAtDate().contains(attributes.get(SOP_INSTANCE_UID)))
+                            .map(attributes -> new Instance(attributes.get(STUDY_INSTANCE_UID), attributes.get(SERIES_INSTANCE_UID),
+                                    attributes.get(SOP_INSTANCE_UID), Objects.requireNonNullElse(attributes.get(dateAttribute), cursor.date())))
+                            // servers that do not support range matching on the attribute return older instances as well
+                            .filter(instance -> instance.date().compareTo(cursor.date()) >= 0)
+                            .sorted(Comparator.comparing(Instance::date))
+                            .toList();
+                    backlog = instances.size() > MAX_INSTANCES_PER_CYCLE;
+                    return backlog ? instances.subList(0, MAX_INSTANCES_PER_CYCLE) : instances;
+                });
+    }
+
+    private Stream<Part> retrieve(List<Instance> instances) {
+        var next = cursor;
+        for (var instance : instances) {
+            next = next.advance(instance.date(), instance.sopInstanceUid());
+        }
+        pendingCursor = next;
+        monitor.debug(() -> "Syncing %d new instances from %s for sync %s".formatted(instances.size(), url, syncId));
+        var urls = instances.stream()
+                .map(instance -> "%s/studies/%s/series/%s/instances/%s".formatted(rootUrl(), instance.studyInstanceUid(),
+                        instance.seriesInstanceUid(), instance.sopInstanceUid()))
+                .toList();
+        var parts = new FanOutPartIterator(urls, maxConcurrentRetrievals, retrievalExecutor,
+                instanceUrl -> dicomWebClient.wadoRs(instanceUrl, username, password, transferSyntaxes, compression), this::createPart, spillBuffer);
+        var previous = cycle.getAndSet(parts);
+        if (previous != null) {
+            previous.close();
+        }
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(parts, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(parts::close);
+    }
+
+    private void initialize() {
+        if (cursor != null) {
+            return;
+        }
+        var stored = cursorStore.load(syncId);
+        cursor = stored != null ? stored : new SyncCursor(since, Set.of());
+        pollInterval = minPollInterval;
+        var host = DicomWebMetrics.host(url);
+        spillBuffer = new SpillBuffer(spillSettings, memoryBudget, delta -> metrics.heapBytesBufferedChanged(host, delta));
+        metrics.transferStarted(host);
+        compression = acceptEncodings.isEmpty() ? null : new HttpCompression(acceptEncodings, Deflater.DEFAULT_COMPRESSION);
+        monitor.info("Sync %s polls %s for instances from %s on".formatted(syncId, url, cursor.date()));
+    }
+
+    private Result<Void> admit() {
+        if (admission != null) {
+            return Result.success();
+        }
+        return memoryBudget.admit(syncId, DicomWebMetrics.host(url))
+                .onSuccess(admitted -> admission = admitted)
+                .mapEmpty();
+    }
+
+    private synchronized void releaseAdmission() {
+        if (admission != null) {
+            admission.close();
+            admission = null;
+        }
+    }
+
+    private Part createPart(MultipartRelatedReader.Part part, InputStream content) {
+        return DicomInstanceParts.create(name, content, Objects.requireNonNullElse(part.header("Content-Type"), "application/dicom"),
+                DicomInstanceParts.contentLength(part));
+    }
+
+    /**
+     * Returns the root of the DICOMweb service, accepting its {@code /studies} resource as well.
+     */
+    private String rootUrl() {
+        var root = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+        return root.endsWith("/studies") ? root.substring(0, root.length() - "/studies".length()) : root;
+    }
+
+    private boolean isClosed() {
+        return closed.getCount() == 0;
+    }
+
+    private boolean awaitClose(Duration timeout) {
+        try {
+            return closed.await(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return true;
+        }
+    }
+
+    private static Duration min(Duration a, Duration b) {
+        return a.compareTo(b) <= 0 ? a : b;
+    }
+
+    private static Duration max(Duration a, Duration b) {
+        return a.compareTo(b) >= 0 ? a : b;
+    }
+
+    private record Instance(String studyInstanceUid, String seriesInstanceUid, String sopInstanceUid, String date) {
+    }
+
+    public static class Builder {
+        private final DicomWebSyncSource dataSource;
+
+        public static Builder newInstance() {
+            return new Builder();
+        }
+
+        private Builder() {
+            dataSource = new DicomWebSyncSource();
+        }
+
+        public Builder url(String url) {
+            dataSource.url = url;
+            return this;
+        }
+
+        public Builder username(String username) {
+            dataSource.username = username;
+            return this;
+        }
+
+        public Builder password(String password) {
+            dataSource.password = password;
+            return this;
+        }
+
+        public Builder name(String name) {
+            dataSource.name = name;
+            return this;
+        }
+
+        /**
+         * Sets the key under which the cursor of the sync is persisted.
+         */
+        public Builder syncId(String syncId) {
+            dataSource.syncId = syncId;
+            return this;
+        }
+
+        public Builder dicomWebClient(DicomWebClient dicomWebClient) {
+            dataSource.dicomWebClient = dicomWebClient;
+            return this;
+        }
+
+        public Builder monitor(Monitor monitor) {
+            dataSource.monitor = monitor;
+            return this;
+        }
+
+        public Builder maxConcurrentRetrievals(int maxConcurrentRetrievals) {
+            dataSource.maxConcurrentRetrievals = maxConcurrentRetrievals;
+            return this;
+        }
+
+        public Builder transferSyntaxes(List<String> transferSyntaxes) {
+            dataSource.transferSyntaxes = List.copyOf(transferSyntaxes);
+            return this;
+        }
+
+        public Builder acceptEncodings(List<HttpCompression.Encoding> acceptEncodings) {
+            dataSource.acceptEncodings = List.copyOf(acceptEncodings);
+            return this;
+        }
+
+        public Builder retrievalExecutor(RetrievalExecutor retrievalExecutor) {
+            dataSource.retrievalExecutor = retrievalExecutor;
+            return this;
+        }
+
+        public Builder cursorStore(DicomWebSyncCursorStore cursorStore) {
+            dataSource.cursorStore = cursorStore;
+            return this;
+        }
+
+        public Builder spillSettings(SpillBuffer.Settings spillSettings) {
+            dataSource.spillSettings = spillSettings;
+            return this;
+        }
+
+        /**
+         * Sets the date, as a DICOM DA value, from which a sync without a persisted cursor starts. Defaults to today.
+         */
+        public Builder since(@Nullable String since) {
+            dataSource.since = since;
+            return this;
+        }
+
+        /**
+         * Sets the DA attribute the high-water mark is kept on, {@code StudyDate} by default. Archives that maintain a
+         * date of last update which QIDO-RS can match on should use that instead.
+         */
+        public Builder dateAttribute(String dateAttribute) {
+            dataSource.dateAttribute = dateAttribute;
+            return this;
+        }
+
+        public Builder pollInterval(Duration minPollInterval, Duration maxPollInterval) {
+            dataSource.minPollInterval = minPollInterval;
+            dataSource.maxPollInterval = maxPollInterval;
+            return this;
+        }
+
+        /**
+         * Sets the metrics to report to, attributed to the host of the url.
+         */
+        public Builder metrics(DicomWebMetrics metrics) {
+            dataSource.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * Sets the memory budget shared with the other transfers of the data plane, which every cycle waits to be
+         * admitted to.
+         */
+        public Builder memoryBudget(MemoryBudget memoryBudget) {
+            dataSource.memoryBudget = memoryBudget;
+            return this;
+        }
+
+        public DicomWebSyncSource build() {
+            Objects.requireNonNull(dataSource.url, "url");
+            Objects.requireNonNull(dataSource.syncId, "syncId");
+            Objects.requireNonNull(dataSource.dicomWebClient, "dicomWebClient");
+            Objects.requireNonNull(dataSource.monitor, "monitor");
+            Objects.requireNonNull(dataSource.retrievalExecutor, "retrievalExecutor");
+            Objects.requireNonNull(dataSource.cursorStore, "cursorStore");
+            Objects.requireNonNull(dataSource.spillSettings, "spillSettings");
+            Objects.requireNonNull(dataSource.dateAttribute, "dateAttribute");
+            if (dataSource.since == null) {
+                dataSource.since = LocalDate.now().format(DateTimeFormatter.BASIC_ISO_DATE);
+            }
+            if (!dataSource.since.matches("[0-9]{8}")) {
+                throw new IllegalArgumentException("since must be a date in the form YYYYMMDD");
+            }
+            if (dataSource.maxConcurrentRetrievals < 1) {
+                throw new IllegalArgumentException("maxConcurrentRetrievals must be positive");
+            }
+            var minPollInterval = dataSource.minPollInterval;
+            if (minPollInterval.isNegative() || minPollInterval.isZero() || dataSource.maxPollInterval.compareTo(minPollInterval) < 0) {
+                throw new IllegalArgumentException("The polling interval must be positive and not exceed its maximum");
+            }
+            return dataSource;
+        }
+    }
+}
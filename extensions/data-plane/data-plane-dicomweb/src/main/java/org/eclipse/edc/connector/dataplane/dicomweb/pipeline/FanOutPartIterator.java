@@ -0,0 +1,261 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import org.eclipse.edc.connector.dataplane.spi.pipeline.DataSource;
+import org.eclipse.edc.spi.EdcException;
+import org.eclipse.edc.spi.result.Result;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Retrieves a list of WADO-RS resources with several concurrent requests and merges their parts into one stream.
+ * <p>
+ * Every retrieval hands out one part at a time and continues with its response once that part has been consumed, so
+ * at most one part per retrieval is in flight. Parts are emitted in the order they arrive. A consumer that holds on to
+ * unread parts while asking for more causes the oldest of them to be detached, as with a single response.
+ * <p>
+ * Retrievals are started on a {@link RetrievalExecutor}. When all its slots are taken, fewer retrievals are started,
+ * down to one, for which the iterator waits when it is created.
+ */
+class FanOutPartIterator implements Iterator<DataSource.Part>, AutoCloseable {
+    private static final Object END_OF_RETRIEVAL = new Object();
+
+    private final Queue<String> urls;
+    private final Function<String, Result<MultipartRelatedReader>> retrieval;
+    private final PartFactory partFactory;
+    private final SpillBuffer spillBuffer;
+    private final BlockingQueue<Object> arrivals = new LinkedBlockingQueue<>();
+    private final Queue<DetachablePartStream> handedOut = new ConcurrentLinkedQueue<>();
+    private final Queue<MultipartRelatedReader> openReaders = new ConcurrentLinkedQueue<>();
+    private final List<Future<?>> workers = new ArrayList<>();
+    // guards the counts together with the arrivals they go along with, so that a stall is seen exactly
+    private final Object progress = new Object();
+    private int running;
+    private int waiting;
+    private int finishedWorkers;
+    private DataSource.Part next;
+    private volatile boolean closed;
+
+    FanOutPartIterator(List<String> urls, int concurrency, RetrievalExecutor executor,
+                       Function<String, Result<MultipartRelatedReader>> retrieval,
+                       BiFunction<MultipartRelatedReader.Part, DetachablePartStream, DataSource.Part> partFactory,
+                       SpillBuffer spillBuffer) {
+        this(urls, concurrency, executor, retrieval, (url, index, part, content) -> partFactory.apply(part, content), spillBuffer);
+    }
+
+    FanOutPartIterator(List<String> urls, int concurrency, RetrievalExecutor executor,
+                       Function<String, Result<MultipartRelatedReader>> retrieval, PartFactory partFactory, SpillBuffer spillBuffer) {
+        this.urls = new ConcurrentLinkedQueue<>(urls);
+        this.retrieval = retrieval;
+        this.partFactory = partFactory;
+        this.spillBuffer = spillBuffer;
+        var workerCount = Math.max(1, Math.min(concurrency, urls.size()));
+        submitFirstRetrieval(executor);
+        for (var i = 1; i < workerCount; i++) {
+            // a retrieval counts as running from its submission on, so it is not taken for stalled before it started
+            started();
+            Future<?> worker;
+            try {
+                worker = executor.trySubmit(this::retrieve);
+            } catch (RejectedExecutionException e) {
+                worker = null;
+            }
+            if (worker == null) {
+                // all slots are taken, the retrievals started so far work through all resources
+                finished(false);
+                break;
+            }
+            workers.add(worker);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null && !closed && finishedWorkers < workers.size()) {
+            releaseStalledRetrieval();
+            Object arrival;
+            try {
+                arrival = arrivals.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new EdcException("Interrupted while waiting for WADO-RS parts", e);
+            }
+            if (arrival == END_OF_RETRIEVAL) {
+                finishedWorkers++;
+            } else if (arrival instanceof Exception e) {
+                throw new EdcException("Failed to retrieve data from PACS: " + e.getMessage(), e);
+            } else {
+                handedOut.removeIf(DetachablePartStream::isReleased);
+                next = (DataSource.Part) arrival;
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public DataSource.Part next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        var part = next;
+        next = null;
+        return part;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        workers.forEach(worker -> worker.cancel(true));
+        MultipartRelatedReader reader;
+        while ((reader = openReaders.poll()) != null) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                // do nothing
+            }
+        }
+    }
+
+    /**
+     * If every retrieval is waiting for a part the consumer holds but has not read, nothing else can arrive. The
+     * oldest such part is detached so its retrieval can continue.
+     */
+    private void releaseStalledRetrieval() {
+        synchronized (progress) {
+            if (!arrivals.isEmpty() || waiting == 0 || waiting < running) {
+                return;
+            }
+        }
+        DetachablePartStream stream;
+        while ((stream = handedOut.poll()) != null) {
+            if (!stream.isReleased()) {
+                try {
+                    stream.detach();
+                } catch (IOException e) {
+                    throw new EdcException("Failed to buffer WADO-RS part", e);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Submits the first retrieval, waiting for a slot if none is free. A consumer without a retrieval of its own could
+     * hold destination requests that the retrievals of other transfers wait for.
+     */
+    private void submitFirstRetrieval(RetrievalExecutor executor) {
+        started();
+        try {
+            workers.add(executor.submit(this::retrieve));
+        } catch (InterruptedException e) {
+            finished(false);
+            Thread.currentThread().interrupt();
+            throw new EdcException("Interrupted while waiting for a retrieval thread", e);
+        } catch (RejectedExecutionException e) {
+            finished(false);
+            throw new EdcException("Retrieval executor has been shut down", e);
+        }
+    }
+
+    private void retrieve() {
+        try {
+            String url;
+            while (!closed && (url = urls.poll()) != null) {
+                var result = retrieval.apply(url);
+                if (result.failed()) {
+                    arrivals.add(new EdcException(result.getFailureDetail()));
+                    return;
+                }
+                var reader = result.getContent();
+                openReaders.add(reader);
+                try (reader) {
+                    MultipartRelatedReader.Part part;
+                    for (var index = 0; !closed && (part = reader.nextPart()) != null; index++) {
+                        var stream = new DetachablePartStream(part.body(), spillBuffer);
+                        handedOut.add(stream);
+                        var handedOutPart = partFactory.create(url, index, part, stream);
+                        synchronized (progress) {
+                            waiting++;
+                            arrivals.add(handedOutPart);
+                        }
+                        try {
+                            stream.awaitRelease();
+                        } finally {
+                            synchronized (progress) {
+                                waiting--;
+                            }
+                        }
+                    }
+                } finally {
+                    openReaders.remove(reader);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            if (!closed) {
+                arrivals.add(e);
+            }
+        } finally {
+            finished(true);
+        }
+    }
+
+    private void started() {
+        synchronized (progress) {
+            running++;
+        }
+    }
+
+    /**
+     * Counts a retrieval as no longer running. One that has been submitted also announces its end, after the count has
+     * dropped, so that the consumer checks for a stall again with the count of the retrievals that are left.
+     */
+    private void finished(boolean submitted) {
+        synchronized (progress) {
+            running--;
+            if (submitted) {
+                arrivals.add(END_OF_RETRIEVAL);
+            }
+        }
+    }
+
+    /**
+     * Creates the part handed out for a part of a response.
+     */
+    interface PartFactory {
+
+        /**
+         * Creates the part handed out for the given response part, whose content is read from the given stream.
+         *
+         * @param url   the resource the response was retrieved from.
+         * @param index the position of the part in the response, from zero.
+         */
+        DataSource.Part create(String url, int index, MultipartRelatedReader.Part part, DetachablePartStream content);
+    }
+}
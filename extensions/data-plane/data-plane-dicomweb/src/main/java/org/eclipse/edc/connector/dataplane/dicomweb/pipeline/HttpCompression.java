@@ -0,0 +1,268 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.DeflaterSink;
+import okio.ForwardingSink;
+import okio.GzipSink;
+import okio.Okio;
+import okio.Sink;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * HTTP content-encoding of the DICOMweb requests of one transfer, together with the number of bytes it saved.
+ * <p>
+ * Responses are decompressed while they are read and request bodies are compressed while they are written, so
+ * compression never requires buffering a whole message.
+ */
+public class HttpCompression {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final List<Encoding> encodings;
+    private final int level;
+    private final AtomicLong encodedBytes = new AtomicLong();
+    private final AtomicLong decodedBytes = new AtomicLong();
+
+    /**
+     * Creates the compression settings of a transfer.
+     *
+     * @param encodings encodings accepted in responses in order of preference; the first one is used for request bodies.
+     * @param level     deflate compression level of request bodies, from 0 to 9 or {@link Deflater#DEFAULT_COMPRESSION}.
+     */
+    public HttpCompression(List<Encoding> encodings, int level) {
+        if (encodings.isEmpty()) {
+            throw new IllegalArgumentException("At least one content encoding is required");
+        }
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("Compression level must be between 0 and 9");
+        }
+        this.encodings = List.copyOf(encodings);
+        this.level = level;
+    }
+
+    /**
+     * Returns the value of the {@code Accept-Encoding} header of requests.
+     */
+    String acceptEncoding() {
+        return String.join(", ", encodings.stream().map(Encoding::token).toList());
+    }
+
+    /**
+     * Returns the encoding of request bodies.
+     */
+    Encoding requestEncoding() {
+        return encodings.get(0);
+    }
+
+    /**
+     * Wraps a response body in a stream that decodes it according to its {@code Content-Encoding}.
+     */
+    InputStream decode(@Nullable String contentEncoding, InputStream body) throws IOException {
+        var encoding = Encoding.fromToken(contentEncoding);
+        if (encoding == null) {
+            return body;
+        }
+        var encoded = new CountingInputStream(body, encodedBytes);
+        var decoded = switch (encoding) {
+            case GZIP -> new GZIPInputStream(encoded, BUFFER_SIZE);
+            case DEFLATE -> new InflaterInputStream(encoded);
+        };
+        return new CountingInputStream(decoded, decodedBytes);
+    }
+
+    /**
+     * Wraps a request body so that it is compressed while it is written.
+     */
+    RequestBody encode(RequestBody body) {
+        return new EncodedRequestBody(body, requestEncoding());
+    }
+
+    /**
+     * Returns the number of bytes compression has saved on the wire so far.
+     */
+    public long bytesSaved() {
+        return decodedBytes.get() - encodedBytes.get();
+    }
+
+    /**
+     * Returns the number of compressed bytes sent or received so far.
+     */
+    public long encodedBytes() {
+        return encodedBytes.get();
+    }
+
+    /**
+     * The supported content codings.
+     */
+    public enum Encoding {
+        GZIP("gzip"),
+        DEFLATE("deflate");
+
+        private final String token;
+
+        Encoding(String token) {
+            this.token = token;
+        }
+
+        public String token() {
+            return token;
+        }
+
+        /**
+         * Parses a comma separated list of encodings as given in a data address.
+         *
+         * @throws IllegalArgumentException if an entry is not a supported encoding.
+         */
+        public static List<Encoding> parseList(String value) {
+            return Arrays.stream(value.split(","))
+                    .map(String::trim)
+                    .filter(token -> !token.isEmpty())
+                    .map(token -> {
+                        var encoding = fromToken(token);
+                        if (encoding == null) {
+                            throw new IllegalArgumentException("Unsupported content encoding: " + token);
+                        }
+                        return encoding;
+                    })
+                    .toList();
+        }
+
+        /**
+         * Returns the encoding of a {@code Content-Encoding} token, or null for {@code identity} and unknown tokens.
+         */
+        public static @Nullable Encoding fromToken(@Nullable String token) {
+            if (token == null) {
+                return null;
+            }
+            var normalized = token.trim().toLowerCase(Locale.ROOT);
+            for (var encoding : values()) {
+                if (encoding.token.equals(normalized)) {
+                    return encoding;
+                }
+            }
+            return null;
+        }
+    }
+
+    private class EncodedRequestBody extends RequestBody {
+        private final RequestBody delegate;
+        private final Encoding encoding;
+
+        EncodedRequestBody(RequestBody delegate, Encoding encoding) {
+            this.delegate = delegate;
+            this.encoding = encoding;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return delegate.contentType();
+        }
+
+        @Override
+        public long contentLength() {
+            return -1;
+        }
+
+        @Override
+        public boolean isOneShot() {
+            return delegate.isOneShot();
+        }
+
+        @Override
+        public void writeTo(@NotNull BufferedSink sink) throws IOException {
+            var encoded = new ForwardingSink(sink) {
+                @Override
+                public void write(@NotNull Buffer source, long byteCount) throws IOException {
+                    super.write(source, byteCount);
+                    encodedBytes.addAndGet(byteCount);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    // closing the compressing sink writes the trailer, the sink of the request stays open for its owner
+                    flush();
+                }
+            };
+            Sink compressing = switch (encoding) {
+                case GZIP -> {
+                    var gzipSink = new GzipSink(encoded);
+                    gzipSink.deflater().setLevel(level);
+                    yield gzipSink;
+                }
+                case DEFLATE -> new DeflaterSink(encoded, new Deflater(level));
+            };
+            var decoded = new ForwardingSink(compressing) {
+                @Override
+                public void write(@NotNull Buffer source, long byteCount) throws IOException {
+                    super.write(source, byteCount);
+                    decodedBytes.addAndGet(byteCount);
+                }
+            };
+            try (var compressedSink = Okio.buffer(decoded)) {
+                delegate.writeTo(compressedSink);
+            }
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private final AtomicLong counter;
+
+        CountingInputStream(InputStream in, AtomicLong counter) {
+            super(in);
+            this.counter = counter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            var b = super.read();
+            if (b >= 0) {
+                counter.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            var read = super.read(b, off, len);
+            if (read > 0) {
+                counter.addAndGet(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            var skipped = super.skip(n);
+            counter.addAndGet(skipped);
+            return skipped;
+        }
+    }
+}
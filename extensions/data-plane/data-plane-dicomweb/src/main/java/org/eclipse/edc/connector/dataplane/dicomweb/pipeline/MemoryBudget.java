@@ -0,0 +1,278 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import org.eclipse.edc.connector.dataplane.dicomweb.metrics.DicomWebMetrics;
+import org.eclipse.edc.spi.result.Result;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The heap memory that all DICOMweb transfers of the data plane may use together.
+ * <p>
+ * A transfer is admitted by reserving its working set, the buffers of its requests and parts in flight that are not
+ * accounted for one by one. Transfers that do not fit queue in arrival order until others have finished, so a burst of
+ * transfers is worked off in turn instead of exhausting the heap. The queue holds no threads: a queued transfer is
+ * continued by the release that makes room for it. The source and the sink of a transfer share its admission.
+ * <p>
+ * Content buffered on top of that, such as instances staged by a {@link SpillBuffer}, takes what is left without
+ * waiting: if the budget is used up, or transfers are waiting for admission, it is spilled to disk instead.
+ */
+public class MemoryBudget {
+    /**
+     * A budget without limit, for transfers that run on their own.
+     */
+    public static final MemoryBudget UNLIMITED = new MemoryBudget(Long.MAX_VALUE, 0, Duration.ZERO, DicomWebMetrics.NOOP);
+
+    private final long capacity;
+    private final long transferReservation;
+    private final Duration admissionTimeout;
+    private final DicomWebMetrics metrics;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, Admission> admissions = new HashMap<>();
+    private final Queue<Waiter> waiters = new ArrayDeque<>();
+    private long used;
+
+    /**
+     * Creates a budget.
+     *
+     * @param capacity            the bytes all transfers may hold in memory together.
+     * @param transferReservation the bytes reserved for the working set of every admitted transfer, at most the
+     *                            capacity.
+     * @param admissionTimeout    how long a transfer queues for admission before it fails.
+     * @param metrics             receives the usage of the budget.
+     */
+    public MemoryBudget(long capacity, long transferReservation, Duration admissionTimeout, DicomWebMetrics metrics) {
+        if (capacity <= 0 || transferReservation < 0) {
+            throw new IllegalArgumentException("Memory budget must be positive and the transfer reservation must not be negative");
+        }
+        this.capacity = capacity;
+        this.transferReservation = Math.min(transferReservation, capacity);
+        this.admissionTimeout = admissionTimeout;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Admits a transfer if its working set fits into the budget right away and no other transfer is queued, without
+     * waiting otherwise. A transfer that has already been admitted, e.g. by its sink, shares the admission, and the
+     * working set is returned when the last holder closes it.
+     *
+     * @param transferId the id of the transfer.
+     * @param host       the host the transfer reads from or writes to, to attribute the admission to.
+     * @return the admission, or a failure if the budget is in use by other transfers.
+     */
+    public Result<Admission> admit(String transferId, String host) {
+        lock.lock();
+        try {
+            var admission = admissions.get(transferId);
+            if (admission != null) {
+                admission.holders++;
+                return Result.success(admission);
+            }
+            if (!waiters.isEmpty() || used + transferReservation > capacity) {
+                metrics.admissionCompleted(host, false, Duration.ZERO);
+                return Result.failure("Transfer %s was not admitted, the DICOMweb memory budget of %d bytes is in use by other transfers"
+                        .formatted(transferId, capacity));
+            }
+            metrics.admissionCompleted(host, true, Duration.ZERO);
+            return Result.success(reserve(transferId));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Admits a transfer once its working set fits into the budget, queueing it behind the transfers that arrived
+     * earlier. A transfer that has already been admitted shares the admission, as with {@link #admit(String, String)}.
+     *
+     * @param transferId the id of the transfer.
+     * @param host       the host the transfer reads from or writes to, to attribute the wait to.
+     * @return a future of the admission, which is completed by the release that makes room for the transfer, or with
+     *         a failure if the transfer was not admitted within the admission timeout.
+     */
+    public CompletableFuture<Result<Admission>> admitAsync(String transferId, String host) {
+        var waiter = new Waiter(transferId, host, System.nanoTime(), new CompletableFuture<>());
+        lock.lock();
+        try {
+            var admission = admissions.get(transferId);
+            if (admission != null) {
+                admission.holders++;
+                return CompletableFuture.completedFuture(Result.success(admission));
+            }
+            waiters.add(waiter);
+            update();
+        } finally {
+            lock.unlock();
+        }
+        admitWaiters();
+        if (!waiter.admission().isDone()) {
+            CompletableFuture.delayedExecutor(admissionTimeout.toNanos(), TimeUnit.NANOSECONDS).execute(() -> expire(waiter));
+        }
+        return waiter.admission();
+    }
+
+    /**
+     * Reserves bytes for buffered content if they fit into the budget and no transfer is waiting for admission.
+     *
+     * @return whether the bytes were reserved.
+     */
+    public boolean tryReserve(long bytes) {
+        lock.lock();
+        try {
+            if (!waiters.isEmpty() || used + bytes > capacity) {
+                return false;
+            }
+            used += bytes;
+            update();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns bytes reserved by {@link #tryReserve(long)}.
+     */
+    public void release(long bytes) {
+        lock.lock();
+        try {
+            used -= bytes;
+            update();
+        } finally {
+            lock.unlock();
+        }
+        admitWaiters();
+    }
+
+    public long capacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the bytes currently reserved, by admitted transfers and buffered content.
+     */
+    public long used() {
+        lock.lock();
+        try {
+            return used;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Admission reserve(String transferId) {
+        var admission = new Admission(transferId);
+        admissions.put(transferId, admission);
+        used += transferReservation;
+        update();
+        return admission;
+    }
+
+    /**
+     * Admits the queued transfers that fit, in arrival order. The futures are completed outside the lock, as they
+     * continue the transfers.
+     */
+    private void admitWaiters() {
+        var admitted = new ArrayList<Waiter>();
+        var shares = new ArrayList<Admission>();
+        lock.lock();
+        try {
+            while (!waiters.isEmpty()) {
+                var waiter = waiters.peek();
+                var admission = admissions.get(waiter.transferId());
+                if (admission != null) {
+                    admission.holders++;
+                } else if (used + transferReservation <= capacity) {
+                    admission = reserve(waiter.transferId());
+                } else {
+                    break;
+                }
+                waiters.remove();
+                admitted.add(waiter);
+                shares.add(admission);
+            }
+            update();
+        } finally {
+            lock.unlock();
+        }
+        for (var i = 0; i < admitted.size(); i++) {
+            var waiter = admitted.get(i);
+            metrics.admissionCompleted(waiter.host(), true, Duration.ofNanos(System.nanoTime() - waiter.start()));
+            if (!waiter.admission().complete(Result.success(shares.get(i)))) {
+                shares.get(i).close();
+            }
+        }
+    }
+
+    private void expire(Waiter waiter) {
+        lock.lock();
+        try {
+            if (!waiters.remove(waiter)) {
+                return;
+            }
+            update();
+        } finally {
+            lock.unlock();
+        }
+        metrics.admissionCompleted(waiter.host(), false, Duration.ofNanos(System.nanoTime() - waiter.start()));
+        waiter.admission().complete(Result.failure("Transfer %s was not admitted within %s, the DICOMweb memory budget of %d bytes is in use by other transfers"
+                .formatted(waiter.transferId(), admissionTimeout, capacity)));
+        // a transfer leaving the head of the queue may let the ones behind it in
+        admitWaiters();
+    }
+
+    private void update() {
+        metrics.memoryBudgetChanged(used, capacity, waiters.size());
+    }
+
+    private record Waiter(String transferId, String host, long start, CompletableFuture<Result<Admission>> admission) {
+    }
+
+    /**
+     * The admission of a transfer, to be closed when the transfer has ended.
+     */
+    public class Admission implements AutoCloseable {
+        private final String transferId;
+        private int holders = 1;
+
+        private Admission(String transferId) {
+            this.transferId = transferId;
+        }
+
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                if (holders == 0 || --holders > 0) {
+                    return;
+                }
+                admissions.remove(transferId);
+                used -= transferReservation;
+                update();
+            } finally {
+                lock.unlock();
+            }
+            admitWaiters();
+        }
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Incremental reader for {@code multipart/related} bodies as returned by WADO-RS.
+ * <p>
+ * Delimiters are located on the fly while the underlying stream is consumed, so every part is exposed as an
+ * {@link InputStream} that ends at the next boundary. At no point does the reader hold more than its fixed-size
+ * read buffer, regardless of the size of the parts.
+ */
+public class MultipartRelatedReader implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_HEADER_LINE_LENGTH = 8 * 1024;
+
+    private final InputStream source;
+    private final byte[] delimiter;
+    private final byte[] buffer;
+    private int position;
+    private int limit;
+    private boolean endOfStream;
+    private boolean finished;
+
+    // index of the next delimiter in the buffer, or -1 if none has been found yet
+    private int delimiterIndex = -1;
+    // no delimiter starts before this index, so bytes up to it can be handed out safely
+    private int scannedIndex;
+    private PartInputStream currentPart;
+    private int partCount;
+    private long parseNanos;
+    private Runnable closeListener;
+
+    public MultipartRelatedReader(InputStream source, String boundary) {
+        this.source = source;
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.US_ASCII);
+        this.buffer = new byte[Math.max(BUFFER_SIZE, MAX_HEADER_LINE_LENGTH + delimiter.length)];
+        // the first delimiter is not preceded by a line break, pretend it is so a single pattern matches all of them
+        buffer[limit++] = '\r';
+        buffer[limit++] = '\n';
+        // everything before the first delimiter is the preamble, which is discarded like an unread part
+        currentPart = new PartInputStream();
+    }
+
+    /**
+     * Advances to the next part of the message. Any unread content of the previous part is skipped.
+     *
+     * @return the next part, or null if the closing delimiter has been reached.
+     * @throws IOException if the underlying stream fails or the message is malformed.
+     */
+    public @Nullable Part nextPart() throws IOException {
+        if (finished) {
+            return null;
+        }
+        currentPart.exhaust();
+        position += delimiter.length;
+        resetScan();
+
+        if (!ensure(2)) {
+            throw new EOFException("Unexpected end of multipart stream after boundary");
+        }
+        if (buffer[position] == '-' && buffer[position + 1] == '-') {
+            finished = true;
+            currentPart = null;
+            return null;
+        }
+
+        // the remainder of the delimiter line may contain transport padding
+        var delimiterLine = readLine();
+        if (!delimiterLine.isBlank()) {
+            throw new ProtocolException("Unexpected characters after multipart boundary: " + delimiterLine);
+        }
+
+        var headers = new LinkedHashMap<String, String>();
+        for (var line = readLine(); !line.isEmpty(); line = readLine()) {
+            var separator = line.indexOf(':');
+            if (separator <= 0) {
+                throw new ProtocolException("Malformed multipart header: " + line);
+            }
+            headers.put(line.substring(0, separator).trim().toLowerCase(Locale.ROOT), line.substring(separator + 1).trim());
+        }
+        resetScan();
+
+        currentPart = new PartInputStream();
+        partCount++;
+        return new Part(headers, currentPart);
+    }
+
+    @Override
+    public void close() throws IOException {
+        finished = true;
+        try {
+            source.close();
+        } finally {
+            var listener = closeListener;
+            closeListener = null;
+            if (listener != null) {
+                listener.run();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of parts read so far.
+     */
+    public int partCount() {
+        return partCount;
+    }
+
+    /**
+     * Returns the processing time spent scanning for delimiters so far, which excludes waiting for the stream.
+     */
+    public long parseNanos() {
+        return parseNanos;
+    }
+
+    /**
+     * Sets an action to run once the reader is closed.
+     */
+    void onClose(Runnable listener) {
+        closeListener = listener;
+    }
+
+    /**
+     * Returns the number of bytes of the current part that can be read without crossing the next delimiter,
+     * blocking until at least one byte is available. Returns 0 if the current part has ended.
+     */
+    private int readable() throws IOException {
+        while (true) {
+            if (findDelimiter() >= 0) {
+                return delimiterIndex - position;
+            }
+            if (scannedIndex > position) {
+                return scannedIndex - position;
+            }
+            if (endOfStream) {
+                throw new EOFException("Unexpected end of multipart stream, closing boundary is missing");
+            }
+            fill();
+        }
+    }
+
+    private int findDelimiter() {
+        if (delimiterIndex >= 0) {
+            return delimiterIndex;
+        }
+        var start = System.nanoTime();
+        try {
+            var last = limit - delimiter.length;
+            for (var i = Math.max(position, scannedIndex); i <= last; i++) {
+                if (buffer[i] == delimiter[0] && matchesDelimiterAt(i)) {
+                    delimiterIndex = i;
+                    scannedIndex = i;
+                    return i;
+                }
+            }
+            scannedIndex = Math.max(scannedIndex, last + 1);
+            return -1;
+        } finally {
+            parseNanos += System.nanoTime() - start;
+        }
+    }
+
+    private boolean matchesDelimiterAt(int index) {
+        for (var j = 1; j < delimiter.length; j++) {
+            if (buffer[index + j] != delimiter[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void resetScan() {
+        delimiterIndex = -1;
+        scannedIndex = position;
+    }
+
+    private boolean ensure(int count) throws IOException {
+        while (limit - position < count && !endOfStream) {
+            fill();
+        }
+        return limit - position >= count;
+    }
+
+    private void fill() throws IOException {
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            scannedIndex = Math.max(0, scannedIndex - position);
+            if (delimiterIndex >= 0) {
+                delimiterIndex -= position;
+            }
+            position = 0;
+        }
+        var read = source.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+            endOfStream = true;
+        } else {
+            limit += read;
+        }
+    }
+
+    private String readLine() throws IOException {
+        var start = position;
+        while (true) {
+            for (var i = start; i < limit; i++) {
+                if (buffer[i] == '\n') {
+                    var end = i > position && buffer[i - 1] == '\r' ? i - 1 : i;
+                    var line = new String(buffer, position, end - position, StandardCharsets.ISO_8859_1);
+                    position = i + 1;
+                    return line;
+                }
+            }
+            if (limit - position >= MAX_HEADER_LINE_LENGTH) {
+                throw new ProtocolException("Multipart header line exceeds " + MAX_HEADER_LINE_LENGTH + " bytes");
+            }
+            if (endOfStream) {
+                throw new EOFException("Unexpected end of multipart stream while reading part headers");
+            }
+            var scanned = limit - position;
+            fill();
+            start = position + scanned;
+        }
+    }
+
+    /**
+     * A single body part. Header names are lower case; the body ends at the next multipart delimiter.
+     */
+    public record Part(Map<String, String> headers, InputStream body) {
+
+        public @Nullable String header(String name) {
+            return headers.get(name.toLowerCase(Locale.ROOT));
+        }
+    }
+
+    private class PartInputStream extends InputStream {
+        private boolean exhausted;
+        private boolean closed;
+
+        @Override
+        public int read() throws IOException {
+            if (closed || exhausted || readable() == 0) {
+                exhausted = true;
+                return -1;
+            }
+            return buffer[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (closed || exhausted) {
+                return -1;
+            }
+            var readable = readable();
+            if (readable == 0) {
+                exhausted = true;
+                return -1;
+            }
+            var count = Math.min(readable, len);
+            System.arraycopy(buffer, position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (closed || exhausted || n <= 0) {
+                return 0;
+            }
+            var count = (int) Math.min(readable(), n);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            if (closed || exhausted) {
+                return 0;
+            }
+            return Math.max(0, (delimiterIndex >= 0 ? delimiterIndex : scannedIndex) - position);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        private void exhaust() throws IOException {
+            if (exhausted) {
+                return;
+            }
+            int readable;
+            while ((readable = readable()) > 0) {
+                position += readable;
+            }
+            exhausted = true;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import org.eclipse.edc.connector.dataplane.spi.pipeline.DataSource;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Splits the part stream of a transfer into STOW-RS batches that are shared between concurrent senders.
+ * <p>
+ * Batches are filled lazily: a batch only pulls its next part once the previous one has been written to the request
+ * body, so a sequential source is never read ahead of the upload. A batch ends when it reaches the configured number
+ * of instances or bytes. Parts whose size is known up front are not added to a batch they would overflow, unless the
+ * batch is still empty.
+ */
+class PartBatcher {
+    private final Iterator<DataSource.Part> parts;
+    private final int maxInstances;
+    private final long maxBytes;
+    private DataSource.Part pending;
+
+    PartBatcher(Iterator<DataSource.Part> parts, int maxInstances, long maxBytes) {
+        this.parts = parts;
+        this.maxInstances = maxInstances;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Starts the next batch.
+     *
+     * @return the batch, or null if all parts have been handed out.
+     */
+    @Nullable
+    Batch nextBatch() {
+        var first = poll(Long.MAX_VALUE);
+        return first == null ? null : new Batch(first);
+    }
+
+    private synchronized DataSource.Part poll(long remainingBytes) {
+        if (pending == null) {
+            if (!parts.hasNext()) {
+                return null;
+            }
+            pending = parts.next();
+        }
+        var size = pending.size();
+        if (size != DataSource.Part.SIZE_UNKNOWN && size > remainingBytes) {
+            return null;
+        }
+        var part = pending;
+        pending = null;
+        return part;
+    }
+
+    /**
+     * The parts of a single STOW-RS request, pulled on demand.
+     */
+    class Batch implements Iterator<DataSource.Part> {
+        private final List<String> partNames = new ArrayList<>();
+        private DataSource.Part next;
+        private int count;
+        private long bytes;
+        private boolean closed;
+
+        Batch(DataSource.Part first) {
+            next = first;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+            if (closed || count >= maxInstances || bytes >= maxBytes) {
+                closed = true;
+                return false;
+            }
+            next = poll(maxBytes - bytes);
+            closed = next == null;
+            return !closed;
+        }
+
+        @Override
+        public DataSource.Part next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            var part = next;
+            next = null;
+            count++;
+            partNames.add(part.name());
+            return new CountingPart(part, this);
+        }
+
+        /**
+         * Returns the names of the parts handed out so far.
+         */
+        List<String> partNames() {
+            return partNames;
+        }
+    }
+
+    record CountingPart(DataSource.Part delegate, Batch batch) implements DataSource.Part {
+
+        @Override
+        public String name() {
+            return delegate.name();
+        }
+
+        @Override
+        public long size() {
+            return delegate.size();
+        }
+
+        @Override
+        public String mediaType() {
+            return delegate.mediaType();
+        }
+
+        @Override
+        public InputStream openStream() {
+            return new FilterInputStream(delegate.openStream()) {
+                @Override
+                public int read() throws IOException {
+                    var b = super.read();
+                    if (b >= 0) {
+                        batch.bytes++;
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    var read = super.read(b, off, len);
+                    if (read > 0) {
+                        batch.bytes += read;
+                    }
+                    return read;
+                }
+            };
+        }
+
+        /**
+         * Does nothing, the content of the delegate is closed by whoever reads it.
+         */
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,575 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import org.eclipse.edc.connector.dataplane.dicomweb.pipeline.DicomWebDataSource.DicomWebPart;
+import org.eclipse.edc.connector.dataplane.spi.pipeline.DataSource;
+import org.eclipse.edc.spi.EdcException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static java.nio.file.StandardOpenOption.DELETE_ON_CLOSE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Reads the parts of a transfer once and hands every part to several consumers, the branches of the tee.
+ * <p>
+ * Content is copied into a ring buffer shared by all branches and overwritten once every branch has read it, so the
+ * tee holds no more than the ring in memory however many branches there are, and the source is read as fast as the
+ * slowest branch allows. When the ring is full, a branch that holds it up can be detached: its content is appended to
+ * a spill file of its own from then on, which it reads at its own pace while the others continue from the ring. This
+ * happens if another branch is waiting for content and slow branches are to be detached, and always if the branch
+ * holding up the ring is waiting for content itself, e.g. because it reads several parts at a time, as it could
+ * otherwise never continue. A branch that has not read anything for the stall timeout while another branch is waiting
+ * is detached as well, as its consumer may in turn wait for resources the waiting branches hold, such as threads.
+ * <p>
+ * Every branch receives the parts in the order of the source and may read several of them at the same time.
+ */
+class PartTee implements AutoCloseable {
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final Iterator<DataSource.Part> parts;
+    private final byte[] ring;
+    private final boolean detachSlowBranches;
+    private final Path spillDirectory;
+    private final IntConsumer detachListener;
+    private final long stallTimeout;
+    private final List<Branch> branches = new ArrayList<>();
+    private final List<Segment> segments = new ArrayList<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private long head;
+    private boolean ended;
+    private Exception failure;
+    private boolean closed;
+
+    /**
+     * Creates a tee.
+     *
+     * @param parts              the parts of the source.
+     * @param branchCount        the number of consumers.
+     * @param capacity           the size of the ring buffer in bytes.
+     * @param detachSlowBranches whether a branch that holds up the others is detached to a spill file, rather than
+     *                           slowing all branches down to its pace.
+     * @param spillDirectory     the directory of the spill files.
+     * @param stallTimeout       the time after which a branch that holds up the others without reading is detached.
+     * @param detachListener     called with the index of every branch that is detached.
+     */
+    PartTee(Iterator<DataSource.Part> parts, int branchCount, int capacity, boolean detachSlowBranches, Path spillDirectory,
+            Duration stallTimeout, IntConsumer detachListener) {
+        this.parts = parts;
+        this.ring = new byte[Math.max(capacity, CHUNK_SIZE)];
+        this.detachSlowBranches = detachSlowBranches;
+        this.spillDirectory = spillDirectory;
+        this.detachListener = detachListener;
+        this.stallTimeout = stallTimeout.toNanos();
+        for (var i = 0; i < branchCount; i++) {
+            branches.add(new Branch(i));
+        }
+    }
+
+    /**
+     * Returns the part stream of a branch. Closing the stream closes the branch, and the tee no longer waits for it.
+     */
+    Stream<DataSource.Part> branch(int index) {
+        var branch = branches.get(index);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(branch, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(branch::close);
+    }
+
+    /**
+     * Reads the source into the ring until it is exhausted, all branches have been closed or the tee is closed. Runs on
+     * the thread of the caller.
+     */
+    void pump() {
+        try {
+            var chunk = new byte[CHUNK_SIZE];
+            while (parts.hasNext()) {
+                var part = parts.next();
+                var segment = begin(part);
+                if (segment == null) {
+                    DicomInstanceParts.discard(part);
+                    break;
+                }
+                if (!copy(part, chunk)) {
+                    break;
+                }
+                end(segment);
+            }
+            finish(null);
+        } catch (Exception e) {
+            finish(e);
+        }
+    }
+
+    /**
+     * Closes the tee and deletes the spill files. Branches that have not read all parts fail.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            branches.forEach(Branch::closeLog);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Copies the content of a part into the ring.
+     *
+     * @return false if there is no branch left to copy for.
+     */
+    private boolean copy(DataSource.Part part, byte[] chunk) throws IOException, InterruptedException {
+        try (var content = part.openStream()) {
+            int read;
+            while ((read = content.read(chunk)) >= 0) {
+                if (!write(chunk, read)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private Segment begin(DataSource.Part part) {
+        lock.lock();
+        try {
+            if (closed || branches.stream().noneMatch(Branch::isLive)) {
+                return null;
+            }
+            var segment = new Segment(part, head);
+            segments.add(segment);
+            changed.signalAll();
+            return segment;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void end(Segment segment) {
+        lock.lock();
+        try {
+            segment.end = head;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void finish(Exception exception) {
+        lock.lock();
+        try {
+            failure = exception;
+            ended = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends content to the ring and to the spill files of detached branches, waiting for space in the ring.
+     *
+     * @return false if there is no branch left to write for.
+     */
+    private boolean write(byte[] chunk, int length) throws InterruptedException {
+        lock.lock();
+        try {
+            var offset = 0;
+            while (offset < length) {
+                var free = awaitSpace();
+                if (free < 0) {
+                    return false;
+                }
+                var count = (int) Math.min(free, length - offset);
+                var index = (int) (head % ring.length);
+                var first = Math.min(count, ring.length - index);
+                System.arraycopy(chunk, offset, ring, index, first);
+                System.arraycopy(chunk, offset + first, ring, 0, count - first);
+                for (var branch : branches) {
+                    if (branch.isLive() && branch.log != null) {
+                        branch.append(chunk, offset, count);
+                    }
+                }
+                head += count;
+                offset += count;
+                changed.signalAll();
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the ring has space, detaching branches that hold it up if need be.
+     *
+     * @return the free bytes, or -1 if there is no branch left to write for.
+     */
+    private long awaitSpace() throws InterruptedException {
+        while (true) {
+            if (closed || branches.stream().noneMatch(Branch::isLive)) {
+                return -1;
+            }
+            var free = ring.length - (head - tail());
+            if (free > 0) {
+                return free;
+            }
+            if (!detachBlockingBranches()) {
+                changed.awaitNanos(stallTimeout);
+            }
+        }
+    }
+
+    /**
+     * Returns the position of the oldest content in the ring that an attached branch still needs.
+     */
+    private long tail() {
+        var tail = head;
+        for (var branch : branches) {
+            if (branch.isAttached()) {
+                tail = Math.min(tail, branch.needed());
+            }
+        }
+        return tail;
+    }
+
+    private boolean detachBlockingBranches() {
+        var tail = tail();
+        var starving = branches.stream().anyMatch(branch -> branch.isAttached() && branch.isStarved());
+        var now = System.nanoTime();
+        var detached = false;
+        for (var branch : branches) {
+            var stalled = now - branch.progressedAt >= stallTimeout;
+            if (branch.isAttached() && branch.needed() == tail && (branch.isStarved() || starving && (detachSlowBranches || stalled))) {
+                branch.detach(tail);
+                detached = true;
+            }
+        }
+        return detached;
+    }
+
+    private void await() throws InterruptedException {
+        changed.signalAll();
+        changed.await();
+    }
+
+    /**
+     * The content of a part of the source, at {@code [start, end)} of all content read.
+     */
+    private static class Segment {
+        private final DataSource.Part part;
+        private final long start;
+        private long end = -1;
+
+        Segment(DataSource.Part part, long start) {
+            this.part = part;
+            this.start = start;
+        }
+    }
+
+    /**
+     * The parts of one consumer. All state is guarded by the lock of the tee.
+     */
+    private class Branch implements Iterator<DataSource.Part> {
+        private final int index;
+        private final List<BranchStream> open = new ArrayList<>();
+        private int nextSegment;
+        private int waitingForPart;
+        private int waitingForContent;
+        private boolean closed;
+        private IOException failure;
+        private FileChannel log;
+        private long logStart;
+        private long progressedAt = System.nanoTime();
+
+        Branch(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public boolean hasNext() {
+            lock.lock();
+            try {
+                while (nextSegment >= segments.size()) {
+                    if (PartTee.this.failure != null) {
+                        throw new EdcException("Failed to read parts from the source: " + PartTee.this.failure.getMessage(), PartTee.this.failure);
+                    }
+                    if (ended || closed || PartTee.this.closed) {
+                        return false;
+                    }
+                    waitingForPart++;
+                    try {
+                        await();
+                    } finally {
+                        waitingForPart--;
+                    }
+                }
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new EdcException("Interrupted while waiting for parts", e);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public DataSource.Part next() {
+            lock.lock();
+            try {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                var segment = segments.get(nextSegment++);
+                progressedAt = System.nanoTime();
+                var stream = new BranchStream(this, segment);
+                open.add(stream);
+                var part = segment.part;
+                if (part instanceof DicomWebPart dicomWebPart) {
+                    return new DicomWebPart(part.name(), stream, part.mediaType(), part.size(), dicomWebPart.sopInstanceUid(),
+                            dicomWebPart.seriesInstanceUid(), dicomWebPart.transferSyntaxUid());
+                }
+                return new BranchPart(part.name(), part.size(), part.mediaType(), stream);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Whether the branch waits for content that has not been read from the source yet. A branch that has been
+         * woken up for new content still counts as waiting until it runs again, so its waits alone do not tell.
+         */
+        boolean isStarved() {
+            if (waitingForPart > 0 && nextSegment >= segments.size()) {
+                return true;
+            }
+            return waitingForContent > 0 && open.stream().anyMatch(stream -> stream.position == head && stream.segment.end < 0);
+        }
+
+        boolean isLive() {
+            return !closed && failure == null;
+        }
+
+        boolean isAttached() {
+            return isLive() && log == null;
+        }
+
+        /**
+         * Returns the position of the oldest content the branch still needs, that of its next part if it has read all
+         * parts handed out.
+         */
+        long needed() {
+            var needed = nextSegment < segments.size() ? segments.get(nextSegment).start : head;
+            for (var stream : open) {
+                needed = Math.min(needed, stream.position);
+            }
+            return needed;
+        }
+
+        /**
+         * Moves the branch to a spill file of its own, starting with the content of the ring from the given position.
+         */
+        void detach(long from) {
+            try {
+                Files.createDirectories(spillDirectory);
+                log = FileChannel.open(Files.createTempFile(spillDirectory, "edc-dicomweb-fanout-", ".spill"), READ, WRITE, DELETE_ON_CLOSE);
+                logStart = from;
+                var offset = (int) (from % ring.length);
+                var length = (int) (head - from);
+                var first = Math.min(length, ring.length - offset);
+                append(ring, offset, first);
+                append(ring, 0, length - first);
+                detachListener.accept(this.index);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        void append(byte[] content, int offset, int length) {
+            try {
+                var buffer = ByteBuffer.wrap(content, offset, length);
+                while (buffer.hasRemaining()) {
+                    log.write(buffer);
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * Copies content of the branch at a position that has been read from the source.
+         */
+        int read(long position, byte[] b, int off, int len) throws IOException {
+            if (log != null) {
+                return log.read(ByteBuffer.wrap(b, off, len), position - logStart);
+            }
+            var index = (int) (position % ring.length);
+            var first = Math.min(len, ring.length - index);
+            System.arraycopy(ring, index, b, off, first);
+            System.arraycopy(ring, 0, b, off + first, len - first);
+            return len;
+        }
+
+        void close() {
+            lock.lock();
+            try {
+                closed = true;
+                open.clear();
+                closeLog();
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void fail(IOException e) {
+            failure = e;
+            closeLog();
+            changed.signalAll();
+        }
+
+        private void closeLog() {
+            if (log != null) {
+                try {
+                    log.close();
+                } catch (IOException e) {
+                    // do nothing
+                }
+            }
+        }
+    }
+
+    /**
+     * The content of one part for one branch.
+     */
+    private class BranchStream extends InputStream {
+        private final Branch branch;
+        private final Segment segment;
+        private long position;
+        private boolean released;
+
+        BranchStream(Branch branch, Segment segment) {
+            this.branch = branch;
+            this.segment = segment;
+            this.position = segment.start;
+        }
+
+        @Override
+        public int read() throws IOException {
+            var b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            lock.lock();
+            try {
+                while (true) {
+                    if (released) {
+                        return -1;
+                    }
+                    if (branch.failure != null) {
+                        throw new IOException("Failed to spill part " + segment.part.name(), branch.failure);
+                    }
+                    var available = (segment.end >= 0 ? segment.end : head) - position;
+                    if (available > 0) {
+                        var read = branch.read(position, b, off, (int) Math.min(len, available));
+                        position += read;
+                        branch.progressedAt = System.nanoTime();
+                        changed.signalAll();
+                        return read;
+                    }
+                    if (segment.end >= 0) {
+                        release();
+                        return -1;
+                    }
+                    if (failure != null) {
+                        throw new IOException("Failed to read part %s from the source: %s".formatted(segment.part.name(), failure.getMessage()), failure);
+                    }
+                    if (ended || closed || branch.closed) {
+                        throw new IOException("Part %s has been closed before it was read".formatted(segment.part.name()));
+                    }
+                    branch.waitingForContent++;
+                    try {
+                        await();
+                    } finally {
+                        branch.waitingForContent--;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for part " + segment.part.name());
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                release();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void release() {
+            if (!released) {
+                released = true;
+                branch.open.remove(this);
+                changed.signalAll();
+            }
+        }
+    }
+
+    private record BranchPart(String name, long size, String mediaType, InputStream content) implements DataSource.Part {
+
+        @Override
+        public InputStream openStream() {
+            return content;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
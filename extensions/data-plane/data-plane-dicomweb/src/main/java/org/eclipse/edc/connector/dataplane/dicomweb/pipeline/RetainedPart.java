@@ -0,0 +1,266 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import org.eclipse.edc.connector.dataplane.spi.pipeline.DataSource;
+import org.eclipse.edc.spi.EdcException;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A part sent in a STOW-RS request that keeps a copy of its content while it is read, so it can be sent again if the
+ * destination asks for a retry.
+ * <p>
+ * The copy is staged in the spill buffer of the transfer and becomes available once the content has been read to the
+ * end. It is released when the part is closed. The copies of a transfer together are bounded by a {@link Retention}:
+ * a part that does not fit is sent without a copy and cannot be sent again. Without retention the part only remembers
+ * which instance it carried.
+ * <p>
+ * With a manifest recorder, the checksums of the content are computed on the same first read.
+ */
+class RetainedPart implements DataSource.Part, AutoCloseable {
+    private final DataSource.Part delegate;
+    private final String sopInstanceUid;
+    private final String transferSyntaxUid;
+    private final Retention retention;
+    private final TransferManifest.Recorder manifest;
+    private boolean opened;
+    private SpillBuffer.StagedContent copy;
+    private long copySize;
+
+    /**
+     * Creates the part. If no retention is given, the content is not retained, and if no manifest recorder is given, it
+     * is not recorded.
+     */
+    RetainedPart(DataSource.Part delegate, @Nullable Retention retention, @Nullable TransferManifest.Recorder manifest) {
+        this.delegate = delegate;
+        this.sopInstanceUid = DicomInstanceParts.sopInstanceUid(delegate);
+        this.transferSyntaxUid = DicomInstanceParts.transferSyntaxUid(delegate);
+        this.retention = retention;
+        this.manifest = manifest;
+    }
+
+    @Override
+    public String name() {
+        return delegate.name();
+    }
+
+    @Override
+    public synchronized long size() {
+        return copy != null ? copy.size() : delegate.size();
+    }
+
+    @Override
+    public String mediaType() {
+        return delegate.mediaType();
+    }
+
+    @Override
+    public synchronized InputStream openStream() {
+        try {
+            if (copy != null) {
+                return copy.openStream();
+            }
+            if (opened) {
+                return delegate.openStream();
+            }
+            opened = true;
+            var content = manifest != null ? manifest.record(delegate.openStream(), sopInstanceUid, name()) : delegate.openStream();
+            return retention != null ? new CopyingInputStream(content, retention.spillBuffer().newStagingStream()) : content;
+        } catch (IOException e) {
+            throw new EdcException("Failed to retain DICOM instance " + name(), e);
+        }
+    }
+
+    /**
+     * Writes the retained copy to the channel without copying it through the heap.
+     */
+    synchronized void writeTo(WritableByteChannel channel) throws IOException {
+        if (copy == null) {
+            throw new IOException("DICOM instance " + name() + " has not been retained");
+        }
+        copy.writeTo(channel);
+    }
+
+    /**
+     * Returns the SOP Instance UID of the part, or null if it is unknown.
+     */
+    @Nullable
+    String sopInstanceUid() {
+        return sopInstanceUid;
+    }
+
+    /**
+     * Returns the transfer syntax of the instance, or null if it is unknown.
+     */
+    @Nullable
+    String transferSyntaxUid() {
+        return transferSyntaxUid;
+    }
+
+    /**
+     * Returns true if a complete copy of the content is available for sending it again.
+     */
+    synchronized boolean isReplayable() {
+        return copy != null;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (copy != null) {
+            copy.release();
+            copy = null;
+            retention.give(copySize);
+        }
+    }
+
+    private synchronized void completed(SpillBuffer.StagedContent content, long size) {
+        copy = content;
+        copySize = size;
+    }
+
+    /**
+     * The spill buffer copies are staged in, and the bytes all copies of a transfer may hold together.
+     */
+    static class Retention {
+        private final SpillBuffer spillBuffer;
+        private final long capacity;
+        private final AtomicLong used = new AtomicLong();
+
+        Retention(SpillBuffer spillBuffer, long capacity) {
+            this.spillBuffer = spillBuffer;
+            this.capacity = capacity;
+        }
+
+        SpillBuffer spillBuffer() {
+            return spillBuffer;
+        }
+
+        /**
+         * Returns the bytes held by copies.
+         */
+        long used() {
+            return used.get();
+        }
+
+        private boolean take(long bytes) {
+            return used.getAndUpdate(current -> current + bytes <= capacity ? current + bytes : current) + bytes <= capacity;
+        }
+
+        private void give(long bytes) {
+            used.addAndGet(-bytes);
+        }
+    }
+
+    private class CopyingInputStream extends FilterInputStream {
+        private final SpillBuffer.StagingStream out;
+        private long taken;
+        private boolean abandoned;
+        private boolean done;
+
+        CopyingInputStream(InputStream in, SpillBuffer.StagingStream out) {
+            super(in);
+            this.out = out;
+        }
+
+        @Override
+        public int read() throws IOException {
+            var b = super.read();
+            if (b >= 0) {
+                if (reserve(1)) {
+                    out.write(b);
+                }
+            } else {
+                complete();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            var read = super.read(b, off, len);
+            if (read > 0 && reserve(read)) {
+                out.write(b, off, read);
+            } else if (read < 0) {
+                complete();
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // skipped bytes would be missing from the copy
+            if (n <= 0) {
+                return 0;
+            }
+            return Math.max(0, read(new byte[(int) Math.min(n, 8192)]));
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                abandon();
+            }
+        }
+
+        /**
+         * Takes bytes of the copy from the retention, and abandons the copy if they do not fit.
+         *
+         * @return whether the bytes are to be copied.
+         */
+        private boolean reserve(int len) throws IOException {
+            if (abandoned) {
+                return false;
+            }
+            if (!retention.take(len)) {
+                abandon();
+                return false;
+            }
+            taken += len;
+            return true;
+        }
+
+        /**
+         * Discards the copy unless it has been completed.
+         */
+        private void abandon() throws IOException {
+            if (done || abandoned) {
+                return;
+            }
+            abandoned = true;
+            retention.give(taken);
+            out.close();
+        }
+
+        private void complete() throws IOException {
+            if (!done && !abandoned) {
+                done = true;
+                completed(out.complete(), taken);
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the WADO-RS retrievals of all DICOMweb sources, at most a fixed number at a time.
+ * <p>
+ * Retrievals block while their parts are consumed, so they get threads of their own rather than competing for the
+ * threads of the transfers. A source waits for a slot for its first retrieval and starts further ones only while slots
+ * are free, so a saturated node lets sources start fewer retrievals instead of none. Slots are handed to waiting
+ * sources in arrival order as retrievals end.
+ * <p>
+ * Other tasks of the sources, such as a sync waiting for its next poll, run on the same threads without a slot, as
+ * they do not hold connections.
+ */
+public class RetrievalExecutor implements Executor {
+    private final ExecutorService executorService;
+    private final Semaphore slots;
+
+    /**
+     * Creates the executor.
+     *
+     * @param executorService runs the tasks, it must start every task it is given at once, as a cached thread pool does.
+     * @param maxRetrievals   the retrievals run at the same time.
+     */
+    public RetrievalExecutor(ExecutorService executorService, int maxRetrievals) {
+        if (maxRetrievals < 1) {
+            throw new IllegalArgumentException("At least one retrieval must be allowed");
+        }
+        this.executorService = executorService;
+        this.slots = new Semaphore(maxRetrievals, true);
+    }
+
+    /**
+     * Starts a retrieval once a slot is free.
+     */
+    Future<?> submit(Runnable retrieval) throws InterruptedException {
+        slots.acquire();
+        return start(retrieval);
+    }
+
+    /**
+     * Starts a retrieval if a slot is free.
+     *
+     * @return the running retrieval, or null if all slots are taken.
+     */
+    @Nullable
+    Future<?> trySubmit(Runnable retrieval) {
+        return slots.tryAcquire() ? start(retrieval) : null;
+    }
+
+    /**
+     * Runs a task that does not retrieve anything, without taking a slot.
+     */
+    @Override
+    public void execute(Runnable task) {
+        executorService.execute(task);
+    }
+
+    /**
+     * Returns the slots that are free.
+     */
+    int availableSlots() {
+        return slots.availablePermits();
+    }
+
+    /**
+     * Stops the running retrievals and rejects new ones.
+     */
+    public void shutdown() {
+        executorService.shutdownNow();
+    }
+
+    private Future<?> start(Runnable retrieval) {
+        var task = new RetrievalTask(retrieval);
+        try {
+            executorService.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.cancel(false);
+            throw e;
+        }
+        return task;
+    }
+
+    /**
+     * A retrieval that returns its slot once it has run, or once it has been cancelled before it started.
+     */
+    private class RetrievalTask extends FutureTask<Void> {
+        private final AtomicBoolean started = new AtomicBoolean();
+
+        RetrievalTask(Runnable retrieval) {
+            super(retrieval, null);
+        }
+
+        @Override
+        public void run() {
+            if (started.compareAndSet(false, true)) {
+                try {
+                    super.run();
+                } finally {
+                    slots.release();
+                }
+            }
+        }
+
+        @Override
+        protected void done() {
+            if (started.compareAndSet(false, true)) {
+                slots.release();
+            }
+        }
+    }
+}
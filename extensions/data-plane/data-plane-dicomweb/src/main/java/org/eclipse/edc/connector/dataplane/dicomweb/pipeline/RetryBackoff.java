@@ -0,0 +1,55 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with jitter between attempts of a request.
+ * <p>
+ * The delay doubles with every attempt up to a cap and is drawn from its upper half, so concurrent senders that failed
+ * together do not retry together. A delay requested by the server takes precedence, within an upper bound.
+ */
+class RetryBackoff {
+    private static final Duration MAX_DELAY = Duration.ofMinutes(1);
+    private static final Duration MAX_RETRY_AFTER = Duration.ofMinutes(5);
+
+    private final Duration baseDelay;
+
+    RetryBackoff(Duration baseDelay) {
+        this.baseDelay = baseDelay;
+    }
+
+    /**
+     * Returns the delay before the next attempt.
+     *
+     * @param attempt    the number of attempts made so far, starting with 1.
+     * @param retryAfter the delay requested by the server, if any.
+     */
+    Duration delay(int attempt, @Nullable Duration retryAfter) {
+        var random = ThreadLocalRandom.current();
+        if (retryAfter != null) {
+            var requested = retryAfter.compareTo(MAX_RETRY_AFTER) > 0 ? MAX_RETRY_AFTER : retryAfter;
+            // spread out the senders the server asked to come back at the same time
+            return requested.plusMillis(random.nextLong(baseDelay.toMillis() + 1));
+        }
+        var exponential = baseDelay.toMillis() << Math.min(attempt - 1, 20);
+        var capped = Math.min(exponential, MAX_DELAY.toMillis());
+        return Duration.ofMillis(capped / 2 + random.nextLong(capped / 2 + 1));
+    }
+}
@@ -0,0 +1,447 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+import static java.nio.file.StandardOpenOption.DELETE_ON_CLOSE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Stages the content of DICOM instances for one transfer, e.g. the unread remainder of a detached part or a copy kept
+ * for retries.
+ * <p>
+ * Small instances are kept in memory as long as the transfer stays within its memory budget, and the data plane within
+ * the {@link MemoryBudget} shared by all transfers. An instance above the threshold, or one that would exceed either
+ * budget, is spilled to a temporary file, which is read back through memory-mapped windows. Closing the buffer
+ * releases all content and deletes the files.
+ */
+public class SpillBuffer implements AutoCloseable {
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final long MAP_WINDOW_SIZE = 64L * 1024 * 1024;
+
+    private final Settings settings;
+    private final MemoryBudget memoryBudget;
+    private final LongConsumer memoryListener;
+    private final AtomicLong bytesInMemory = new AtomicLong();
+    private final AtomicLong bytesSpilled = new AtomicLong();
+    private final Set<StagedContent> staged = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    public SpillBuffer(Settings settings) {
+        this(settings, MemoryBudget.UNLIMITED, delta -> {
+        });
+    }
+
+    /**
+     * Creates a buffer that takes the memory it holds from the budget shared by all transfers, and reports every change
+     * of it to the listener.
+     */
+    public SpillBuffer(Settings settings, MemoryBudget memoryBudget, LongConsumer memoryListener) {
+        this.settings = settings;
+        this.memoryBudget = memoryBudget;
+        this.memoryListener = memoryListener;
+    }
+
+    /**
+     * Reads the stream to its end and stages its content.
+     */
+    public StagedContent stage(InputStream content) throws IOException {
+        try (var stream = newStagingStream()) {
+            content.transferTo(stream);
+            return stream.complete();
+        }
+    }
+
+    /**
+     * Returns a stream whose content is staged once {@link StagingStream#complete()} is called. Closing the stream
+     * without completing it discards the content.
+     */
+    public StagingStream newStagingStream() {
+        if (closed) {
+            throw new IllegalStateException("Spill buffer has been closed");
+        }
+        return new StagingStream();
+    }
+
+    /**
+     * Returns the number of bytes currently held in memory.
+     */
+    public long bytesInMemory() {
+        return bytesInMemory.get();
+    }
+
+    /**
+     * Returns the total number of bytes written to spill files.
+     */
+    public long bytesSpilled() {
+        return bytesSpilled.get();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        staged.forEach(StagedContent::release);
+    }
+
+    private void releaseMemory(long bytes) {
+        if (bytes == 0) {
+            return;
+        }
+        bytesInMemory.addAndGet(-bytes);
+        memoryBudget.release(bytes);
+        memoryListener.accept(-bytes);
+    }
+
+    private boolean reserveMemory(long bytes) {
+        while (true) {
+            var current = bytesInMemory.get();
+            if (current + bytes > settings.transferMemoryBudget()) {
+                return false;
+            }
+            if (bytesInMemory.compareAndSet(current, current + bytes)) {
+                if (!memoryBudget.tryReserve(bytes)) {
+                    bytesInMemory.addAndGet(-bytes);
+                    return false;
+                }
+                memoryListener.accept(bytes);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Settings of the spill buffers of all transfers.
+     *
+     * @param directory            directory of the spill files.
+     * @param memoryThreshold      instances up to this size are kept in memory.
+     * @param transferMemoryBudget upper bound for the bytes a single transfer keeps in memory.
+     */
+    public record Settings(Path directory, long memoryThreshold, long transferMemoryBudget) {
+    }
+
+    /**
+     * Content staged in memory or in a spill file. It can be read any number of times until it is released.
+     */
+    public interface StagedContent {
+
+        long size();
+
+        InputStream openStream() throws IOException;
+
+        /**
+         * Writes the content to the channel, straight from memory or from the mapped spill file.
+         */
+        void writeTo(WritableByteChannel channel) throws IOException;
+
+        void release();
+    }
+
+    /**
+     * Collects content in memory chunks and moves it to a spill file once it no longer fits.
+     */
+    public class StagingStream extends OutputStream {
+        private final List<byte[]> chunks = new ArrayList<>();
+        private final byte[] single = new byte[1];
+        private int chunkPosition = CHUNK_SIZE;
+        private long size;
+        private Path file;
+        private FileChannel channel;
+        private boolean done;
+
+        @Override
+        public void write(int b) throws IOException {
+            // copying input streams write every byte read on its own, it goes straight into the current chunk
+            if (!done && channel == null && chunkPosition < CHUNK_SIZE && size < settings.memoryThreshold()) {
+                chunks.get(chunks.size() - 1)[chunkPosition++] = (byte) b;
+                size++;
+                return;
+            }
+            single[0] = (byte) b;
+            write(single, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (done) {
+                throw new IOException("Staging stream has been closed");
+            }
+            size += len;
+            if (channel == null && !fitsInMemory(len)) {
+                spill();
+            }
+            if (channel != null) {
+                var buffer = ByteBuffer.wrap(b, off, len);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                bytesSpilled.addAndGet(len);
+            } else {
+                while (len > 0) {
+                    if (chunkPosition == CHUNK_SIZE) {
+                        chunks.add(new byte[CHUNK_SIZE]);
+                        chunkPosition = 0;
+                    }
+                    var count = Math.min(len, CHUNK_SIZE - chunkPosition);
+                    System.arraycopy(b, off, chunks.get(chunks.size() - 1), chunkPosition, count);
+                    chunkPosition += count;
+                    off += count;
+                    len -= count;
+                }
+            }
+        }
+
+        /**
+         * Finishes staging and returns the content.
+         */
+        public StagedContent complete() throws IOException {
+            if (done) {
+                throw new IOException("Staging stream has been closed");
+            }
+            done = true;
+            StagedContent content;
+            if (channel != null) {
+                content = new FileContent(file, channel, channel.size());
+            } else {
+                content = new MemoryContent(chunks, size, (long) chunks.size() * CHUNK_SIZE);
+            }
+            staged.add(content);
+            if (closed) {
+                content.release();
+            }
+            return content;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (done) {
+                return;
+            }
+            done = true;
+            releaseMemory((long) chunks.size() * CHUNK_SIZE);
+            chunks.clear();
+            if (channel != null) {
+                channel.close();
+                Files.deleteIfExists(file);
+            }
+        }
+
+        private boolean fitsInMemory(int len) {
+            var free = chunks.isEmpty() ? 0 : CHUNK_SIZE - chunkPosition;
+            if (size > settings.memoryThreshold()) {
+                return false;
+            }
+            if (len <= free) {
+                return true;
+            }
+            var newChunks = (len - free + CHUNK_SIZE - 1) / CHUNK_SIZE;
+            return reserveMemory((long) newChunks * CHUNK_SIZE);
+        }
+
+        private void spill() throws IOException {
+            Files.createDirectories(settings.directory());
+            file = Files.createTempFile(settings.directory(), "edc-dicomweb-", ".spill");
+            channel = FileChannel.open(file, READ, WRITE, DELETE_ON_CLOSE);
+            var inMemory = (long) chunks.size() * CHUNK_SIZE - (chunks.isEmpty() ? 0 : CHUNK_SIZE - chunkPosition);
+            var remaining = inMemory;
+            for (var chunk : chunks) {
+                var buffer = ByteBuffer.wrap(chunk, 0, (int) Math.min(CHUNK_SIZE, remaining));
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                remaining -= CHUNK_SIZE;
+            }
+            bytesSpilled.addAndGet(inMemory);
+            releaseMemory((long) chunks.size() * CHUNK_SIZE);
+            chunks.clear();
+        }
+    }
+
+    private class MemoryContent implements StagedContent {
+        private final List<byte[]> chunks;
+        private final long size;
+        private final long reserved;
+        private boolean released;
+
+        MemoryContent(List<byte[]> chunks, long size, long reserved) {
+            this.chunks = new ArrayList<>(chunks);
+            this.size = size;
+            this.reserved = reserved;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public synchronized InputStream openStream() throws IOException {
+            checkNotReleased();
+            var streams = new ArrayList<InputStream>();
+            var remaining = size;
+            for (var chunk : chunks) {
+                streams.add(new ByteArrayInputStream(chunk, 0, (int) Math.min(CHUNK_SIZE, remaining)));
+                remaining -= CHUNK_SIZE;
+            }
+            return new SequenceInputStream(Collections.enumeration(streams));
+        }
+
+        @Override
+        public synchronized void writeTo(WritableByteChannel channel) throws IOException {
+            checkNotReleased();
+            var remaining = size;
+            for (var chunk : chunks) {
+                var buffer = ByteBuffer.wrap(chunk, 0, (int) Math.min(CHUNK_SIZE, remaining));
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                remaining -= CHUNK_SIZE;
+            }
+        }
+
+        @Override
+        public synchronized void release() {
+            if (!released) {
+                released = true;
+                chunks.clear();
+                releaseMemory(reserved);
+                staged.remove(this);
+            }
+        }
+
+        private void checkNotReleased() throws IOException {
+            if (released) {
+                throw new IOException("Staged content has been released");
+            }
+        }
+    }
+
+    private class FileContent implements StagedContent {
+        private final Path file;
+        private final FileChannel channel;
+        private final long size;
+
+        FileContent(Path file, FileChannel channel, long size) {
+            this.file = file;
+            this.channel = channel;
+            this.size = size;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public InputStream openStream() throws IOException {
+            if (!channel.isOpen()) {
+                throw new IOException("Staged content has been released");
+            }
+            return new MappedInputStream(channel, size);
+        }
+
+        @Override
+        public void writeTo(WritableByteChannel target) throws IOException {
+            for (long position = 0; position < size; position += MAP_WINDOW_SIZE) {
+                var window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW_SIZE, size - position));
+                while (window.hasRemaining()) {
+                    target.write(window);
+                }
+            }
+        }
+
+        @Override
+        public void release() {
+            try {
+                // the file has been opened with DELETE_ON_CLOSE, deleting it explicitly covers file systems that ignore it
+                channel.close();
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                // do nothing
+            }
+            staged.remove(this);
+        }
+    }
+
+    /**
+     * Reads a spill file through memory-mapped windows, so that no copy of the content is made on the heap.
+     */
+    private static class MappedInputStream extends InputStream {
+        private final FileChannel channel;
+        private final long size;
+        private long windowStart;
+        private MappedByteBuffer window;
+
+        MappedInputStream(FileChannel channel, long size) {
+            this.channel = channel;
+            this.size = size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return nextWindow() ? window.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!nextWindow()) {
+                return -1;
+            }
+            var count = Math.min(len, window.remaining());
+            window.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return window == null ? 0 : window.remaining();
+        }
+
+        private boolean nextWindow() throws IOException {
+            if (window != null && window.hasRemaining()) {
+                return true;
+            }
+            if (window != null) {
+                windowStart += window.capacity();
+            }
+            if (windowStart >= size) {
+                return false;
+            }
+            window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(MAP_WINDOW_SIZE, size - windowStart));
+            return true;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.Okio;
+import org.eclipse.edc.connector.dataplane.spi.pipeline.DataSource;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A {@code multipart/related} STOW-RS request body that copies each part from its stream straight to the socket.
+ * <p>
+ * Parts are pulled from the iterator only while the body is written. If the size of every part is known up front the
+ * exact content length is announced, otherwise the body is sent with chunked transfer encoding. The body can only be
+ * written once, as the part streams are consumed while writing.
+ */
+class StowRequestBody extends RequestBody {
+    private static final String DICOM = "application/dicom";
+    private static final byte[] CRLF = "\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final Iterator<DataSource.Part> parts;
+    private final String boundary;
+    private final long contentLength;
+    private boolean written;
+
+    private StowRequestBody(Iterator<DataSource.Part> parts, String boundary, long contentLength) {
+        this.parts = parts;
+        this.boundary = boundary;
+        this.contentLength = contentLength;
+    }
+
+    /**
+     * Creates a body for a fixed list of parts, announcing the content length if all part sizes are known.
+     */
+    static StowRequestBody of(List<DataSource.Part> parts, String boundary) {
+        long length = 0;
+        for (var part : parts) {
+            var size = part.size();
+            if (size == DataSource.Part.SIZE_UNKNOWN) {
+                length = -1;
+                break;
+            }
+            length += partHeader(boundary, part).length + size + CRLF.length;
+        }
+        if (length >= 0) {
+            length += closingDelimiter(boundary).length;
+        }
+        return new StowRequestBody(parts.iterator(), boundary, length);
+    }
+
+    /**
+     * Creates a chunked body that pulls its parts from the iterator while it is written.
+     */
+    static StowRequestBody of(Iterator<DataSource.Part> parts, String boundary) {
+        return new StowRequestBody(parts, boundary, -1);
+    }
+
+    @Override
+    public MediaType contentType() {
+        return MediaType.get("multipart/related; type=\"" + DICOM + "\"; boundary=" + boundary);
+    }
+
+    @Override
+    public long contentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public boolean isOneShot() {
+        return true;
+    }
+
+    @Override
+    public void writeTo(@NotNull BufferedSink sink) throws IOException {
+        // a retried call would otherwise silently send the already consumed part streams as empty instances
+        if (written) {
+            throw new IOException("STOW-RS request body has already been sent and cannot be replayed");
+        }
+        written = true;
+        while (parts.hasNext()) {
+            var part = parts.next();
+            sink.write(partHeader(boundary, part));
+            if (part instanceof RetainedPart retained && retained.isReplayable()) {
+                retained.writeTo(sink);
+            } else {
+                try (var content = Okio.source(part.openStream())) {
+                    sink.writeAll(content);
+                }
+            }
+            sink.write(CRLF);
+        }
+        sink.write(closingDelimiter(boundary));
+    }
+
+    private static byte[] partHeader(String boundary, DataSource.Part part) {
+        // the sink only lets DICOM instances through, which other sources often label application/octet-stream
+        var header = new StringBuilder("--").append(boundary).append("\r\n")
+                .append("Content-Type: ").append(DICOM);
+        // announce the encoding so the destination does not need to transcode or inspect the instance to learn it
+        var transferSyntaxUid = DicomInstanceParts.transferSyntaxUid(part);
+        if (transferSyntaxUid != null) {
+            header.append("; transfer-syntax=").append(transferSyntaxUid);
+        }
+        header.append("\r\n");
+        var size = part.size();
+        if (size != DataSource.Part.SIZE_UNKNOWN) {
+            header.append("Content-Length: ").append(size).append("\r\n");
+        }
+        return header.append("\r\n").toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] closingDelimiter(String boundary) {
+        return ("--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+}
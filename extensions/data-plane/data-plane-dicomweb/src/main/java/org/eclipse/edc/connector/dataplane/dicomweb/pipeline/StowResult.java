@@ -0,0 +1,101 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import org.eclipse.edc.connector.dataplane.dicomweb.dicom.StoreInstancesResponse;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.Set;
+
+/**
+ * The outcome of a STOW-RS request, resolved per instance.
+ *
+ * @param statusCode    HTTP status code of the response, or {@link #NO_RESPONSE} if the request failed before a response
+ *                      was received.
+ * @param response      the parsed Store Instances Response, or null if the response had no DICOM JSON body.
+ * @param retryAfter    the delay requested by the server with a {@code Retry-After} header, if any.
+ * @param failureDetail a description of the failure if the request as a whole did not succeed.
+ */
+public record StowResult(int statusCode, @Nullable StoreInstancesResponse response, @Nullable Duration retryAfter,
+                         @Nullable String failureDetail) {
+
+    public static final int NO_RESPONSE = -1;
+
+    private static final Set<Integer> TRANSIENT_STATUS_CODES = Set.of(NO_RESPONSE, 408, 429, 500, 502, 503, 504);
+
+    /**
+     * The outcome of a single instance.
+     */
+    public enum InstanceOutcome {
+        /**
+         * The destination acknowledged the instance.
+         */
+        STORED,
+        /**
+         * The instance was not stored, but sending it again may succeed.
+         */
+        RETRYABLE,
+        /**
+         * The destination rejected the instance.
+         */
+        FAILED
+    }
+
+    static StowResult noResponse(String failureDetail) {
+        return new StowResult(NO_RESPONSE, null, null, failureDetail);
+    }
+
+    /**
+     * Returns true if every instance of the request has been stored, that is the response has a {@code 2xx} status and
+     * lists no failed instances. A response without body, such as a {@code 204}, has none.
+     */
+    public boolean succeeded() {
+        return isSuccessful() && !hasFailedInstances();
+    }
+
+    /**
+     * Resolves the outcome of an instance of the request. Instances listed in the response are resolved by their
+     * entry, others, including instances whose UID is unknown, by the status code of the response and whether it lists
+     * failures.
+     */
+    public InstanceOutcome outcome(@Nullable String sopInstanceUid) {
+        if (sopInstanceUid != null && response != null) {
+            var failureReason = response.failedInstances().get(sopInstanceUid);
+            if (failureReason != null) {
+                return StoreInstancesResponse.isTransient(failureReason) ? InstanceOutcome.RETRYABLE : InstanceOutcome.FAILED;
+            }
+            if (response.referencedInstances().contains(sopInstanceUid)) {
+                return InstanceOutcome.STORED;
+            }
+        }
+        // a response that lists failures lists every instance, one that is missing has not been processed
+        if (isSuccessful() && !hasFailedInstances()) {
+            return InstanceOutcome.STORED;
+        }
+        if (isSuccessful() || TRANSIENT_STATUS_CODES.contains(statusCode)) {
+            return InstanceOutcome.RETRYABLE;
+        }
+        return InstanceOutcome.FAILED;
+    }
+
+    private boolean isSuccessful() {
+        return statusCode / 100 == 2;
+    }
+
+    private boolean hasFailedInstances() {
+        return response != null && !response.failedInstances().isEmpty();
+    }
+}
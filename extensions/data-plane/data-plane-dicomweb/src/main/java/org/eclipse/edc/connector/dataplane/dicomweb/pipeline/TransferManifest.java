@@ -0,0 +1,153 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The instances a transfer stored at a destination, or read from a source, each with its size and checksums, so that
+ * source and destination can verify a transfer by comparing manifests instead of reading the instances again.
+ *
+ * @param transferId  the id of the transfer.
+ * @param source      the url the instances were read from, for a manifest of the source.
+ * @param destination the url the instances were stored at, for a manifest of the destination.
+ * @param algorithms  the checksums computed, by {@link ChecksumAlgorithm#token()}.
+ * @param instances   the instances in the order they were read.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record TransferManifest(String transferId, @Nullable String source, @Nullable String destination, List<String> algorithms,
+                               List<Entry> instances) {
+
+    /**
+     * An instance of the manifest.
+     *
+     * @param sopInstanceUid the SOP Instance UID, null if the instance could not be identified.
+     * @param name           the name of the part that carried the instance.
+     * @param size           the size of the instance in bytes.
+     * @param checksums      the checksums of the instance as lower case hex strings, by algorithm.
+     */
+    public record Entry(@Nullable String sopInstanceUid, String name, long size, Map<String, String> checksums) {
+    }
+
+    /**
+     * Computes the checksums of instances while they are read for sending and collects them into a manifest. Safe for
+     * use by the concurrent requests of a transfer.
+     */
+    static class Recorder {
+        private final List<ChecksumAlgorithm> algorithms;
+        private final Runnable onRecorded;
+        private final ConcurrentLinkedQueue<Entry> entries = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger recorded = new AtomicInteger();
+
+        Recorder(List<ChecksumAlgorithm> algorithms) {
+            this(algorithms, () -> {
+            });
+        }
+
+        /**
+         * Creates a recorder that calls back whenever an instance has been recorded.
+         */
+        Recorder(List<ChecksumAlgorithm> algorithms, Runnable onRecorded) {
+            this.algorithms = List.copyOf(algorithms);
+            this.onRecorded = onRecorded;
+        }
+
+        /**
+         * Wraps the content of an instance, which is recorded once it has been read to the end. Content that is
+         * closed before is not recorded.
+         */
+        InputStream record(InputStream content, @Nullable String sopInstanceUid, String name) {
+            return new DigestingInputStream(content, sopInstanceUid, name);
+        }
+
+        /**
+         * Returns the number of instances recorded so far.
+         */
+        int recorded() {
+            return recorded.get();
+        }
+
+        TransferManifest manifest(String transferId, @Nullable String source, @Nullable String destination) {
+            return new TransferManifest(transferId, source, destination, algorithms.stream().map(ChecksumAlgorithm::token).toList(),
+                    List.copyOf(entries));
+        }
+
+        private class DigestingInputStream extends FilterInputStream {
+            private final String sopInstanceUid;
+            private final String name;
+            private final List<ChecksumAlgorithm.Digest> digests;
+            private long size;
+            private boolean complete;
+
+            DigestingInputStream(InputStream in, @Nullable String sopInstanceUid, String name) {
+                super(in);
+                this.sopInstanceUid = sopInstanceUid;
+                this.name = name;
+                this.digests = algorithms.stream().map(ChecksumAlgorithm::newDigest).toList();
+            }
+
+            @Override
+            public int read() throws IOException {
+                var b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                var read = super.read(b, off, len);
+                if (read > 0) {
+                    size += read;
+                    for (var digest : digests) {
+                        digest.update(b, off, read);
+                    }
+                } else if (read < 0 && !complete) {
+                    complete = true;
+                    var checksums = new LinkedHashMap<String, String>();
+                    for (var i = 0; i < digests.size(); i++) {
+                        checksums.put(algorithms.get(i).token(), digests.get(i).value());
+                    }
+                    entries.add(new Entry(sopInstanceUid, name, size, checksums));
+                    recorded.incrementAndGet();
+                    onRecorded.run();
+                }
+                return read;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                // skipped bytes would be missing from the checksums
+                if (n <= 0) {
+                    return 0;
+                }
+                return Math.max(0, read(new byte[(int) Math.min(n, 8192)]));
+            }
+
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+        }
+    }
+}
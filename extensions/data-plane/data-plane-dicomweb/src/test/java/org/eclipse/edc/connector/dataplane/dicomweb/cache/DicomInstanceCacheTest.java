@@ -0,0 +1,149 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+
+
+package org.eclipse.edc.connector.dataplane.dicomweb.cache;
+
+import org.eclipse.edc.connector.dataplane.dicomweb.dicom.TransferSyntaxes;
+import org.eclipse.edc.spi.monitor.Monitor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DicomInstanceCacheTest {
+    private static final String JPEG_2000 = "1.2.840.10008.1.2.4.90";
+    private static final Monitor MONITOR = new Monitor() { };
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    void shouldCacheInstance_whenReadCompletely() throws IOException {
+        var cache = cache(100);
+
+        var read = readThrough(cache, key("1.1"), "0123456789");
+
+        assertThat(read).isEqualTo("0123456789");
+        var cached = cache.lookup("1.1", List.of(TransferSyntaxes.EXPLICIT_VR_LITTLE_ENDIAN));
+        assertThat(cached).isNotNull();
+        assertThat(cached.size()).isEqualTo(10);
+        try (var stream = cached.openStream()) {
+            assertThat(stream.readAllBytes()).asString(StandardCharsets.US_ASCII).isEqualTo("0123456789");
+        }
+        assertThat(cache.totalBytes()).isEqualTo(10);
+    }
+
+    @Test
+    void shouldDiscardInstance_whenClosedBeforeEnd() throws IOException {
+        var cache = cache(100);
+
+        try (var stream = cache.caching(key("1.1"), content("0123456789"))) {
+            assertThat(stream.readNBytes(4)).hasSize(4);
+        }
+
+        assertThat(cache.lookup("1.1", List.of(TransferSyntaxes.ANY))).isNull();
+        assertThat(cache.totalBytes()).isZero();
+        try (var files = Files.walk(directory)) {
+            assertThat(files.filter(Files::isRegularFile)).isEmpty();
+        }
+    }
+
+    @Test
+    void shouldEvictLeastRecentlyUsedInstance() throws IOException {
+        var cache = cache(25);
+        readThrough(cache, key("1.1"), "0123456789");
+        readThrough(cache, key("1.2"), "0123456789");
+        assertThat(cache.lookup("1.1", List.of(TransferSyntaxes.ANY))).isNotNull();
+
+        readThrough(cache, key("1.3"), "0123456789");
+
+        assertThat(cache.lookup("1.2", List.of(TransferSyntaxes.ANY))).isNull();
+        assertThat(cache.lookup("1.1", List.of(TransferSyntaxes.ANY))).isNotNull();
+        assertThat(cache.lookup("1.3", List.of(TransferSyntaxes.ANY))).isNotNull();
+        assertThat(cache.totalBytes()).isEqualTo(20);
+        assertThat(directory.resolve("1").resolve("2").resolve("1.2").resolve(TransferSyntaxes.EXPLICIT_VR_LITTLE_ENDIAN + ".dcm")).doesNotExist();
+    }
+
+    @Test
+    void shouldLookupTransferSyntaxesInOrderOfPreference() throws IOException {
+        var cache = cache(100);
+        readThrough(cache, key("1.1"), "explicit");
+        readThrough(cache, new DicomInstanceCache.Key("1", "2", "1.1", JPEG_2000), "jpeg");
+
+        assertThat(cache.lookup("1.1", List.of(JPEG_2000, TransferSyntaxes.EXPLICIT_VR_LITTLE_ENDIAN)))
+                .extracting(cached -> cached.key().transferSyntaxUid()).isEqualTo(JPEG_2000);
+        assertThat(cache.lookup("1.1", List.of(TransferSyntaxes.IMPLICIT_VR_LITTLE_ENDIAN, TransferSyntaxes.ANY))).isNotNull();
+        assertThat(cache.lookup("1.1", List.of(TransferSyntaxes.IMPLICIT_VR_LITTLE_ENDIAN))).isNull();
+    }
+
+    @Test
+    void shouldNotCache_whenKeyIsNotUid() throws IOException {
+        var cache = cache(100);
+        var content = content("0123456789");
+
+        assertThat(cache.caching(new DicomInstanceCache.Key("1", "../2", "1.1", JPEG_2000), content)).isSameAs(content);
+    }
+
+    @Test
+    void shouldRebuildIndexInOrderOfLastAccess_whenInitialized() throws IOException {
+        var cache = cache(100);
+        readThrough(cache, key("1.1"), "0123456789");
+        readThrough(cache, key("1.2"), "0123456789");
+        var instanceDirectory = directory.resolve("1").resolve("2");
+        Files.setLastModifiedTime(instanceDirectory.resolve("1.1").resolve(TransferSyntaxes.EXPLICIT_VR_LITTLE_ENDIAN + ".dcm"),
+                FileTime.fromMillis(System.currentTimeMillis() + 60_000));
+        Files.writeString(instanceDirectory.resolve("1.2").resolve("1.2.partial"), "interrupted");
+
+        var restarted = cache(15);
+
+        // the most recently accessed instance is kept when the index is rebuilt over a smaller bound
+        assertThat(restarted.totalBytes()).isEqualTo(10);
+        assertThat(restarted.lookup("1.1", List.of(TransferSyntaxes.ANY))).isNotNull();
+        assertThat(restarted.lookup("1.2", List.of(TransferSyntaxes.ANY))).isNull();
+        try (var files = Files.walk(directory)) {
+            assertThat(files.filter(Files::isRegularFile).map(file -> file.getFileName().toString()))
+                    .containsExactly(TransferSyntaxes.EXPLICIT_VR_LITTLE_ENDIAN + ".dcm");
+        }
+    }
+
+    private DicomInstanceCache cache(long maxBytes) {
+        var cache = new DicomInstanceCache(directory, maxBytes, MONITOR);
+        cache.initialize();
+        return cache;
+    }
+
+    private static String readThrough(DicomInstanceCache cache, DicomInstanceCache.Key key, String content) throws IOException {
+        try (var stream = cache.caching(key, content(content))) {
+            return new String(stream.readAllBytes(), StandardCharsets.US_ASCII);
+        }
+    }
+
+    private static DicomInstanceCache.Key key(String sopInstanceUid) {
+        return new DicomInstanceCache.Key("1", "2", sopInstanceUid, TransferSyntaxes.EXPLICIT_VR_LITTLE_ENDIAN);
+    }
+
+    private static ByteArrayInputStream content(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+
+package org.eclipse.edc.connector.dataplane.dicomweb.checkpoint;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FileCheckpointStoreTest {
+    @TempDir
+    private Path directory;
+
+    @Test
+    void shouldReturnCompletedInstances() {
+        var store = new FileCheckpointStore(directory);
+
+        store.markCompleted("transfer", List.of("1.1", "1.2"));
+        store.markCompleted("transfer", List.of("1.2", "1.3"));
+
+        assertThat(store.completedInstances("transfer")).containsExactlyInAnyOrder("1.1", "1.2", "1.3");
+        assertThat(store.completedInstances("other")).isEmpty();
+    }
+
+    @Test
+    void shouldAppendEveryInstanceOnce() throws IOException {
+        var store = new FileCheckpointStore(directory);
+
+        store.markCompleted("transfer", List.of("1.1", "1.2"));
+        store.markCompleted("transfer", List.of("1.2", "1.3"));
+
+        try (var files = Files.list(directory)) {
+            var file = files.findFirst().orElseThrow();
+            assertThat(Files.readAllLines(file, StandardCharsets.US_ASCII)).containsExactly("1.1", "1.2", "1.3");
+        }
+    }
+
+    @Test
+    void shouldReadCheckpoint_whenTransferIsRestarted() {
+        new FileCheckpointStore(directory).markCompleted("transfer", List.of("1.1", "1.2"));
+
+        var restarted = new FileCheckpointStore(directory);
+
+        assertThat(restarted.completedInstances("transfer")).containsExactlyInAnyOrder("1.1", "1.2");
+    }
+
+    @Test
+    void shouldIgnoreTornLine() throws IOException {
+        var store = new FileCheckpointStore(directory);
+        store.markCompleted("transfer", List.of("1.1"));
+        try (var files = Files.list(directory)) {
+            Files.writeString(files.findFirst().orElseThrow(), "1.2.84", StandardOpenOption.APPEND);
+        }
+
+        var restarted = new FileCheckpointStore(directory);
+
+        assertThat(restarted.completedInstances("transfer")).contains("1.1").doesNotContain("1.2.840");
+    }
+
+    @Test
+    void shouldKeepFile_whenReleased() {
+        var store = new FileCheckpointStore(directory);
+        store.markCompleted("transfer", List.of("1.1"));
+
+        store.release("transfer");
+
+        assertThat(store.completedInstances("transfer")).containsExactly("1.1");
+    }
+
+    @Test
+    void shouldDeleteCheckpoint_whenCleared() throws IOException {
+        var store = new FileCheckpointStore(directory);
+        store.markCompleted("transfer", List.of("1.1"));
+
+        store.clear("transfer");
+
+        assertThat(store.completedInstances("transfer")).isEmpty();
+        assertThat(new FileCheckpointStore(directory).completedInstances("transfer")).isEmpty();
+        try (var files = Files.list(directory)) {
+            assertThat(files).isEmpty();
+        }
+    }
+
+    @Test
+    void shouldNotHoldLedger_whenOnlyRead() throws IOException {
+        var writer = new FileCheckpointStore(directory);
+        writer.markCompleted("transfer", List.of("1.1"));
+        var reader = new FileCheckpointStore(directory);
+        assertThat(reader.completedInstances("transfer")).containsExactly("1.1");
+
+        writer.markCompleted("transfer", List.of("1.2"));
+
+        // a reader does not hold the entries it read, so it neither needs to release them nor misses later ones
+        assertThat(reader.completedInstances("transfer")).containsExactlyInAnyOrder("1.1", "1.2");
+    }
+
+    @Test
+    void shouldKeepFileAndEntriesConsistent_whenClearedWhileWriting() throws Exception {
+        var store = new FileCheckpointStore(directory);
+        var executor = Executors.newFixedThreadPool(4);
+        try {
+            var writes = IntStream.range(0, 200)
+                    .mapToObj(i -> CompletableFuture.runAsync(() -> store.markCompleted("transfer", List.of("1." + i)), executor))
+                    .toList();
+            var clear = writes.get(100).thenRunAsync(() -> store.clear("transfer"), executor);
+            CompletableFuture.allOf(writes.toArray(CompletableFuture[]::new)).get(10, TimeUnit.SECONDS);
+            clear.get(10, TimeUnit.SECONDS);
+
+            assertThat(store.completedInstances("transfer")).doesNotContain("1.100")
+                    .isEqualTo(new FileCheckpointStore(directory).completedInstances("transfer"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void shouldStartOver_whenWrittenAfterClear() throws IOException {
+        var store = new FileCheckpointStore(directory);
+        store.markCompleted("transfer", List.of("1.1"));
+        store.clear("transfer");
+
+        store.markCompleted("transfer", List.of("1.2"));
+
+        assertThat(store.completedInstances("transfer")).containsExactly("1.2");
+        try (var files = Files.list(directory)) {
+            assertThat(Files.readAllLines(files.findFirst().orElseThrow(), StandardCharsets.US_ASCII)).containsExactly("1.2");
+        }
+    }
+
+    @Test
+    void shouldKeepTransfersApart_whenIdsNeedEncoding() {
+        var store = new FileCheckpointStore(directory);
+
+        store.markCompleted("a/b", List.of("1.1"));
+        store.markCompleted("a b", List.of("1.2"));
+
+        var restarted = new FileCheckpointStore(directory);
+        assertThat(restarted.completedInstances("a/b")).containsExactly("1.1");
+        assertThat(restarted.completedInstances("a b")).containsExactly("1.2");
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+
+
+package org.eclipse.edc.connector.dataplane.dicomweb.checkpoint;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FileSyncCursorStoreTest {
+    @TempDir
+    private Path directory;
+
+    @Test
+    void shouldReturnNoCursor_whenNoneWasSaved() {
+        assertThat(new FileSyncCursorStore(directory.resolve("cursors")).load("sync")).isNull();
+    }
+
+    @Test
+    void shouldLoadSavedCursor_whenSyncIsRestarted() {
+        new FileSyncCursorStore(directory).save("sync", new SyncCursor("20240102", Set.of("1.1", "1.2")));
+
+        var restarted = new FileSyncCursorStore(directory);
+
+        assertThat(restarted.load("sync")).isEqualTo(new SyncCursor("20240102", Set.of("1.1", "1.2")));
+    }
+
+    @Test
+    void shouldReplaceCursor_whenSavedAgain() throws IOException {
+        var store = new FileSyncCursorStore(directory);
+        store.save("sync", new SyncCursor("20240102", Set.of("1.1")));
+
+        store.save("sync", new SyncCursor("20240103", Set.of()));
+
+        assertThat(store.load("sync")).isEqualTo(new SyncCursor("20240103", Set.of()));
+        try (var files = Files.list(directory)) {
+            // the temporary file the cursor was written to has been moved in place
+            assertThat(files).singleElement().satisfies(file -> assertThat(file.getFileName().toString()).endsWith(".cursor"));
+        }
+    }
+
+    @Test
+    void shouldKeepSyncsApart_whenIdsNeedEncoding() {
+        var store = new FileSyncCursorStore(directory);
+
+        store.save("a/b", new SyncCursor("20240101", Set.of("1.1")));
+        store.save("a b", new SyncCursor("20240102", Set.of("1.2")));
+
+        assertThat(store.load("a/b")).isEqualTo(new SyncCursor("20240101", Set.of("1.1")));
+        assertThat(store.load("a b")).isEqualTo(new SyncCursor("20240102", Set.of("1.2")));
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+
+
+package org.eclipse.edc.connector.dataplane.dicomweb.checkpoint;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SyncCursorTest {
+
+    @Test
+    void shouldRememberInstance_whenAtCursorDate() {
+        var cursor = new SyncCursor("20240102", Set.of("1.1"));
+
+        assertThat(cursor.advance("20240102", "1.2")).isEqualTo(new SyncCursor("20240102", Set.of("1.1", "1.2")));
+    }
+
+    @Test
+    void shouldMoveCursor_whenInstanceIsNewer() {
+        var cursor = new SyncCursor("20240102", Set.of("1.1"));
+
+        assertThat(cursor.advance("20240103", "1.2")).isEqualTo(new SyncCursor("20240103", Set.of("1.2")));
+    }
+
+    @Test
+    void shouldKeepCursor_whenInstanceIsOlder() {
+        var cursor = new SyncCursor("20240102", Set.of("1.1"));
+
+        assertThat(cursor.advance("20240101", "1.2")).isSameAs(cursor);
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+
+package org.eclipse.edc.connector.dataplane.dicomweb.dicom;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.eclipse.edc.connector.dataplane.dicomweb.dicom.DicomTestStreams.SOP_CLASS_UID;
+import static org.eclipse.edc.connector.dataplane.dicomweb.dicom.DicomTestStreams.explicitVr;
+import static org.eclipse.edc.connector.dataplane.dicomweb.dicom.DicomTestStreams.implicitVr;
+import static org.eclipse.edc.connector.dataplane.dicomweb.dicom.DicomTestStreams.parse;
+import static org.eclipse.edc.connector.dataplane.dicomweb.dicom.DicomTestStreams.part10;
+
+class DeidentifyingInputStreamTest {
+    private static final String SOP_INSTANCE_UID = "1.2.826.0.1.3680043.8.498.1.1.1";
+    private static final String STUDY_INSTANCE_UID = "1.2.826.0.1.3680043.8.498.1";
+    private static final String SERIES_INSTANCE_UID = "1.2.826.0.1.3680043.8.498.1.1";
+    private static final String REFERENCED_SOP_INSTANCE_UID = "1.2.826.0.1.3680043.8.498.2.1.1";
+    private static final String JPEG_BASELINE = "1.2.840.10008.1.2.4.50";
+
+    private final DeidentificationProfile profile = DeidentificationProfile.parse(DeidentificationProfile.BASIC, "",
+            "uid-key".getBytes(StandardCharsets.US_ASCII));
+
+    @Test
+    void shouldDeidentify_whenExplicitVr() throws IOException {
+        var pixelData = pixelData();
+        var instance = part10(SOP_INSTANCE_UID, TransferSyntaxes.EXPLICIT_VR_LITTLE_ENDIAN, dataset(explicitVr(), explicitVr(), explicitVr(), pixelData));
+
+        var deidentified = deidentify(instance, profile);
+
+        assertThat(Arrays.copyOf(deidentified, 128)).containsOnly(0);
+        assertDeidentified(parse(deidentified), pixelData);
+    }
+
+    @Test
+    void shouldDeidentify_whenImplicitVr() throws IOException {
+        var pixelData = pixelData();
+        var instance = part10(SOP_INSTANCE_UID, TransferSyntaxes.IMPLICIT_VR_LITTLE_ENDIAN, dataset(implicitVr(), implicitVr(), implicitVr(), pixelData));
+
+        var elements = parse(deidentify(instance, profile));
+
+        assertThat(elements).containsEntry("00020010", TransferSyntaxes.IMPLICIT_VR_LITTLE_ENDIAN);
+        assertDeidentified(elements, pixelData);
+    }
+
+    @Test
+    void shouldApplyProfileToSequencesOfDefinedLength() throws IOException {
+        var instance = part10(SOP_INSTANCE_UID, TransferSyntaxes.EXPLICIT_VR_LITTLE_ENDIAN, explicitVr()
+                .sequence(0x0008_1110, "SQ", false, explicitVr().string(0x0008_1155, "UI", REFERENCED_SOP_INSTANCE_UID))
+                .sequence(0x0008_1115, "SQ", false, explicitVr()
+                        .string(0x0008_1155, "UI", REFERENCED_SOP_INSTANCE_UID)
+                        .sequence(0x0008_1199, "SQ", false, explicitVr().string(0x0010_0010, "PN", "Doe^John")))
+                .string(0x0020_000E, "UI", SERIES_INSTANCE_UID));
+
+        var elements = parse(deidentify(instance, profile));
+
+        assertThat(elements).doesNotContainKeys("00081110", "00081110.0.00081155");
+        assertThat(elements).containsEntry("00081115.0.00081155", profile.remapUid(REFERENCED_SOP_INSTANCE_UID));
+        assertThat(elements).containsEntry("00081115.0.00081199.0.00100010", "");
+        assertThat(elements).containsEntry("0020000E", profile.remapUid(SERIES_INSTANCE_UID));
+    }
+
+    @Test
+    void shouldApplyProfileToSequencesOfDefinedLength_whenImplicitVr() throws IOException {
+        var instance = part10(SOP_INSTANCE_UID, TransferSyntaxes.IMPLICIT_VR_LITTLE_ENDIAN, implicitVr()
+                .sequence(0x0008_1110, "SQ", false, implicitVr().string(0x0008_1155, "UI", REFERENCED_SOP_INSTANCE_UID))
+                .sequence(0x0008_1115, "SQ", false, implicitVr().string(0x0008_1155, "UI", REFERENCED_SOP_INSTANCE_UID))
+                .string(0x0020_000E, "UI", SERIES_INSTANCE_UID));
+
+        var elements = parse(deidentify(instance, profile));
+
+        assertThat(elements).doesNotContainKey("00081110");
+        assertThat(elements).containsEntry("00081115.0.00081155", profile.remapUid(REFERENCED_SOP_INSTANCE_UID));
+        assertThat(elements).containsEntry("0020000E", profile.remapUid(SERIES_INSTANCE_UID));
+    }
+
+    @Test
+    void shouldReadItemsOfUnknownValueInImplicitVr() throws IOException {
+        var instance = part10(SOP_INSTANCE_UID, TransferSyntaxes.EXPLICIT_VR_LITTLE_ENDIAN, explicitVr()
+                .sequence(0x0008_1110, "UN", true, implicitVr().string(0x0008_1155, "UI", REFERENCED_SOP_INSTANCE_UID))
+                .sequence(0x0008_1115, "UN", true, implicitVr()
+                        .string(0x0008_1155, "UI", REFERENCED_SOP_INSTANCE_UID)
+                        .string(0x0010_0010, "PN", "Doe^John"))
+                .string(0x0020_000E, "UI", SERIES_INSTANCE_UID));
+
+        var elements = parse(deidentify(instance, profile));
+
+        assertThat(elements).doesNotContainKey("00081110");
+        assertThat(elements).containsEntry("00081115.0.00081155", profile.remapUid(REFERENCED_SOP_INSTANCE_UID));
+        assertThat(elements).containsEntry("00081115.0.00100010", "");
+        assertThat(elements).containsEntry("0020000E", profile.remapUid(SERIES_INSTANCE_UID));
+    }
+
+    @Test
+    void shouldPassFragmentsOfEncapsulatedPixelData() throws IOException {
+        var first = "first fragment".getBytes(StandardCharsets.US_ASCII);
+        var second = "second".getBytes(StandardCharsets.US_ASCII);
+        var instance = part10(SOP_INSTANCE_UID, JPEG_BASELINE, explicitVr()
+                .string(0x0010_0010, "PN", "Doe^John")
+                .encapsulatedPixelData(first, second));
+
+        var elements = parse(deidentify(instance, profile));
+
+        assertThat(elements).containsEntry("00100010", "");
+        assertThat(elements).containsEntry("7FE00010.0", "");
+        assertThat(elements).containsEntry("7FE00010.1", "first fragment");
+        assertThat(elements).containsEntry("7FE00010.2", "second");
+    }
+
+    @Test
+    void shouldRemoveOtherPatientIdsAndTelecomInformation() throws IOException {
+        var instance = part10(SOP_INSTANCE_UID, TransferSyntaxes.EXPLICIT_VR_LITTLE_ENDIAN, explicitVr()
+                .string(0x0010_0020, "LO", "MRN-1234")
+                .sequence(0x0010_1002, "SQ", false, explicitVr().string(0x0010_0020, "LO", "MRN-5678"))
+                .string(0x0010_2154, "SH", "555-0100")
+                .string(0x0010_2155, "LT", "mailto:john.doe@example.com"));
+
+        var elements = parse(deidentify(instance, profile));
+
+        assertThat(elements).containsEntry("00100020", "");
+        assertThat(elements).doesNotContainKeys("00101002", "00101002.0.00100020", "00102154", "00102155");
+    }
+
+    @Test
+    void shouldApplyRulesOfDataAddress() throws IOException {
+        var custom = DeidentificationProfile.parse(DeidentificationProfile.BASIC, "00100020=SUBJ-0042, 00080080:keep, 00100010:remove",
+                "uid-key".getBytes(StandardCharsets.US_ASCII));
+        var instance = part10(SOP_INSTANCE_UID, TransferSyntaxes.EXPLICIT_VR_LITTLE_ENDIAN, explicitVr()
+                .string(0x0008_0080, "LO", "General Hospital")
+                .string(0x0010_0010, "PN", "Doe^John")
+                .string(0x0010_0020, "LO", "MRN-1234"));
+
+        var elements = parse(deidentify(instance, custom));
+
+        assertThat(elements).containsEntry("00080080", "General Hospital");
+        assertThat(elements).doesNotContainKey("00100010");
+        assertThat(elements).containsEntry("00100020", "SUBJ-0042");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { TransferSyntaxes.DEFLATED_EXPLICIT_VR_LITTLE_ENDIAN, TransferSyntaxes.EXPLICIT_VR_BIG_ENDIAN,
+            TransferSyntaxes.JPIP_REFERENCED_DEFLATE })
+    void shouldReject_whenDeflatedOrBigEndian(String transferSyntax) {
+        var instance = part10(SOP_INSTANCE_UID, transferSyntax, explicitVr().string(0x0010_0010, "PN", "Doe^John"));
+
+        assertThatThrownBy(() -> deidentify(instance, profile))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining(transferSyntax);
+    }
+
+    @Test
+    void shouldReject_whenNotPart10() {
+        var json = "[{\"00100010\": {\"vr\": \"PN\", \"Value\": [{\"Alphabetic\": \"Doe^John\"}]}}]".getBytes(StandardCharsets.US_ASCII);
+
+        assertThatThrownBy(() -> deidentify(json, profile)).isInstanceOf(IOException.class);
+        assertThatThrownBy(() -> deidentify(new byte[256], profile)).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void shouldFail_whenTruncated() {
+        var instance = part10(SOP_INSTANCE_UID, TransferSyntaxes.EXPLICIT_VR_LITTLE_ENDIAN, explicitVr()
+                .string(0x0010_0010, "PN", "Doe^John")
+                .bytes(0x7FE0_0010, "OW", pixelData()));
+
+        assertThatThrownBy(() -> deidentify(Arrays.copyOf(instance, instance.length - 100), profile)).isInstanceOf(IOException.class);
+    }
+
+    /**
+     * Returns a dataset with attributes the basic profile keeps, removes, empties, remaps and adds, including a sequence
+     * of undefined length that is kept and one that is removed.
+     */
+    private static DicomTestStreams.Dataset dataset(DicomTestStreams.Dataset dataset, DicomTestStreams.Dataset removedItem,
+                                                   DicomTestStreams.Dataset keptItem, byte[] pixelData) {
+        return dataset
+                .bytes(0x0008_0000, "UL", new byte[]{ 1, 0, 0, 0 })
+                .string(0x0008_0016, "UI", SOP_CLASS_UID)
+                .string(0x0008_0018, "UI", SOP_INSTANCE_UID)
+                .string(0x0008_0020, "DA", "20240101")
+                .string(0x0008_0060, "CS", "CT")
+                .string(0x0008_0080, "LO", "General Hospital")
+                .sequence(0x0008_1110, "SQ", true, removedItem.string(0x0008_1155, "UI", REFERENCED_SOP_INSTANCE_UID))
+                .sequence(0x0008_1115, "SQ", true, keptItem.string(0x0008_1155, "UI", REFERENCED_SOP_INSTANCE_UID))
+                .string(0x0009_0010, "LO", "PRIVATE CREATOR")
+                .string(0x0010_0010, "PN", "Doe^John")
+                .string(0x0010_0020, "LO", "MRN-1234")
+                .string(0x0020_000D, "UI", STUDY_INSTANCE_UID)
+                .string(0x0020_000E, "UI", SERIES_INSTANCE_UID)
+                .bytes(0x7FE0_0010, "OW", pixelData);
+    }
+
+    private void assertDeidentified(Map<String, String> elements, byte[] pixelData) {
+        var sopInstanceUid = profile.remapUid(SOP_INSTANCE_UID);
+        assertThat(sopInstanceUid).startsWith("2.25.").isNotEqualTo(SOP_INSTANCE_UID);
+        assertThat(elements).containsEntry("00020003", sopInstanceUid);
+        assertThat(elements).containsEntry("00080018", sopInstanceUid);
+        assertThat(elements).containsEntry("00080016", SOP_CLASS_UID);
+        assertThat(elements).containsEntry("00080020", "");
+        assertThat(elements).containsEntry("00080060", "CT");
+        assertThat(elements).containsEntry("00100010", "");
+        assertThat(elements).containsEntry("00100020", "");
+        assertThat(elements).containsEntry("00120062", "YES");
+        assertThat(elements).containsEntry("00120063", "Subset of Basic Application Confidentiality Profile");
+        assertThat(elements).containsEntry("0020000D", profile.remapUid(STUDY_INSTANCE_UID));
+        assertThat(elements).containsEntry("0020000E", profile.remapUid(SERIES_INSTANCE_UID));
+        assertThat(elements).containsEntry("00081115.0.00081155", profile.remapUid(REFERENCED_SOP_INSTANCE_UID));
+        assertThat(elements).doesNotContainKeys("00080000", "00080080", "00081110", "00081110.0.00081155", "00090010");
+        assertThat(elements.get("7FE00010")).isEqualTo(new String(pixelData, StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Reads the instance through a de-identifying stream in small reads, from a source that returns a few bytes at a
+     * time, so that elements end up split between reads.
+     */
+    private static byte[] deidentify(byte[] instance, DeidentificationProfile profile) throws IOException {
+        var source = new FilterInputStream(new ByteArrayInputStream(instance)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, 3));
+            }
+        };
+        var out = new ByteArrayOutputStream();
+        try (InputStream stream = new DeidentifyingInputStream(source, profile)) {
+            var chunk = new byte[7];
+            for (var read = stream.read(chunk); read >= 0; read = stream.read(chunk)) {
+                out.write(chunk, 0, read);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] pixelData() {
+        var pixelData = new byte[20_000];
+        for (var i = 0; i < pixelData.length; i++) {
+            pixelData[i] = (byte) (i % 251 + 1);
+        }
+        return pixelData;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+
+package org.eclipse.edc.connector.dataplane.dicomweb.dicom;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.eclipse.edc.connector.dataplane.dicomweb.dicom.DicomTestStreams.SOP_CLASS_UID;
+import static org.eclipse.edc.connector.dataplane.dicomweb.dicom.DicomTestStreams.explicitVr;
+import static org.eclipse.edc.connector.dataplane.dicomweb.dicom.DicomTestStreams.implicitVr;
+import static org.eclipse.edc.connector.dataplane.dicomweb.dicom.DicomTestStreams.part10;
+
+class DicomFileMetaTest {
+    private static final String SOP_INSTANCE_UID = "1.2.3.4.5";
+    private static final String SERIES_INSTANCE_UID = "1.2.3.4";
+
+    @Test
+    void shouldReadFileMetaAndSeries_whenExplicitVr() throws IOException {
+        var instance = part10(SOP_INSTANCE_UID, TransferSyntaxes.EXPLICIT_VR_LITTLE_ENDIAN, explicitVr()
+                .string(0x0008_0016, "UI", SOP_CLASS_UID)
+                .string(0x0010_0010, "PN", "Doe^John")
+                .string(0x0020_000E, "UI", SERIES_INSTANCE_UID)
+                .bytes(0x7FE0_0010, "OW", new byte[1024]));
+
+        var meta = DicomFileMeta.peek(buffered(instance));
+
+        assertThat(meta).isEqualTo(new DicomFileMeta(SOP_CLASS_UID, SOP_INSTANCE_UID, TransferSyntaxes.EXPLICIT_VR_LITTLE_ENDIAN,
+                SERIES_INSTANCE_UID));
+    }
+
+    @Test
+    void shouldReadSeries_whenImplicitVr() throws IOException {
+        var instance = part10(SOP_INSTANCE_UID, TransferSyntaxes.IMPLICIT_VR_LITTLE_ENDIAN, implicitVr()
+                .string(0x0008_0016, "UI", SOP_CLASS_UID)
+                .string(0x0020_000E, "UI", SERIES_INSTANCE_UID));
+
+        var meta = DicomFileMeta.peek(buffered(instance));
+
+        assertThat(meta).isNotNull();
+        assertThat(meta.seriesInstanceUid()).isEqualTo(SERIES_INSTANCE_UID);
+    }
+
+    @Test
+    void shouldSkipSequences() throws IOException {
+        var item = explicitVr()
+                .string(0x0008_1150, "UI", SOP_CLASS_UID)
+                .sequence(0x0008_1199, "SQ", true, explicitVr().string(0x0020_000E, "UI", "9.9.9"));
+        var instance = part10(SOP_INSTANCE_UID, TransferSyntaxes.EXPLICIT_VR_LITTLE_ENDIAN, explicitVr()
+                .sequence(0x0008_1110, "SQ", true, item, item)
+                .sequence(0x0008_1111, "SQ", false, item)
+                .string(0x0020_000E, "UI", SERIES_INSTANCE_UID));
+
+        var meta = DicomFileMeta.peek(buffered(instance));
+
+        assertThat(meta).isNotNull();
+        assertThat(meta.seriesInstanceUid()).isEqualTo(SERIES_INSTANCE_UID);
+    }
+
+    @Test
+    void shouldSkipSequences_whenImplicitVr() throws IOException {
+        var item = implicitVr().string(0x0020_000E, "UI", "9.9.9");
+        var instance = part10(SOP_INSTANCE_UID, TransferSyntaxes.IMPLICIT_VR_LITTLE_ENDIAN, implicitVr()
+                .sequence(0x0008_1110, "SQ", true, item)
+                .sequence(0x0008_1111, "SQ", false, item)
+                .string(0x0020_000E, "UI", SERIES_INSTANCE_UID));
+
+        var meta = DicomFileMeta.peek(buffered(instance));
+
+        assertThat(meta).isNotNull();
+        assertThat(meta.seriesInstanceUid()).isEqualTo(SERIES_INSTANCE_UID);
+    }
+
+    @Test
+    void shouldNotReadSeries_afterUnknownValueOfUndefinedLength() throws IOException {
+        var instance = part10(SOP_INSTANCE_UID, TransferSyntaxes.EXPLICIT_VR_LITTLE_ENDIAN, explicitVr()
+                .sequence(0x0008_1110, "UN", true, implicitVr().string(0x0008_1150, "UI", SOP_CLASS_UID))
+                .string(0x0020_000E, "UI", SERIES_INSTANCE_UID));
+
+        var meta = DicomFileMeta.peek(buffered(instance));
+
+        assertThat(meta).isNotNull();
+        assertThat(meta.mediaStorageSopInstanceUid()).isEqualTo(SOP_INSTANCE_UID);
+        assertThat(meta.seriesInstanceUid()).isNull();
+    }
+
+    @Test
+    void shouldNotReadSeries_whenDeflatedOrBigEndian() throws IOException {
+        for (var transferSyntax : new String[]{ TransferSyntaxes.DEFLATED_EXPLICIT_VR_LITTLE_ENDIAN, TransferSyntaxes.EXPLICIT_VR_BIG_ENDIAN }) {
+            var instance = part10(SOP_INSTANCE_UID, transferSyntax, explicitVr().string(0x0020_000E, "UI", SERIES_INSTANCE_UID));
+
+            var meta = DicomFileMeta.peek(buffered(instance));
+
+            assertThat(meta).isEqualTo(new DicomFileMeta(SOP_CLASS_UID, SOP_INSTANCE_UID, transferSyntax, null));
+        }
+    }
+
+    @Test
+    void shouldNotReadSeries_beyondPeekLimit() throws IOException {
+        var instance = part10(SOP_INSTANCE_UID, TransferSyntaxes.EXPLICIT_VR_LITTLE_ENDIAN, explicitVr()
+                .bytes(0x0018_9999, "OB", new byte[DicomFileMeta.PEEK_LIMIT])
+                .string(0x0020_000E, "UI", SERIES_INSTANCE_UID));
+
+        var meta = DicomFileMeta.peek(buffered(instance));
+
+        assertThat(meta).isNotNull();
+        assertThat(meta.mediaStorageSopInstanceUid()).isEqualTo(SOP_INSTANCE_UID);
+        assertThat(meta.seriesInstanceUid()).isNull();
+    }
+
+    @Test
+    void shouldStopAtFirstElementPastSeries() throws IOException {
+        var instance = part10(SOP_INSTANCE_UID, TransferSyntaxes.EXPLICIT_VR_LITTLE_ENDIAN, explicitVr()
+                .string(0x0020_0011, "IS", "1")
+                .bytes(0x7FE0_0010, "OW", new byte[16]));
+
+        var meta = DicomFileMeta.peek(buffered(instance));
+
+        assertThat(meta).isNotNull();
+        assertThat(meta.seriesInstanceUid()).isNull();
+    }
+
+    @Test
+    void shouldReturnNull_whenNotPart10() throws IOException {
+        var json = "[{\"00080018\":{\"vr\":\"UI\"}}]".getBytes(StandardCharsets.US_ASCII);
+        var withoutMagic = new byte[256];
+
+        assertThat(DicomFileMeta.peek(buffered(json))).isNull();
+        assertThat(DicomFileMeta.peek(buffered(withoutMagic))).isNull();
+    }
+
+    @Test
+    void shouldResetStream() throws IOException {
+        var instance = part10(SOP_INSTANCE_UID, TransferSyntaxes.EXPLICIT_VR_LITTLE_ENDIAN, explicitVr()
+                .string(0x0020_000E, "UI", SERIES_INSTANCE_UID));
+        var stream = buffered(instance);
+
+        DicomFileMeta.peek(stream);
+
+        assertThat(stream.readAllBytes()).isEqualTo(instance);
+    }
+
+    private static BufferedInputStream buffered(byte[] content) {
+        return new BufferedInputStream(new ByteArrayInputStream(content));
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+
+package org.eclipse.edc.connector.dataplane.dicomweb.dicom;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.eclipse.edc.connector.dataplane.dicomweb.dicom.DicomTags.SERIES_INSTANCE_UID;
+import static org.eclipse.edc.connector.dataplane.dicomweb.dicom.DicomTags.SOP_INSTANCE_UID;
+import static org.eclipse.edc.connector.dataplane.dicomweb.dicom.DicomTags.STUDY_DATE;
+
+class DicomJsonTest {
+    private static final String PATIENT_NAME = "00100010";
+
+    private static final String BULK_DATA_DATASET = """
+            [{
+              "00080018": {"vr": "UI", "Value": ["1.2.3.1"]},
+              "00100010": {"vr": "PN", "Value": [{"Alphabetic": "Doe^John"}]},
+              "00660002": {"vr": "SQ", "Value": [
+                {"00660016": {"vr": "OF", "BulkDataURI": "https://pacs.example.org/bulk/points"}},
+                {"00660016": {"vr": "OF", "BulkDataURI": "https://pacs.example.org/bulk/points2"}}
+              ]},
+              "7FE00010": {"vr": "OW", "BulkDataURI": "https://pacs.example.org/bulk/pixels"}
+            }]
+            """;
+
+    private final JsonFactory jsonFactory = new ObjectMapper().getFactory();
+
+    @Test
+    void shouldReadFirstValuesOfEveryDataset() throws IOException {
+        var json = """
+                [
+                  {
+                    "00080005": {"vr": "CS", "Value": ["ISO_IR 100"]},
+                    "00080018": {"vr": "UI", "Value": ["1.2.3.1", "1.2.3.9"]},
+                    "00081199": {"vr": "SQ", "Value": [{"00080018": {"vr": "UI", "Value": ["4.5.6"]}}]},
+                    "0020000E": {"vr": "UI", "Value": ["1.2.3"]},
+                    "00100010": {"vr": "PN", "Value": [{"Alphabetic": "Doe^John", "Ideographic": "..."}]}
+                  },
+                  {
+                    "00080018": {"vr": "UI", "Value": ["1.2.3.2"]},
+                    "00080020": {"vr": "DA"},
+                    "0020000E": {"vr": "UI", "Value": []}
+                  }
+                ]
+                """;
+
+        var datasets = DicomJson.readFirstValues(jsonFactory, stream(json), Set.of(SOP_INSTANCE_UID, SERIES_INSTANCE_UID, STUDY_DATE, PATIENT_NAME));
+
+        assertThat(datasets).containsExactly(
+                Map.of(SOP_INSTANCE_UID, "1.2.3.1", SERIES_INSTANCE_UID, "1.2.3", PATIENT_NAME, "Doe^John"),
+                Map.of(SOP_INSTANCE_UID, "1.2.3.2"));
+    }
+
+    @Test
+    void shouldReadNumbersAsStrings() throws IOException {
+        var json = "[{\"00201208\": {\"vr\": \"IS\", \"Value\": [42]}}]";
+
+        var datasets = DicomJson.readFirstValues(jsonFactory, stream(json), Set.of("00201208"));
+
+        assertThat(datasets).containsExactly(Map.of("00201208", "42"));
+    }
+
+    @Test
+    void shouldReturnNoDatasets_whenBodyIsEmpty() throws IOException {
+        assertThat(DicomJson.readFirstValues(jsonFactory, stream(""), Set.of(SOP_INSTANCE_UID))).isEmpty();
+        assertThat(DicomJson.readFirstValues(jsonFactory, stream("[]"), Set.of(SOP_INSTANCE_UID))).isEmpty();
+    }
+
+    @Test
+    void shouldFail_whenNotAnArrayOfDatasets() {
+        assertThatThrownBy(() -> DicomJson.readFirstValues(jsonFactory, stream("{\"00080018\": {}}"), Set.of(SOP_INSTANCE_UID)))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("Malformed DICOM JSON");
+        assertThatThrownBy(() -> DicomJson.readFirstValues(jsonFactory, stream("[{}, 1]"), Set.of(SOP_INSTANCE_UID)))
+                .isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void shouldReadStoreInstancesResponse() throws IOException {
+        var json = """
+                {
+                  "00081190": {"vr": "UR", "Value": ["https://pacs.example.org/studies/1.2.3"]},
+                  "00081198": {"vr": "SQ", "Value": [
+                    {"00081150": {"vr": "UI", "Value": ["1.2.840.10008.5.1.4.1.1.2"]},
+                     "00081155": {"vr": "UI", "Value": ["1.2.3.2"]},
+                     "00081197": {"vr": "US", "Value": [42752]}},
+                    {"00081155": {"vr": "UI", "Value": ["1.2.3.3"]}},
+                    {"00081197": {"vr": "US", "Value": [272]}}
+                  ]},
+                  "00081199": {"vr": "SQ", "Value": [
+                    {"00081155": {"vr": "UI", "Value": ["1.2.3.1"]}, "00081190": {"vr": "UR", "Value": ["https://..."]}}
+                  ]}
+                }
+                """;
+
+        var response = DicomJson.readStoreInstancesResponse(jsonFactory, stream(json));
+
+        assertThat(response.referencedInstances()).containsExactly("1.2.3.1");
+        assertThat(response.failedInstances()).containsExactlyInAnyOrderEntriesOf(Map.of("1.2.3.2", 0xA700, "1.2.3.3",
+                StoreInstancesResponse.UNKNOWN_FAILURE_REASON));
+    }
+
+    @Test
+    void shouldReadStoreInstancesResponse_whenWrappedInArray() throws IOException {
+        var json = "[{\"00081199\": {\"vr\": \"SQ\", \"Value\": [{\"00081155\": {\"vr\": \"UI\", \"Value\": [\"1.2.3.1\"]}}]}}]";
+
+        var response = DicomJson.readStoreInstancesResponse(jsonFactory, stream(json));
+
+        assertThat(response.referencedInstances()).containsExactly("1.2.3.1");
+        assertThat(response.failedInstances()).isEmpty();
+    }
+
+    @Test
+    void shouldReadEmptyStoreInstancesResponse() throws IOException {
+        for (var json : new String[]{ "", "[]", "{}", "{\"00081199\": {\"vr\": \"SQ\"}}" }) {
+            var response = DicomJson.readStoreInstancesResponse(jsonFactory, stream(json));
+
+            assertThat(response.referencedInstances()).isEmpty();
+            assertThat(response.failedInstances()).isEmpty();
+        }
+    }
+
+    @Test
+    void shouldReadDatasetsOneByOne() throws IOException {
+        var json = """
+                [
+                  {"00080018": {"vr": "UI", "Value": ["1.2.3.1"]}},
+                  {"00080018": {"vr": "UI", "Value": ["1.2.3.2"]}}
+                ]
+                """;
+
+        try (var reader = new DicomJson.DatasetReader(jsonFactory, stream(json))) {
+            var first = reader.next();
+            assertThat(first).isNotNull();
+            assertThat(first.firstValues(Set.of(SOP_INSTANCE_UID))).containsExactly(Map.entry(SOP_INSTANCE_UID, "1.2.3.1"));
+            // a dataset can be read again
+            assertThat(first.firstValues(Set.of(SOP_INSTANCE_UID))).containsExactly(Map.entry(SOP_INSTANCE_UID, "1.2.3.1"));
+
+            var second = reader.next();
+            assertThat(second).isNotNull();
+            assertThat(second.firstValues(Set.of(SOP_INSTANCE_UID))).containsExactly(Map.entry(SOP_INSTANCE_UID, "1.2.3.2"));
+
+            assertThat(reader.next()).isNull();
+            assertThat(reader.next()).isNull();
+        }
+    }
+
+    @Test
+    void shouldReturnBulkDataUrisByPath() throws IOException {
+        try (var reader = new DicomJson.DatasetReader(jsonFactory, stream(BULK_DATA_DATASET))) {
+            var dataset = reader.next();
+            assertThat(dataset).isNotNull();
+
+            assertThat(dataset.bulkDataUris()).containsExactly(
+                    Map.entry("00660002.0.00660016", "https://pacs.example.org/bulk/points"),
+                    Map.entry("00660002.1.00660016", "https://pacs.example.org/bulk/points2"),
+                    Map.entry("7FE00010", "https://pacs.example.org/bulk/pixels"));
+        }
+    }
+
+    @Test
+    void shouldReplaceBulkDataUris() throws IOException {
+        try (var reader = new DicomJson.DatasetReader(jsonFactory, stream(BULK_DATA_DATASET))) {
+            var dataset = reader.next();
+            assertThat(dataset).isNotNull();
+
+            var json = dataset.toJson((path, uri) -> "bulk/" + path);
+
+            var mapper = new ObjectMapper();
+            var expected = mapper.readTree(BULK_DATA_DATASET).get(0);
+            ((ObjectNode) expected.at("/00660002/Value/0/00660016")).put("BulkDataURI", "bulk/00660002.0.00660016");
+            ((ObjectNode) expected.at("/00660002/Value/1/00660016")).put("BulkDataURI", "bulk/00660002.1.00660016");
+            ((ObjectNode) expected.at("/7FE00010")).put("BulkDataURI", "bulk/7FE00010");
+            assertThat(mapper.readTree(json)).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    void shouldFail_whenMetadataIsNotAnArray() {
+        assertThatThrownBy(() -> new DicomJson.DatasetReader(jsonFactory, stream("{}"))).isInstanceOf(IOException.class);
+    }
+
+    private static InputStream stream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
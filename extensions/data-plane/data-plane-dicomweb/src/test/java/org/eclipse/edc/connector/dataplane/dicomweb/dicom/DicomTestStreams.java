@@ -0,0 +1,299 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.dicom;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes and parses DICOM Part 10 instances in Little Endian, element by element, for the tests of the DICOM stream
+ * readers.
+ */
+final class DicomTestStreams {
+    static final String SOP_CLASS_UID = "1.2.840.10008.5.1.4.1.1.2";
+    static final int ITEM = 0xFFFE_E000;
+    static final int ITEM_DELIMITATION = 0xFFFE_E00D;
+    static final int SEQUENCE_DELIMITATION = 0xFFFE_E0DD;
+    static final long UNDEFINED_LENGTH = 0xFFFF_FFFFL;
+
+    private DicomTestStreams() {
+    }
+
+    /**
+     * Returns a dataset to be written in Explicit VR Little Endian.
+     */
+    static Dataset explicitVr() {
+        return new Dataset(true);
+    }
+
+    /**
+     * Returns a dataset to be written in Implicit VR Little Endian.
+     */
+    static Dataset implicitVr() {
+        return new Dataset(false);
+    }
+
+    /**
+     * Returns a Part 10 instance of the dataset, with a preamble and a file meta group naming the transfer syntax.
+     */
+    static byte[] part10(String sopInstanceUid, String transferSyntaxUid, Dataset dataset) {
+        var meta = explicitVr()
+                .bytes(0x0002_0001, "OB", new byte[]{ 0, 1 })
+                .string(0x0002_0002, "UI", SOP_CLASS_UID)
+                .string(0x0002_0003, "UI", sopInstanceUid)
+                .string(0x0002_0010, "UI", transferSyntaxUid)
+                .toByteArray();
+        var out = new ByteArrayOutputStream();
+        var preamble = new byte[128];
+        Arrays.fill(preamble, (byte) 'P');
+        out.writeBytes(preamble);
+        out.writeBytes("DICM".getBytes(StandardCharsets.US_ASCII));
+        out.writeBytes(explicitVr().bytes(0x0002_0000, "UL", intBytes(meta.length)).toByteArray());
+        out.writeBytes(meta);
+        out.writeBytes(dataset.toByteArray());
+        return out.toByteArray();
+    }
+
+    /**
+     * Parses a Part 10 instance and returns the values of its elements by their path, with trailing padding removed.
+     * The path of an element is made of its tag and the tags and item indices of the sequences it is nested in, joined
+     * by dots, e.g. {@code 00081115.0.00081155}. Sequences and encapsulated pixel data map to an empty value, and the
+     * fragments of the latter are listed like items.
+     *
+     * @throws IllegalArgumentException if the instance is malformed or its file meta group length is wrong.
+     */
+    static Map<String, String> parse(byte[] part10) {
+        var buffer = ByteBuffer.wrap(part10).order(ByteOrder.LITTLE_ENDIAN);
+        if (part10.length < 132 || !"DICM".equals(new String(part10, 128, 4, StandardCharsets.US_ASCII))) {
+            throw new IllegalArgumentException("Not a Part 10 instance");
+        }
+        buffer.position(132);
+        var elements = new LinkedHashMap<String, String>();
+        long groupEnd = -1;
+        while (buffer.remaining() >= 2 && buffer.getShort(buffer.position()) == 0x0002) {
+            readElement(buffer, true, "", elements);
+            if (groupEnd < 0) {
+                // the group length comes first, its value being the 4 bytes just read
+                groupEnd = buffer.position() + Integer.toUnsignedLong(buffer.getInt(buffer.position() - 4));
+            }
+        }
+        if (buffer.position() != groupEnd) {
+            throw new IllegalArgumentException("File meta group length does not match the group");
+        }
+        var explicitVr = !TransferSyntaxes.IMPLICIT_VR_LITTLE_ENDIAN.equals(elements.get("00020010"));
+        while (buffer.hasRemaining()) {
+            readElement(buffer, explicitVr, "", elements);
+        }
+        return elements;
+    }
+
+    private static void readElement(ByteBuffer buffer, boolean explicitVr, String prefix, Map<String, String> elements) {
+        var tag = readTag(buffer);
+        String vr = null;
+        long length;
+        if (explicitVr) {
+            vr = new String(new byte[]{ buffer.get(), buffer.get() }, StandardCharsets.US_ASCII);
+            if (DicomVr.hasLongLength(vr)) {
+                buffer.getShort();
+                length = Integer.toUnsignedLong(buffer.getInt());
+            } else {
+                length = Short.toUnsignedInt(buffer.getShort());
+            }
+        } else {
+            length = Integer.toUnsignedLong(buffer.getInt());
+        }
+        var path = prefix + "%08X".formatted(tag);
+        if (elements.containsKey(path)) {
+            throw new IllegalArgumentException("Element %s is encoded twice".formatted(path));
+        }
+        if (isSequence(buffer, tag, vr, length)) {
+            elements.put(path, "");
+            // the items of an undefined length UN are encoded in Implicit VR
+            readItems(buffer, length, explicitVr && !"UN".equals(vr), path, elements);
+        } else if (length == UNDEFINED_LENGTH) {
+            elements.put(path, "");
+            for (var index = 0; true; index++) {
+                var itemTag = readTag(buffer);
+                var itemLength = buffer.getInt();
+                if (itemTag == SEQUENCE_DELIMITATION) {
+                    break;
+                }
+                elements.put(path + "." + index, value(buffer, itemLength));
+            }
+        } else {
+            elements.put(path, value(buffer, (int) length));
+        }
+    }
+
+    private static boolean isSequence(ByteBuffer buffer, int tag, @Nullable String vr, long length) {
+        if (vr != null) {
+            return "SQ".equals(vr) || "UN".equals(vr) && length == UNDEFINED_LENGTH;
+        }
+        if (length == UNDEFINED_LENGTH) {
+            return tag != 0x7FE0_0010;
+        }
+        return length >= 8 && peekTag(buffer) == ITEM;
+    }
+
+    private static void readItems(ByteBuffer buffer, long length, boolean explicitVr, String path, Map<String, String> elements) {
+        var end = length == UNDEFINED_LENGTH ? Long.MAX_VALUE : buffer.position() + length;
+        for (var index = 0; buffer.position() < end; index++) {
+            var tag = readTag(buffer);
+            var itemLength = Integer.toUnsignedLong(buffer.getInt());
+            if (tag == SEQUENCE_DELIMITATION) {
+                return;
+            }
+            if (tag != ITEM) {
+                throw new IllegalArgumentException("Expected an item in %s but found %08X".formatted(path, tag));
+            }
+            var itemEnd = itemLength == UNDEFINED_LENGTH ? Long.MAX_VALUE : buffer.position() + itemLength;
+            while (buffer.position() < itemEnd) {
+                if (itemLength == UNDEFINED_LENGTH && peekTag(buffer) == ITEM_DELIMITATION) {
+                    buffer.getLong();
+                    break;
+                }
+                readElement(buffer, explicitVr, path + "." + index + ".", elements);
+            }
+        }
+    }
+
+    private static int readTag(ByteBuffer buffer) {
+        var group = Short.toUnsignedInt(buffer.getShort());
+        return group << 16 | Short.toUnsignedInt(buffer.getShort());
+    }
+
+    private static int peekTag(ByteBuffer buffer) {
+        var group = Short.toUnsignedInt(buffer.getShort(buffer.position()));
+        return group << 16 | Short.toUnsignedInt(buffer.getShort(buffer.position() + 2));
+    }
+
+    private static String value(ByteBuffer buffer, int length) {
+        var value = new byte[length];
+        buffer.get(value);
+        var end = length;
+        while (end > 0 && (value[end - 1] == 0 || value[end - 1] == ' ')) {
+            end--;
+        }
+        return new String(value, 0, end, StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] intBytes(long value) {
+        return new byte[]{ (byte) value, (byte) (value >>> 8), (byte) (value >>> 16), (byte) (value >>> 24) };
+    }
+
+    /**
+     * The elements of a dataset or sequence item, in the order they are added.
+     */
+    static final class Dataset {
+        private final boolean explicitVr;
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        private Dataset(boolean explicitVr) {
+            this.explicitVr = explicitVr;
+        }
+
+        /**
+         * Adds a string element, padded to an even length with a null byte for UIDs and a space otherwise.
+         */
+        Dataset string(int tag, String vr, String value) {
+            var bytes = value.getBytes(StandardCharsets.US_ASCII);
+            if (bytes.length % 2 != 0) {
+                bytes = Arrays.copyOf(bytes, bytes.length + 1);
+                bytes[bytes.length - 1] = "UI".equals(vr) ? 0 : (byte) ' ';
+            }
+            return bytes(tag, vr, bytes);
+        }
+
+        Dataset bytes(int tag, String vr, byte[] value) {
+            header(tag, vr, value.length);
+            out.writeBytes(value);
+            return this;
+        }
+
+        /**
+         * Adds a sequence whose items, like the sequence itself, have a defined length or an undefined one ended by a
+         * delimiter. The items of a sequence with the VR UN are written in Implicit VR, whatever the encoding of the
+         * dataset.
+         */
+        Dataset sequence(int tag, String vr, boolean undefinedLength, Dataset... items) {
+            var content = new ByteArrayOutputStream();
+            for (var item : items) {
+                var bytes = item.toByteArray();
+                writeItemHeader(content, ITEM, undefinedLength ? UNDEFINED_LENGTH : bytes.length);
+                content.writeBytes(bytes);
+                if (undefinedLength) {
+                    writeItemHeader(content, ITEM_DELIMITATION, 0);
+                }
+            }
+            if (undefinedLength) {
+                writeItemHeader(content, SEQUENCE_DELIMITATION, 0);
+            }
+            header(tag, vr, undefinedLength ? UNDEFINED_LENGTH : content.size());
+            out.writeBytes(content.toByteArray());
+            return this;
+        }
+
+        /**
+         * Adds encapsulated pixel data with an empty basic offset table and the given fragments.
+         */
+        Dataset encapsulatedPixelData(byte[]... fragments) {
+            header(0x7FE0_0010, "OB", UNDEFINED_LENGTH);
+            writeItemHeader(out, ITEM, 0);
+            for (var fragment : fragments) {
+                writeItemHeader(out, ITEM, fragment.length);
+                out.writeBytes(fragment);
+            }
+            writeItemHeader(out, SEQUENCE_DELIMITATION, 0);
+            return this;
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+
+        private void header(int tag, String vr, long length) {
+            writeShort(out, tag >>> 16);
+            writeShort(out, tag & 0xFFFF);
+            if (!explicitVr) {
+                out.writeBytes(intBytes(length));
+            } else if (DicomVr.hasLongLength(vr)) {
+                out.writeBytes(vr.getBytes(StandardCharsets.US_ASCII));
+                writeShort(out, 0);
+                out.writeBytes(intBytes(length));
+            } else {
+                out.writeBytes(vr.getBytes(StandardCharsets.US_ASCII));
+                writeShort(out, (int) length);
+            }
+        }
+
+        private static void writeItemHeader(ByteArrayOutputStream out, int tag, long length) {
+            writeShort(out, tag >>> 16);
+            writeShort(out, tag & 0xFFFF);
+            out.writeBytes(intBytes(length));
+        }
+
+        private static void writeShort(ByteArrayOutputStream out, int value) {
+            out.write(value & 0xFF);
+            out.write(value >>> 8 & 0xFF);
+        }
+    }
+}
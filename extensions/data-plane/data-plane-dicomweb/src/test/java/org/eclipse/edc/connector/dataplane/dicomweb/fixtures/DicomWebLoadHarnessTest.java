@@ -0,0 +1,158 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+
+package org.eclipse.edc.connector.dataplane.dicomweb.fixtures;
+
+import org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema;
+import org.eclipse.edc.connector.dataplane.dicomweb.metrics.DicomWebMetrics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DicomWebLoadHarnessTest {
+    private static final long KB = 1024;
+
+    private final List<DicomWebTestServer> servers = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        servers.forEach(DicomWebTestServer::close);
+    }
+
+    @Test
+    void shouldTransferStudiesToDestination() throws Exception {
+        var corpus = corpus(3, 8);
+        var source = start(corpus);
+        var destination = start(new SyntheticCorpus());
+
+        var report = DicomWebLoadHarness.Builder.newInstance()
+                .source(source)
+                .destination(destination)
+                .transfers(3)
+                .concurrency(3)
+                .build()
+                .run();
+
+        assertThat(report.failures()).isEmpty();
+        assertThat(report.transfers()).isEqualTo(3);
+        assertThat(report.bytes()).isEqualTo(corpus.studyInstanceUids().stream().mapToLong(corpus::totalBytes).sum());
+        assertThat(report.p99Latency()).isPositive().isLessThanOrEqualTo(report.maxLatency());
+        assertThat(report.peakHeapBytes()).isPositive();
+        assertThat(sopInstanceUids(destination)).containsExactlyInAnyOrderElementsOf(sopInstanceUids(source));
+    }
+
+    @Test
+    void shouldSendInstancesAgain_whenDestinationFailsSomeAndRetainsThem() throws Exception {
+        var source = start(corpus(1, 16));
+        var destination = start(new SyntheticCorpus()).partialFailureRate(0.3).unavailableRate(0.2, null);
+
+        var report = DicomWebLoadHarness.Builder.newInstance()
+                .source(source)
+                .destination(destination)
+                .destinationProperty(DicomWebSchema.MAX_INSTANCES_PER_REQUEST, "4")
+                .destinationProperty(DicomWebSchema.MAX_RETRIES, "20")
+                .destinationProperty(DicomWebSchema.RETRY_BACKOFF_MILLIS, "1")
+                .destinationProperty(DicomWebSchema.MAX_RETAINED_BYTES, String.valueOf(1024 * KB))
+                .build()
+                .run();
+
+        assertThat(report.failures()).isEmpty();
+        assertThat(destination.faultsInjected()).isPositive();
+        assertThat(sopInstanceUids(destination)).containsExactlyInAnyOrderElementsOf(sopInstanceUids(source));
+    }
+
+    @Test
+    void shouldFailTransfer_whenDestinationFailsInstancesThatAreNotRetained() throws Exception {
+        var source = start(corpus(1, 4));
+        var destination = start(new SyntheticCorpus()).partialFailureRate(1);
+
+        var report = DicomWebLoadHarness.Builder.newInstance()
+                .source(source)
+                .destination(destination)
+                .destinationProperty(DicomWebSchema.RETRY_BACKOFF_MILLIS, "1")
+                .build()
+                .run();
+
+        assertThat(report.failureCount()).isEqualTo(1);
+        assertThat(destination.instancesStored()).isZero();
+    }
+
+    @Test
+    void shouldSkipInstancesDestinationHolds_whenDeltaSync() throws Exception {
+        var corpus = corpus(1, 6);
+        var source = start(corpus);
+        var destination = start(new SyntheticCorpus());
+        var held = corpus.instances().subList(0, 4);
+        held.forEach(destination.corpus()::add);
+
+        var report = DicomWebLoadHarness.Builder.newInstance()
+                .source(source)
+                .destination(destination)
+                .destinationProperty(DicomWebSchema.DELTA_SYNC, "true")
+                .build()
+                .run();
+
+        assertThat(report.failures()).isEmpty();
+        assertThat(destination.requestCount(DicomWebMetrics.Operation.QIDO)).isPositive();
+        assertThat(destination.instancesStored()).isEqualTo(2);
+        assertThat(sopInstanceUids(destination)).containsExactlyInAnyOrderElementsOf(sopInstanceUids(source));
+    }
+
+    @Test
+    void shouldStoreInstancesInEveryDestination_whenFanningOut() throws Exception {
+        var source = start(corpus(1, 6));
+        var destination = start(new SyntheticCorpus());
+        var second = start(new SyntheticCorpus()).latency(Duration.ofMillis(5));
+
+        var report = DicomWebLoadHarness.Builder.newInstance()
+                .source(source)
+                .destination(destination)
+                .fanOutDestination(second)
+                .build()
+                .run();
+
+        assertThat(report.failures()).isEmpty();
+        assertThat(sopInstanceUids(destination)).containsExactlyInAnyOrderElementsOf(sopInstanceUids(source));
+        assertThat(sopInstanceUids(second)).containsExactlyInAnyOrderElementsOf(sopInstanceUids(source));
+    }
+
+    private DicomWebTestServer start(SyntheticCorpus corpus) throws IOException {
+        var server = DicomWebTestServer.start(corpus).seed(servers.size());
+        servers.add(server);
+        return server;
+    }
+
+    private static SyntheticCorpus corpus(int studies, int instancesPerStudy) {
+        var corpus = new SyntheticCorpus();
+        var sizes = new long[instancesPerStudy];
+        for (var i = 0; i < instancesPerStudy; i++) {
+            sizes[i] = (i + 1) * 16 * KB;
+        }
+        for (var i = 0; i < studies; i++) {
+            corpus.addStudy(SyntheticCorpus.today(), 2, sizes);
+        }
+        return corpus;
+    }
+
+    private static List<String> sopInstanceUids(DicomWebTestServer server) {
+        return server.corpus().instances().stream().map(SyntheticCorpus.Instance::sopInstanceUid).toList();
+    }
+}
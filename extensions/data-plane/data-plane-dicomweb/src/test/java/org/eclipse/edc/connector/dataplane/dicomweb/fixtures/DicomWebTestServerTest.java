@@ -0,0 +1,190 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+
+package org.eclipse.edc.connector.dataplane.dicomweb.fixtures;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.eclipse.edc.connector.dataplane.dicomweb.http.DicomWebHttpClient;
+import org.eclipse.edc.connector.dataplane.dicomweb.metrics.DicomWebMetrics;
+import org.eclipse.edc.connector.dataplane.dicomweb.pipeline.DicomWebClient;
+import org.eclipse.edc.connector.dataplane.dicomweb.pipeline.MultipartRelatedReader;
+import org.eclipse.edc.connector.dataplane.dicomweb.pipeline.StowResult;
+import org.eclipse.edc.spi.monitor.Monitor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.eclipse.edc.connector.dataplane.dicomweb.dicom.DicomTags.STUDY_INSTANCE_UID;
+
+class DicomWebTestServerTest {
+    private static final String USERNAME = "user";
+    private static final String PASSWORD = "secret";
+
+    private final DicomWebClient client = new DicomWebClient(DicomWebHttpClient.Builder.newInstance().build(), new ObjectMapper(), new Monitor() {
+    });
+    private final List<DicomWebTestServer> servers = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        servers.forEach(DicomWebTestServer::close);
+    }
+
+    @Test
+    void shouldRetrieveInstancesOfStudy() throws IOException {
+        var corpus = new SyntheticCorpus();
+        var study = corpus.addStudy("20240301", 2, 1000, 2000, 3000);
+        corpus.addStudy("20240302", 1, 4000);
+        var server = start(corpus);
+
+        var result = client.wadoRs(server.studyUrl(study), USERNAME, PASSWORD);
+
+        assertThat(result.succeeded()).isTrue();
+        var contents = new ArrayList<byte[]>();
+        try (var reader = result.getContent()) {
+            MultipartRelatedReader.Part part;
+            while ((part = reader.nextPart()) != null) {
+                contents.add(part.body().readAllBytes());
+            }
+        }
+        var expected = new ArrayList<byte[]>();
+        for (var instance : corpus.instances(study)) {
+            try (var stream = instance.openStream()) {
+                expected.add(stream.readAllBytes());
+            }
+        }
+        assertThat(contents).containsExactlyElementsOf(expected);
+        assertThat(server.requestCount(DicomWebMetrics.Operation.WADO)).isEqualTo(1);
+    }
+
+    @Test
+    void shouldNotRetrieve_whenStudyIsUnknown() {
+        var server = start(new SyntheticCorpus());
+
+        var result = client.wadoRs(server.studyUrl(SyntheticCorpus.UID_ROOT + ".0"), USERNAME, PASSWORD);
+
+        assertThat(result.failed()).isTrue();
+    }
+
+    @Test
+    void shouldSearchInstancesPageByPage() {
+        var corpus = new SyntheticCorpus();
+        var study = corpus.addStudy("20240301", 2, 1000, 1000, 1000, 1000, 1000);
+        corpus.addStudy("20240302", 1, 1000);
+        var server = start(corpus);
+
+        var result = client.sopInstanceUids(server.studiesUrl(), study, USERNAME, PASSWORD, 2);
+
+        assertThat(result.succeeded()).isTrue();
+        assertThat(result.getContent()).containsExactlyInAnyOrderElementsOf(
+                corpus.instances(study).stream().map(SyntheticCorpus.Instance::sopInstanceUid).toList());
+        // two full pages and a last one that is not full
+        assertThat(server.requestCount(DicomWebMetrics.Operation.QIDO)).isEqualTo(3);
+    }
+
+    @Test
+    void shouldSearchStudiesByDateRange() {
+        var corpus = new SyntheticCorpus();
+        corpus.addStudy("20240101", 1, 1000);
+        var march = corpus.addStudy("20240301", 1, 1000, 1000);
+        var server = start(corpus);
+
+        var result = client.qidoRs(server.studiesUrl(), Map.of("StudyDate", "20240201-"), USERNAME, PASSWORD,
+                Set.of(STUDY_INSTANCE_UID), 100);
+
+        assertThat(result.succeeded()).isTrue();
+        assertThat(result.getContent()).containsExactly(Map.of(STUDY_INSTANCE_UID, march));
+    }
+
+    @Test
+    void shouldStoreInstances() {
+        var source = new SyntheticCorpus();
+        var study = source.addStudy("20240301", 1, 1000, 2000);
+        var server = start(new SyntheticCorpus());
+
+        var result = client.stowRs(server.studiesUrl(), USERNAME, PASSWORD, source.parts(study));
+
+        assertThat(result.succeeded()).isTrue();
+        assertThat(server.instancesStored()).isEqualTo(2);
+        assertThat(server.corpus().instances()).extracting(SyntheticCorpus.Instance::sopInstanceUid)
+                .containsExactlyElementsOf(source.instances(study).stream().map(SyntheticCorpus.Instance::sopInstanceUid).toList());
+    }
+
+    @Test
+    void shouldFailInstancesTransiently_whenPartialFailureIsInjected() {
+        var source = new SyntheticCorpus();
+        var study = source.addStudy("20240301", 1, 1000, 2000);
+        var server = start(new SyntheticCorpus()).partialFailureRate(1);
+
+        var result = client.stowRs(server.studiesUrl(), USERNAME, PASSWORD, source.parts(study));
+
+        assertThat(result.succeeded()).isFalse();
+        assertThat(result.statusCode()).isEqualTo(409);
+        assertThat(source.instances(study)).allSatisfy(instance ->
+                assertThat(result.outcome(instance.sopInstanceUid())).isEqualTo(StowResult.InstanceOutcome.RETRYABLE));
+        assertThat(server.instancesStored()).isZero();
+        assertThat(server.faultsInjected()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldAnswerUnavailable_whenInjected() {
+        var source = new SyntheticCorpus();
+        var study = source.addStudy("20240301", 1, 1000);
+        var server = start(new SyntheticCorpus()).unavailableRate(1, Duration.ofSeconds(2));
+
+        var result = client.stowRs(server.studiesUrl(), USERNAME, PASSWORD, source.parts(study));
+
+        assertThat(result.statusCode()).isEqualTo(503);
+        assertThat(result.retryAfter()).isEqualTo(Duration.ofSeconds(2));
+        assertThat(server.instancesStored()).isZero();
+    }
+
+    @Test
+    void shouldResetConnectionPartwayThroughResponse_whenInjected() {
+        var corpus = new SyntheticCorpus();
+        var study = corpus.addStudy("20240301", 1, 256 * 1024, 256 * 1024);
+        var server = start(corpus).connectionResetRate(1);
+
+        var result = client.wadoRs(server.studyUrl(study), USERNAME, PASSWORD);
+
+        assertThat(result.succeeded()).isTrue();
+        assertThatThrownBy(() -> {
+            try (var reader = result.getContent()) {
+                MultipartRelatedReader.Part part;
+                while ((part = reader.nextPart()) != null) {
+                    part.body().transferTo(OutputStream.nullOutputStream());
+                }
+            }
+        }).isInstanceOf(IOException.class);
+    }
+
+    private DicomWebTestServer start(SyntheticCorpus corpus) {
+        try {
+            var server = DicomWebTestServer.start(corpus).seed(1);
+            servers.add(server);
+            return server;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+
+package org.eclipse.edc.connector.dataplane.dicomweb.http;
+
+import org.eclipse.edc.connector.dataplane.dicomweb.metrics.DicomWebMetrics.LimitDecision;
+import org.eclipse.edc.connector.dataplane.dicomweb.metrics.DicomWebMetrics.Operation;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdaptiveConcurrencyLimitTest {
+    private static final Duration FAST = Duration.ofMillis(10);
+    private static final Duration SLOW = Duration.ofMillis(100);
+
+    private final List<LimitDecision> decisions = new ArrayList<>();
+
+    @Test
+    void shouldStartAtInitialLimit() {
+        assertThat(limit(4, 16, true).limit()).isEqualTo(4);
+        assertThat(limit(32, 16, true).limit()).isEqualTo(16);
+        assertThat(limit(0, 16, true).limit()).isEqualTo(1);
+        assertThat(limit(4, 16, false).limit()).isEqualTo(16);
+    }
+
+    @Test
+    void shouldBoundRequestsInFlight() throws InterruptedException {
+        var limit = limit(2, 16, true);
+        var first = limit.acquire(FAST);
+        var second = limit.acquire(FAST);
+
+        assertThat(first).isNotNull();
+        assertThat(second).isNotNull();
+        assertThat(limit.inFlight()).isEqualTo(2);
+        assertThat(limit.acquire(FAST)).isNull();
+
+        limit.release(first, 200, false, FAST);
+
+        assertThat(limit.acquire(FAST)).isNotNull();
+    }
+
+    @Test
+    void shouldHandPermitToWaitingRequest_whenReleased() throws Exception {
+        var limit = limit(1, 16, true);
+        var permit = limit.acquire(FAST);
+
+        var waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return limit.acquire(Duration.ofSeconds(10));
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        limit.release(permit, 200, false, FAST);
+
+        assertThat(waiting.get(10, TimeUnit.SECONDS)).isNotNull();
+    }
+
+    @Test
+    void shouldIncreaseLimit_whenRoundIsUsedAndLatencyIsFlat() throws InterruptedException {
+        var limit = limit(4, 16, true);
+
+        completeRound(limit, 200, FAST);
+
+        assertThat(limit.limit()).isEqualTo(5);
+        assertThat(decisions).containsExactly(LimitDecision.INCREASE);
+    }
+
+    @Test
+    void shouldNotIncreaseLimit_whenRoundIsNotUsed() throws InterruptedException {
+        var limit = limit(4, 16, true);
+
+        for (var i = 0; i < 10; i++) {
+            limit.release(limit.acquire(FAST), 200, false, FAST);
+        }
+
+        assertThat(limit.limit()).isEqualTo(4);
+        assertThat(decisions).isEmpty();
+    }
+
+    @Test
+    void shouldNotIncreaseLimit_whenRequestFailed() throws InterruptedException {
+        var limit = limit(4, 16, true);
+        limit.release(limit.acquire(FAST), 500, false, FAST);
+
+        completeRound(limit, 200, FAST);
+
+        assertThat(limit.limit()).isEqualTo(4);
+    }
+
+    @Test
+    void shouldNotExceedMaxLimit() throws InterruptedException {
+        var limit = limit(2, 3, true);
+
+        for (var i = 0; i < 5; i++) {
+            completeRound(limit, 200, FAST);
+        }
+
+        assertThat(limit.limit()).isEqualTo(3);
+    }
+
+    @Test
+    void shouldBackOff_whenThrottled() throws InterruptedException {
+        var limit = limit(8, 16, true);
+        var throttled = limit.acquire(FAST);
+        var unavailable = limit.acquire(FAST);
+
+        limit.release(throttled, 429, false, FAST);
+
+        assertThat(limit.limit()).isEqualTo(4);
+        assertThat(decisions).containsExactly(LimitDecision.THROTTLED);
+
+        // sent before the decrease, so its signal has already been acted upon
+        limit.release(unavailable, 503, false, FAST);
+
+        assertThat(limit.limit()).isEqualTo(4);
+
+        limit.release(limit.acquire(FAST), 503, false, FAST);
+
+        assertThat(limit.limit()).isEqualTo(2);
+        assertThat(decisions).containsExactly(LimitDecision.THROTTLED, LimitDecision.THROTTLED);
+    }
+
+    @Test
+    void shouldBackOff_whenTimedOut() throws InterruptedException {
+        var limit = limit(8, 16, true);
+
+        limit.release(limit.acquire(FAST), -1, true, Duration.ofSeconds(30));
+
+        assertThat(limit.limit()).isEqualTo(4);
+        assertThat(decisions).containsExactly(LimitDecision.TIMEOUT);
+    }
+
+    @Test
+    void shouldBackOff_whenLatencyExceedsTolerance() throws InterruptedException {
+        var limit = limit(4, 16, true);
+        completeRound(limit, 200, FAST);
+
+        completeRound(limit, 200, SLOW);
+
+        assertThat(limit.limit()).isEqualTo(2);
+        assertThat(decisions).containsExactly(LimitDecision.INCREASE, LimitDecision.LATENCY);
+    }
+
+    @Test
+    void shouldNotGoBelowOne() throws InterruptedException {
+        var limit = limit(2, 16, true);
+
+        for (var i = 0; i < 3; i++) {
+            limit.release(limit.acquire(FAST), 429, false, FAST);
+        }
+
+        assertThat(limit.limit()).isEqualTo(1);
+        assertThat(decisions).containsExactly(LimitDecision.THROTTLED);
+    }
+
+    @Test
+    void shouldKeepLimit_whenNotAdaptive() throws InterruptedException {
+        var limit = limit(4, 8, false);
+
+        limit.release(limit.acquire(FAST), 429, false, FAST);
+        completeRound(limit, 200, FAST);
+
+        assertThat(limit.limit()).isEqualTo(8);
+        assertThat(decisions).isEmpty();
+    }
+
+    private AdaptiveConcurrencyLimit limit(int initialLimit, int maxLimit, boolean adaptive) {
+        return new AdaptiveConcurrencyLimit("pacs.example.org", Operation.STOW, initialLimit, maxLimit, adaptive, 0.5, 2.0,
+                (host, operation, limit, decision) -> decisions.add(decision));
+    }
+
+    /**
+     * Completes a round of responses with as many requests in flight as the limit allows.
+     */
+    private static void completeRound(AdaptiveConcurrencyLimit limit, int statusCode, Duration latency) throws InterruptedException {
+        var size = Math.max(10, limit.limit());
+        var completed = 0;
+        while (completed < size) {
+            var permits = new ArrayList<AdaptiveConcurrencyLimit.Permit>();
+            for (var i = 0; i < limit.limit() && completed + permits.size() < size; i++) {
+                permits.add(limit.acquire(FAST));
+            }
+            for (var permit : permits) {
+                limit.release(permit, statusCode, false, latency);
+            }
+            completed += permits.size();
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+
+package org.eclipse.edc.connector.dataplane.dicomweb.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import org.eclipse.edc.connector.dataplane.dicomweb.metrics.DicomWebMetrics.Operation;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DicomWebHttpClientTest {
+    private final AtomicInteger status = new AtomicInteger(200);
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private volatile CountDownLatch respond = new CountDownLatch(0);
+    private HttpServer server;
+    private DicomWebHttpClient client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        respond.countDown();
+        if (client != null) {
+            client.close();
+        }
+        server.stop(0);
+    }
+
+    @Test
+    void shouldExecuteRequest() throws IOException {
+        client = DicomWebHttpClient.Builder.newInstance().build();
+
+        try (var response = client.execute(get())) {
+            assertThat(response.code()).isEqualTo(200);
+            assertThat(response.body().string()).isEqualTo("GET /studies");
+        }
+        try (var response = client.execute(post())) {
+            assertThat(response.body().string()).isEqualTo("POST /studies");
+        }
+    }
+
+    @Test
+    void shouldBoundRequestsInFlightToService() throws Exception {
+        client = DicomWebHttpClient.Builder.newInstance().maxRequestsPerHost(2).adaptiveConcurrency(false).build();
+        respond = new CountDownLatch(1);
+
+        var responses = new ArrayList<CompletableFuture<Integer>>();
+        for (var i = 0; i < 5; i++) {
+            responses.add(CompletableFuture.supplyAsync(this::executeGet));
+        }
+        awaitInFlight(2);
+        Thread.sleep(200);
+
+        assertThat(inFlight.get()).isEqualTo(2);
+        assertThat(client.inFlight("127.0.0.1", server.getAddress().getPort(), Operation.WADO)).isEqualTo(2);
+
+        respond.countDown();
+
+        for (var response : responses) {
+            assertThat(response.get(10, TimeUnit.SECONDS)).isEqualTo(200);
+        }
+        assertThat(peakInFlight.get()).isEqualTo(2);
+        assertThat(client.inFlight("127.0.0.1", server.getAddress().getPort(), Operation.WADO)).isZero();
+    }
+
+    @Test
+    void shouldLimitOperationsSeparately() throws Exception {
+        client = DicomWebHttpClient.Builder.newInstance().maxRequestsPerHost(1).adaptiveConcurrency(false).build();
+        respond = new CountDownLatch(1);
+
+        var retrieval = CompletableFuture.supplyAsync(this::executeGet);
+        awaitInFlight(1);
+        var store = CompletableFuture.supplyAsync(() -> {
+            try (var response = client.execute(post())) {
+                return response.code();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        awaitInFlight(2);
+        respond.countDown();
+
+        assertThat(retrieval.get(10, TimeUnit.SECONDS)).isEqualTo(200);
+        assertThat(store.get(10, TimeUnit.SECONDS)).isEqualTo(200);
+        var port = server.getAddress().getPort();
+        assertThat(client.concurrencyLimits()).containsOnlyKeys("127.0.0.1:" + port + "/wado", "127.0.0.1:" + port + "/stow");
+    }
+
+    @Test
+    void shouldFail_whenNoSlotFreesUpWithinReadTimeout() throws Exception {
+        client = DicomWebHttpClient.Builder.newInstance().maxRequestsPerHost(1).adaptiveConcurrency(false)
+                .readTimeout(Duration.ofMillis(300)).build();
+        var uploading = new CountDownLatch(1);
+        var upload = new CountDownLatch(1);
+        // a request holds its slot while its body is uploaded, which the read timeout does not bound
+        var slowBody = new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return MediaType.get("application/dicom");
+            }
+
+            @Override
+            public void writeTo(@NotNull BufferedSink sink) throws IOException {
+                uploading.countDown();
+                try {
+                    upload.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                sink.writeUtf8("instance");
+            }
+        };
+        var blocked = CompletableFuture.supplyAsync(() -> {
+            try (var response = client.execute(new Request.Builder().url(url()).post(slowBody).tag(Operation.class, Operation.WADO).build())) {
+                return response.code();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertThat(uploading.await(10, TimeUnit.SECONDS)).isTrue();
+
+        assertThatThrownBy(() -> client.execute(get()))
+                .isInstanceOf(InterruptedIOException.class)
+                .hasMessageContaining("request slots");
+
+        upload.countDown();
+        assertThat(blocked.get(10, TimeUnit.SECONDS)).isEqualTo(200);
+    }
+
+    @Test
+    void shouldLowerLimit_whenThrottled() throws IOException {
+        client = DicomWebHttpClient.Builder.newInstance().initialRequestsPerHost(8).maxRequestsPerHost(16).backoffRatio(0.5).build();
+        status.set(503);
+
+        try (var response = client.execute(get())) {
+            assertThat(response.code()).isEqualTo(503);
+        }
+
+        assertThat(client.concurrencyLimits()).containsEntry("127.0.0.1:" + server.getAddress().getPort() + "/wado", 4);
+    }
+
+    @Test
+    void shouldRejectInvalidSettings() {
+        assertThatThrownBy(() -> DicomWebHttpClient.Builder.newInstance().maxRequestsPerHost(0).build())
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> DicomWebHttpClient.Builder.newInstance().maxIdleConnections(-1).build())
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> DicomWebHttpClient.Builder.newInstance().backoffRatio(1).build())
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> DicomWebHttpClient.Builder.newInstance().latencyTolerance(1).build())
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void shouldParseProtocol() {
+        assertThat(DicomWebHttpClient.HttpProtocol.parse(" http1 ")).isEqualTo(DicomWebHttpClient.HttpProtocol.HTTP1);
+        assertThat(DicomWebHttpClient.HttpProtocol.parse("H2C")).isEqualTo(DicomWebHttpClient.HttpProtocol.H2C);
+        assertThatThrownBy(() -> DicomWebHttpClient.HttpProtocol.parse("spdy")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                exchange.getRequestBody().readAllBytes();
+                if (!respond.await(10, TimeUnit.SECONDS)) {
+                    throw new IOException("Test did not release the response");
+                }
+            } finally {
+                // the client may send its next request as soon as it has the response, so it is counted done before
+                inFlight.decrementAndGet();
+            }
+            var body = (exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath()).getBytes(StandardCharsets.US_ASCII);
+            exchange.sendResponseHeaders(status.get(), body.length);
+            exchange.getResponseBody().write(body);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private int executeGet() {
+        try (var response = client.execute(get())) {
+            return response.code();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void awaitInFlight(int count) throws InterruptedException {
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (inFlight.get() < count) {
+            assertThat(System.nanoTime()).as("requests in flight").isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private Request get() {
+        return new Request.Builder().url(url()).get().build();
+    }
+
+    private Request post() {
+        return new Request.Builder().url(url()).post(RequestBody.create("instance", MediaType.get("application/dicom"))).build();
+    }
+
+    private String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/studies";
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+
+
+package org.eclipse.edc.connector.dataplane.dicomweb.metrics;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.eclipse.edc.connector.dataplane.dicomweb.metrics.DicomWebMetrics.Operation.STOW;
+import static org.eclipse.edc.connector.dataplane.dicomweb.metrics.DicomWebMetrics.Operation.WADO;
+
+class MicrometerDicomWebMetricsTest {
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final MicrometerDicomWebMetrics metrics = new MicrometerDicomWebMetrics(registry);
+
+    @Test
+    void shouldRecordRequestsByHostOperationAndStatus() {
+        metrics.requestCompleted("pacs", WADO, 200, Duration.ofMillis(20));
+        metrics.requestCompleted("pacs", WADO, 200, Duration.ofMillis(40));
+        metrics.requestCompleted("pacs", STOW, -1, Duration.ofMillis(10));
+
+        var wado = registry.get("dicomweb.client.requests").tags("host", "pacs", "operation", "wado", "status", "200").timer();
+        assertThat(wado.count()).isEqualTo(2);
+        assertThat(wado.totalTime(TimeUnit.MILLISECONDS)).isEqualTo(60);
+        assertThat(registry.get("dicomweb.client.requests").tags("operation", "stow", "status", "none").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldCountBytesAndInstances() {
+        metrics.bytesTransferred("pacs", WADO, 1000);
+        metrics.bytesTransferred("pacs", WADO, 500);
+        metrics.instancesTransferred("pacs", STOW, 3);
+        metrics.retried("pacs", STOW, 1);
+
+        assertThat(registry.get("dicomweb.client.bytes").tags("host", "pacs", "operation", "wado").counter().count()).isEqualTo(1500);
+        assertThat(registry.get("dicomweb.instances").tags("host", "pacs", "operation", "stow").counter().count()).isEqualTo(3);
+        assertThat(registry.get("dicomweb.retries").tags("host", "pacs", "operation", "stow").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldTrackActiveTransfersAndBufferedBytesPerHost() {
+        metrics.transferStarted("pacs");
+        metrics.transferStarted("pacs");
+        metrics.transferStarted("archive");
+        metrics.transferFinished("pacs");
+        metrics.heapBytesBufferedChanged("pacs", 4096);
+        metrics.heapBytesBufferedChanged("pacs", -1024);
+
+        assertThat(registry.get("dicomweb.transfers.active").tags("host", "pacs").gauge().value()).isEqualTo(1);
+        assertThat(registry.get("dicomweb.transfers.active").tags("host", "archive").gauge().value()).isEqualTo(1);
+        assertThat(registry.get("dicomweb.buffer.heap.bytes").tags("host", "pacs").gauge().value()).isEqualTo(3072);
+    }
+
+    @Test
+    void shouldAttributeMeasurementsToLowerCaseHost() {
+        assertThat(DicomWebMetrics.host("https://PACS.example.org:8443/dicomweb/studies")).isEqualTo("pacs.example.org");
+        assertThat(DicomWebMetrics.host("not a url")).isEqualTo("unknown");
+    }
+}
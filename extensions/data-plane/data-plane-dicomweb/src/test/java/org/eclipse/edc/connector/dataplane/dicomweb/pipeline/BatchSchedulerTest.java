@@ -0,0 +1,147 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import org.eclipse.edc.connector.dataplane.dicomweb.metadata.TransferPriority;
+import org.eclipse.edc.connector.dataplane.dicomweb.metrics.DicomWebMetrics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BatchSchedulerTest {
+    private final BatchScheduler scheduler = new BatchScheduler(1, Duration.ZERO, DicomWebMetrics.NOOP);
+    private final List<String> order = new CopyOnWriteArrayList<>();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        scheduler.close();
+    }
+
+    @Test
+    void shouldShareThreadByWeightOfPriority() throws Exception {
+        occupyThread();
+        var results = new ArrayList<CompletableFuture<?>>();
+        for (var i = 0; i < 30; i++) {
+            results.add(submit(TransferPriority.LOW, "low"));
+            results.add(submit(TransferPriority.URGENT, "urgent"));
+        }
+
+        release.countDown();
+        awaitAll(results);
+
+        // an urgent batch weighs eight times as much as a low one
+        var first = order.subList(0, 27);
+        assertThat(Collections.frequency(first, "urgent")).isEqualTo(24);
+        assertThat(Collections.frequency(first, "low")).isEqualTo(3);
+    }
+
+    @Test
+    void shouldServeBatchesOfClassInOrderOfSubmission() throws Exception {
+        occupyThread();
+        var results = new ArrayList<CompletableFuture<?>>();
+        for (var i = 0; i < 5; i++) {
+            results.add(submit(TransferPriority.NORMAL, "normal-" + i));
+        }
+
+        release.countDown();
+        awaitAll(results);
+
+        assertThat(order).containsExactly("normal-0", "normal-1", "normal-2", "normal-3", "normal-4");
+    }
+
+    @Test
+    void shouldNotCreditIdleClass() throws Exception {
+        var results = new ArrayList<CompletableFuture<?>>();
+        for (var i = 0; i < 50; i++) {
+            results.add(submit(TransferPriority.LOW, "low"));
+        }
+        awaitAll(results);
+        order.clear();
+        occupyThread();
+        for (var i = 0; i < 20; i++) {
+            results.add(submit(TransferPriority.URGENT, "urgent"));
+            results.add(submit(TransferPriority.LOW, "low"));
+        }
+
+        release.countDown();
+        awaitAll(results);
+
+        // without the low class served alone before, urgent batches are not served 50 times in a row
+        assertThat(order.indexOf("low")).isLessThanOrEqualTo(9);
+    }
+
+    @Test
+    void shouldFail_whenWorkThrows() {
+        var result = scheduler.submit(TransferPriority.NORMAL, "host", () -> {
+            throw new IllegalStateException("failed");
+        });
+
+        assertThatThrownBy(() -> result.get(10, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class).hasRootCauseMessage("failed");
+    }
+
+    @Test
+    void shouldFailQueuedWork_whenClosed() throws Exception {
+        occupyThread();
+        var queued = submit(TransferPriority.LOW, "low");
+
+        scheduler.close();
+
+        assertThatThrownBy(() -> queued.get(10, TimeUnit.SECONDS)).isInstanceOf(CancellationException.class);
+        assertThatThrownBy(() -> submit(TransferPriority.LOW, "late").get(10, TimeUnit.SECONDS)).isInstanceOf(CancellationException.class);
+        assertThat(order).doesNotContain("low", "late");
+    }
+
+    /**
+     * Submits a batch that holds the only thread until released, and waits for it to start.
+     */
+    private void occupyThread() throws InterruptedException {
+        var started = new CountDownLatch(1);
+        scheduler.submit(TransferPriority.NORMAL, "host", () -> {
+            started.countDown();
+            try {
+                return release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        });
+        assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+    }
+
+    private CompletableFuture<Boolean> submit(TransferPriority priority, String name) {
+        return scheduler.submit(priority, "host", () -> order.add(name));
+    }
+
+    private static void awaitAll(List<CompletableFuture<?>> results) throws Exception {
+        CompletableFuture.allOf(results.toArray(CompletableFuture[]::new)).get(10, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ChecksumAlgorithmTest {
+
+    @ParameterizedTest
+    @CsvSource({
+            "CRC32C, e3069283",
+            "SHA_256, 15e2b0d3c33891ebb0f1ef609ec419420c20e320ce94c65fbc8c3312448eb225"
+    })
+    void shouldComputeChecksum_whenFedInChunks(ChecksumAlgorithm algorithm, String expected) {
+        var content = "123456789".getBytes(StandardCharsets.US_ASCII);
+        var digest = algorithm.newDigest();
+
+        digest.update(content, 0, 4);
+        digest.update(content, 4, 5);
+
+        assertThat(digest.value()).isEqualTo(expected);
+    }
+
+    @Test
+    void shouldParseAlgorithms() {
+        assertThat(ChecksumAlgorithm.parseList(" SHA-256, crc32c,sha-256 ,")).containsExactly(ChecksumAlgorithm.SHA_256, ChecksumAlgorithm.CRC32C);
+        assertThat(ChecksumAlgorithm.parseList("")).isEmpty();
+    }
+
+    @Test
+    void shouldRejectUnsupportedAlgorithm() {
+        assertThatThrownBy(() -> ChecksumAlgorithm.parseList("crc32c, md5")).isInstanceOf(IllegalArgumentException.class).hasMessageContaining("md5");
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import org.eclipse.edc.connector.dataplane.dicomweb.dicom.TransferSyntaxes;
+import org.eclipse.edc.connector.dataplane.dicomweb.fixtures.SyntheticCorpus;
+import org.eclipse.edc.connector.dataplane.spi.pipeline.DataSource;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DicomInstancePartsTest {
+    private static final String BOUNDARY = "b0undary";
+    private static final SyntheticCorpus.Instance INSTANCE = SyntheticCorpus.Instance.of(SyntheticCorpus.UID_ROOT + ".1.2.3", "20240101", 4096);
+
+    @Test
+    void shouldCarrySizeAndIdentifiers_whenRetrievedWithContentLength() throws IOException {
+        try (var reader = new MultipartRelatedReader(SyntheticCorpus.multipart(List.of(INSTANCE), BOUNDARY), BOUNDARY)) {
+            var part = reader.nextPart();
+
+            var created = DicomInstanceParts.create("data", part.body(), part.header("Content-Type"), DicomInstanceParts.contentLength(part));
+
+            assertThat(created.name()).isEqualTo(INSTANCE.sopInstanceUid() + ".dcm");
+            assertThat(created.size()).isEqualTo(INSTANCE.length());
+            assertThat(created.sopInstanceUid()).isEqualTo(INSTANCE.sopInstanceUid());
+            assertThat(created.seriesInstanceUid()).isEqualTo(INSTANCE.seriesInstanceUid());
+            assertThat(created.transferSyntaxUid()).isEqualTo(TransferSyntaxes.EXPLICIT_VR_LITTLE_ENDIAN);
+            // the identifiers are peeked, the content is still read from its start
+            try (var content = INSTANCE.openStream(); var read = created.openStream()) {
+                assertThat(read.readAllBytes()).isEqualTo(content.readAllBytes());
+            }
+        }
+    }
+
+    @Test
+    void shouldKeepName_whenInstanceCannotBeIdentified() throws IOException {
+        var content = "not a DICOM instance".getBytes(StandardCharsets.US_ASCII);
+
+        var created = DicomInstanceParts.create("data", new ByteArrayInputStream(content), "application/dicom; transfer-syntax=\"1.2.840.10008.1.2.4.90\"",
+                DataSource.Part.SIZE_UNKNOWN);
+
+        assertThat(created.name()).isEqualTo("data");
+        assertThat(created.size()).isEqualTo(DataSource.Part.SIZE_UNKNOWN);
+        assertThat(created.sopInstanceUid()).isNull();
+        assertThat(created.transferSyntaxUid()).isEqualTo("1.2.840.10008.1.2.4.90");
+        assertThat(created.openStream().readAllBytes()).isEqualTo(content);
+    }
+
+    @Test
+    void shouldNotTakeMetadataForInstance() throws IOException {
+        var content = "[]".getBytes(StandardCharsets.US_ASCII);
+
+        var created = DicomInstanceParts.create("metadata", new ByteArrayInputStream(content), "application/dicom+json", 2);
+
+        assertThat(created.name()).isEqualTo("metadata");
+        assertThat(created.size()).isEqualTo(2);
+        assertThat(DicomInstanceParts.isInstance(created)).isFalse();
+        assertThat(created.openStream().readAllBytes()).isEqualTo(content);
+    }
+
+    @Test
+    void shouldIdentifyPartsOfOtherSources() throws IOException {
+        var corpus = new SyntheticCorpus();
+        var part = corpus.parts(corpus.addStudy("20240101", 1, 4096)).get(0);
+        var instance = corpus.instances().get(0);
+
+        var identified = DicomInstanceParts.identify(part);
+
+        assertThat(identified.sopInstanceUid()).isEqualTo(instance.sopInstanceUid());
+        assertThat(identified.seriesInstanceUid()).isEqualTo(instance.seriesInstanceUid());
+        assertThat(identified.size()).isEqualTo(instance.length());
+        assertThat(DicomInstanceParts.sopInstanceUid(identified)).isEqualTo(instance.sopInstanceUid());
+        try (var content = identified.openStream()) {
+            assertThat(content.readAllBytes()).hasSize((int) instance.length());
+        }
+    }
+
+    @Test
+    void shouldReadContentLength() {
+        assertThat(DicomInstanceParts.contentLength(part(Map.of("content-length", " 42 ")))).isEqualTo(42);
+        assertThat(DicomInstanceParts.contentLength(part(Map.of("content-length", "-1")))).isEqualTo(DataSource.Part.SIZE_UNKNOWN);
+        assertThat(DicomInstanceParts.contentLength(part(Map.of("content-length", "many")))).isEqualTo(DataSource.Part.SIZE_UNKNOWN);
+        assertThat(DicomInstanceParts.contentLength(part(Map.of()))).isEqualTo(DataSource.Part.SIZE_UNKNOWN);
+    }
+
+    private static MultipartRelatedReader.Part part(Map<String, String> headers) {
+        return new MultipartRelatedReader.Part(headers, new ByteArrayInputStream(new byte[0]));
+    }
+}
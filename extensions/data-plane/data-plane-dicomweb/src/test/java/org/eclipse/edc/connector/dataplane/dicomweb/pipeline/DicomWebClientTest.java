@@ -0,0 +1,328 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import org.eclipse.edc.connector.dataplane.dicomweb.metrics.DicomWebMetrics;
+import org.eclipse.edc.connector.dataplane.spi.pipeline.DataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.Deflater;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DicomWebClientTest {
+    private static final String BOUNDARY = "b0undary";
+    private static final String MULTIPART = "multipart/related; type=\"application/dicom\"; boundary=" + BOUNDARY;
+    private static final String JPEG_2000 = "1.2.840.10008.1.2.4.90";
+    private static final String EXPLICIT_VR_LITTLE_ENDIAN = "1.2.840.10008.1.2.1";
+
+    private final DicomWebClient client = DicomWebTestClients.client();
+    private StubHttpServer server;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = StubHttpServer.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.close();
+    }
+
+    @Test
+    void shouldBuildAcceptHeaderInOrderOfPreference() {
+        var header = DicomWebClient.acceptHeader(List.of(JPEG_2000, EXPLICIT_VR_LITTLE_ENDIAN, "*"));
+
+        assertThat(header).isEqualTo(
+                "multipart/related; type=\"application/dicom\"; transfer-syntax=" + JPEG_2000 + ", " +
+                "multipart/related; type=\"application/dicom\"; transfer-syntax=" + EXPLICIT_VR_LITTLE_ENDIAN + "; q=0.9, " +
+                "multipart/related; type=\"application/dicom\"; transfer-syntax=*; q=0.8");
+    }
+
+    @Test
+    void shouldPassMediaRangesThrough() {
+        var header = DicomWebClient.acceptHeader(List.of(" multipart/related; type=\"application/octet-stream\" ", JPEG_2000));
+
+        assertThat(header).isEqualTo("multipart/related; type=\"application/octet-stream\", " +
+                "multipart/related; type=\"application/dicom\"; transfer-syntax=" + JPEG_2000 + "; q=0.9");
+    }
+
+    @Test
+    void shouldNotGoBelowLowestQuality() {
+        var transferSyntaxes = new ArrayList<String>();
+        for (var i = 0; i < 12; i++) {
+            transferSyntaxes.add("1.2.3." + i);
+        }
+
+        var header = DicomWebClient.acceptHeader(transferSyntaxes);
+
+        assertThat(header.split(", ")).hasSize(12)
+                .endsWith("multipart/related; type=\"application/dicom\"; transfer-syntax=1.2.3.9; q=0.1",
+                        "multipart/related; type=\"application/dicom\"; transfer-syntax=1.2.3.10; q=0.1",
+                        "multipart/related; type=\"application/dicom\"; transfer-syntax=1.2.3.11; q=0.1");
+    }
+
+    @Test
+    void shouldRequestTransferSyntaxes() throws IOException {
+        server.handler((request, exchange) -> StubHttpServer.respond(exchange, 200, MULTIPART, multipart("instance")));
+
+        var result = client.wadoRs(server.url("/studies/1.2.3"), "user", "secret", List.of(JPEG_2000, "*"), null);
+
+        assertThat(result.succeeded()).isTrue();
+        try (var reader = result.getContent()) {
+            assertThat(reader.nextPart().body().readAllBytes()).asString().isEqualTo("instance");
+        }
+        assertThat(server.requests()).singleElement().satisfies(request -> {
+            assertThat(request.header("Accept")).isEqualTo(DicomWebClient.acceptHeader(List.of(JPEG_2000, "*")));
+            assertThat(request.header("Authorization")).isEqualTo("Basic dXNlcjpzZWNyZXQ=");
+        });
+    }
+
+    @Test
+    void shouldLeaveAcceptHeaderToServer_whenNoTransferSyntaxIsConfigured() throws IOException {
+        server.handler((request, exchange) -> StubHttpServer.respond(exchange, 200, MULTIPART, multipart()));
+
+        var result = client.wadoRs(server.url("/studies/1.2.3"), "user", "secret");
+
+        assertThat(result.succeeded()).isTrue();
+        try (var reader = result.getContent()) {
+            assertThat(reader.nextPart()).isNull();
+        }
+        assertThat(server.requests()).singleElement().satisfies(request -> assertThat(request.header("Accept")).isNull());
+    }
+
+    @Test
+    void shouldFail_whenNoTransferSyntaxIsAvailable() {
+        server.handler((request, exchange) -> exchange.sendResponseHeaders(406, -1));
+
+        var result = client.wadoRs(server.url("/studies/1.2.3"), "user", "secret", List.of(JPEG_2000), null);
+
+        assertThat(result.failed()).isTrue();
+        assertThat(result.getFailureDetail()).contains(JPEG_2000).contains("add * to accept any");
+    }
+
+    @ParameterizedTest
+    @EnumSource(HttpCompression.Encoding.class)
+    void shouldDecompressResponse_whenContentEncoded(HttpCompression.Encoding encoding) throws IOException {
+        var content = "DICM".repeat(10_000);
+        var encoded = HttpCompressionTest.compress(encoding, multipart(content));
+        server.handler((request, exchange) -> {
+            exchange.getResponseHeaders().set("Content-Encoding", encoding.token());
+            StubHttpServer.respond(exchange, 200, MULTIPART, encoded);
+        });
+        var compression = new HttpCompression(List.of(HttpCompression.Encoding.GZIP, HttpCompression.Encoding.DEFLATE), Deflater.DEFAULT_COMPRESSION);
+
+        var result = client.wadoRs(server.url("/studies/1.2.3"), "user", "secret", List.of(), compression);
+
+        assertThat(result.succeeded()).isTrue();
+        try (var reader = result.getContent()) {
+            assertThat(reader.nextPart().body().readAllBytes()).asString().isEqualTo(content);
+            assertThat(reader.nextPart()).isNull();
+        }
+        assertThat(server.requests()).singleElement().satisfies(request -> assertThat(request.header("Accept-Encoding")).isEqualTo("gzip, deflate"));
+        assertThat(compression.encodedBytes()).isEqualTo(encoded.length);
+        assertThat(compression.bytesSaved()).isPositive();
+    }
+
+    @ParameterizedTest
+    @EnumSource(HttpCompression.Encoding.class)
+    void shouldCompressStowRequest(HttpCompression.Encoding encoding) {
+        var content = "DICM".repeat(10_000);
+        server.handler((request, exchange) -> StubHttpServer.respond(exchange, 200, "application/dicom+json", "{}".getBytes(StandardCharsets.US_ASCII)));
+        var compression = new HttpCompression(List.of(encoding), Deflater.DEFAULT_COMPRESSION);
+
+        var result = client.stowRs(server.url("/studies"), "user", "secret", List.of(part("instance", content)), compression);
+
+        assertThat(result.statusCode()).isEqualTo(200);
+        assertThat(server.requests()).singleElement().satisfies(request -> {
+            assertThat(request.header("Content-Encoding")).isEqualTo(encoding.token());
+            assertThat(new String(HttpCompressionTest.decompress(encoding, request.body()), StandardCharsets.US_ASCII)).contains(content);
+        });
+        assertThat(compression.bytesSaved()).isPositive();
+    }
+
+    @Test
+    void shouldQuerySopInstanceUidsPageByPage() {
+        server.handler((request, exchange) -> {
+            var page = switch (request.query().replaceAll(".*offset=([0-9]+).*", "$1")) {
+                case "0" -> instances("1.1", "1.2");
+                case "2" -> instances("1.3", "1.4");
+                default -> instances("1.5");
+            };
+            StubHttpServer.respond(exchange, 200, "application/dicom+json", page);
+        });
+
+        var result = client.sopInstanceUids(server.url("/studies"), "1.2.3", "user", "secret", 2);
+
+        assertThat(result.succeeded()).isTrue();
+        assertThat(result.getContent()).containsExactlyInAnyOrder("1.1", "1.2", "1.3", "1.4", "1.5");
+        assertThat(server.requests()).hasSize(3).allSatisfy(request -> {
+            assertThat(request.path()).isEqualTo("/studies/1.2.3/instances");
+            assertThat(request.query()).contains("includefield=00080018", "limit=2");
+        });
+        assertThat(server.requests()).extracting(StubHttpServer.RecordedRequest::query)
+                .anySatisfy(query -> assertThat(query).contains("offset=4"));
+    }
+
+    @Test
+    void shouldQueryNoSopInstanceUids_whenStudyIsUnknown() {
+        var result = client.sopInstanceUids(server.url("/studies"), "1.2.3", "user", "secret", 1000);
+
+        assertThat(result.succeeded()).isTrue();
+        assertThat(result.getContent()).isEmpty();
+    }
+
+    @Test
+    void shouldFailToQuerySopInstanceUids_whenServerFails() {
+        server.handler((request, exchange) -> StubHttpServer.respond(exchange, 500, "text/plain", new byte[0]));
+
+        var result = client.sopInstanceUids(server.url("/studies"), "1.2.3", "user", "secret", 1000);
+
+        assertThat(result.failed()).isTrue();
+        assertThat(result.getFailureDetail()).contains("QIDO-RS");
+    }
+
+    @Test
+    void shouldRecordRetrieval_whenResponseHasBeenRead() throws IOException {
+        var body = multipart("first", "second");
+        server.handler((request, exchange) -> StubHttpServer.respond(exchange, 200, MULTIPART, body));
+        var metrics = new RecordingMetrics();
+        var host = DicomWebMetrics.host(server.url("/"));
+
+        var result = DicomWebTestClients.client(metrics).wadoRs(server.url("/studies/1.2.3"), "user", "secret", List.of(), null);
+
+        assertThat(metrics.events).containsExactly("timeToFirstByte " + host + " wado");
+        try (var reader = result.getContent()) {
+            while (reader.nextPart() != null) {
+                // read to the end
+            }
+        }
+        assertThat(metrics.events).containsExactly(
+                "timeToFirstByte " + host + " wado",
+                "requestCompleted " + host + " wado 200",
+                "bytesTransferred " + host + " wado " + body.length,
+                "instancesTransferred " + host + " wado 2",
+                "responseParsed " + host + " wado");
+    }
+
+    @Test
+    void shouldRecordFailedRequest() {
+        server.handler((request, exchange) -> StubHttpServer.respond(exchange, 503, "text/plain", new byte[0]));
+        var metrics = new RecordingMetrics();
+        var host = DicomWebMetrics.host(server.url("/"));
+
+        var result = DicomWebTestClients.client(metrics).wadoRs(server.url("/studies/1.2.3"), "user", "secret", List.of(), null);
+
+        assertThat(result.failed()).isTrue();
+        assertThat(metrics.events).contains("requestCompleted " + host + " wado 503");
+    }
+
+    @Test
+    void shouldRecordBytesSent_whenStoring() {
+        server.handler((request, exchange) -> StubHttpServer.respond(exchange, 200, "application/dicom+json", "{}".getBytes(StandardCharsets.US_ASCII)));
+        var metrics = new RecordingMetrics();
+        var host = DicomWebMetrics.host(server.url("/"));
+
+        DicomWebTestClients.client(metrics).stowRs(server.url("/studies"), "user", "secret", List.of(part("instance", "content")), null);
+
+        var sent = server.requests().get(0).body().length;
+        assertThat(metrics.events).contains("requestCompleted " + host + " stow 200", "bytesTransferred " + host + " stow " + sent);
+    }
+
+    /**
+     * Returns a multipart/related body with a part of the given content each.
+     */
+    private static byte[] multipart(String... contents) {
+        var body = new StringBuilder();
+        for (var content : contents) {
+            body.append("--").append(BOUNDARY).append("\r\nContent-Type: application/dicom\r\n\r\n").append(content).append("\r\n");
+        }
+        return body.append("--").append(BOUNDARY).append("--\r\n").toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Returns a QIDO-RS response with an instance of each of the given SOP Instance UIDs.
+     */
+    private static byte[] instances(String... sopInstanceUids) {
+        var datasets = new ArrayList<String>();
+        for (var sopInstanceUid : sopInstanceUids) {
+            datasets.add("{\"00080018\":{\"vr\":\"UI\",\"Value\":[\"" + sopInstanceUid + "\"]}}");
+        }
+        return ("[" + String.join(",", datasets) + "]").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static DataSource.Part part(String name, String content) {
+        return new DataSource.Part() {
+            @Override
+            public String name() {
+                return name;
+            }
+
+            @Override
+            public InputStream openStream() {
+                return new ByteArrayInputStream(content.getBytes(StandardCharsets.US_ASCII));
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * Records the measurements it receives in order, without their durations.
+     */
+    private static class RecordingMetrics implements DicomWebMetrics {
+        private final List<String> events = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void requestCompleted(String host, Operation operation, int statusCode, Duration latency) {
+            events.add("requestCompleted %s %s %d".formatted(host, operation.tag(), statusCode));
+        }
+
+        @Override
+        public void timeToFirstByte(String host, Operation operation, Duration duration) {
+            events.add("timeToFirstByte %s %s".formatted(host, operation.tag()));
+        }
+
+        @Override
+        public void bytesTransferred(String host, Operation operation, long bytes) {
+            events.add("bytesTransferred %s %s %d".formatted(host, operation.tag(), bytes));
+        }
+
+        @Override
+        public void instancesTransferred(String host, Operation operation, long count) {
+            events.add("instancesTransferred %s %s %d".formatted(host, operation.tag(), count));
+        }
+
+        @Override
+        public void responseParsed(String host, Operation operation, Duration duration) {
+            events.add("responseParsed %s %s".formatted(host, operation.tag()));
+        }
+    }
+}
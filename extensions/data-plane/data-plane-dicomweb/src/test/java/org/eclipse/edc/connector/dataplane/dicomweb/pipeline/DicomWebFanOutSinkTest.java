@@ -0,0 +1,224 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import org.eclipse.edc.connector.dataplane.dicomweb.metrics.DicomWebMetrics;
+import org.eclipse.edc.connector.dataplane.spi.pipeline.DataSink;
+import org.eclipse.edc.connector.dataplane.spi.pipeline.DataSource;
+import org.eclipse.edc.connector.dataplane.spi.pipeline.StreamResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DicomWebFanOutSinkTest {
+    private static final List<String> CONTENTS = IntStream.range(0, 5).mapToObj(index -> String.valueOf((char) ('a' + index)).repeat(40 * 1024)).toList();
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<String> detachedHosts = new CopyOnWriteArrayList<>();
+
+    @TempDir
+    private Path directory;
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void shouldStoreAllPartsAtEveryDestination() throws Exception {
+        var first = new CollectingSink(CompletableFuture.completedFuture(null), StreamResult.success());
+        var second = new CollectingSink(CompletableFuture.completedFuture(null), StreamResult.success());
+
+        var result = fanOut(DicomWebFanOutSink.SlowDestinationPolicy.THROTTLE, first, second).transfer(source()).get(10, TimeUnit.SECONDS);
+
+        assertThat(result.succeeded()).isTrue();
+        assertThat(result.getContent()).asList().containsExactly(
+                new DicomWebFanOutSink.DestinationResult("http://first/studies", true, null, null),
+                new DicomWebFanOutSink.DestinationResult("http://second/studies", true, null, null));
+        assertThat(first.contents).containsExactlyElementsOf(CONTENTS);
+        assertThat(second.contents).containsExactlyElementsOf(CONTENTS);
+        assertThat(detachedHosts).isEmpty();
+    }
+
+    @Test
+    void shouldReportFailedDestinations() throws Exception {
+        var first = new CollectingSink(CompletableFuture.completedFuture(null), StreamResult.success());
+        var second = new CollectingSink(CompletableFuture.completedFuture(null), StreamResult.error("PACS full"));
+
+        var result = fanOut(DicomWebFanOutSink.SlowDestinationPolicy.THROTTLE, first, second).transfer(source()).get(10, TimeUnit.SECONDS);
+
+        assertThat(result.failed()).isTrue();
+        assertThat(result.getFailure().getMessages()).singleElement().asString().startsWith("http://second/studies: ").endsWith("PACS full");
+        assertThat(first.contents).containsExactlyElementsOf(CONTENTS);
+    }
+
+    @Test
+    void shouldServeDestinationFromSpillFile_whenItHoldsUpOthers() throws Exception {
+        var fast = new CollectingSink(CompletableFuture.completedFuture(null), StreamResult.success());
+        // the slow destination starts reading once the fast one has stored everything
+        var slow = new CollectingSink(fast.done, StreamResult.success());
+
+        var result = fanOut(DicomWebFanOutSink.SlowDestinationPolicy.SPILL, fast, slow).transfer(source()).get(10, TimeUnit.SECONDS);
+
+        assertThat(result.succeeded()).isTrue();
+        assertThat(slow.contents).containsExactlyElementsOf(CONTENTS);
+        assertThat(detachedHosts).containsExactly("second");
+    }
+
+    @Test
+    void shouldServeDestinationFromSpillFile_whenItStalls() throws Exception {
+        var fast = new CollectingSink(CompletableFuture.completedFuture(null), StreamResult.success());
+        var slow = new CollectingSink(fast.done, StreamResult.success());
+
+        var result = fanOut(DicomWebFanOutSink.SlowDestinationPolicy.THROTTLE, fast, slow).transfer(source()).get(10, TimeUnit.SECONDS);
+
+        assertThat(result.succeeded()).isTrue();
+        assertThat(slow.contents).containsExactlyElementsOf(CONTENTS);
+        assertThat(detachedHosts).containsExactly("second");
+    }
+
+    @Test
+    void shouldRejectContinuousSource() throws Exception {
+        var sink = new CollectingSink(CompletableFuture.completedFuture(null), StreamResult.success());
+        var source = new ContinuousDataSource() {
+            @Override
+            public CompletableFuture<StreamResult<Stream<Part>>> nextPartStream() {
+                return new CompletableFuture<>();
+            }
+
+            @Override
+            public void acknowledge() {
+            }
+
+            @Override
+            public StreamResult<Stream<Part>> openPartStream() {
+                return StreamResult.success(Stream.empty());
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        var result = fanOut(DicomWebFanOutSink.SlowDestinationPolicy.THROTTLE, sink).transfer(source).get(10, TimeUnit.SECONDS);
+
+        assertThat(result.failed()).isTrue();
+        assertThat(sink.contents).isEmpty();
+    }
+
+    private DicomWebFanOutSink fanOut(DicomWebFanOutSink.SlowDestinationPolicy policy, DataSink... sinks) {
+        var builder = DicomWebFanOutSink.Builder.newInstance()
+                .bufferSize(64 * 1024)
+                .slowDestinationPolicy(policy)
+                .stallTimeout(Duration.ofMillis(200))
+                .spillSettings(new SpillBuffer.Settings(directory, 1024 * 1024, 16 * 1024 * 1024))
+                .executorService(executor)
+                .monitor(DicomWebTestClients.MONITOR)
+                .metrics(new DicomWebMetrics() {
+                    @Override
+                    public void fanOutDestinationDetached(String host) {
+                        detachedHosts.add(host);
+                    }
+                })
+                .requestId("transfer");
+        var names = List.of("first", "second");
+        for (var i = 0; i < sinks.length; i++) {
+            builder.destination("http://" + names.get(i) + "/studies", sinks[i]);
+        }
+        return builder.build();
+    }
+
+    private static DataSource source() {
+        return new DataSource() {
+            @Override
+            public StreamResult<Stream<Part>> openPartStream() {
+                return StreamResult.success(CONTENTS.stream().map(ContentPart::new));
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * A destination that reads the contents of all parts once it may start.
+     */
+    private class CollectingSink implements DataSink {
+        private final List<String> contents = new CopyOnWriteArrayList<>();
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private final CompletableFuture<?> start;
+        private final StreamResult<Object> outcome;
+
+        CollectingSink(CompletableFuture<?> start, StreamResult<Object> outcome) {
+            this.start = start;
+            this.outcome = outcome;
+        }
+
+        @Override
+        public CompletableFuture<StreamResult<Object>> transfer(DataSource source) {
+            return start.thenApplyAsync(ignored -> {
+                try (var parts = source.openPartStream().getContent()) {
+                    parts.forEach(part -> {
+                        try (var stream = part.openStream()) {
+                            contents.add(new String(stream.readAllBytes(), StandardCharsets.US_ASCII));
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                }
+                done.complete(null);
+                return outcome;
+            }, executor);
+        }
+    }
+
+    private record ContentPart(String content) implements DataSource.Part {
+
+        @Override
+        public String name() {
+            return content.substring(0, 1);
+        }
+
+        @Override
+        public InputStream openStream() {
+            return new ByteArrayInputStream(content.getBytes(StandardCharsets.US_ASCII));
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import org.eclipse.edc.connector.dataplane.dicomweb.checkpoint.FileSyncCursorStore;
+import org.eclipse.edc.connector.dataplane.dicomweb.checkpoint.SyncCursor;
+import org.eclipse.edc.connector.dataplane.spi.pipeline.DataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DicomWebSyncSourceTest {
+    private static final String BOUNDARY = "b0undary";
+    private static final String STUDY_DATE = "00080020";
+
+    private final RetrievalExecutor retrievalExecutor = new RetrievalExecutor(Executors.newCachedThreadPool(), 8);
+    private StubHttpServer server;
+    private FileSyncCursorStore cursorStore;
+
+    @TempDir
+    private Path directory;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = StubHttpServer.start();
+        cursorStore = new FileSyncCursorStore(directory.resolve("cursors"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.close();
+        retrievalExecutor.shutdown();
+    }
+
+    @Test
+    void shouldSyncNewInstancesAndPersistCursor_whenAcknowledged() throws Exception {
+        archive(Map.of("1.1", "20240101", "1.2", "20240102", "1.3", "20240102"));
+
+        try (var source = source()) {
+            var cycle = source.nextPartStream().get(10, TimeUnit.SECONDS);
+
+            assertThat(cycle.succeeded()).isTrue();
+            assertThat(read(cycle.getContent())).containsExactlyInAnyOrder("1.1", "1.2", "1.3");
+            assertThat(cursorStore.load("sync")).isNull();
+
+            source.acknowledge();
+        }
+
+        assertThat(cursorStore.load("sync")).isEqualTo(new SyncCursor("20240102", Set.of("1.2", "1.3")));
+        assertThat(server.requests()).filteredOn(request -> request.path().equals("/dicomweb/instances"))
+                .singleElement().satisfies(request -> assertThat(request.query()).contains(STUDY_DATE + "=20240101-"));
+    }
+
+    @Test
+    void shouldSyncFromCursor_whenRestarted() throws Exception {
+        cursorStore.save("sync", new SyncCursor("20240102", Set.of("1.2")));
+        // a server that does not support range matching returns older instances as well
+        archive(Map.of("1.1", "20240101", "1.2", "20240102", "1.3", "20240102", "1.4", "20240103"));
+
+        try (var source = source()) {
+            var cycle = source.nextPartStream().get(10, TimeUnit.SECONDS);
+
+            assertThat(read(cycle.getContent())).containsExactlyInAnyOrder("1.3", "1.4");
+            source.acknowledge();
+        }
+
+        assertThat(cursorStore.load("sync")).isEqualTo(new SyncCursor("20240103", Set.of("1.4")));
+        assertThat(server.requests()).filteredOn(request -> request.path().equals("/dicomweb/instances"))
+                .singleElement().satisfies(request -> assertThat(request.query()).contains(STUDY_DATE + "=20240102-"));
+    }
+
+    @Test
+    void shouldEndWithoutContent_whenClosedWhileWaitingForChanges() throws Exception {
+        archive(Map.of());
+        var source = source();
+
+        var cycle = source.nextPartStream();
+        source.close();
+
+        var result = cycle.get(10, TimeUnit.SECONDS);
+        assertThat(result.succeeded()).isTrue();
+        assertThat(result.getContent()).isNull();
+    }
+
+    private DicomWebSyncSource source() {
+        return DicomWebSyncSource.Builder.newInstance()
+                .url(server.url("/dicomweb/studies"))
+                .username("user")
+                .password("secret")
+                .name("instance")
+                .syncId("sync")
+                .since("20240101")
+                .dicomWebClient(DicomWebTestClients.client())
+                .monitor(DicomWebTestClients.MONITOR)
+                .retrievalExecutor(retrievalExecutor)
+                .cursorStore(cursorStore)
+                .spillSettings(new SpillBuffer.Settings(directory, 1024 * 1024, 16 * 1024 * 1024))
+                .pollInterval(Duration.ofMillis(10), Duration.ofMillis(50))
+                .build();
+    }
+
+    /**
+     * Serves an archive with an instance of the given date per SOP Instance UID, all in one series, which QIDO-RS
+     * returns regardless of the date queried. The content of an instance is its SOP Instance UID.
+     */
+    private void archive(Map<String, String> dates) {
+        server.handler((request, exchange) -> {
+            if (request.path().equals("/dicomweb/instances")) {
+                var datasets = new ArrayList<String>();
+                dates.forEach((sopInstanceUid, date) -> datasets.add(
+                        "{\"0020000D\":{\"vr\":\"UI\",\"Value\":[\"1\"]},\"0020000E\":{\"vr\":\"UI\",\"Value\":[\"2\"]}," +
+                        "\"00080018\":{\"vr\":\"UI\",\"Value\":[\"" + sopInstanceUid + "\"]}," +
+                        "\"" + STUDY_DATE + "\":{\"vr\":\"DA\",\"Value\":[\"" + date + "\"]}}"));
+                StubHttpServer.respond(exchange, 200, "application/dicom+json",
+                        ("[" + String.join(",", datasets) + "]").getBytes(StandardCharsets.US_ASCII));
+            } else if (request.path().startsWith("/dicomweb/studies/1/series/2/instances/")) {
+                var sopInstanceUid = request.path().substring(request.path().lastIndexOf('/') + 1);
+                var body = "--" + BOUNDARY + "\r\nContent-Type: application/dicom\r\n\r\n" + sopInstanceUid + "\r\n--" + BOUNDARY + "--\r\n";
+                StubHttpServer.respond(exchange, 200, "multipart/related; type=\"application/dicom\"; boundary=" + BOUNDARY,
+                        body.getBytes(StandardCharsets.US_ASCII));
+            } else {
+                exchange.sendResponseHeaders(404, -1);
+            }
+        });
+    }
+
+    private static List<String> read(Stream<DataSource.Part> parts) {
+        try (parts) {
+            return parts.map(part -> {
+                try (var stream = part.openStream()) {
+                    return new String(stream.readAllBytes(), StandardCharsets.US_ASCII);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).toList();
+        }
+    }
+}
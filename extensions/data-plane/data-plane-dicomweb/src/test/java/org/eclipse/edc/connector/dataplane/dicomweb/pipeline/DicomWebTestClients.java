@@ -0,0 +1,40 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.eclipse.edc.connector.dataplane.dicomweb.http.DicomWebHttpClient;
+import org.eclipse.edc.connector.dataplane.dicomweb.metrics.DicomWebMetrics;
+import org.eclipse.edc.spi.monitor.Monitor;
+
+/**
+ * Creates DICOMweb clients for tests, over a transport with its default settings.
+ */
+final class DicomWebTestClients {
+    static final Monitor MONITOR = new Monitor() {
+    };
+
+    private DicomWebTestClients() {
+    }
+
+    static DicomWebClient client() {
+        return client(DicomWebMetrics.NOOP);
+    }
+
+    static DicomWebClient client(DicomWebMetrics metrics) {
+        return new DicomWebClient(DicomWebHttpClient.Builder.newInstance().build(), new ObjectMapper(), MONITOR, metrics);
+    }
+}
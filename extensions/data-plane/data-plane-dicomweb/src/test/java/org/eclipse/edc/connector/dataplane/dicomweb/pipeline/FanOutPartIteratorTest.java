@@ -0,0 +1,207 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import org.eclipse.edc.connector.dataplane.spi.pipeline.DataSource;
+import org.eclipse.edc.spi.EdcException;
+import org.eclipse.edc.spi.result.Result;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FanOutPartIteratorTest {
+    private static final String BOUNDARY = "b0undary";
+
+    private final List<RetrievalExecutor> executors = new ArrayList<>();
+
+    @TempDir
+    private Path directory;
+
+    @AfterEach
+    void tearDown() {
+        executors.forEach(RetrievalExecutor::shutdown);
+    }
+
+    @Test
+    void shouldMergePartsOfAllResources() throws IOException {
+        try (var iterator = iterator(List.of("a", "b", "c"), 2, executor(8), url -> response(url + "1", url + "2"))) {
+            assertThat(readAll(iterator)).containsExactlyInAnyOrder("a1", "a2", "b1", "b2", "c1", "c2");
+        }
+    }
+
+    @Test
+    void shouldDetachOldestPart_whenConsumerHoldsUnreadParts() throws IOException {
+        try (var iterator = iterator(List.of("a"), 1, executor(8), url -> response("first", "second"))) {
+            var first = iterator.next();
+
+            // the only retrieval waits for the first part to be read, so asking for more must not block
+            var second = iterator.next();
+
+            assertThat(read(second)).isEqualTo("second");
+            assertThat(read(first)).isEqualTo("first");
+            assertThat(iterator.hasNext()).isFalse();
+        }
+    }
+
+    @Test
+    void shouldStartFewerRetrievals_whenSlotsAreTaken() throws IOException {
+        var executor = executor(2);
+        var blocker = new CountDownLatch(1);
+        assertThat(executor.trySubmit(() -> await(blocker))).isNotNull();
+        var concurrent = new AtomicInteger();
+        var peak = new AtomicInteger();
+        Function<String, Result<MultipartRelatedReader>> retrieval = url -> {
+            peak.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+            try {
+                return response(url);
+            } finally {
+                concurrent.decrementAndGet();
+            }
+        };
+
+        try (var iterator = iterator(List.of("a", "b", "c", "d"), 4, executor, retrieval)) {
+            assertThat(readAll(iterator)).containsExactlyInAnyOrder("a", "b", "c", "d");
+        } finally {
+            blocker.countDown();
+        }
+        assertThat(peak).hasValue(1);
+    }
+
+    @Test
+    void shouldWaitForSlot_whenAllAreTaken() throws Exception {
+        var executor = executor(1);
+        var blocker = new CountDownLatch(1);
+        assertThat(executor.trySubmit(() -> await(blocker))).isNotNull();
+
+        var created = CompletableFuture.supplyAsync(() -> iterator(List.of("a"), 2, executor, url -> response("content")));
+
+        assertThatThrownBy(() -> created.get(200, TimeUnit.MILLISECONDS)).isInstanceOf(TimeoutException.class);
+        blocker.countDown();
+        try (var iterator = created.get(10, TimeUnit.SECONDS)) {
+            assertThat(readAll(iterator)).containsExactly("content");
+        }
+    }
+
+    @Test
+    void shouldFail_whenRetrievalFails() {
+        try (var iterator = iterator(List.of("a"), 1, executor(8), url -> Result.failure("PACS unavailable"))) {
+            assertThatThrownBy(iterator::hasNext).isInstanceOf(EdcException.class).hasMessageContaining("PACS unavailable");
+        }
+    }
+
+    @Test
+    void shouldReturnSlots_whenClosedEarly() throws Exception {
+        var executor = executor(1);
+        var iterator = iterator(List.of("a", "b"), 1, executor, url -> response(url + "1", url + "2"));
+        assertThat(iterator.next()).isNotNull();
+
+        iterator.close();
+
+        // the retrieval waiting for its part to be read is stopped, which frees its slot
+        var submitted = CompletableFuture.supplyAsync(() -> {
+            try {
+                return executor.submit(() -> { });
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        submitted.get(10, TimeUnit.SECONDS).get(10, TimeUnit.SECONDS);
+    }
+
+    private FanOutPartIterator iterator(List<String> urls, int concurrency, RetrievalExecutor executor,
+                                        Function<String, Result<MultipartRelatedReader>> retrieval) {
+        var spillBuffer = new SpillBuffer(new SpillBuffer.Settings(directory, 1024 * 1024, 16 * 1024 * 1024));
+        return new FanOutPartIterator(urls, concurrency, executor, retrieval, (part, content) -> new ContentPart(content), spillBuffer);
+    }
+
+    private RetrievalExecutor executor(int maxRetrievals) {
+        var executor = new RetrievalExecutor(Executors.newCachedThreadPool(), maxRetrievals);
+        executors.add(executor);
+        return executor;
+    }
+
+    private static Result<MultipartRelatedReader> response(String... contents) {
+        var body = new StringBuilder();
+        for (var content : contents) {
+            body.append("--").append(BOUNDARY).append("\r\nContent-Type: application/dicom\r\n\r\n").append(content).append("\r\n");
+        }
+        body.append("--").append(BOUNDARY).append("--\r\n");
+        var stream = new ByteArrayInputStream(body.toString().getBytes(StandardCharsets.US_ASCII));
+        return Result.success(new MultipartRelatedReader(stream, BOUNDARY));
+    }
+
+    private static List<String> readAll(FanOutPartIterator iterator) throws IOException {
+        var contents = new ArrayList<String>();
+        while (iterator.hasNext()) {
+            contents.add(read(iterator.next()));
+        }
+        return contents;
+    }
+
+    private static String read(DataSource.Part part) throws IOException {
+        try (var stream = part.openStream()) {
+            return new String(stream.readAllBytes(), StandardCharsets.US_ASCII);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class ContentPart implements DataSource.Part {
+        private final InputStream content;
+
+        ContentPart(InputStream content) {
+            this.content = content;
+        }
+
+        @Override
+        public String name() {
+            return "part";
+        }
+
+        @Override
+        public InputStream openStream() {
+            return content;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
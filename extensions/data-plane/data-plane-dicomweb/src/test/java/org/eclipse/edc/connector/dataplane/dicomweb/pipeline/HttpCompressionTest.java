@@ -0,0 +1,119 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import org.eclipse.edc.connector.dataplane.dicomweb.pipeline.HttpCompression.Encoding;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class HttpCompressionTest {
+    private static final byte[] CONTENT = "DICM".repeat(10_000).getBytes(StandardCharsets.US_ASCII);
+
+    @ParameterizedTest
+    @EnumSource(Encoding.class)
+    void shouldCompressRequestBody(Encoding encoding) throws IOException {
+        var compression = new HttpCompression(List.of(encoding), Deflater.BEST_SPEED);
+        var body = compression.encode(RequestBody.create(CONTENT, MediaType.get("application/dicom")));
+
+        var sent = new Buffer();
+        body.writeTo(sent);
+        var encoded = sent.readByteArray();
+
+        assertThat(body.contentLength()).isEqualTo(-1);
+        assertThat(body.contentType()).isEqualTo(MediaType.get("application/dicom"));
+        assertThat(decompress(encoding, encoded)).isEqualTo(CONTENT);
+        assertThat(compression.encodedBytes()).isEqualTo(encoded.length);
+        assertThat(compression.bytesSaved()).isEqualTo(CONTENT.length - encoded.length).isPositive();
+    }
+
+    @ParameterizedTest
+    @EnumSource(Encoding.class)
+    void shouldDecompressResponseBody(Encoding encoding) throws IOException {
+        var compression = new HttpCompression(List.of(Encoding.GZIP, Encoding.DEFLATE), Deflater.DEFAULT_COMPRESSION);
+        var encoded = compress(encoding, CONTENT);
+
+        try (var decoded = compression.decode(" " + encoding.token().toUpperCase() + " ", new ByteArrayInputStream(encoded))) {
+            assertThat(decoded.readAllBytes()).isEqualTo(CONTENT);
+        }
+        assertThat(compression.encodedBytes()).isEqualTo(encoded.length);
+        assertThat(compression.bytesSaved()).isEqualTo(CONTENT.length - encoded.length);
+    }
+
+    @Test
+    void shouldPassResponseBodyThrough_whenNotEncoded() throws IOException {
+        var compression = new HttpCompression(List.of(Encoding.GZIP), Deflater.DEFAULT_COMPRESSION);
+        var body = new ByteArrayInputStream(CONTENT);
+
+        assertThat(compression.decode(null, body)).isSameAs(body);
+        assertThat(compression.decode("identity", body)).isSameAs(body);
+        assertThat(compression.bytesSaved()).isZero();
+    }
+
+    @Test
+    void shouldAcceptEncodingsInOrderOfPreference() {
+        var compression = new HttpCompression(List.of(Encoding.DEFLATE, Encoding.GZIP), Deflater.DEFAULT_COMPRESSION);
+
+        assertThat(compression.acceptEncoding()).isEqualTo("deflate, gzip");
+        assertThat(compression.requestEncoding()).isEqualTo(Encoding.DEFLATE);
+    }
+
+    @Test
+    void shouldParseEncodings() {
+        assertThat(Encoding.parseList(" gzip, ,DEFLATE ")).containsExactly(Encoding.GZIP, Encoding.DEFLATE);
+        assertThat(Encoding.parseList("")).isEmpty();
+        assertThatThrownBy(() -> Encoding.parseList("gzip, br")).isInstanceOf(IllegalArgumentException.class).hasMessageContaining("br");
+    }
+
+    @Test
+    void shouldRejectInvalidSettings() {
+        assertThatThrownBy(() -> new HttpCompression(List.of(), Deflater.DEFAULT_COMPRESSION)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new HttpCompression(List.of(Encoding.GZIP), 10)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    static byte[] compress(Encoding encoding, byte[] content) throws IOException {
+        var out = new ByteArrayOutputStream();
+        try (var compressing = encoding == Encoding.GZIP ? new GZIPOutputStream(out) : new DeflaterOutputStream(out)) {
+            compressing.write(content);
+        }
+        return out.toByteArray();
+    }
+
+    static byte[] decompress(Encoding encoding, byte[] content) throws IOException {
+        InputStream in = new ByteArrayInputStream(content);
+        try (var decompressing = encoding == Encoding.GZIP ? new GZIPInputStream(in) : new InflaterInputStream(in)) {
+            return decompressing.readAllBytes();
+        }
+    }
+}
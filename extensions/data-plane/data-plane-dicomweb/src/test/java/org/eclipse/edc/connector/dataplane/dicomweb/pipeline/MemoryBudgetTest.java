@@ -0,0 +1,213 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import org.eclipse.edc.connector.dataplane.dicomweb.metrics.DicomWebMetrics;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MemoryBudgetTest {
+    private static final String HOST = "pacs.example.org";
+
+    private final List<Boolean> admissions = new CopyOnWriteArrayList<>();
+    private final DicomWebMetrics metrics = new DicomWebMetrics() {
+        @Override
+        public void admissionCompleted(String host, boolean admitted, Duration wait) {
+            admissions.add(admitted);
+        }
+    };
+
+    @Test
+    void shouldRejectInvalidBudget() {
+        assertThatThrownBy(() -> new MemoryBudget(0, 0, Duration.ZERO, metrics)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new MemoryBudget(100, -1, Duration.ZERO, metrics)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void shouldAdmit_whenWorkingSetFits() {
+        var budget = new MemoryBudget(100, 40, Duration.ofMinutes(1), metrics);
+
+        var first = budget.admit("first", HOST);
+        var second = budget.admit("second", HOST);
+
+        assertThat(first.succeeded()).isTrue();
+        assertThat(second.succeeded()).isTrue();
+        assertThat(budget.used()).isEqualTo(80);
+    }
+
+    @Test
+    void shouldFailFast_whenWorkingSetDoesNotFit() {
+        var budget = new MemoryBudget(100, 60, Duration.ofMinutes(1), metrics);
+        budget.admit("first", HOST);
+
+        var result = budget.admit("second", HOST);
+
+        assertThat(result.failed()).isTrue();
+        assertThat(result.getFailureDetail()).contains("second");
+        assertThat(budget.used()).isEqualTo(60);
+        assertThat(admissions).containsExactly(true, false);
+    }
+
+    @Test
+    void shouldShareAdmissionOfTransfer() {
+        var budget = new MemoryBudget(100, 60, Duration.ofMinutes(1), metrics);
+        var sink = budget.admit("transfer", HOST).getContent();
+
+        var source = budget.admit("transfer", HOST).getContent();
+
+        assertThat(source).isSameAs(sink);
+        assertThat(budget.used()).isEqualTo(60);
+
+        sink.close();
+        assertThat(budget.used()).isEqualTo(60);
+
+        source.close();
+        assertThat(budget.used()).isZero();
+
+        source.close();
+        assertThat(budget.used()).isZero();
+    }
+
+    @Test
+    void shouldShareAdmission_whenAdmittedAsynchronously() throws Exception {
+        var budget = new MemoryBudget(100, 60, Duration.ofMinutes(1), metrics);
+        var sink = budget.admit("transfer", HOST).getContent();
+
+        var source = budget.admitAsync("transfer", HOST);
+
+        assertThat(source).isCompleted();
+        assertThat(source.get().getContent()).isSameAs(sink);
+        assertThat(budget.used()).isEqualTo(60);
+    }
+
+    @Test
+    void shouldQueueTransfer_untilReleaseMakesRoom() throws Exception {
+        var budget = new MemoryBudget(100, 60, Duration.ofMinutes(1), metrics);
+        var first = budget.admit("first", HOST).getContent();
+
+        var second = budget.admitAsync("second", HOST);
+
+        assertThat(second).isNotDone();
+
+        first.close();
+
+        assertThat(second).isCompleted();
+        assertThat(second.get().succeeded()).isTrue();
+        assertThat(budget.used()).isEqualTo(60);
+    }
+
+    @Test
+    void shouldAdmitQueuedTransfersInArrivalOrder() throws Exception {
+        var budget = new MemoryBudget(100, 50, Duration.ofMinutes(1), metrics);
+        var first = budget.admit("first", HOST).getContent();
+        var second = budget.admit("second", HOST).getContent();
+        var third = budget.admitAsync("third", HOST);
+        var fourth = budget.admitAsync("fourth", HOST);
+
+        first.close();
+
+        assertThat(third).isCompleted();
+        assertThat(fourth).isNotDone();
+
+        second.close();
+
+        assertThat(fourth).isCompleted();
+        assertThat(fourth.get().succeeded()).isTrue();
+    }
+
+    @Test
+    void shouldNotAdmitAhead_ofQueuedTransfers() {
+        var budget = new MemoryBudget(100, 50, Duration.ofMinutes(1), metrics);
+        budget.admit("first", HOST);
+        budget.admit("second", HOST);
+        budget.admitAsync("third", HOST);
+
+        assertThat(budget.admit("fourth", HOST).failed()).isTrue();
+        assertThat(budget.tryReserve(1)).isFalse();
+    }
+
+    @Test
+    void shouldFail_whenNotAdmittedInTime() throws Exception {
+        var budget = new MemoryBudget(100, 60, Duration.ofMillis(50), metrics);
+        var first = budget.admit("first", HOST).getContent();
+
+        var second = budget.admitAsync("second", HOST).get(10, TimeUnit.SECONDS);
+
+        assertThat(second.failed()).isTrue();
+        assertThat(second.getFailureDetail()).contains("not admitted within");
+        assertThat(admissions).containsExactly(true, false);
+
+        // the expired transfer no longer holds back others
+        first.close();
+        assertThat(budget.used()).isZero();
+        assertThat(budget.tryReserve(10)).isTrue();
+    }
+
+    @Test
+    void shouldAdmitTransfersBehindExpiredOne() throws Exception {
+        var budget = new MemoryBudget(100, 60, Duration.ofMillis(50), metrics);
+        budget.admit("first", HOST);
+        var expired = budget.admitAsync("second", HOST);
+
+        expired.get(10, TimeUnit.SECONDS);
+
+        assertThat(budget.admit("third", HOST).failed()).isTrue();
+        assertThat(budget.tryReserve(40)).isTrue();
+    }
+
+    @Test
+    void shouldReserveBufferedContent_whileBudgetIsNotUsed() {
+        var budget = new MemoryBudget(100, 60, Duration.ofMinutes(1), metrics);
+
+        assertThat(budget.tryReserve(30)).isTrue();
+        assertThat(budget.tryReserve(80)).isFalse();
+        assertThat(budget.used()).isEqualTo(30);
+        assertThat(budget.admit("transfer", HOST).succeeded()).isTrue();
+    }
+
+    @Test
+    void shouldAdmitQueuedTransfer_whenBufferedContentIsReleased() throws Exception {
+        var budget = new MemoryBudget(100, 60, Duration.ofMinutes(1), metrics);
+        budget.tryReserve(50);
+        var transfer = budget.admitAsync("transfer", HOST);
+
+        assertThat(transfer).isNotDone();
+
+        budget.release(50);
+
+        assertThat(transfer).isCompleted();
+        assertThat(transfer.get().succeeded()).isTrue();
+    }
+
+    @Test
+    void shouldReturnReservation_whenAdmissionIsNoLongerAwaited() {
+        var budget = new MemoryBudget(100, 60, Duration.ofMinutes(1), metrics);
+        var first = budget.admit("first", HOST).getContent();
+        var second = budget.admitAsync("second", HOST);
+        second.cancel(false);
+
+        first.close();
+
+        assertThat(budget.used()).isZero();
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MultipartRelatedReaderTest {
+    private static final String BOUNDARY = "b0undary";
+
+    @Test
+    void shouldReadPartsWithHeaders() throws IOException {
+        var body = "--b0undary\r\nContent-Type: application/dicom\r\nContent-Length: 5\r\n\r\nfirst\r\n" +
+                "--b0undary\r\ncontent-type: application/dicom\r\n\r\nsecond\r\n--b0undary--\r\n";
+
+        try (var reader = new MultipartRelatedReader(stream(body), BOUNDARY)) {
+            var first = reader.nextPart();
+            assertThat(first).isNotNull();
+            assertThat(first.header("Content-Type")).isEqualTo("application/dicom");
+            assertThat(first.header("content-length")).isEqualTo("5");
+            assertThat(first.body().readAllBytes()).asString().isEqualTo("first");
+
+            var second = reader.nextPart();
+            assertThat(second).isNotNull();
+            assertThat(second.header("Content-Type")).isEqualTo("application/dicom");
+            assertThat(second.body().readAllBytes()).asString().isEqualTo("second");
+
+            assertThat(reader.nextPart()).isNull();
+            assertThat(reader.partCount()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    void shouldFindBoundarySplitAcrossReads() throws IOException {
+        // the body contains prefixes of the delimiter, which must not end the part
+        var content = "\r\n--b0und\r\n-\r\n--b0undar" + "x".repeat(70_000);
+        var body = "--b0undary\r\n\r\n" + content + "\r\n--b0undary\r\n\r\nnext\r\n--b0undary--";
+
+        for (var chunkSize : List.of(1, 2, 3, 7, 13)) {
+            try (var reader = new MultipartRelatedReader(new TricklingInputStream(bytes(body), chunkSize), BOUNDARY)) {
+                assertThat(readAll(reader)).containsExactly(content, "next");
+            }
+        }
+    }
+
+    @Test
+    void shouldDiscardPreambleAndEpilogue() throws IOException {
+        var body = "This is the preamble.\r\n--b0undary\r\n\r\ncontent\r\n--b0undary--\r\nThis is the epilogue.";
+
+        try (var reader = new MultipartRelatedReader(stream(body), BOUNDARY)) {
+            assertThat(readAll(reader)).containsExactly("content");
+        }
+    }
+
+    @Test
+    void shouldSkipUnreadContent() throws IOException {
+        var body = "--b0undary\r\n\r\n" + "x".repeat(200_000) + "\r\n--b0undary\r\n\r\nsecond\r\n--b0undary--";
+
+        try (var reader = new MultipartRelatedReader(stream(body), BOUNDARY)) {
+            var first = reader.nextPart();
+            assertThat(first).isNotNull();
+            assertThat(first.body().readNBytes(10)).hasSize(10);
+
+            var second = reader.nextPart();
+            assertThat(second).isNotNull();
+            assertThat(second.body().readAllBytes()).asString().isEqualTo("second");
+        }
+    }
+
+    @Test
+    void shouldAcceptTransportPaddingAfterBoundary() throws IOException {
+        var body = "--b0undary \t\r\n\r\ncontent\r\n--b0undary--";
+
+        try (var reader = new MultipartRelatedReader(stream(body), BOUNDARY)) {
+            assertThat(readAll(reader)).containsExactly("content");
+        }
+    }
+
+    @Test
+    void shouldFail_whenClosingDelimiterIsMissing() throws IOException {
+        var body = "--b0undary\r\n\r\ntruncated content";
+
+        try (var reader = new MultipartRelatedReader(stream(body), BOUNDARY)) {
+            var part = reader.nextPart();
+            assertThat(part).isNotNull();
+
+            assertThatThrownBy(() -> part.body().readAllBytes())
+                    .isInstanceOf(EOFException.class)
+                    .hasMessageContaining("closing boundary is missing");
+        }
+    }
+
+    @Test
+    void shouldFail_whenStreamEndsAfterBoundary() throws IOException {
+        var body = "--b0undary\r\n\r\ncontent\r\n--b0undary";
+
+        try (var reader = new MultipartRelatedReader(stream(body), BOUNDARY)) {
+            assertThat(reader.nextPart()).isNotNull();
+
+            assertThatThrownBy(reader::nextPart).isInstanceOf(EOFException.class);
+        }
+    }
+
+    @Test
+    void shouldFail_whenHeaderIsMalformed() throws IOException {
+        var body = "--b0undary\r\nnot a header\r\n\r\ncontent\r\n--b0undary--";
+
+        try (var reader = new MultipartRelatedReader(stream(body), BOUNDARY)) {
+            assertThatThrownBy(reader::nextPart).isInstanceOf(ProtocolException.class);
+        }
+    }
+
+    @Test
+    void shouldRunCloseListener() throws IOException {
+        var closed = new ArrayList<String>();
+        var reader = new MultipartRelatedReader(stream("--b0undary--"), BOUNDARY);
+        reader.onClose(() -> closed.add("closed"));
+
+        reader.close();
+        reader.close();
+
+        assertThat(closed).containsExactly("closed");
+    }
+
+    private static List<String> readAll(MultipartRelatedReader reader) throws IOException {
+        var contents = new ArrayList<String>();
+        for (var part = reader.nextPart(); part != null; part = reader.nextPart()) {
+            contents.add(new String(part.body().readAllBytes(), StandardCharsets.ISO_8859_1));
+        }
+        return contents;
+    }
+
+    private static InputStream stream(String body) {
+        return new ByteArrayInputStream(bytes(body));
+    }
+
+    private static byte[] bytes(String body) {
+        return body.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Returns at most a fixed number of bytes per read, so that delimiters end up split between reads.
+     */
+    private static class TricklingInputStream extends ByteArrayInputStream {
+        private final int chunkSize;
+
+        TricklingInputStream(byte[] content, int chunkSize) {
+            super(content);
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, chunkSize));
+        }
+    }
+}
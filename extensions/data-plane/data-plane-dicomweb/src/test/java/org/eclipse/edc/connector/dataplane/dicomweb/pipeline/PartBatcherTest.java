@@ -0,0 +1,136 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import org.eclipse.edc.connector.dataplane.spi.pipeline.DataSource;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PartBatcherTest {
+
+    @Test
+    void shouldEndBatchAtMaxInstances() throws IOException {
+        var batcher = new PartBatcher(parts(5, 10, 10).iterator(), 2, Long.MAX_VALUE);
+
+        assertThat(drain(batcher)).containsExactly(List.of("0", "1"), List.of("2", "3"), List.of("4"));
+    }
+
+    @Test
+    void shouldNotOverflowBatch_whenSizeIsKnown() throws IOException {
+        var batcher = new PartBatcher(parts(4, 40, 40).iterator(), 10, 100);
+
+        assertThat(drain(batcher)).containsExactly(List.of("0", "1"), List.of("2", "3"));
+    }
+
+    @Test
+    void shouldAddOversizedPartToEmptyBatch() throws IOException {
+        var parts = List.of(part("small", 10, 10), part("huge", 500, 500), part("next", 10, 10));
+        var batcher = new PartBatcher(parts.iterator(), 10, 100);
+
+        assertThat(drain(batcher)).containsExactly(List.of("small"), List.of("huge"), List.of("next"));
+    }
+
+    @Test
+    void shouldEndBatchAtMaxBytesRead_whenSizeIsUnknown() throws IOException {
+        var batcher = new PartBatcher(parts(4, 60, DataSource.Part.SIZE_UNKNOWN).iterator(), 10, 100);
+
+        // the second part is only counted once it has been read, so it still joins the first batch
+        assertThat(drain(batcher)).containsExactly(List.of("0", "1"), List.of("2", "3"));
+    }
+
+    @Test
+    void shouldPullPartsOnDemand() {
+        var pulled = new AtomicInteger();
+        var source = parts(3, 10, 10).iterator();
+        var counting = new Iterator<DataSource.Part>() {
+            @Override
+            public boolean hasNext() {
+                return source.hasNext();
+            }
+
+            @Override
+            public DataSource.Part next() {
+                pulled.incrementAndGet();
+                return source.next();
+            }
+        };
+        var batcher = new PartBatcher(counting, 10, Long.MAX_VALUE);
+
+        var batch = batcher.nextBatch();
+        assertThat(batch).isNotNull();
+        assertThat(pulled).hasValue(1);
+
+        batch.next();
+        assertThat(pulled).hasValue(1);
+
+        assertThat(batch.hasNext()).isTrue();
+        assertThat(pulled).hasValue(2);
+    }
+
+    @Test
+    void shouldReturnNull_whenAllPartsHaveBeenHandedOut() {
+        var batcher = new PartBatcher(List.<DataSource.Part>of().iterator(), 10, 100);
+
+        assertThat(batcher.nextBatch()).isNull();
+    }
+
+    /**
+     * Reads every batch to the end, as a STOW-RS request body would, and returns the names of their parts.
+     */
+    private static List<List<String>> drain(PartBatcher batcher) throws IOException {
+        var batches = new ArrayList<List<String>>();
+        for (var batch = batcher.nextBatch(); batch != null; batch = batcher.nextBatch()) {
+            while (batch.hasNext()) {
+                try (var content = batch.next().openStream()) {
+                    content.transferTo(OutputStream.nullOutputStream());
+                }
+            }
+            batches.add(List.copyOf(batch.partNames()));
+        }
+        return batches;
+    }
+
+    private static List<DataSource.Part> parts(int count, int length, long size) {
+        return IntStream.range(0, count).mapToObj(i -> part(String.valueOf(i), length, size)).toList();
+    }
+
+    private static DataSource.Part part(String name, int length, long size) {
+        return new TestPart(name, new byte[length], size);
+    }
+
+    private record TestPart(String name, byte[] content, long size) implements DataSource.Part {
+
+        @Override
+        public InputStream openStream() {
+            return new ByteArrayInputStream(content);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
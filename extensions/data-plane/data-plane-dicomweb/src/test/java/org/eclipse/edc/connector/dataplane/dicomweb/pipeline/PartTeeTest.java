@@ -0,0 +1,230 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import org.eclipse.edc.connector.dataplane.spi.pipeline.DataSource;
+import org.eclipse.edc.spi.EdcException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PartTeeTest {
+    private static final int RING_SIZE = 64 * 1024;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<Integer> detached = new CopyOnWriteArrayList<>();
+
+    @TempDir
+    private Path directory;
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void shouldHandEveryPartToEveryBranch() throws Exception {
+        var contents = contents(5, 40 * 1024);
+        try (var tee = tee(parts(contents), 3, false)) {
+            var branches = IntStream.range(0, 3).mapToObj(index -> CompletableFuture.supplyAsync(() -> readAll(tee, index), executor)).toList();
+
+            tee.pump();
+
+            for (var branch : branches) {
+                assertThat(branch.get(10, TimeUnit.SECONDS)).containsExactlyElementsOf(contents);
+            }
+        }
+        assertThat(detached).isEmpty();
+    }
+
+    @Test
+    void shouldDetachBranch_whenItHoldsUpOthers() throws Exception {
+        var contents = contents(5, 40 * 1024);
+        try (var tee = tee(parts(contents), 2, true)) {
+            var fast = CompletableFuture.supplyAsync(() -> readAll(tee, 0), executor);
+            // the slow branch starts reading once the fast one has read everything, which it can only if the slow one is detached
+            var slow = fast.thenApplyAsync(parts -> readAll(tee, 1), executor);
+
+            tee.pump();
+
+            assertThat(fast.get(10, TimeUnit.SECONDS)).containsExactlyElementsOf(contents);
+            assertThat(slow.get(10, TimeUnit.SECONDS)).containsExactlyElementsOf(contents);
+        }
+        assertThat(detached).containsExactly(1);
+        try (var files = Files.list(directory)) {
+            assertThat(files).isEmpty();
+        }
+    }
+
+    @Test
+    void shouldDetachBranch_whenItStalls() throws Exception {
+        var contents = contents(5, 40 * 1024);
+        try (var tee = tee(parts(contents), 2, false)) {
+            var fast = CompletableFuture.supplyAsync(() -> readAll(tee, 0), executor);
+            var slow = fast.thenApplyAsync(parts -> readAll(tee, 1), executor);
+
+            tee.pump();
+
+            assertThat(fast.get(10, TimeUnit.SECONDS)).containsExactlyElementsOf(contents);
+            assertThat(slow.get(10, TimeUnit.SECONDS)).containsExactlyElementsOf(contents);
+        }
+        assertThat(detached).containsExactly(1);
+    }
+
+    @Test
+    void shouldDetachBranch_whenItWaitsForMorePartsThanFitTheRing() throws Exception {
+        var contents = contents(3, 40 * 1024);
+        try (var tee = tee(parts(contents), 1, false)) {
+            var branch = CompletableFuture.supplyAsync(() -> {
+                // all parts are taken before any is read, as a batch would
+                try (var parts = tee.branch(0)) {
+                    return parts.toList().stream().map(PartTeeTest::read).toList();
+                }
+            }, executor);
+
+            tee.pump();
+
+            assertThat(branch.get(10, TimeUnit.SECONDS)).containsExactlyElementsOf(contents);
+        }
+        assertThat(detached).containsExactly(0);
+    }
+
+    @Test
+    void shouldFailBranches_whenSourceFails() throws Exception {
+        var parts = new Iterator<DataSource.Part>() {
+            private boolean first = true;
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public DataSource.Part next() {
+                if (first) {
+                    first = false;
+                    return new ContentPart("part", new byte[10]);
+                }
+                throw new EdcException("PACS unavailable");
+            }
+        };
+        try (var tee = tee(parts, 1, false)) {
+            var branch = CompletableFuture.supplyAsync(() -> readAll(tee, 0), executor);
+
+            tee.pump();
+
+            assertThatThrownBy(() -> branch.get(10, TimeUnit.SECONDS)).hasRootCauseMessage("PACS unavailable");
+        }
+    }
+
+    @Test
+    void shouldStopReadingSource_whenAllBranchesAreClosed() {
+        var contents = contents(5, 40 * 1024);
+        var read = new ArrayList<String>();
+        var parts = parts(contents);
+        try (var tee = tee(new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return parts.hasNext();
+            }
+
+            @Override
+            public DataSource.Part next() {
+                var part = parts.next();
+                read.add(part.name());
+                return part;
+            }
+        }, 2, false)) {
+            tee.branch(0).close();
+            tee.branch(1).close();
+
+            tee.pump();
+        }
+
+        assertThat(read).hasSizeLessThanOrEqualTo(1);
+    }
+
+    private PartTee tee(Iterator<DataSource.Part> parts, int branches, boolean detachSlowBranches) {
+        return new PartTee(parts, branches, RING_SIZE, detachSlowBranches, directory, Duration.ofMillis(200), detached::add);
+    }
+
+    private static List<String> readAll(PartTee tee, int index) {
+        try (var parts = tee.branch(index)) {
+            return parts.map(PartTeeTest::read).toList();
+        }
+    }
+
+    private static String read(DataSource.Part part) {
+        try (var stream = part.openStream()) {
+            return new String(stream.readAllBytes());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static List<String> contents(int count, int size) {
+        return IntStream.range(0, count).mapToObj(index -> String.valueOf((char) ('a' + index)).repeat(size)).toList();
+    }
+
+    private static Iterator<DataSource.Part> parts(List<String> contents) {
+        return contents.stream().map(content -> (DataSource.Part) new ContentPart("part-" + content.charAt(0), content.getBytes())).iterator();
+    }
+
+    private static class ContentPart implements DataSource.Part {
+        private final String name;
+        private final byte[] content;
+
+        ContentPart(String name, byte[] content) {
+            this.name = name;
+            this.content = content;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public InputStream openStream() {
+            return new ByteArrayInputStream(content);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
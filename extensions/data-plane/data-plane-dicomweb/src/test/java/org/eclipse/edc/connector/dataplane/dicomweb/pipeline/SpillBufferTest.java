@@ -0,0 +1,195 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import org.eclipse.edc.connector.dataplane.dicomweb.metrics.DicomWebMetrics;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SpillBufferTest {
+    private static final long MB = 1024 * 1024;
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    void shouldKeepSmallContentInMemory() throws IOException {
+        var listened = new AtomicLong();
+        var memoryBudget = new MemoryBudget(16 * MB, 0, Duration.ZERO, DicomWebMetrics.NOOP);
+        var content = content(100_000);
+        try (var buffer = new SpillBuffer(new SpillBuffer.Settings(directory, MB, 16 * MB), memoryBudget, listened::addAndGet)) {
+            var staged = buffer.stage(new ByteArrayInputStream(content));
+
+            assertThat(staged.size()).isEqualTo(content.length);
+            assertThat(staged.openStream().readAllBytes()).isEqualTo(content);
+            assertThat(staged.openStream().readAllBytes()).isEqualTo(content);
+            assertThat(written(staged)).isEqualTo(content);
+            assertThat(buffer.bytesSpilled()).isZero();
+            assertThat(buffer.bytesInMemory()).isGreaterThanOrEqualTo(content.length).isEqualTo(memoryBudget.used()).isEqualTo(listened.get());
+
+            staged.release();
+
+            assertThat(buffer.bytesInMemory()).isZero();
+            assertThat(memoryBudget.used()).isZero();
+            assertThat(listened).hasValue(0);
+            assertThatThrownBy(staged::openStream).isInstanceOf(IOException.class);
+        }
+    }
+
+    @Test
+    void shouldSpill_whenContentExceedsThreshold() throws IOException {
+        var content = content(300_000);
+        try (var buffer = new SpillBuffer(new SpillBuffer.Settings(directory, 100_000, 16 * MB))) {
+            var staged = buffer.stage(new ByteArrayInputStream(content));
+
+            assertThat(buffer.bytesSpilled()).isEqualTo(content.length);
+            assertThat(buffer.bytesInMemory()).isZero();
+            assertThat(staged.size()).isEqualTo(content.length);
+            assertThat(staged.openStream().readAllBytes()).isEqualTo(content);
+            assertThat(written(staged)).isEqualTo(content);
+
+            staged.release();
+
+            assertThat(spillFiles()).isZero();
+        }
+    }
+
+    @Test
+    void shouldSpill_whenTransferMemoryBudgetIsUsed() throws IOException {
+        var first = content(200_000);
+        var second = content(200_000);
+        try (var buffer = new SpillBuffer(new SpillBuffer.Settings(directory, MB, 300_000))) {
+            var kept = buffer.stage(new ByteArrayInputStream(first));
+            var spilled = buffer.stage(new ByteArrayInputStream(second));
+
+            assertThat(buffer.bytesSpilled()).isEqualTo(second.length);
+            assertThat(kept.openStream().readAllBytes()).isEqualTo(first);
+            assertThat(spilled.openStream().readAllBytes()).isEqualTo(second);
+        }
+    }
+
+    @Test
+    void shouldSpill_whenSharedMemoryBudgetIsUsed() throws IOException {
+        var memoryBudget = new MemoryBudget(MB, 0, Duration.ZERO, DicomWebMetrics.NOOP);
+        assertThat(memoryBudget.tryReserve(MB - 100_000)).isTrue();
+        var content = content(200_000);
+        try (var buffer = new SpillBuffer(new SpillBuffer.Settings(directory, MB, 16 * MB), memoryBudget, delta -> {
+        })) {
+            var staged = buffer.stage(new ByteArrayInputStream(content));
+
+            assertThat(buffer.bytesSpilled()).isEqualTo(content.length);
+            assertThat(buffer.bytesInMemory()).isZero();
+            assertThat(memoryBudget.used()).isEqualTo(MB - 100_000);
+            assertThat(staged.openStream().readAllBytes()).isEqualTo(content);
+        }
+    }
+
+    @Test
+    void shouldStageSingleBytes() throws IOException {
+        var memoryBudget = new MemoryBudget(16 * MB, 0, Duration.ZERO, DicomWebMetrics.NOOP);
+        var small = content(150_000);
+        var large = content(300_000);
+        try (var buffer = new SpillBuffer(new SpillBuffer.Settings(directory, 200_000, 16 * MB), memoryBudget, delta -> {
+        })) {
+            var inMemory = stageBytewise(buffer, small);
+
+            assertThat(buffer.bytesSpilled()).isZero();
+            assertThat(buffer.bytesInMemory()).isEqualTo(3 * 64 * 1024).isEqualTo(memoryBudget.used());
+
+            var spilled = stageBytewise(buffer, large);
+
+            assertThat(buffer.bytesSpilled()).isEqualTo(large.length);
+            assertThat(inMemory.size()).isEqualTo(small.length);
+            assertThat(inMemory.openStream().readAllBytes()).isEqualTo(small);
+            assertThat(spilled.size()).isEqualTo(large.length);
+            assertThat(spilled.openStream().readAllBytes()).isEqualTo(large);
+        }
+    }
+
+    @Test
+    void shouldDiscardContent_whenStagingStreamIsClosedWithoutCompleting() throws IOException {
+        var memoryBudget = new MemoryBudget(16 * MB, 0, Duration.ZERO, DicomWebMetrics.NOOP);
+        try (var buffer = new SpillBuffer(new SpillBuffer.Settings(directory, 100_000, 16 * MB), memoryBudget, delta -> {
+        })) {
+            try (var inMemory = buffer.newStagingStream(); var spilled = buffer.newStagingStream()) {
+                inMemory.write(content(50_000));
+                spilled.write(content(200_000));
+            }
+
+            assertThat(buffer.bytesInMemory()).isZero();
+            assertThat(memoryBudget.used()).isZero();
+            assertThat(spillFiles()).isZero();
+        }
+    }
+
+    @Test
+    void shouldReleaseContent_whenClosed() throws IOException {
+        var buffer = new SpillBuffer(new SpillBuffer.Settings(directory, 100_000, 16 * MB));
+        var inMemory = buffer.stage(new ByteArrayInputStream(content(50_000)));
+        var spilled = buffer.stage(new ByteArrayInputStream(content(200_000)));
+
+        buffer.close();
+
+        assertThat(buffer.bytesInMemory()).isZero();
+        assertThat(spillFiles()).isZero();
+        assertThatThrownBy(inMemory::openStream).isInstanceOf(IOException.class);
+        assertThatThrownBy(spilled::openStream).isInstanceOf(IOException.class);
+        assertThatThrownBy(buffer::newStagingStream).isInstanceOf(IllegalStateException.class);
+    }
+
+    private long spillFiles() throws IOException {
+        if (!Files.exists(directory)) {
+            return 0;
+        }
+        try (var files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    private static byte[] written(SpillBuffer.StagedContent staged) throws IOException {
+        var out = new ByteArrayOutputStream();
+        staged.writeTo(Channels.newChannel(out));
+        return out.toByteArray();
+    }
+
+    private static SpillBuffer.StagedContent stageBytewise(SpillBuffer buffer, byte[] content) throws IOException {
+        try (var stream = buffer.newStagingStream()) {
+            for (var b : content) {
+                stream.write(b);
+            }
+            return stream.complete();
+        }
+    }
+
+    private static byte[] content(int length) {
+        var content = new byte[length];
+        new Random(length).nextBytes(content);
+        return content;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import org.eclipse.edc.connector.dataplane.dicomweb.dicom.StoreInstancesResponse;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.eclipse.edc.connector.dataplane.dicomweb.pipeline.StowResult.InstanceOutcome.FAILED;
+import static org.eclipse.edc.connector.dataplane.dicomweb.pipeline.StowResult.InstanceOutcome.RETRYABLE;
+import static org.eclipse.edc.connector.dataplane.dicomweb.pipeline.StowResult.InstanceOutcome.STORED;
+
+class StowResultTest {
+
+    @Test
+    void shouldStoreEveryInstance_whenOk() {
+        var withoutBody = new StowResult(200, null, null, null);
+        var withBody = new StowResult(200, new StoreInstancesResponse(Set.of("1.1"), Map.of()), null, null);
+
+        assertThat(withoutBody.succeeded()).isTrue();
+        assertThat(withoutBody.outcome("1.1")).isEqualTo(STORED);
+        assertThat(withoutBody.outcome(null)).isEqualTo(STORED);
+        assertThat(withBody.succeeded()).isTrue();
+        assertThat(withBody.outcome("1.1")).isEqualTo(STORED);
+    }
+
+    @Test
+    void shouldResolveEveryInstance_whenAccepted() {
+        var response = new StoreInstancesResponse(Set.of("1.1"), Map.of("1.2", 0xA700, "1.3", 0x0110, "1.4", 0xC000, "1.5",
+                StoreInstancesResponse.UNKNOWN_FAILURE_REASON));
+        var result = new StowResult(202, response, null, null);
+
+        assertThat(result.succeeded()).isFalse();
+        assertThat(result.outcome("1.1")).isEqualTo(STORED);
+        assertThat(result.outcome("1.2")).isEqualTo(RETRYABLE);
+        assertThat(result.outcome("1.3")).isEqualTo(RETRYABLE);
+        assertThat(result.outcome("1.4")).isEqualTo(FAILED);
+        assertThat(result.outcome("1.5")).isEqualTo(FAILED);
+        // a 202 lists every instance it processed
+        assertThat(result.outcome("1.6")).isEqualTo(RETRYABLE);
+        assertThat(result.outcome(null)).isEqualTo(RETRYABLE);
+    }
+
+    @Test
+    void shouldSucceed_whenAcceptedWithoutFailures() {
+        var result = new StowResult(202, new StoreInstancesResponse(Set.of("1.1"), Map.of()), null, null);
+
+        assertThat(result.succeeded()).isTrue();
+        assertThat(result.outcome("1.1")).isEqualTo(STORED);
+        assertThat(result.outcome("1.2")).isEqualTo(STORED);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = { 200, 201, 202, 204 })
+    void shouldStoreEveryInstance_whenSuccessfulWithoutBody(int statusCode) {
+        var result = new StowResult(statusCode, null, null, null);
+
+        assertThat(result.succeeded()).isTrue();
+        assertThat(result.outcome("1.1")).isEqualTo(STORED);
+        assertThat(result.outcome(null)).isEqualTo(STORED);
+    }
+
+    @Test
+    void shouldResolveListedInstances_whenConflict() {
+        var response = new StoreInstancesResponse(Set.of(), Map.of("1.1", 0x0213));
+        var result = new StowResult(409, response, null, null);
+
+        assertThat(result.succeeded()).isFalse();
+        assertThat(result.outcome("1.1")).isEqualTo(RETRYABLE);
+        assertThat(result.outcome("1.2")).isEqualTo(FAILED);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = { StowResult.NO_RESPONSE, 408, 429, 500, 502, 503, 504 })
+    void shouldRetry_whenStatusIsTransient(int statusCode) {
+        var result = new StowResult(statusCode, null, null, "failure");
+
+        assertThat(result.succeeded()).isFalse();
+        assertThat(result.outcome("1.1")).isEqualTo(RETRYABLE);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = { 400, 401, 403, 404, 409, 413, 415, 501 })
+    void shouldFail_whenStatusIsPermanent(int statusCode) {
+        var result = new StowResult(statusCode, null, null, "failure");
+
+        assertThat(result.succeeded()).isFalse();
+        assertThat(result.outcome("1.1")).isEqualTo(FAILED);
+    }
+
+    @Test
+    void shouldRetry_whenNoResponse() {
+        var result = StowResult.noResponse("connection reset");
+
+        assertThat(result.statusCode()).isEqualTo(StowResult.NO_RESPONSE);
+        assertThat(result.failureDetail()).isEqualTo("connection reset");
+        assertThat(result.outcome("1.1")).isEqualTo(RETRYABLE);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A loopback HTTP server that records the requests it receives and answers them with a handler, standing in for a
+ * DICOMweb server whose responses a test controls.
+ */
+final class StubHttpServer implements AutoCloseable {
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<RecordedRequest> requests = new CopyOnWriteArrayList<>();
+    private volatile Handler handler = (request, exchange) -> exchange.sendResponseHeaders(404, -1);
+
+    private StubHttpServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    /**
+     * Starts a server on an ephemeral port that answers every request with 404 until a handler is set.
+     */
+    static StubHttpServer start() throws IOException {
+        var server = new StubHttpServer();
+        server.server.start();
+        return server;
+    }
+
+    StubHttpServer handler(Handler handler) {
+        this.handler = handler;
+        return this;
+    }
+
+    /**
+     * Returns the url of the given path on the server.
+     */
+    String url(String path) {
+        return "http://%s:%d%s".formatted(server.getAddress().getHostString(), server.getAddress().getPort(), path);
+    }
+
+    List<RecordedRequest> requests() {
+        return requests;
+    }
+
+    /**
+     * Sends a response with the given body.
+     */
+    static void respond(HttpExchange exchange, int statusCode, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(statusCode, body.length == 0 ? -1 : body.length);
+        try (var out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            var uri = exchange.getRequestURI();
+            var request = new RecordedRequest(exchange.getRequestMethod(), uri.getPath(), uri.getRawQuery(), exchange.getRequestHeaders(),
+                    exchange.getRequestBody().readAllBytes());
+            requests.add(request);
+            handler.handle(request, exchange);
+        }
+    }
+
+    /**
+     * Answers a request.
+     */
+    interface Handler {
+        void handle(RecordedRequest request, HttpExchange exchange) throws IOException;
+    }
+
+    /**
+     * A request as received, with its body read completely.
+     */
+    record RecordedRequest(String method, String path, @Nullable String query, Headers headers, byte[] body) {
+
+        @Nullable
+        String header(String name) {
+            return headers.getFirst(name);
+        }
+    }
+}
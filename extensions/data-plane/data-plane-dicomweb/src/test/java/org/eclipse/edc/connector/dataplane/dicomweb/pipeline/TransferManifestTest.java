@@ -0,0 +1,91 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+
+
+package org.eclipse.edc.connector.dataplane.dicomweb.pipeline;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TransferManifestTest {
+    private static final byte[] CONTENT = "123456789".getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    void shouldRecordInstance_whenReadToEnd() throws IOException {
+        var callbacks = new AtomicInteger();
+        var recorder = new TransferManifest.Recorder(List.of(ChecksumAlgorithm.CRC32C, ChecksumAlgorithm.SHA_256), callbacks::incrementAndGet);
+
+        try (var stream = recorder.record(new ByteArrayInputStream(CONTENT), "1.2.3", "instance")) {
+            assertThat(stream.read()).isEqualTo('1');
+            assertThat(stream.readAllBytes()).hasSize(8);
+            assertThat(stream.read()).isEqualTo(-1);
+        }
+
+        assertThat(recorder.recorded()).isEqualTo(1);
+        assertThat(callbacks).hasValue(1);
+        assertThat(recorder.manifest("transfer", "http://source/studies", null)).isEqualTo(new TransferManifest("transfer",
+                "http://source/studies", null, List.of("crc32c", "sha-256"), List.of(new TransferManifest.Entry("1.2.3", "instance", 9, Map.of(
+                        "crc32c", "e3069283",
+                        "sha-256", "15e2b0d3c33891ebb0f1ef609ec419420c20e320ce94c65fbc8c3312448eb225")))));
+    }
+
+    @Test
+    void shouldNotRecordInstance_whenClosedBeforeEnd() throws IOException {
+        var recorder = new TransferManifest.Recorder(List.of(ChecksumAlgorithm.CRC32C));
+
+        try (var stream = recorder.record(new ByteArrayInputStream(CONTENT), "1.2.3", "instance")) {
+            assertThat(stream.readNBytes(4)).hasSize(4);
+        }
+
+        assertThat(recorder.recorded()).isZero();
+        assertThat(recorder.manifest("transfer", null, "http://destination/studies").instances()).isEmpty();
+    }
+
+    @Test
+    void shouldIncludeSkippedBytesInChecksum() throws IOException {
+        var recorder = new TransferManifest.Recorder(List.of(ChecksumAlgorithm.CRC32C));
+
+        try (var stream = recorder.record(new ByteArrayInputStream(CONTENT), null, "instance")) {
+            stream.skipNBytes(4);
+            stream.readAllBytes();
+        }
+
+        assertThat(recorder.manifest("transfer", null, null).instances())
+                .singleElement().satisfies(entry -> {
+                    assertThat(entry.size()).isEqualTo(9);
+                    assertThat(entry.checksums()).containsEntry("crc32c", "e3069283");
+                });
+    }
+
+    @Test
+    void shouldOmitUnsetUrls_whenSerialized() throws IOException {
+        var manifest = new TransferManifest("transfer", null, "http://destination/studies", List.of("crc32c"),
+                List.of(new TransferManifest.Entry(null, "instance", 9, Map.of("crc32c", "e3069283"))));
+
+        var json = new ObjectMapper().writeValueAsString(manifest);
+
+        assertThat(json).doesNotContain("\"source\"").contains("\"destination\":\"http://destination/studies\"");
+        assertThat(new ObjectMapper().readValue(json, TransferManifest.class)).isEqualTo(manifest);
+    }
+}
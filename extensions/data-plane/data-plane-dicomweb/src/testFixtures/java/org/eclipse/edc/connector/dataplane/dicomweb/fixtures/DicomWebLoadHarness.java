@@ -0,0 +1,514 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.fixtures;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.eclipse.edc.connector.dataplane.dicomweb.checkpoint.FileCheckpointStore;
+import org.eclipse.edc.connector.dataplane.dicomweb.checkpoint.FileSyncCursorStore;
+import org.eclipse.edc.connector.dataplane.dicomweb.http.DicomWebHttpClient;
+import org.eclipse.edc.connector.dataplane.dicomweb.metadata.DicomWebSchema;
+import org.eclipse.edc.connector.dataplane.dicomweb.metadata.TransferPriority;
+import org.eclipse.edc.connector.dataplane.dicomweb.metrics.DicomWebMetrics;
+import org.eclipse.edc.connector.dataplane.dicomweb.pipeline.BatchScheduler;
+import org.eclipse.edc.connector.dataplane.dicomweb.pipeline.DicomWebClient;
+import org.eclipse.edc.connector.dataplane.dicomweb.pipeline.DicomWebDataSinkFactory;
+import org.eclipse.edc.connector.dataplane.dicomweb.pipeline.DicomWebDataSourceFactory;
+import org.eclipse.edc.connector.dataplane.dicomweb.pipeline.MemoryBudget;
+import org.eclipse.edc.connector.dataplane.dicomweb.pipeline.RetrievalExecutor;
+import org.eclipse.edc.connector.dataplane.dicomweb.pipeline.SpillBuffer;
+import org.eclipse.edc.spi.monitor.Monitor;
+import org.eclipse.edc.spi.result.Result;
+import org.eclipse.edc.spi.security.Vault;
+import org.eclipse.edc.spi.types.domain.DataAddress;
+import org.eclipse.edc.spi.types.domain.transfer.DataFlowStartMessage;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs transfers concurrently through the real DICOMweb source and sink factories, from one {@link DicomWebTestServer}
+ * to another, and reports throughput, transfer latency and the peak heap usage of the JVM. Transfers take the studies
+ * of the source corpus in turn.
+ * <p>
+ * The harness can be run from the command line with {@code key=value} arguments, see {@link #main(String[])}.
+ */
+public final class DicomWebLoadHarness {
+    private static final String USERNAME = "load";
+    private static final String PASSWORD = "load";
+
+    private DicomWebTestServer source;
+    private DicomWebTestServer destination;
+    private final List<DicomWebTestServer> fanOutDestinations = new ArrayList<>();
+    private int transfers = 1;
+    private int concurrency = 1;
+    private int maxRequestsPerHost = 16;
+    private boolean adaptiveConcurrency = true;
+    private long memoryBudget;
+    private long transferReservation = 16L * 1024 * 1024;
+    private int schedulerThreads = 16;
+    private int retrievalThreads = 32;
+    private int urgentTransfers;
+    private final Map<String, String> sourceProperties = new HashMap<>();
+    private final Map<String, String> destinationProperties = new HashMap<>();
+    private Monitor monitor = new Monitor() {
+    };
+    private DicomWebMetrics metrics = DicomWebMetrics.NOOP;
+    private Duration heapSamplingInterval = Duration.ofMillis(10);
+
+    private DicomWebLoadHarness() {
+    }
+
+    /**
+     * Runs all transfers and waits for them to finish.
+     */
+    public LoadReport run() throws IOException, InterruptedException {
+        var studies = source.corpus().studyInstanceUids();
+        if (studies.isEmpty()) {
+            throw new IllegalStateException("The source corpus holds no studies");
+        }
+        if (!fanOutDestinations.isEmpty()) {
+            var destinations = Stream.concat(Stream.of(destination), fanOutDestinations.stream())
+                    .map(server -> Map.of(DicomWebSchema.URL, server.studiesUrl()))
+                    .toList();
+            destinationProperties.put(DicomWebSchema.DESTINATIONS, new ObjectMapper().writeValueAsString(destinations));
+        }
+        var directory = Files.createTempDirectory("dicomweb-load");
+        var pipelineExecutor = Executors.newCachedThreadPool();
+        var retrievalExecutor = new RetrievalExecutor(Executors.newCachedThreadPool(), retrievalThreads);
+        var transferExecutor = Executors.newFixedThreadPool(concurrency);
+        var heapSampler = Executors.newSingleThreadScheduledExecutor();
+        var httpClient = DicomWebHttpClient.Builder.newInstance()
+                .maxRequestsPerHost(maxRequestsPerHost)
+                .adaptiveConcurrency(adaptiveConcurrency)
+                .metrics(metrics)
+                .monitor(monitor)
+                .build();
+        var scheduler = new BatchScheduler(schedulerThreads, Duration.ofSeconds(30), metrics);
+        try {
+            var client = new DicomWebClient(httpClient, new ObjectMapper(), monitor, metrics);
+            var checkpointStore = new FileCheckpointStore(directory.resolve("checkpoints"));
+            var spillSettings = new SpillBuffer.Settings(directory.resolve("spill"), 1024 * 1024, 64 * 1024 * 1024);
+            var budget = memoryBudget > 0
+                    ? new MemoryBudget(memoryBudget, transferReservation, Duration.ofHours(1), metrics)
+                    : new MemoryBudget(Long.MAX_VALUE, 0, Duration.ZERO, metrics);
+            var sourceFactory = new DicomWebDataSourceFactory(client, monitor, new NoopVault(), retrievalExecutor, checkpointStore,
+                    spillSettings, null, new FileSyncCursorStore(directory.resolve("cursors")), metrics, budget);
+            var sinkFactory = new DicomWebDataSinkFactory(client, monitor, new NoopVault(), pipelineExecutor, checkpointStore,
+                    spillSettings, metrics, budget, scheduler, new ObjectMapper());
+
+            var memory = ManagementFactory.getMemoryMXBean();
+            System.gc();
+            var peakHeap = new AtomicLong(memory.getHeapMemoryUsage().getUsed());
+            var peakBudget = new AtomicLong();
+            heapSampler.scheduleAtFixedRate(() -> {
+                peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+                peakBudget.accumulateAndGet(budget.used(), Math::max);
+            }, 0, heapSamplingInterval.toNanos(), TimeUnit.NANOSECONDS);
+
+            var outcomes = Collections.synchronizedList(new ArrayList<Outcome>());
+            var start = System.nanoTime();
+            for (var i = 0; i < transfers; i++) {
+                var study = studies.get(i % studies.size());
+                var priority = i >= transfers - urgentTransfers ? TransferPriority.URGENT : null;
+                transferExecutor.execute(() -> outcomes.add(transfer(sourceFactory, sinkFactory, study, priority)));
+            }
+            transferExecutor.shutdown();
+            transferExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            var elapsed = Duration.ofNanos(System.nanoTime() - start);
+            heapSampler.shutdownNow();
+            return LoadReport.of(outcomes, elapsed, peakHeap.get(), peakBudget.get(), httpClient.concurrencyLimits());
+        } finally {
+            transferExecutor.shutdownNow();
+            heapSampler.shutdownNow();
+            pipelineExecutor.shutdownNow();
+            retrievalExecutor.shutdown();
+            scheduler.close();
+            httpClient.close();
+            delete(directory);
+        }
+    }
+
+    // DataSource.close() is declared to throw any exception, which is reported as a failed transfer
+    @SuppressWarnings("try")
+    private Outcome transfer(DicomWebDataSourceFactory sourceFactory, DicomWebDataSinkFactory sinkFactory, String study, TransferPriority priority) {
+        var id = UUID.randomUUID().toString();
+        var sourceAddress = DataAddress.Builder.newInstance()
+                .type(DicomWebSchema.TYPE)
+                .property(DicomWebSchema.URL, source.studyUrl(study))
+                .property(DicomWebSchema.USERNAME, USERNAME)
+                .property(DicomWebSchema.PASSWORD, PASSWORD);
+        sourceProperties.forEach(sourceAddress::property);
+        var destinationAddress = DataAddress.Builder.newInstance()
+                .type(DicomWebSchema.TYPE)
+                .property(DicomWebSchema.URL, destination.studiesUrl())
+                .property(DicomWebSchema.USERNAME, USERNAME)
+                .property(DicomWebSchema.PASSWORD, PASSWORD);
+        destinationProperties.forEach(destinationAddress::property);
+        var transferPriority = priority != null
+                ? priority
+                : TransferPriority.parse(destinationProperties.getOrDefault(DicomWebSchema.PRIORITY, TransferPriority.NORMAL.tag()));
+        destinationAddress.property(DicomWebSchema.PRIORITY, transferPriority.tag());
+        var request = DataFlowStartMessage.Builder.newInstance()
+                .id(id)
+                .processId(id)
+                .sourceDataAddress(sourceAddress.build())
+                .destinationDataAddress(destinationAddress.build())
+                .build();
+
+        var start = System.nanoTime();
+        try (var dataSource = sourceFactory.createSource(request)) {
+            var result = sinkFactory.createSink(request).transfer(dataSource).join();
+            var latency = Duration.ofNanos(System.nanoTime() - start);
+            return result.succeeded()
+                    ? new Outcome(transferPriority, latency, source.corpus().totalBytes(study), null)
+                    : new Outcome(transferPriority, latency, 0, result.getFailureDetail());
+        } catch (Exception e) {
+            return new Outcome(transferPriority, Duration.ofNanos(System.nanoTime() - start), 0, Objects.toString(e.getMessage(), e.toString()));
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (var paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * Runs the harness with two test servers. Arguments are {@code key=value} pairs:
+     * <ul>
+     *     <li>{@code profile} ({@code SMALL}, {@code HUGE} or {@code MIXED}), {@code studies}, {@code transfers},
+     *     {@code concurrency}, {@code maxRequestsPerHost}, {@code adaptiveConcurrency}, {@code memoryBudget},
+     *     {@code transferReservation}, {@code schedulerThreads}, {@code retrievalThreads}, {@code urgentTransfers},
+     *     {@code fanOut} and {@code seed} configure the run,</li>
+     *     <li>{@code source.<knob>} and {@code destination.<knob>} configure a server, where the knobs are
+     *     {@code latencyMillis}, {@code bandwidth}, {@code unavailableRate}, {@code retryAfterSeconds},
+     *     {@code partialFailureRate} and {@code connectionResetRate},</li>
+     *     <li>other {@code source.} and {@code destination.} keys are data address properties, such as
+     *     {@code destination.maxConcurrentRequests=4}.</li>
+     * </ul>
+     */
+    public static void main(String[] args) throws Exception {
+        var arguments = new HashMap<String, String>();
+        for (var arg : args) {
+            var separator = arg.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Expected key=value but got " + arg);
+            }
+            arguments.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        var profile = SyntheticCorpus.Profile.valueOf(arguments.getOrDefault("profile", "SMALL"));
+        var studies = Integer.parseInt(arguments.getOrDefault("studies", "4"));
+        var seed = Long.parseLong(arguments.getOrDefault("seed", "42"));
+        var corpus = SyntheticCorpus.of(profile, studies);
+        var fanOut = Integer.parseInt(arguments.getOrDefault("fanOut", "1"));
+        var fanOutServers = new ArrayList<DicomWebTestServer>();
+        try (var sourceServer = DicomWebTestServer.start(corpus).seed(seed); var destinationServer = DicomWebTestServer.start(new SyntheticCorpus()).seed(seed + 1)) {
+            for (var i = 1; i < fanOut; i++) {
+                fanOutServers.add(DicomWebTestServer.start(new SyntheticCorpus()).seed(seed + 1 + i));
+            }
+            var builder = Builder.newInstance()
+                    .source(sourceServer)
+                    .destination(destinationServer)
+                    .transfers(Integer.parseInt(arguments.getOrDefault("transfers", "16")))
+                    .concurrency(Integer.parseInt(arguments.getOrDefault("concurrency", "4")))
+                    .maxRequestsPerHost(Integer.parseInt(arguments.getOrDefault("maxRequestsPerHost", "16")))
+                    .adaptiveConcurrency(Boolean.parseBoolean(arguments.getOrDefault("adaptiveConcurrency", "true")))
+                    .memoryBudget(Long.parseLong(arguments.getOrDefault("memoryBudget", "0")),
+                            Long.parseLong(arguments.getOrDefault("transferReservation", String.valueOf(16L * 1024 * 1024))))
+                    .schedulerThreads(Integer.parseInt(arguments.getOrDefault("schedulerThreads", "16")))
+                    .retrievalThreads(Integer.parseInt(arguments.getOrDefault("retrievalThreads", "32")))
+                    .urgentTransfers(Integer.parseInt(arguments.getOrDefault("urgentTransfers", "0")));
+            configure(sourceServer, arguments, "source.").forEach(builder::sourceProperty);
+            configure(destinationServer, arguments, "destination.").forEach(builder::destinationProperty);
+            fanOutServers.forEach(builder::fanOutDestination);
+
+            System.out.printf("Running %d transfers of %s studies with concurrency %d%n", builder.harness.transfers, profile, builder.harness.concurrency);
+            var report = builder.build().run();
+            System.out.println(report.summary());
+            System.out.printf("Source requests: WADO %d, QIDO %d; destination requests: STOW %d, QIDO %d; faults injected: %d%n",
+                    sourceServer.requestCount(DicomWebMetrics.Operation.WADO), sourceServer.requestCount(DicomWebMetrics.Operation.QIDO),
+                    destinationServer.requestCount(DicomWebMetrics.Operation.STOW), destinationServer.requestCount(DicomWebMetrics.Operation.QIDO),
+                    sourceServer.faultsInjected() + destinationServer.faultsInjected());
+            if (!fanOutServers.isEmpty()) {
+                System.out.printf("Instances stored per destination: %s%n", Stream.concat(Stream.of(destinationServer), fanOutServers.stream())
+                        .map(DicomWebTestServer::instancesStored).toList());
+            }
+            if (report.failureCount() > 0) {
+                report.failures().stream().distinct().forEach(failure -> System.out.println("Failed: " + failure));
+                System.exit(1);
+            }
+        } finally {
+            fanOutServers.forEach(DicomWebTestServer::close);
+        }
+    }
+
+    /**
+     * Applies the server knobs among the arguments with the given prefix and returns the other arguments with that
+     * prefix as data address properties.
+     */
+    private static Map<String, String> configure(DicomWebTestServer server, Map<String, String> arguments, String prefix) {
+        var properties = new HashMap<String, String>();
+        arguments.forEach((key, value) -> {
+            if (key.startsWith(prefix)) {
+                properties.put(key.substring(prefix.length()), value);
+            }
+        });
+        var retryAfter = properties.remove("retryAfterSeconds");
+        var value = properties.remove("latencyMillis");
+        if (value != null) {
+            server.latency(Duration.ofMillis(Long.parseLong(value)));
+        }
+        value = properties.remove("bandwidth");
+        if (value != null) {
+            server.bandwidth(Long.parseLong(value));
+        }
+        value = properties.remove("unavailableRate");
+        if (value != null) {
+            server.unavailableRate(Double.parseDouble(value), retryAfter != null ? Duration.ofSeconds(Long.parseLong(retryAfter)) : null);
+        }
+        value = properties.remove("partialFailureRate");
+        if (value != null) {
+            server.partialFailureRate(Double.parseDouble(value));
+        }
+        value = properties.remove("connectionResetRate");
+        if (value != null) {
+            server.connectionResetRate(Double.parseDouble(value));
+        }
+        return properties;
+    }
+
+    private record Outcome(TransferPriority priority, Duration latency, long bytes, String failure) {
+    }
+
+    /**
+     * The result of a load run.
+     *
+     * @param bytes             the bytes of all successful transfers.
+     * @param peakHeapBytes     the highest heap usage sampled during the run, including garbage not yet collected.
+     * @param peakBudgetBytes   the highest use of the memory budget sampled during the run.
+     * @param medianLatencies   the median transfer latency of every priority class that ran.
+     * @param failures          the failure details of the transfers that failed.
+     * @param concurrencyLimits the limits of requests in flight per service at the end of the run.
+     */
+    public record LoadReport(int transfers, List<String> failures, long bytes, Duration elapsed, Duration medianLatency,
+                             Duration p99Latency, Duration maxLatency, long peakHeapBytes, long peakBudgetBytes,
+                             Map<TransferPriority, Duration> medianLatencies, Map<String, Integer> concurrencyLimits) {
+
+        private static LoadReport of(List<Outcome> outcomes, Duration elapsed, long peakHeapBytes, long peakBudgetBytes,
+                                     Map<String, Integer> concurrencyLimits) {
+            var latencies = outcomes.stream().map(Outcome::latency).sorted().toList();
+            var failures = outcomes.stream().map(Outcome::failure).filter(Objects::nonNull).toList();
+            var bytes = outcomes.stream().mapToLong(Outcome::bytes).sum();
+            var medianLatencies = new EnumMap<TransferPriority, Duration>(TransferPriority.class);
+            outcomes.stream()
+                    .collect(Collectors.groupingBy(Outcome::priority, Collectors.mapping(Outcome::latency, Collectors.toList())))
+                    .forEach((priority, durations) -> medianLatencies.put(priority, percentile(durations.stream().sorted().toList(), 0.5)));
+            return new LoadReport(outcomes.size(), failures, bytes, elapsed, percentile(latencies, 0.5), percentile(latencies, 0.99),
+                    latencies.isEmpty() ? Duration.ZERO : latencies.get(latencies.size() - 1), peakHeapBytes, peakBudgetBytes,
+                    medianLatencies, concurrencyLimits);
+        }
+
+        private static Duration percentile(List<Duration> sorted, double quantile) {
+            if (sorted.isEmpty()) {
+                return Duration.ZERO;
+            }
+            return sorted.get(Math.max(0, (int) Math.ceil(quantile * sorted.size()) - 1));
+        }
+
+        public int failureCount() {
+            return failures.size();
+        }
+
+        public double throughputBytesPerSecond() {
+            return elapsed.isZero() ? 0 : bytes / (elapsed.toNanos() / 1e9);
+        }
+
+        public String summary() {
+            return ("%d transfers, %d failed, %.1f MB in %.1f s: %.1f MB/s, latency p50 %d ms, p99 %d ms, max %d ms, peak heap %.1f MB, " +
+                    "peak memory budget %.1f MB, p50 by priority %s, concurrency limits %s")
+                    .formatted(transfers, failures.size(), bytes / 1e6, elapsed.toMillis() / 1e3, throughputBytesPerSecond() / 1e6,
+                            medianLatency.toMillis(), p99Latency.toMillis(), maxLatency.toMillis(), peakHeapBytes / 1e6, peakBudgetBytes / 1e6,
+                            medianLatencies.entrySet().stream()
+                                    .map(entry -> entry.getKey().tag() + " " + entry.getValue().toMillis() + " ms")
+                                    .collect(Collectors.joining(", ", "[", "]")),
+                            concurrencyLimits);
+        }
+    }
+
+    private static class NoopVault implements Vault {
+
+        @Override
+        public String resolveSecret(String key) {
+            return null;
+        }
+
+        @Override
+        public Result<Void> storeSecret(String key, String value) {
+            return Result.success();
+        }
+
+        @Override
+        public Result<Void> deleteSecret(String key) {
+            return Result.success();
+        }
+    }
+
+    public static class Builder {
+        private final DicomWebLoadHarness harness = new DicomWebLoadHarness();
+
+        public static Builder newInstance() {
+            return new Builder();
+        }
+
+        private Builder() {
+        }
+
+        public Builder source(DicomWebTestServer source) {
+            harness.source = source;
+            return this;
+        }
+
+        public Builder destination(DicomWebTestServer destination) {
+            harness.destination = destination;
+            return this;
+        }
+
+        /**
+         * Adds a destination that every transfer fans out to, besides the destination.
+         */
+        public Builder fanOutDestination(DicomWebTestServer fanOutDestination) {
+            harness.fanOutDestinations.add(fanOutDestination);
+            return this;
+        }
+
+        public Builder transfers(int transfers) {
+            harness.transfers = transfers;
+            return this;
+        }
+
+        public Builder concurrency(int concurrency) {
+            harness.concurrency = concurrency;
+            return this;
+        }
+
+        /**
+         * Requests in flight to each test server across all transfers, as enforced by the HTTP client of the data
+         * plane.
+         */
+        public Builder maxRequestsPerHost(int maxRequestsPerHost) {
+            harness.maxRequestsPerHost = maxRequestsPerHost;
+            return this;
+        }
+
+        /**
+         * Whether the limit of requests in flight adapts to the test servers, or stays at its maximum.
+         */
+        public Builder adaptiveConcurrency(boolean adaptiveConcurrency) {
+            harness.adaptiveConcurrency = adaptiveConcurrency;
+            return this;
+        }
+
+        /**
+         * Shares a memory budget of the given bytes among the transfers, each admitted with the given reservation. Without
+         * a budget, transfers start at once.
+         */
+        public Builder memoryBudget(long memoryBudget, long transferReservation) {
+            harness.memoryBudget = memoryBudget;
+            harness.transferReservation = transferReservation;
+            return this;
+        }
+
+        /**
+         * Threads of the scheduler that sends the STOW-RS batches of all transfers.
+         */
+        public Builder schedulerThreads(int schedulerThreads) {
+            harness.schedulerThreads = schedulerThreads;
+            return this;
+        }
+
+        /**
+         * Threads that run the concurrent WADO-RS retrievals of all sources.
+         */
+        public Builder retrievalThreads(int retrievalThreads) {
+            harness.retrievalThreads = retrievalThreads;
+            return this;
+        }
+
+        /**
+         * Runs the given number of transfers, the last ones to start, with {@link TransferPriority#URGENT} priority.
+         */
+        public Builder urgentTransfers(int urgentTransfers) {
+            harness.urgentTransfers = urgentTransfers;
+            return this;
+        }
+
+        /**
+         * Adds a property to the data address of every source, such as {@code retrieveGranularity}.
+         */
+        public Builder sourceProperty(String key, String value) {
+            harness.sourceProperties.put(key, value);
+            return this;
+        }
+
+        /**
+         * Adds a property to the data address of every destination, such as {@code maxConcurrentRequests}.
+         */
+        public Builder destinationProperty(String key, String value) {
+            harness.destinationProperties.put(key, value);
+            return this;
+        }
+
+        public Builder monitor(Monitor monitor) {
+            harness.monitor = monitor;
+            return this;
+        }
+
+        public Builder metrics(DicomWebMetrics metrics) {
+            harness.metrics = metrics;
+            return this;
+        }
+
+        public Builder heapSamplingInterval(Duration heapSamplingInterval) {
+            harness.heapSamplingInterval = heapSamplingInterval;
+            return this;
+        }
+
+        public DicomWebLoadHarness build() {
+            Objects.requireNonNull(harness.source, "source");
+            Objects.requireNonNull(harness.destination, "destination");
+            if (harness.transfers < 1 || harness.concurrency < 1) {
+                throw new IllegalArgumentException("transfers and concurrency must be positive");
+            }
+            return harness;
+        }
+    }
+}
@@ -0,0 +1,596 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.fixtures;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.eclipse.edc.connector.dataplane.dicomweb.dicom.DicomFileMeta;
+import org.eclipse.edc.connector.dataplane.dicomweb.dicom.DicomTags;
+import org.eclipse.edc.connector.dataplane.dicomweb.metrics.DicomWebMetrics;
+import org.eclipse.edc.connector.dataplane.dicomweb.pipeline.MultipartRelatedReader;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import static org.eclipse.edc.connector.dataplane.dicomweb.dicom.DicomTags.SERIES_INSTANCE_UID;
+import static org.eclipse.edc.connector.dataplane.dicomweb.dicom.DicomTags.SOP_INSTANCE_UID;
+import static org.eclipse.edc.connector.dataplane.dicomweb.dicom.DicomTags.STUDY_DATE;
+import static org.eclipse.edc.connector.dataplane.dicomweb.dicom.DicomTags.STUDY_INSTANCE_UID;
+
+/**
+ * An in-process DICOMweb server over a {@link SyntheticCorpus}, standing in for an archive such as Orthanc in load
+ * and soak tests. It is built on the HTTP server of the JDK and serves
+ * <ul>
+ *     <li>WADO-RS retrievals of studies, series and instances as streamed multipart responses,</li>
+ *     <li>WADO-RS metadata of studies, series and instances, whose Pixel Data is given by a {@code BulkDataURI}, and
+ *     retrievals of that bulk data,</li>
+ *     <li>QIDO-RS searches for studies, series and instances, with UID and date range matching and paging,</li>
+ *     <li>STOW-RS requests, whose instances are read to the end and added to the corpus without their content.</li>
+ * </ul>
+ * Nothing is buffered, so the server adds little to the memory footprint of a test. Latency, bandwidth and faults
+ * can be configured while the server is running: 503 responses, instances failing in the Failed SOP Sequence of a
+ * STOW-RS response, and connections that are reset partway through a request.
+ */
+public final class DicomWebTestServer implements AutoCloseable {
+    private static final String CONTEXT = "/dicom-web";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int OUT_OF_RESOURCES = 0xA700;
+    private static final String PIXEL_DATA = "7FE00010";
+    private static final Map<String, String> KEYWORDS = Map.of(
+            "StudyInstanceUID", STUDY_INSTANCE_UID,
+            "SeriesInstanceUID", SERIES_INSTANCE_UID,
+            "SOPInstanceUID", SOP_INSTANCE_UID,
+            "StudyDate", STUDY_DATE);
+
+    private final SyntheticCorpus corpus;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final String boundary = UUID.randomUUID().toString();
+    private final Map<DicomWebMetrics.Operation, AtomicLong> requests = new EnumMap<>(DicomWebMetrics.Operation.class);
+    private final AtomicLong faultsInjected = new AtomicLong();
+    private final AtomicLong instancesStored = new AtomicLong();
+
+    private volatile Random random = new Random();
+    private volatile Duration latency = Duration.ZERO;
+    private volatile long bytesPerSecond;
+    private volatile double unavailableRate;
+    private volatile @Nullable Duration retryAfter;
+    private volatile double partialFailureRate;
+    private volatile double connectionResetRate;
+
+    private DicomWebTestServer(SyntheticCorpus corpus) throws IOException {
+        this.corpus = corpus;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            var thread = new Thread(runnable, "dicomweb-test-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Arrays.stream(DicomWebMetrics.Operation.values()).forEach(operation -> requests.put(operation, new AtomicLong()));
+        server.createContext(CONTEXT, this::handle);
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Starts a server on an ephemeral loopback port.
+     */
+    public static DicomWebTestServer start(SyntheticCorpus corpus) throws IOException {
+        var server = new DicomWebTestServer(corpus);
+        server.server.start();
+        return server;
+    }
+
+    /**
+     * Returns the root of the DICOMweb service.
+     */
+    public String url() {
+        return "http://%s:%d%s".formatted(server.getAddress().getHostString(), server.getAddress().getPort(), CONTEXT);
+    }
+
+    public String studiesUrl() {
+        return url() + "/studies";
+    }
+
+    public String studyUrl(String studyInstanceUid) {
+        return studiesUrl() + "/" + studyInstanceUid;
+    }
+
+    public SyntheticCorpus corpus() {
+        return corpus;
+    }
+
+    /**
+     * Delays every response by the given time before its headers are sent.
+     */
+    public DicomWebTestServer latency(Duration latency) {
+        this.latency = latency;
+        return this;
+    }
+
+    /**
+     * Limits each response body and STOW-RS request body to the given bytes per second, 0 for no limit.
+     */
+    public DicomWebTestServer bandwidth(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        return this;
+    }
+
+    /**
+     * Answers the given fraction of requests with 503 Service Unavailable, with a {@code Retry-After} header if given.
+     */
+    public DicomWebTestServer unavailableRate(double rate, @Nullable Duration retryAfter) {
+        this.unavailableRate = rate;
+        this.retryAfter = retryAfter;
+        return this;
+    }
+
+    /**
+     * Fails the given fraction of STOW-RS instances with the transient Failure Reason {@code A700} (out of resources).
+     */
+    public DicomWebTestServer partialFailureRate(double rate) {
+        this.partialFailureRate = rate;
+        return this;
+    }
+
+    /**
+     * Resets the connection of the given fraction of WADO-RS and STOW-RS requests partway through their body.
+     */
+    public DicomWebTestServer connectionResetRate(double rate) {
+        this.connectionResetRate = rate;
+        return this;
+    }
+
+    /**
+     * Makes the injected faults reproducible.
+     */
+    public DicomWebTestServer seed(long seed) {
+        this.random = new Random(seed);
+        return this;
+    }
+
+    public long requestCount(DicomWebMetrics.Operation operation) {
+        return requests.get(operation).get();
+    }
+
+    public long faultsInjected() {
+        return faultsInjected.get();
+    }
+
+    public long instancesStored() {
+        return instancesStored.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            var path = exchange.getRequestURI().getPath().substring(CONTEXT.length());
+            var segments = Arrays.stream(path.split("/")).filter(segment -> !segment.isEmpty()).toList();
+            var operation = operation(exchange.getRequestMethod(), segments);
+            if (operation == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            requests.get(operation).incrementAndGet();
+            sleep(latency);
+            if (inject(unavailableRate)) {
+                exchange.getRequestBody().transferTo(OutputStream.nullOutputStream());
+                var delay = retryAfter;
+                if (delay != null) {
+                    exchange.getResponseHeaders().set("Retry-After", String.valueOf(delay.toSeconds()));
+                }
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+            switch (operation) {
+                case WADO -> retrieve(exchange, segments);
+                case QIDO -> search(exchange, segments);
+                case STOW -> store(exchange);
+                default -> exchange.sendResponseHeaders(404, -1);
+            }
+        }
+    }
+
+    /**
+     * Maps a request to its service. Resource paths ending in a level such as {@code /series} are searches, all others
+     * are retrievals.
+     */
+    private static @Nullable DicomWebMetrics.Operation operation(String method, List<String> segments) {
+        if ("GET".equals(method) && (metadata(segments) || bulkData(segments))) {
+            return DicomWebMetrics.Operation.WADO;
+        }
+        if (segments.isEmpty() || segments.size() > 6) {
+            return null;
+        }
+        var search = segments.size() % 2 == 1;
+        if ("POST".equals(method)) {
+            return segments.get(0).equals("studies") && segments.size() <= 2 ? DicomWebMetrics.Operation.STOW : null;
+        }
+        if (!"GET".equals(method)) {
+            return null;
+        }
+        return search ? DicomWebMetrics.Operation.QIDO : DicomWebMetrics.Operation.WADO;
+    }
+
+    /**
+     * Whether the path asks for the metadata of a resource, e.g. {@code /studies/{study}/metadata}.
+     */
+    private static boolean metadata(List<String> segments) {
+        return segments.size() >= 3 && segments.size() <= 7 && segments.size() % 2 == 1 && segments.get(segments.size() - 1).equals("metadata");
+    }
+
+    /**
+     * Whether the path is a {@code BulkDataURI} handed out in the metadata of an instance.
+     */
+    private static boolean bulkData(List<String> segments) {
+        return segments.size() == 8 && segments.get(6).equals("bulkdata");
+    }
+
+    private void retrieve(HttpExchange exchange, List<String> segments) throws IOException {
+        if (metadata(segments)) {
+            retrieveMetadata(exchange, segments.subList(0, segments.size() - 1));
+            return;
+        }
+        if (bulkData(segments)) {
+            retrieveBulkData(exchange, segments);
+            return;
+        }
+        var instances = corpus.instances().stream().filter(resource(segments)).toList();
+        if (instances.isEmpty()) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        var length = instances.stream().mapToLong(SyntheticCorpus.Instance::size).sum();
+        send(exchange, "multipart/related; type=\"application/dicom\"; boundary=" + boundary, SyntheticCorpus.multipart(instances, boundary), length);
+    }
+
+    /**
+     * Streams the metadata of the instances of a resource, one dataset at a time.
+     */
+    private void retrieveMetadata(HttpExchange exchange, List<String> segments) throws IOException {
+        var instances = corpus.instances().stream().filter(resource(segments)).toList();
+        if (instances.isEmpty()) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/dicom+json");
+        exchange.sendResponseHeaders(200, 0);
+        var throttle = new Throttle(bytesPerSecond);
+        try (var body = exchange.getResponseBody()) {
+            for (var i = 0; i < instances.size(); i++) {
+                var instance = instances.get(i);
+                var json = new StringBuilder(i == 0 ? "[{" : ",{");
+                attribute(json, SOP_INSTANCE_UID, "UI", instance.sopInstanceUid()).append(',');
+                attribute(json, STUDY_DATE, "DA", instance.studyDate()).append(',');
+                attribute(json, STUDY_INSTANCE_UID, "UI", instance.studyInstanceUid()).append(',');
+                attribute(json, SERIES_INSTANCE_UID, "UI", instance.seriesInstanceUid()).append(',');
+                json.append('"').append(PIXEL_DATA).append("\":{\"vr\":\"OB\",\"BulkDataURI\":\"")
+                        .append(studyUrl(instance.studyInstanceUid())).append("/series/").append(instance.seriesInstanceUid())
+                        .append("/instances/").append(instance.sopInstanceUid()).append("/bulkdata/").append(PIXEL_DATA).append("\"}}");
+                var bytes = json.append(i == instances.size() - 1 ? "]" : "").toString().getBytes(StandardCharsets.UTF_8);
+                throttle.acquire(bytes.length);
+                body.write(bytes);
+            }
+        }
+    }
+
+    private void retrieveBulkData(HttpExchange exchange, List<String> segments) throws IOException {
+        var instance = corpus.instance(segments.get(5));
+        if (instance == null || !resource(segments).test(instance) || !segments.get(7).equals(PIXEL_DATA)) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        send(exchange, "multipart/related; type=\"application/octet-stream\"; boundary=" + boundary,
+                SyntheticCorpus.multipartPixelData(instance, boundary), instance.pixelDataLength());
+    }
+
+    /**
+     * Streams a response body at the configured bandwidth, resetting the connection halfway through the given length if
+     * a reset is injected.
+     */
+    private void send(HttpExchange exchange, String contentType, InputStream responseBody, long length) throws IOException {
+        var resetAfter = inject(connectionResetRate) ? length / 2 : Long.MAX_VALUE;
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, 0);
+        var throttle = new Throttle(bytesPerSecond);
+        var buffer = new byte[BUFFER_SIZE];
+        long written = 0;
+        try (var content = responseBody; var body = exchange.getResponseBody()) {
+            int read;
+            while ((read = content.read(buffer)) >= 0) {
+                if (written + read > resetAfter) {
+                    body.flush();
+                    throw new IOException("Injected connection reset");
+                }
+                throttle.acquire(read);
+                body.write(buffer, 0, read);
+                written += read;
+            }
+        }
+    }
+
+    private void search(HttpExchange exchange, List<String> segments) throws IOException {
+        var parameters = queryParameters(exchange.getRequestURI().getRawQuery());
+        var level = segments.get(segments.size() - 1);
+        Function<SyntheticCorpus.Instance, String> identity = switch (level) {
+            case "studies" -> SyntheticCorpus.Instance::studyInstanceUid;
+            case "series" -> SyntheticCorpus.Instance::seriesInstanceUid;
+            case "instances" -> SyntheticCorpus.Instance::sopInstanceUid;
+            default -> null;
+        };
+        if (identity == null) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        var offset = Integer.parseInt(parameters.getOrDefault("offset", "0"));
+        var limit = Integer.parseInt(parameters.getOrDefault("limit", String.valueOf(Integer.MAX_VALUE)));
+        var matches = corpus.instances().stream()
+                .filter(resource(segments))
+                .filter(matching(parameters))
+                .collect(Collectors.toMap(identity, instance -> instance, (first, second) -> first, LinkedHashMap::new))
+                .values().stream()
+                .skip(offset)
+                .limit(limit)
+                .toList();
+
+        var json = new StringBuilder("[");
+        for (var instance : matches) {
+            json.append(json.length() > 1 ? "," : "").append('{');
+            attribute(json, STUDY_INSTANCE_UID, "UI", instance.studyInstanceUid()).append(',');
+            attribute(json, STUDY_DATE, "DA", instance.studyDate());
+            if (!level.equals("studies")) {
+                attribute(json.append(','), SERIES_INSTANCE_UID, "UI", instance.seriesInstanceUid());
+            }
+            if (level.equals("instances")) {
+                attribute(json.append(','), SOP_INSTANCE_UID, "UI", instance.sopInstanceUid());
+            }
+            json.append('}');
+        }
+        var body = json.append(']').toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/dicom+json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (var out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private void store(HttpExchange exchange) throws IOException {
+        var contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        var requestBoundary = contentType != null ? boundaryOf(contentType) : null;
+        if (requestBoundary == null) {
+            exchange.sendResponseHeaders(415, -1);
+            return;
+        }
+        var reset = inject(connectionResetRate);
+        var referenced = new ArrayList<String>();
+        var failed = new ArrayList<String>();
+        try (var reader = new MultipartRelatedReader(new ThrottledInputStream(exchange.getRequestBody(), new Throttle(bytesPerSecond)), requestBoundary)) {
+            MultipartRelatedReader.Part part;
+            while ((part = reader.nextPart()) != null) {
+                if (reset) {
+                    throw new IOException("Injected connection reset");
+                }
+                var content = new BufferedInputStream(part.body());
+                var meta = DicomFileMeta.peek(content);
+                var size = content.transferTo(OutputStream.nullOutputStream());
+                var sopInstanceUid = meta != null ? meta.mediaStorageSopInstanceUid() : null;
+                if (sopInstanceUid == null) {
+                    continue;
+                }
+                if (inject(partialFailureRate)) {
+                    failed.add(sopInstanceUid);
+                } else {
+                    corpus.add(SyntheticCorpus.Instance.of(sopInstanceUid, SyntheticCorpus.today(), size));
+                    referenced.add(sopInstanceUid);
+                }
+            }
+        }
+        instancesStored.addAndGet(referenced.size());
+
+        var json = new StringBuilder("{");
+        sequence(json, DicomTags.REFERENCED_SOP_SEQUENCE, referenced, null);
+        if (!failed.isEmpty()) {
+            sequence(json.append(','), DicomTags.FAILED_SOP_SEQUENCE, failed, OUT_OF_RESOURCES);
+        }
+        var body = json.append('}').toString().getBytes(StandardCharsets.UTF_8);
+        var status = failed.isEmpty() ? 200 : referenced.isEmpty() ? 409 : 202;
+        exchange.getResponseHeaders().set("Content-Type", "application/dicom+json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (var out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Selects the instances of the study, series or instance addressed by the path.
+     */
+    private static Predicate<SyntheticCorpus.Instance> resource(List<String> segments) {
+        var study = segments.size() > 1 && segments.get(0).equals("studies") ? segments.get(1) : null;
+        var series = segments.size() > 3 && segments.get(2).equals("series") ? segments.get(3) : null;
+        var instance = segments.size() > 5 && segments.get(4).equals("instances") ? segments.get(5) : null;
+        return candidate -> (study == null || study.equals(candidate.studyInstanceUid())) &&
+                (series == null || series.equals(candidate.seriesInstanceUid())) &&
+                (instance == null || instance.equals(candidate.sopInstanceUid()));
+    }
+
+    /**
+     * Matches the UID and Study Date keys of a search, given by tag or keyword. Other keys are ignored, as a server
+     * does for attributes it does not support matching on.
+     */
+    private static Predicate<SyntheticCorpus.Instance> matching(Map<String, String> parameters) {
+        Predicate<SyntheticCorpus.Instance> predicate = instance -> true;
+        for (var entry : parameters.entrySet()) {
+            var value = entry.getValue();
+            predicate = predicate.and(switch (KEYWORDS.getOrDefault(entry.getKey(), entry.getKey())) {
+                case STUDY_INSTANCE_UID -> instance -> instance.studyInstanceUid().equals(value);
+                case SERIES_INSTANCE_UID -> instance -> instance.seriesInstanceUid().equals(value);
+                case SOP_INSTANCE_UID -> instance -> instance.sopInstanceUid().equals(value);
+                case STUDY_DATE -> instance -> inDateRange(instance.studyDate(), value);
+                default -> instance -> true;
+            });
+        }
+        return predicate;
+    }
+
+    private static boolean inDateRange(String date, String range) {
+        var separator = range.indexOf('-');
+        if (separator < 0) {
+            return date.equals(range);
+        }
+        var from = range.substring(0, separator);
+        var to = range.substring(separator + 1);
+        return (from.isEmpty() || date.compareTo(from) >= 0) && (to.isEmpty() || date.compareTo(to) <= 0);
+    }
+
+    private static Map<String, String> queryParameters(@Nullable String query) {
+        var parameters = new LinkedHashMap<String, String>();
+        if (query == null || query.isEmpty()) {
+            return parameters;
+        }
+        for (var pair : query.split("&")) {
+            var separator = pair.indexOf('=');
+            var name = URLDecoder.decode(separator < 0 ? pair : pair.substring(0, separator), StandardCharsets.UTF_8);
+            var value = separator < 0 ? "" : URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8);
+            if (!name.equals("includefield")) {
+                parameters.put(name, value);
+            }
+        }
+        return parameters;
+    }
+
+    private static @Nullable String boundaryOf(String contentType) {
+        for (var parameter : contentType.split(";")) {
+            var trimmed = parameter.trim();
+            if (trimmed.regionMatches(true, 0, "boundary=", 0, 9)) {
+                return trimmed.substring(9).replace("\"", "");
+            }
+        }
+        return null;
+    }
+
+    private static StringBuilder attribute(StringBuilder json, String tag, String vr, String value) {
+        return json.append('"').append(tag).append("\":{\"vr\":\"").append(vr).append("\",\"Value\":[\"").append(value).append("\"]}");
+    }
+
+    private static void sequence(StringBuilder json, String tag, List<String> sopInstanceUids, @Nullable Integer failureReason) {
+        json.append('"').append(tag).append("\":{\"vr\":\"SQ\",\"Value\":[");
+        for (var i = 0; i < sopInstanceUids.size(); i++) {
+            attribute(json.append(i > 0 ? ",{" : "{"), DicomTags.REFERENCED_SOP_INSTANCE_UID, "UI", sopInstanceUids.get(i));
+            if (failureReason != null) {
+                json.append(",\"").append(DicomTags.FAILURE_REASON).append("\":{\"vr\":\"US\",\"Value\":[").append(failureReason).append("]}");
+            }
+            json.append('}');
+        }
+        json.append("]}");
+    }
+
+    private boolean inject(double rate) {
+        var injected = rate > 0 && random.nextDouble() < rate;
+        if (injected) {
+            faultsInjected.incrementAndGet();
+        }
+        return injected;
+    }
+
+    private static void sleep(Duration duration) throws InterruptedIOException {
+        if (duration.isZero() || duration.isNegative()) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(duration.toNanos());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while delaying the response");
+        }
+    }
+
+    /**
+     * Paces a body to a number of bytes per second, measured from its start.
+     */
+    private static final class Throttle {
+        private final long bytesPerSecond;
+        private final long start = System.nanoTime();
+        private long bytes;
+
+        Throttle(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        void acquire(int count) throws InterruptedIOException {
+            if (bytesPerSecond <= 0) {
+                return;
+            }
+            bytes += count;
+            var due = start + (long) (bytes * 1e9 / bytesPerSecond);
+            sleep(Duration.ofNanos(due - System.nanoTime()));
+        }
+    }
+
+    private static final class ThrottledInputStream extends FilterInputStream {
+        private final Throttle throttle;
+
+        ThrottledInputStream(InputStream in, Throttle throttle) {
+            super(in);
+            this.throttle = throttle;
+        }
+
+        @Override
+        public int read() throws IOException {
+            var value = super.read();
+            if (value >= 0) {
+                throttle.acquire(1);
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            var read = super.read(b, off, len);
+            if (read > 0) {
+                throttle.acquire(read);
+            }
+            return read;
+        }
+    }
+}
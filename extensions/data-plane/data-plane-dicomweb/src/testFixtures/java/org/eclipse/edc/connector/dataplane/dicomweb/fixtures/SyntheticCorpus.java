@@ -0,0 +1,390 @@
+/*
+ *  Copyright (c) 2024 Marcel Fernandez Rosas
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       Marcel Fernandez Rosas - initial implementation
+ *
+ */
+
+package org.eclipse.edc.connector.dataplane.dicomweb.fixtures;
+
+import org.eclipse.edc.connector.dataplane.dicomweb.dicom.TransferSyntaxes;
+import org.eclipse.edc.connector.dataplane.spi.pipeline.DataSource;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * A corpus of synthetic DICOM Part 10 instances whose content is generated while it is read, so that even studies of
+ * several gigabytes take no memory.
+ * <p>
+ * Every instance starts with a valid file meta group carrying its SOP Instance UID, followed by a Pixel Data element
+ * filled with pseudo-random bytes. The content only depends on the UID and the size, so an instance can be produced
+ * again from these two alone. UIDs are hierarchical: the UID of a series extends the UID of its study, and the UID of
+ * an instance extends the UID of its series. The corpus is safe for concurrent use and can grow while it is served.
+ */
+public final class SyntheticCorpus {
+    public static final String UID_ROOT = "1.2.826.0.1.3680043.8.498";
+
+    private static final long KB = 1024;
+    private static final long GB = 1024 * 1024 * KB;
+    private static final String SOP_CLASS_UID = "1.2.840.10008.5.1.4.1.1.2";
+    private static final byte[] FILLER = new byte[64 * 1024];
+    private static final AtomicInteger STUDY_COUNTER = new AtomicInteger();
+
+    static {
+        new Random(42).nextBytes(FILLER);
+    }
+
+    private final List<Instance> instances = new ArrayList<>();
+    private final Map<String, Instance> instancesBySopInstanceUid = new HashMap<>();
+
+    /**
+     * The payload shapes the client has to handle well: many small instances as produced by CT and MR, a few huge
+     * instances as produced by whole slide imaging, and a mix of both.
+     */
+    public enum Profile {
+        SMALL(sizes(1000, 500 * KB)),
+        HUGE(sizes(4, GB)),
+        MIXED(mixed(500, 500 * KB, 250, GB));
+
+        private final long[] instanceSizes;
+
+        Profile(long[] instanceSizes) {
+            this.instanceSizes = instanceSizes;
+        }
+
+        public long[] instanceSizes() {
+            return instanceSizes.clone();
+        }
+
+        private static long[] sizes(int count, long size) {
+            return IntStream.range(0, count).mapToLong(i -> size).toArray();
+        }
+
+        /**
+         * Small instances with a huge one after every {@code interval} of them.
+         */
+        private static long[] mixed(int smallCount, long smallSize, int interval, long hugeSize) {
+            var sizes = new ArrayList<Long>();
+            for (var i = 1; i <= smallCount; i++) {
+                sizes.add(smallSize);
+                if (i % interval == 0) {
+                    sizes.add(hugeSize);
+                }
+            }
+            return sizes.stream().mapToLong(Long::longValue).toArray();
+        }
+    }
+
+    /**
+     * Creates a corpus of studies of one series each, whose instances have the sizes of the profile.
+     */
+    public static SyntheticCorpus of(Profile profile, int studies) {
+        var corpus = new SyntheticCorpus();
+        for (var i = 0; i < studies; i++) {
+            corpus.addStudy(today(), 1, profile.instanceSizes);
+        }
+        return corpus;
+    }
+
+    /**
+     * Adds a study whose instances are spread over the given number of series.
+     *
+     * @return the Study Instance UID of the new study.
+     */
+    public String addStudy(String studyDate, int seriesCount, long... instanceSizes) {
+        var studyInstanceUid = UID_ROOT + "." + STUDY_COUNTER.incrementAndGet();
+        for (var i = 0; i < instanceSizes.length; i++) {
+            var seriesInstanceUid = studyInstanceUid + "." + (i % seriesCount + 1);
+            add(new Instance(studyInstanceUid, seriesInstanceUid, seriesInstanceUid + "." + (i / seriesCount + 1), studyDate, instanceSizes[i]));
+        }
+        return studyInstanceUid;
+    }
+
+    /**
+     * Adds an instance, replacing an instance with the same SOP Instance UID.
+     */
+    public synchronized void add(Instance instance) {
+        var previous = instancesBySopInstanceUid.put(instance.sopInstanceUid(), instance);
+        if (previous != null) {
+            instances.set(instances.indexOf(previous), instance);
+        } else {
+            instances.add(instance);
+        }
+    }
+
+    /**
+     * Returns all instances in the order they were added.
+     */
+    public synchronized List<Instance> instances() {
+        return List.copyOf(instances);
+    }
+
+    public List<Instance> instances(String studyInstanceUid) {
+        return instances().stream().filter(instance -> instance.studyInstanceUid().equals(studyInstanceUid)).toList();
+    }
+
+    public synchronized @Nullable Instance instance(String sopInstanceUid) {
+        return instancesBySopInstanceUid.get(sopInstanceUid);
+    }
+
+    public List<String> studyInstanceUids() {
+        var studies = new LinkedHashSet<String>();
+        instances().forEach(instance -> studies.add(instance.studyInstanceUid()));
+        return List.copyOf(studies);
+    }
+
+    public long totalBytes(String studyInstanceUid) {
+        return instances(studyInstanceUid).stream().mapToLong(Instance::size).sum();
+    }
+
+    /**
+     * Returns the instances of a study as parts of known size that can be opened once each, as a source hands them to
+     * a sink.
+     */
+    public List<DataSource.Part> parts(String studyInstanceUid) {
+        return instances(studyInstanceUid).stream().<DataSource.Part>map(InstancePart::new).toList();
+    }
+
+    /**
+     * Opens instances as a {@code multipart/related} WADO-RS response body.
+     */
+    public static InputStream multipart(List<Instance> instances, String boundary) {
+        var delimiter = "--" + boundary + "\r\nContent-Type: application/dicom; transfer-syntax=" + TransferSyntaxes.EXPLICIT_VR_LITTLE_ENDIAN + "\r\n";
+        var crlf = "\r\n".getBytes(StandardCharsets.US_ASCII);
+        var closeDelimiter = ("--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        return new SequenceInputStream(new Enumeration<>() {
+            // every instance contributes its delimiter, its content and the line break ending it
+            private int segment;
+
+            @Override
+            public boolean hasMoreElements() {
+                return segment <= instances.size() * 3;
+            }
+
+            @Override
+            public InputStream nextElement() {
+                var index = segment / 3;
+                var kind = segment % 3;
+                segment++;
+                if (index == instances.size()) {
+                    return new ByteArrayInputStream(closeDelimiter);
+                }
+                return switch (kind) {
+                    case 0 -> new ByteArrayInputStream((delimiter + "Content-Length: " + instances.get(index).length() + "\r\n\r\n")
+                            .getBytes(StandardCharsets.US_ASCII));
+                    case 1 -> instances.get(index).openStream();
+                    default -> new ByteArrayInputStream(crlf);
+                };
+            }
+        });
+    }
+
+    /**
+     * Opens the Pixel Data of an instance as a {@code multipart/related} WADO-RS bulk data response body.
+     */
+    public static InputStream multipartPixelData(Instance instance, String boundary) {
+        var header = "--" + boundary + "\r\nContent-Type: application/octet-stream\r\nContent-Length: " + instance.pixelDataLength() + "\r\n\r\n";
+        var trailer = "\r\n--" + boundary + "--\r\n";
+        return new SequenceInputStream(new SequenceInputStream(new ByteArrayInputStream(header.getBytes(StandardCharsets.US_ASCII)), instance.openPixelData()),
+                new ByteArrayInputStream(trailer.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    public static String today() {
+        return LocalDate.now().format(DateTimeFormatter.BASIC_ISO_DATE);
+    }
+
+    /**
+     * A synthetic instance.
+     *
+     * @param studyDate the Study Date in DICOM DA format.
+     * @param size      the size of the instance in bytes, including the file meta information.
+     */
+    public record Instance(String studyInstanceUid, String seriesInstanceUid, String sopInstanceUid, String studyDate, long size) {
+
+        /**
+         * Reconstructs an instance from its SOP Instance UID, deriving series and study from the UID hierarchy.
+         */
+        public static Instance of(String sopInstanceUid, String studyDate, long size) {
+            var seriesInstanceUid = parent(sopInstanceUid);
+            return new Instance(parent(seriesInstanceUid), seriesInstanceUid, sopInstanceUid, studyDate, size);
+        }
+
+        private static String parent(String uid) {
+            var index = uid.lastIndexOf('.');
+            return index > 0 ? uid.substring(0, index) : uid;
+        }
+
+        public InputStream openStream() {
+            return new InstanceStream(header(this), length(), 0);
+        }
+
+        /**
+         * Opens the value of the Pixel Data element of the instance, as a server returns it as bulk data.
+         */
+        public InputStream openPixelData() {
+            var header = header(this);
+            return new InstanceStream(header, length(), header.length);
+        }
+
+        public long pixelDataLength() {
+            return pixelDataLength(header(this).length);
+        }
+
+        /**
+         * Returns the number of bytes of the instance, its size rounded down to an even number unless that is too small
+         * for its header.
+         */
+        public long length() {
+            var header = header(this);
+            return header.length + pixelDataLength(header.length);
+        }
+
+        /**
+         * Returns the length of the Pixel Data value that fills the instance up to its size after a header of the given
+         * length, which DICOM requires to be even.
+         */
+        private long pixelDataLength(int headerLength) {
+            return Math.max(0, size - headerLength) & ~1L;
+        }
+    }
+
+    private record InstancePart(Instance instance) implements DataSource.Part {
+
+        @Override
+        public String name() {
+            return instance.sopInstanceUid() + ".dcm";
+        }
+
+        @Override
+        public long size() {
+            return instance.length();
+        }
+
+        @Override
+        public InputStream openStream() {
+            return instance.openStream();
+        }
+
+        @Override
+        public String mediaType() {
+            return "application/dicom";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Encodes a file meta group and the identifying attributes of the dataset in Explicit VR Little Endian, followed by
+     * the header of the Pixel Data element, whose value makes up the rest of the instance.
+     */
+    private static byte[] header(Instance instance) {
+        var out = new ByteArrayOutputStream(512);
+        out.writeBytes(new byte[128]);
+        out.writeBytes("DICM".getBytes(StandardCharsets.US_ASCII));
+        writeUid(out, 0x0002, 0x0002, SOP_CLASS_UID);
+        writeUid(out, 0x0002, 0x0003, instance.sopInstanceUid());
+        writeUid(out, 0x0002, 0x0010, TransferSyntaxes.EXPLICIT_VR_LITTLE_ENDIAN);
+        writeUid(out, 0x0008, 0x0016, SOP_CLASS_UID);
+        writeUid(out, 0x0008, 0x0018, instance.sopInstanceUid());
+        writeUid(out, 0x0020, 0x000D, instance.studyInstanceUid());
+        writeUid(out, 0x0020, 0x000E, instance.seriesInstanceUid());
+        writeShort(out, 0x7FE0);
+        writeShort(out, 0x0010);
+        out.writeBytes("OB".getBytes(StandardCharsets.US_ASCII));
+        writeShort(out, 0);
+        var pixelDataLength = instance.pixelDataLength(out.size() + 4);
+        writeShort(out, (int) (pixelDataLength & 0xFFFF));
+        writeShort(out, (int) (pixelDataLength >>> 16 & 0xFFFF));
+        return out.toByteArray();
+    }
+
+    private static void writeUid(ByteArrayOutputStream out, int group, int element, String uid) {
+        var value = uid.length() % 2 == 0 ? uid : uid + '\0';
+        writeShort(out, group);
+        writeShort(out, element);
+        out.writeBytes("UI".getBytes(StandardCharsets.US_ASCII));
+        writeShort(out, value.length());
+        out.writeBytes(value.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value & 0xFF);
+        out.write((value >> 8) & 0xFF);
+    }
+
+    /**
+     * The file meta header followed by filler bytes, copied from a shared block without allocating.
+     */
+    private static class InstanceStream extends InputStream {
+        private final byte[] header;
+        private final long size;
+        private long position;
+
+        InstanceStream(byte[] header, long size, long position) {
+            this.header = header;
+            this.size = size;
+            this.position = position;
+        }
+
+        @Override
+        public int read() {
+            if (position >= size) {
+                return -1;
+            }
+            var value = position < header.length ? header[(int) position] : FILLER[(int) (position % FILLER.length)];
+            position++;
+            return value & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (position >= size) {
+                return -1;
+            }
+            int count;
+            if (position < header.length) {
+                count = (int) Math.min(len, header.length - position);
+                System.arraycopy(header, (int) position, b, off, count);
+            } else {
+                var offset = (int) (position % FILLER.length);
+                count = (int) Math.min(Math.min(len, FILLER.length - offset), size - position);
+                System.arraycopy(FILLER, offset, b, off, count);
+            }
+            position += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, size - position);
+        }
+    }
+}